@@ -0,0 +1,36 @@
+package com.demo.lab5.bench;
+
+import org.openjdk.jmh.Main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Entry point of the benchmarks jar. It runs JMH with results written as JSON to {@code jmh-result.json}, so they can
+ * be compared between releases. Every JMH option can still be given on the command line.
+ */
+public class BenchmarkRunner {
+    /**
+     * File with results, used if no other is given with {@code -rff}.
+     */
+    public static final String RESULT_FILE = "jmh-result.json";
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> options = new ArrayList<>(Arrays.asList(args));
+
+        if (!options.contains("-rf")) {
+            options.add("-rf");
+            options.add("json");
+        }
+        if (!options.contains("-rff")) {
+            options.add("-rff");
+            options.add(RESULT_FILE);
+        }
+
+        Main.main(options.toArray(new String[0]));
+    }
+}
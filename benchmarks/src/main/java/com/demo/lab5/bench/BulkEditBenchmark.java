@@ -0,0 +1,76 @@
+package com.demo.lab5.bench;
+
+import com.demo.lab5.ShapeSpatialIndex;
+import com.demo.lab5.model.ShapeHistory;
+import com.demo.lab5.model.ShapeStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bulk edits of selected shapes recorded by {@link ShapeHistory}, with the spatial index following the store.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BulkEditBenchmark {
+    /**
+     * Number of shapes of the drawing.
+     */
+    private static final int SHAPES = 100_000;
+
+    @Param({"16", "1024", "16384"})
+    private int selected;
+
+    private ShapeHistory history;
+    private int[] ids;
+    private double direction = 1;
+
+    @Setup
+    public void setUp() {
+        ShapeStore drawing = Drawings.mixed(SHAPES);
+        new ShapeSpatialIndex(drawing);
+        history = new ShapeHistory(drawing);
+
+        ids = new int[selected];
+        for (int i = 0; i < selected; i++) {
+            ids[i] = i * (SHAPES / selected);
+        }
+    }
+
+    @Benchmark
+    public void moveAll() {
+        // sealed, so every edit records its own command
+        history.seal();
+        direction = -direction;
+        history.moveAll(ids, direction, direction);
+    }
+
+    @Benchmark
+    public void rotateAll() {
+        history.seal();
+        direction = -direction;
+        history.rotateAll(ids, direction > 0 ? 45 : 0);
+    }
+
+    @Benchmark
+    public void undoRedo() {
+        history.seal();
+        history.moveAll(ids, 1, 1);
+        history.undo();
+        history.redo();
+    }
+}
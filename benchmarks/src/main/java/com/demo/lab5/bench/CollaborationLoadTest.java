@@ -0,0 +1,299 @@
+package com.demo.lab5.bench;
+
+import com.demo.lab5.CollaborationClient;
+import com.demo.lab5.CollaborationServer;
+import com.demo.lab5.ShapesBinaryEncoder;
+import com.demo.lab5.model.ShapeStore;
+import com.demo.lab5.model.ShapeType;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Load test of collaborative editing. Simulated clients connect to a {@link CollaborationServer} on the loopback
+ * interface and edit the shared drawing at a fixed rate, each on its own thread, with the same frame-based batching as
+ * the application. It prints throughput of the server and time from sending a batch until the client received the
+ * update which applied it. At the end the drawings of all clients are compared with the drawing of the server.
+ * <p>
+ * It is not a JMH benchmark, because the measured system runs many threads which JMH can't drive. Usage:
+ * {@code java -Xmx4g -cp benchmarks.jar com.demo.lab5.bench.CollaborationLoadTest [clients] [ops per second] [shapes] [seconds]}
+ */
+public class CollaborationLoadTest {
+    private static final long FRAME_MILLIS = 16;
+    private static final int POLYGON_POINTS = 256;
+
+    private CollaborationLoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int opsPerSecond = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int shapes = args.length > 2 ? Integer.parseInt(args[2]) : 100_000;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+
+        try (CollaborationServer server = new CollaborationServer(Drawings.mixed(shapes), 0)) {
+            List<SimulatedClient> simulated = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                SimulatedClient client = new SimulatedClient(i, opsPerSecond * FRAME_MILLIS / 1000.0);
+                client.connect(server.getPort());
+                simulated.add(client);
+            }
+            for (SimulatedClient client : simulated) {
+                client.awaitJoined();
+            }
+            System.out.printf("%d clients joined a drawing with %d shapes%n", clients, shapes);
+
+            long appliedBefore = server.getAppliedOps();
+            long start = System.nanoTime();
+            for (SimulatedClient client : simulated) {
+                client.startEditing();
+            }
+
+            TimeUnit.SECONDS.sleep(seconds);
+            for (SimulatedClient client : simulated) {
+                client.stopEditing();
+            }
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            long applied = server.getAppliedOps() - appliedBefore;
+
+            long issued = 0;
+            long[] roundTrips = new long[0];
+            for (SimulatedClient client : simulated) {
+                issued += client.issued;
+                roundTrips = client.appendRoundTrips(roundTrips);
+            }
+            Arrays.sort(roundTrips);
+
+            System.out.printf("issued %d ops (%.0f ops/s), server applied %d ops (%.0f ops/s), dropped %d%n",
+                    issued, issued / elapsed, applied, applied / elapsed, server.getDroppedOps());
+            System.out.printf("%d batches, round trip p50 %.1f ms, p99 %.1f ms, max %.1f ms%n", roundTrips.length,
+                    percentile(roundTrips, 0.5), percentile(roundTrips, 0.99), percentile(roundTrips, 1));
+
+            boolean converged = awaitConvergence(server, simulated);
+            System.out.println(converged ? "all clients converged" : "CLIENTS DIVERGED");
+
+            for (SimulatedClient client : simulated) {
+                client.close();
+            }
+            System.exit(converged ? 0 : 1);
+        }
+    }
+
+    private static double percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(fraction * sorted.length) - 1);
+        return sorted[Math.max(index, 0)] / 1e6;
+    }
+
+    /**
+     * Waits until all clients sent their changes and received all updates, then compares their drawings with the
+     * drawing of the server.
+     */
+    private static boolean awaitConvergence(CollaborationServer server, List<SimulatedClient> clients) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        long[] serverChecksum = new long[1];
+
+        while (System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(500);
+
+            boolean synchronizedAll = true;
+            for (SimulatedClient client : clients) {
+                synchronizedAll &= client.isSynchronized();
+            }
+            if (!synchronizedAll) {
+                continue;
+            }
+
+            // updates of the last batches may still be on their way to other clients
+            TimeUnit.MILLISECONDS.sleep(500);
+            server.inspect(document -> serverChecksum[0] = checksum(document));
+
+            int diverged = 0;
+            for (SimulatedClient client : clients) {
+                if (client.checksum() != serverChecksum[0]) {
+                    diverged++;
+                }
+            }
+            if (diverged > 0) {
+                System.out.printf("%d of %d clients differ from the server%n", diverged, clients.size());
+            }
+            return diverged == 0;
+        }
+
+        System.out.println("clients didn't synchronize in time");
+        return false;
+    }
+
+    private static long checksum(ShapeStore store) {
+        CRC32 crc = new CRC32();
+
+        try {
+            ShapesBinaryEncoder.write(store, Channels.newChannel(new CheckedOutputStream(OutputStream.nullOutputStream(), crc)), id -> {
+            });
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        return crc.getValue();
+    }
+
+    /**
+     * Client editing random shapes on its own thread, which plays the role of the JavaFX Application Thread.
+     */
+    private static class SimulatedClient implements CollaborationClient.Listener {
+        private final ScheduledExecutorService thread;
+        private final ShapeStore store = new ShapeStore();
+        private final CollaborationClient client;
+        private final SplittableRandom random;
+        /**
+         * Operations made in a single frame, fractional part is carried over to the next frame
+         */
+        private final double opsPerFrame;
+        private double opsDue;
+        private volatile boolean joined;
+        private volatile boolean disconnected;
+
+        // written on the client thread, read after editing stopped
+        private volatile long issued;
+        private long[] roundTrips = new long[1024];
+        private int roundTripCount;
+
+        SimulatedClient(int index, double opsPerFrame) {
+            this.thread = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "simulated-client-" + index);
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.client = new CollaborationClient(store, thread, this);
+            this.random = new SplittableRandom(index);
+            this.opsPerFrame = opsPerFrame;
+        }
+
+        void connect(int port) throws IOException {
+            client.connect("localhost", port);
+        }
+
+        void awaitJoined() throws InterruptedException {
+            while (!joined) {
+                if (disconnected) {
+                    throw new IllegalStateException("Client disconnected before it joined");
+                }
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+        }
+
+        void startEditing() {
+            // clients don't start in the same frame, as real users
+            long delay = random.nextLong(FRAME_MILLIS);
+            thread.scheduleAtFixedRate(this::frame, delay, FRAME_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        void stopEditing() throws ExecutionException, InterruptedException {
+            thread.submit(() -> opsDue = Double.NEGATIVE_INFINITY).get();
+        }
+
+        boolean isSynchronized() throws ExecutionException, InterruptedException {
+            return thread.submit(client::isSynchronized).get();
+        }
+
+        long checksum() throws ExecutionException, InterruptedException {
+            return thread.submit(() -> CollaborationLoadTest.checksum(store)).get();
+        }
+
+        long[] appendRoundTrips(long[] target) throws ExecutionException, InterruptedException {
+            return thread.submit(() -> {
+                long[] result = Arrays.copyOf(target, target.length + roundTripCount);
+                System.arraycopy(roundTrips, 0, result, target.length, roundTripCount);
+                return result;
+            }).get();
+        }
+
+        void close() {
+            thread.execute(client::close);
+            thread.shutdown();
+        }
+
+        /**
+         * Makes edits of a single frame and sends them, as the application does once per pulse.
+         */
+        private void frame() {
+            opsDue += opsPerFrame;
+            while (opsDue >= 1) {
+                opsDue--;
+                edit();
+                issued++;
+            }
+            client.flush();
+        }
+
+        private void edit() {
+            int size = store.size();
+            int operation = random.nextInt(100);
+
+            if (operation < 1 || size == 0) {
+                store.addRectangle(random.nextDouble(Drawings.AREA_SIZE), random.nextDouble(Drawings.AREA_SIZE),
+                        random.nextDouble(1, 64), random.nextDouble(1, 64), 0, random.nextInt(), ShapeStore.DEFAULT_STROKE);
+                return;
+            }
+            if (operation < 2) {
+                // large enough that rebasing local shapes on remote ones compacts the point pool
+                double[] points = Drawings.polygonPoints(random, POLYGON_POINTS, 32);
+                store.addPolygon(random.nextDouble(Drawings.AREA_SIZE), random.nextDouble(Drawings.AREA_SIZE), points, 0,
+                        points.length, 0, random.nextInt(), ShapeStore.DEFAULT_STROKE);
+                return;
+            }
+
+            int id = random.nextInt(size);
+            if (operation < 3) {
+                store.truncate(size - 1);
+            } else if (operation < 8 && store.getType(id) == ShapeType.POLYGON) {
+                store.addPoint(id, store.getX(id) + random.nextDouble(-32, 32), store.getY(id) + random.nextDouble(-32, 32));
+            } else if (operation < 60) {
+                store.setPosition(id, store.getX(id) + random.nextDouble(-4, 4), store.getY(id) + random.nextDouble(-4, 4));
+            } else if (operation < 75) {
+                store.scale(id, random.nextDouble(0.9, 1.1));
+            } else if (operation < 90) {
+                store.setFill(id, random.nextInt() | 0xFF000000);
+            } else {
+                store.setRotation(id, random.nextDouble(360));
+            }
+        }
+
+        @Override
+        public void structureChanged() {
+            joined = true;
+        }
+
+        @Override
+        public void changesPending() {
+            // changes are sent in the next frame
+        }
+
+        @Override
+        public void disconnected(IOException cause) {
+            disconnected = true;
+            System.err.println("Client disconnected: " + cause.getMessage());
+        }
+
+        @Override
+        public void batchApplied(int ops, long roundTrip) {
+            if (roundTripCount == roundTrips.length) {
+                roundTrips = Arrays.copyOf(roundTrips, 2 * roundTripCount);
+            }
+            roundTrips[roundTripCount++] = roundTrip;
+        }
+    }
+}
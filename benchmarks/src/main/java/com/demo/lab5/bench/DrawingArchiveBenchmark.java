@@ -0,0 +1,110 @@
+package com.demo.lab5.bench;
+
+import com.demo.lab5.DrawingArchive;
+import com.demo.lab5.model.ShapeStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saving a drawing archive after a single edit by rewriting only the changed chunk, compared with writing the whole
+ * archive, and reading a part of the archive. Update includes syncing the file, which is the same for every size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class DrawingArchiveBenchmark {
+    @Param({"100000", "1000000"})
+    private int shapes;
+
+    private ShapeStore drawing;
+    private DrawingArchive archive;
+    private DrawingArchive.ChangeTracker changes;
+    private Path file;
+    private Path rewrittenFile;
+    private int edited;
+
+    @Setup
+    public void setUp() throws IOException {
+        drawing = Drawings.mixed(shapes);
+        file = Files.createTempFile("bench-archive", ".jfxa");
+        rewrittenFile = Files.createTempFile("bench-archive-rewrite", ".jfxa");
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            archive = DrawingArchive.write(drawing, channel, id -> {
+            });
+        }
+
+        changes = new DrawingArchive.ChangeTracker();
+        drawing.addListener(changes);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(rewrittenFile);
+    }
+
+    @Benchmark
+    public DrawingArchive saveAfterEdit() throws IOException {
+        // garbage of replaced chunks would make the archive rewrite itself, which is measured by rewrite
+        if (archive.needsRewrite()) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                archive = DrawingArchive.write(drawing, channel, id -> {
+                });
+            }
+            changes.reset();
+        }
+
+        edited = (edited + 7919) % shapes;
+        drawing.setRotation(edited, drawing.getRotation(edited) + 1);
+
+        DrawingArchive.Update update = archive.prepareUpdate(drawing, changes.getChangedIds());
+        changes.reset();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            archive.update(channel, update, count -> {
+            });
+        }
+
+        return archive;
+    }
+
+    @Benchmark
+    public DrawingArchive rewrite() throws IOException {
+        try (FileChannel channel = FileChannel.open(rewrittenFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            return DrawingArchive.write(drawing, channel, id -> {
+            });
+        }
+    }
+
+    /**
+     * Reading a tenth of the drawing area, as a viewport would.
+     */
+    @Benchmark
+    public int[] readRegion() throws IOException {
+        double size = Drawings.AREA_SIZE / 10;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return DrawingArchive.read(channel, 0, 0, size, size, new ShapeStore());
+        }
+    }
+}
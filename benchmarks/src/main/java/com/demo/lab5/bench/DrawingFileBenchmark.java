@@ -0,0 +1,102 @@
+package com.demo.lab5.bench;
+
+import com.demo.lab5.DrawingFormat;
+import com.demo.lab5.LoadPhases;
+import com.demo.lab5.model.ShapeStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time of saving and loading whole drawings in every format.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class DrawingFileBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    private int shapes;
+
+    @Param({"XML", "BINARY", "ARCHIVE", "SVG"})
+    private DrawingFormat format;
+
+    private ShapeStore drawing;
+    private Path savedFile;
+    private Path loadedFile;
+
+    @Setup
+    public void setUp() throws IOException, XMLStreamException {
+        drawing = Drawings.mixed(shapes);
+        savedFile = Files.createTempFile("bench-save", "." + format.getExtension());
+        loadedFile = Files.createTempFile("bench-load", "." + format.getExtension());
+
+        try (FileChannel channel = FileChannel.open(loadedFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            format.write(drawing, channel, id -> {
+            });
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(savedFile);
+        Files.deleteIfExists(loadedFile);
+    }
+
+    @Benchmark
+    public long save() throws IOException, XMLStreamException {
+        try (FileChannel channel = FileChannel.open(savedFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            format.write(drawing, channel, id -> {
+            });
+            return channel.size();
+        }
+    }
+
+    @Benchmark
+    public ShapeStore load() throws IOException, XMLStreamException {
+        ShapeStore loaded = new ShapeStore();
+
+        try (FileChannel channel = FileChannel.open(loadedFile, StandardOpenOption.READ)) {
+            format.read(channel, loaded, id -> {
+            });
+        }
+
+        return loaded;
+    }
+
+    /**
+     * Loading with decoding on the common fork-join pool, as the open button does. Scaling is compared by running it
+     * with {@code -jvmArgsAppend -Djava.util.concurrent.ForkJoinPool.common.parallelism=N}.
+     */
+    @Benchmark
+    public ShapeStore loadParallel() throws IOException, XMLStreamException {
+        ShapeStore loaded = new ShapeStore();
+
+        try (FileChannel channel = FileChannel.open(loadedFile, StandardOpenOption.READ)) {
+            format.read(channel, loaded, id -> {
+            }, ForkJoinPool.commonPool(), new LoadPhases());
+        }
+
+        return loaded;
+    }
+}
@@ -0,0 +1,98 @@
+package com.demo.lab5.bench;
+
+import com.demo.lab5.DrawingPaneStateManager;
+import com.demo.lab5.NodeShapeRenderer;
+import com.demo.lab5.ShapeSpatialIndex;
+import com.demo.lab5.model.ShapeStore;
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import javafx.scene.layout.Pane;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Clearing the drawing, opening it again and selecting shapes with the node renderer attached, as the clear and open
+ * buttons do. Every operation waits for the pulse which updates the attached views, so its time is bound by the pulse
+ * rate. Run it with {@code -prof gc} to compare allocation per operation and GC time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Dglass.platform=Monocle", "-Dmonocle.platform=Headless", "-Dprism.order=sw", "-Djava.awt.headless=true"})
+@State(Scope.Benchmark)
+public class DrawingReloadBenchmark {
+    /**
+     * Number of shapes selected one by one after every reload.
+     */
+    private static final int SELECTED = 64;
+
+    @Param({"20000"})
+    private int shapes;
+
+    private ShapeStore drawing;
+    private DrawingPaneStateManager stateManager;
+    private ShapeSpatialIndex spatialIndex;
+
+    @Setup
+    public void setUp() throws Exception {
+        HeadlessPlatform.start();
+        drawing = Drawings.mixed(shapes);
+
+        onFxThread(() -> {
+            stateManager = new DrawingPaneStateManager();
+            spatialIndex = new ShapeSpatialIndex(stateManager.getStore());
+            stateManager.getViewport().setSize(1600, 1000);
+            new NodeShapeRenderer(spatialIndex, stateManager).attach(new Pane());
+        });
+    }
+
+    @Benchmark
+    public void reload() throws Exception {
+        onFxThread(() -> {
+            stateManager.clearShapes();
+            stateManager.getHistory().addAll(drawing);
+            stateManager.getHistory().seal();
+        });
+
+        int[] visible = spatialIndex.query(0, 0, 1600, 1000);
+        for (int i = 0; i < SELECTED; i++) {
+            int id = visible[i * visible.length / SELECTED];
+            onFxThread(() -> stateManager.setSelectedShape(id));
+        }
+    }
+
+    /**
+     * Runs the action on the JavaFX thread and waits until the pulse after it, so animation timers it started have run.
+     */
+    private static void onFxThread(Runnable action) throws Exception {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Platform.runLater(() -> {
+            action.run();
+
+            // timers run in order they were started, so timers started by the action run before this one
+            new AnimationTimer() {
+                @Override
+                public void handle(long now) {
+                    stop();
+                    done.complete(null);
+                }
+            }.start();
+        });
+
+        done.get();
+    }
+}
@@ -0,0 +1,91 @@
+package com.demo.lab5.bench;
+
+import com.demo.lab5.model.ShapeStore;
+import com.demo.lab5.model.ShapeType;
+
+import java.util.SplittableRandom;
+
+/**
+ * Generates drawings used by benchmarks. Drawings are deterministic, so results of different runs are comparable.
+ */
+public class Drawings {
+    /**
+     * Width and height of the area covered by generated shapes.
+     */
+    public static final double AREA_SIZE = 4096;
+
+    private Drawings() {
+    }
+
+    /**
+     * Generates a drawing with rectangles, circles and small polygons in equal proportions.
+     *
+     * @param shapes number of shapes
+     * @return generated drawing
+     */
+    public static ShapeStore mixed(int shapes) {
+        SplittableRandom random = new SplittableRandom(shapes);
+        ShapeStore store = new ShapeStore(shapes);
+
+        for (int i = 0; i < shapes; i++) {
+            double x = random.nextDouble(AREA_SIZE);
+            double y = random.nextDouble(AREA_SIZE);
+            int fill = random.nextInt() | 0xFF000000;
+
+            switch (i % 3) {
+                case 0 -> store.addRectangle(x, y, random.nextDouble(1, 64), random.nextDouble(1, 64), 0, fill, ShapeStore.DEFAULT_STROKE);
+                case 1 -> store.addCircle(x, y, random.nextDouble(1, 32), 0, fill, ShapeStore.DEFAULT_STROKE);
+                default -> {
+                    double[] points = polygonPoints(random, 8, 32);
+                    store.addPolygon(x, y, points, 0, points.length, random.nextDouble(360), fill, ShapeStore.DEFAULT_STROKE);
+                }
+            }
+        }
+
+        return store;
+    }
+
+    /**
+     * Generates a store with a single polygon.
+     *
+     * @param points number of polygon points
+     * @return store with polygon with id 0
+     */
+    public static ShapeStore polygon(int points) {
+        ShapeStore store = new ShapeStore(1);
+        double[] coordinates = polygonPoints(new SplittableRandom(points), points, AREA_SIZE / 4);
+        store.addPolygon(0, 0, coordinates, 0, coordinates.length, 0, ShapeStore.DEFAULT_FILL, ShapeStore.DEFAULT_STROKE);
+
+        return store;
+    }
+
+    /**
+     * Generates points of a star-shaped polygon around the origin, so it is simple and has no self intersections.
+     */
+    static double[] polygonPoints(SplittableRandom random, int count, double radius) {
+        double[] points = new double[2 * count];
+
+        for (int i = 0; i < count; i++) {
+            double angle = 2 * Math.PI * i / count;
+            double distance = radius * random.nextDouble(0.5, 1);
+            points[2 * i] = radius + distance * Math.cos(angle);
+            points[2 * i + 1] = radius + distance * Math.sin(angle);
+        }
+
+        return points;
+    }
+
+    /**
+     * Returns shape of the generated drawing with given id.
+     *
+     * @param id shape id
+     * @return type of the shape
+     */
+    public static ShapeType typeOf(int id) {
+        return switch (id % 3) {
+            case 0 -> ShapeType.RECTANGLE;
+            case 1 -> ShapeType.CIRCLE;
+            default -> ShapeType.POLYGON;
+        };
+    }
+}
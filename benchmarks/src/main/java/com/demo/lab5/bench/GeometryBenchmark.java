@@ -0,0 +1,97 @@
+package com.demo.lab5.bench;
+
+import com.demo.lab5.Coordinates;
+import com.demo.lab5.ShapeSpatialIndex;
+import com.demo.lab5.model.ShapeGeometry;
+import com.demo.lab5.model.ShapeStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point distance, shape containment and hit-testing through the spatial index.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class GeometryBenchmark {
+    /**
+     * Number of precomputed query points, a power of two.
+     */
+    private static final int POINTS = 1024;
+
+    @Param({"1000", "100000"})
+    private int shapes;
+
+    private ShapeStore drawing;
+    private ShapeSpatialIndex index;
+    private Coordinates[] coordinates;
+    private double[] points;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        drawing = Drawings.mixed(shapes);
+        index = new ShapeSpatialIndex(drawing);
+
+        SplittableRandom random = new SplittableRandom(POINTS);
+        coordinates = new Coordinates[POINTS];
+        points = new double[2 * POINTS];
+        for (int i = 0; i < POINTS; i++) {
+            points[2 * i] = random.nextDouble(Drawings.AREA_SIZE);
+            points[2 * i + 1] = random.nextDouble(Drawings.AREA_SIZE);
+            coordinates[i] = new Coordinates(points[2 * i], points[2 * i + 1]);
+        }
+    }
+
+    private int nextPoint() {
+        next = (next + 1) & (POINTS - 1);
+        return next;
+    }
+
+    @Benchmark
+    public double distanceTo() {
+        int i = nextPoint();
+        return coordinates[i].distanceTo(coordinates[(i + 1) & (POINTS - 1)]);
+    }
+
+    @Benchmark
+    public double distanceToPoint() {
+        int i = nextPoint();
+        return coordinates[i].distanceTo(points[2 * i + 1], points[2 * i]);
+    }
+
+    @Benchmark
+    public boolean polygonContains() {
+        int i = nextPoint();
+        // every third shape is a polygon
+        int polygon = 3 * (i % (shapes / 3)) + 2;
+        return ShapeGeometry.contains(drawing, polygon, drawing.getX(polygon) + 16, drawing.getY(polygon) + 16, ShapeStore.STROKE_WIDTH);
+    }
+
+    @Benchmark
+    public int hitTest() {
+        int i = nextPoint();
+        return index.hitTest(points[2 * i], points[2 * i + 1]);
+    }
+
+    @Benchmark
+    public int[] query() {
+        int i = nextPoint();
+        return index.query(points[2 * i], points[2 * i + 1], points[2 * i] + 256, points[2 * i + 1] + 256);
+    }
+}
@@ -0,0 +1,28 @@
+package com.demo.lab5.bench;
+
+import javafx.application.Platform;
+
+/**
+ * Starts JavaFX without a display. Benchmarks which need the toolkit, for example to create animation timers, fork
+ * JVMs with properties selecting the headless Monocle platform and software rendering.
+ */
+public class HeadlessPlatform {
+    private static boolean started;
+
+    private HeadlessPlatform() {
+    }
+
+    /**
+     * Starts the toolkit if it is not running yet. No stage is shown, nodes are used detached from any scene.
+     */
+    public static synchronized void start() {
+        if (started) {
+            return;
+        }
+
+        Platform.startup(() -> {
+        });
+        Platform.setImplicitExit(false);
+        started = true;
+    }
+}
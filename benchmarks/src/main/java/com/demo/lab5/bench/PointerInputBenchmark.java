@@ -0,0 +1,186 @@
+package com.demo.lab5.bench;
+
+import com.demo.lab5.DrawingPaneStateManager;
+import com.demo.lab5.NodeShapeRenderer;
+import com.demo.lab5.ShapeSpatialIndex;
+import com.demo.lab5.model.ShapeGeometry;
+import com.demo.lab5.model.ShapeStoreListener;
+import javafx.application.Platform;
+import javafx.scene.Scene;
+import javafx.scene.layout.Pane;
+import javafx.stage.Stage;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dragging a shape with a mouse which sends several events per frame, with the node renderer attached to a shown
+ * stage. Every operation feeds the events of one frame at once and waits until the layout of the pulse after them, so
+ * its time is bound by the pulse rate. Events go through the pointer input coalescer, or straight to the history as
+ * they did before it, for comparison.
+ * <p>
+ * Counters report totals of the iteration: frames, store changes and layout passes of the drawing box. Coalesced input
+ * changes the store once per frame, direct input once per event. Every relocated view requests layout, which runs once
+ * per pulse either way.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Dglass.platform=Monocle", "-Dmonocle.platform=Headless", "-Dprism.order=sw", "-Djava.awt.headless=true"})
+@State(Scope.Benchmark)
+public class PointerInputBenchmark {
+    @Param({"1", "4", "16"})
+    private int eventsPerPulse;
+
+    @Param({"true", "false"})
+    private boolean coalesced;
+
+    private DrawingPaneStateManager stateManager;
+    private Stage stage;
+    private int dragged;
+    private double direction = 1;
+
+    /**
+     * Counted on the JavaFX thread, read after the frame they belong to
+     */
+    private long storeChanges;
+    private long layoutPasses;
+    /**
+     * Completed by the layout of the pulse after the current frame
+     */
+    private CompletableFuture<Void> laidOut;
+
+    /**
+     * Totals of the iteration.
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Frames {
+        public long frames;
+        public long storeChanges;
+        public long layoutPasses;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            frames = 0;
+            storeChanges = 0;
+            layoutPasses = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        HeadlessPlatform.start();
+
+        onFxThread(() -> {
+            stateManager = new DrawingPaneStateManager();
+            ShapeSpatialIndex spatialIndex = new ShapeSpatialIndex(stateManager.getStore());
+            stateManager.getViewport().setSize(1280, 800);
+            stateManager.getHistory().addAll(Drawings.mixed(20_000));
+            stateManager.getHistory().seal();
+
+            Pane drawingBox = new Pane() {
+                @Override
+                protected void layoutChildren() {
+                    layoutPasses++;
+                    super.layoutChildren();
+                }
+            };
+            // the size of the headless screen
+            Scene scene = new Scene(drawingBox, 1280, 800);
+            scene.addPostLayoutPulseListener(() -> {
+                if (laidOut != null) {
+                    laidOut.complete(null);
+                    laidOut = null;
+                }
+            });
+            stage = new Stage();
+            stage.setScene(scene);
+            stage.show();
+            new NodeShapeRenderer(spatialIndex, stateManager).attach(drawingBox);
+
+            // the largest shape in the viewport isn't tiny, so its view is updated by every change
+            double[] bounds = new double[4];
+            double largest = -1;
+            for (int id : spatialIndex.query(0, 0, 1280, 800)) {
+                ShapeGeometry.bounds(stateManager.getStore(), id, bounds);
+                double size = (bounds[2] - bounds[0]) * (bounds[3] - bounds[1]);
+                if (size > largest) {
+                    largest = size;
+                    dragged = id;
+                }
+            }
+
+            stateManager.getStore().addListener(new ShapeStoreListener() {
+                @Override
+                public void shapeChanged(int id) {
+                    storeChanges++;
+                }
+
+                @Override
+                public void shapesChanged(int[] ids, int count) {
+                    storeChanges++;
+                }
+            });
+        });
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        onFxThread(() -> stage.close());
+    }
+
+    @Benchmark
+    public void drag(Frames frames) throws Exception {
+        long changesBefore = storeChanges;
+        long layoutsBefore = layoutPasses;
+        CompletableFuture<Void> frame = new CompletableFuture<>();
+
+        Platform.runLater(() -> {
+            // the shape goes back and forth, so it stays in the viewport
+            direction = -direction;
+            double x = stateManager.getStore().getX(dragged);
+            double y = stateManager.getStore().getY(dragged);
+
+            for (int i = 1; i <= eventsPerPulse; i++) {
+                if (coalesced) {
+                    stateManager.getPointerInput().move(dragged, x + direction * i, y + direction * i);
+                } else {
+                    stateManager.getHistory().move(dragged, x + direction * i, y + direction * i);
+                }
+            }
+            laidOut = frame;
+        });
+
+        frame.get();
+        frames.frames++;
+        frames.storeChanges += storeChanges - changesBefore;
+        frames.layoutPasses += layoutPasses - layoutsBefore;
+    }
+
+    private static void onFxThread(Runnable action) throws Exception {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Platform.runLater(() -> {
+            action.run();
+            done.complete(null);
+        });
+
+        done.get();
+    }
+}
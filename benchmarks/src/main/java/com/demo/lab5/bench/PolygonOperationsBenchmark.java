@@ -0,0 +1,92 @@
+package com.demo.lab5.bench;
+
+import com.demo.lab5.model.ShapeStore;
+import com.demo.lab5.shapes.PolygonOperations;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Geometry operations of the toolbar on selected shapes: boolean operations of overlapping shapes, convex hulls and
+ * simplification of polygons. Operations split large selections between tasks of the common pool.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PolygonOperationsBenchmark {
+    /**
+     * Number of points of every polygon which is simplified or replaced with its hull.
+     */
+    private static final int POLYGON_POINTS = 1000;
+
+    @Param({"16", "256", "2048"})
+    private int shapes;
+
+    /**
+     * Rotated rectangles and polygons which overlap their neighbours
+     */
+    private ShapeStore overlapping;
+    private ShapeStore polygons;
+
+    @Setup
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(shapes);
+        // density of shapes doesn't depend on their number
+        double size = 16 * Math.sqrt(shapes);
+
+        overlapping = new ShapeStore(shapes);
+        for (int i = 0; i < shapes; i++) {
+            double x = random.nextDouble(size);
+            double y = random.nextDouble(size);
+
+            if (i % 2 == 0) {
+                overlapping.addRectangle(x, y, random.nextDouble(4, 32), random.nextDouble(4, 32), random.nextDouble(360),
+                        ShapeStore.DEFAULT_FILL, ShapeStore.DEFAULT_STROKE);
+            } else {
+                double[] points = Drawings.polygonPoints(random, 16, 16);
+                overlapping.addPolygon(x, y, points, 0, points.length, 0, ShapeStore.DEFAULT_FILL, ShapeStore.DEFAULT_STROKE);
+            }
+        }
+
+        polygons = new ShapeStore(shapes);
+        for (int i = 0; i < shapes; i++) {
+            double[] points = Drawings.polygonPoints(random, POLYGON_POINTS, 256);
+            polygons.addPolygon(0, 0, points, 0, points.length, random.nextDouble(360), ShapeStore.DEFAULT_FILL, ShapeStore.DEFAULT_STROKE);
+        }
+    }
+
+    @Benchmark
+    public List<double[]> union() {
+        return PolygonOperations.union(overlapping);
+    }
+
+    @Benchmark
+    public List<double[]> difference() {
+        return PolygonOperations.difference(overlapping);
+    }
+
+    @Benchmark
+    public ShapeStore convexHulls() {
+        return PolygonOperations.convexHulls(polygons);
+    }
+
+    @Benchmark
+    public ShapeStore simplify() {
+        return PolygonOperations.simplify(polygons, 4);
+    }
+}
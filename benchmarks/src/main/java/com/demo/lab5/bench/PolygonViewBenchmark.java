@@ -0,0 +1,69 @@
+package com.demo.lab5.bench;
+
+import com.demo.lab5.DrawingPaneStateManager;
+import com.demo.lab5.model.ShapeStore;
+import com.demo.lab5.shapes.PolygonComponentView;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adding points to and resizing large polygons, including update of the polygon node. View is not attached to any
+ * scene, so it is updated on the benchmark thread.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Dglass.platform=Monocle", "-Dmonocle.platform=Headless", "-Dprism.order=sw", "-Djava.awt.headless=true"})
+@State(Scope.Thread)
+public class PolygonViewBenchmark {
+    @Param({"1000", "100000"})
+    private int points;
+
+    private ShapeStore store;
+    private PolygonComponentView view;
+    private double scale = 1.01;
+
+    /**
+     * Polygon is created for every iteration, so added points don't pile up across iterations.
+     */
+    @Setup(Level.Iteration)
+    public void setUp() {
+        HeadlessPlatform.start();
+
+        DrawingPaneStateManager stateManager = new DrawingPaneStateManager();
+        store = stateManager.getStore();
+        store.addAll(Drawings.polygon(points));
+        view = new PolygonComponentView(stateManager, 0);
+    }
+
+    @Benchmark
+    public PolygonComponentView addPoint() {
+        int count = store.getPointCount(0);
+        store.addPoint(0, store.getPointX(0, count - 1) + 0.5, store.getPointY(0, count - 1) + 0.25);
+        view.sync();
+
+        return view;
+    }
+
+    @Benchmark
+    public PolygonComponentView resize() {
+        scale = 1 / scale;
+        store.scale(0, scale);
+        view.sync();
+
+        return view;
+    }
+}
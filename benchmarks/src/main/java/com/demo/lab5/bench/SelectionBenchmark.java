@@ -0,0 +1,53 @@
+package com.demo.lab5.bench;
+
+import com.demo.lab5.DrawingPaneStateManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fan-out of selection changes to listeners of {@link DrawingPaneStateManager}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Dglass.platform=Monocle", "-Dmonocle.platform=Headless", "-Dprism.order=sw", "-Djava.awt.headless=true"})
+@State(Scope.Thread)
+public class SelectionBenchmark {
+    @Param({"1", "16", "256"})
+    private int listeners;
+
+    private DrawingPaneStateManager stateManager;
+    private int selected;
+    private long notified;
+
+    @Setup
+    public void setUp() {
+        // state manager creates an animation timer, which needs the toolkit
+        HeadlessPlatform.start();
+
+        stateManager = new DrawingPaneStateManager();
+        for (int i = 0; i < listeners; i++) {
+            stateManager.addSelectedShapeListener((previousShape, newShape) -> notified += newShape - previousShape);
+        }
+    }
+
+    @Benchmark
+    public long setSelectedShape() {
+        selected ^= 1;
+        stateManager.setSelectedShape(selected);
+
+        return notified;
+    }
+}
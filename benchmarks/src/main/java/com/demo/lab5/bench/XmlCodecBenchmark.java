@@ -0,0 +1,108 @@
+package com.demo.lab5.bench;
+
+import com.demo.lab5.ShapesXmlEncoder;
+import com.demo.lab5.model.ShapeStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of encoding and decoding single shapes with {@link ShapesXmlEncoder}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class XmlCodecBenchmark {
+    /**
+     * Number of shapes decoded in one invocation.
+     */
+    private static final int DECODED_SHAPES = 4096;
+
+    /**
+     * Type of encoded shape: 0 - rectangle, 1 - circle, 2 - polygon.
+     */
+    @Param({"0", "1", "2"})
+    private int shapeKind;
+
+    private ShapeStore shapes;
+    private XMLStreamWriter writer;
+    private StringBuilder builder;
+    private byte[] document;
+    private XMLInputFactory inputFactory;
+    private ShapeStore decoded;
+
+    @Setup
+    public void setUp() throws XMLStreamException {
+        shapes = Drawings.mixed(3 * DECODED_SHAPES);
+        writer = XMLOutputFactory.newInstance().createXMLStreamWriter(OutputStream.nullOutputStream(), "UTF-8");
+        writer.writeStartDocument();
+        writer.writeStartElement(ShapesXmlEncoder.ROOT_ELEMENT);
+        builder = new StringBuilder();
+
+        // document with shapes of the benchmarked kind only
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XMLStreamWriter documentWriter = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+        documentWriter.writeStartDocument();
+        documentWriter.writeStartElement(ShapesXmlEncoder.ROOT_ELEMENT);
+        for (int i = 0; i < DECODED_SHAPES; i++) {
+            ShapesXmlEncoder.encodeShape(shapes, 3 * i + shapeKind, documentWriter, builder);
+        }
+        documentWriter.writeEndElement();
+        documentWriter.writeEndDocument();
+        documentWriter.close();
+        document = out.toByteArray();
+
+        inputFactory = XMLInputFactory.newInstance();
+        decoded = new ShapeStore(DECODED_SHAPES);
+    }
+
+    @TearDown
+    public void tearDown() throws XMLStreamException {
+        writer.close();
+    }
+
+    @Benchmark
+    public void encodeShape() throws XMLStreamException {
+        ShapesXmlEncoder.encodeShape(shapes, shapeKind, writer, builder);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DECODED_SHAPES)
+    public int decodeShape() throws XMLStreamException {
+        decoded.truncate(0);
+        XMLStreamReader reader = inputFactory.createXMLStreamReader(new ByteArrayInputStream(document));
+
+        while (reader.hasNext()) {
+            if (reader.next() == XMLStreamConstants.START_ELEMENT && ShapesXmlEncoder.SHAPE_ELEMENT.equals(reader.getLocalName())) {
+                ShapesXmlEncoder.decodeShape(reader, decoded);
+            }
+        }
+        reader.close();
+
+        return decoded.size();
+    }
+}
@@ -0,0 +1,559 @@
+package com.demo.lab5;
+
+import com.demo.lab5.model.ShapeGeometry;
+import com.demo.lab5.model.ShapeLevelOfDetail;
+import com.demo.lab5.model.ShapeStore;
+import com.demo.lab5.model.ShapeStoreListener;
+import com.demo.lab5.model.ShapeType;
+import com.demo.lab5.shapes.ShapeComponentFactory;
+import com.demo.lab5.shapes.ShapeComponentView;
+import javafx.animation.AnimationTimer;
+import javafx.beans.InvalidationListener;
+import javafx.scene.Group;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+
+import java.util.Arrays;
+
+/**
+ * Renderer which paints shapes onto a single {@link Canvas} straight from the {@link ShapeStore}, so shapes don't need
+ * scene graph nodes, CSS and layout.
+ * <p>
+ * Only the selected shape and the shape which is being drawn get views attached to the drawing area, so they can be
+ * edited the same way as with {@link NodeShapeRenderer}. While attached, they are shown above other shapes. Other shapes
+ * are painted into tiles of the {@link ShapeTileCache}, which are copied onto the canvas. Canvas is repainted once per
+ * pulse and only tiles which changed since the last repaint are painted again, so panning and editing the live shapes
+ * don't paint the static rest of the drawing. Zooming paints the tiles again. Shapes are painted with {@link ShapeLevelOfDetail}, so
+ * large polygons are simplified, and tiny shapes of the {@link ShapeDetailArea} are painted from its density layer, so
+ * repainting a zoomed out drawing doesn't depend on the number of its shapes.
+ */
+public class CanvasShapeRenderer implements ShapeRenderer {
+    /**
+     * Margin added around changed areas, so antialiased edges are repainted too.
+     */
+    private static final double DIRTY_MARGIN = 1;
+    /**
+     * Number of shapes added or removed at once above which all tiles are painted again instead of the changed area.
+     */
+    private static final int FULL_REPAINT_THRESHOLD = 256;
+    /**
+     * Number of colors kept by {@link #color(int)}. It must be a power of two.
+     */
+    private static final int COLOR_CACHE_SIZE = 256;
+    /**
+     * Maximal number of shapes painted one by one in the area around the viewport
+     */
+    private static final int MAX_DETAILED = 16384;
+    /**
+     * Maximal memory used by cached tiles in bytes
+     */
+    private static final long TILE_CACHE_BUDGET = 64L << 20;
+
+    /**
+     * Canvas shapes are painted onto. It must cover the drawing area.
+     */
+    private final Canvas canvas;
+    /**
+     * Index used to find shapes in the repainted area
+     */
+    private final ShapeSpatialIndex spatialIndex;
+    /**
+     * State manager used to find selected and drawn shapes
+     */
+    private final DrawingPaneStateManager stateManager;
+    /**
+     * Timer repainting the canvas once per pulse
+     */
+    private final AnimationTimer timer;
+    private final ShapeStoreListener storeListener;
+    private final InvalidationListener sizeListener;
+    private final DrawingViewport.ViewportListener viewportListener;
+    /**
+     * Layer holding views of live shapes, transformed by the viewport
+     */
+    private final Group layer;
+    /**
+     * Area whose detailed shapes are painted one by one
+     */
+    private final ShapeDetailArea area;
+    /**
+     * Tiles with painted shapes which are not live
+     */
+    private final ShapeTileCache tileCache;
+
+    /**
+     * Colors unpacked from ARGB ints, so painting doesn't create a color for every shape
+     */
+    private final int[] cachedArgb;
+    private final Color[] cachedColors;
+    /**
+     * Bounds of the shape being painted or invalidated
+     */
+    private final double[] bounds;
+
+    private Pane drawingBox;
+    /**
+     * Detailed shapes of the area in drawing order
+     */
+    private int[] detailedIds = new int[0];
+
+    /**
+     * Painted bounds of every shape, four values (min x, min y, max x, max y) for every shape. They are used to repaint
+     * the area a shape left when it is moved.
+     */
+    private double[] paintedBounds;
+
+    /**
+     * View of the selected shape attached to the drawing area, null if there is none
+     */
+    private ShapeComponentView<?> selectedView;
+    /**
+     * View of the drawn shape attached to the drawing area, null if there is none
+     */
+    private ShapeComponentView<?> drawnView;
+
+    /**
+     * Whether all tiles have to be copied onto the canvas
+     */
+    private boolean fullRepaint;
+    private double dirtyMinX = Double.POSITIVE_INFINITY;
+    private double dirtyMinY = Double.POSITIVE_INFINITY;
+    private double dirtyMaxX = Double.NEGATIVE_INFINITY;
+    private double dirtyMaxY = Double.NEGATIVE_INFINITY;
+
+    /**
+     * Creates renderer painting onto given canvas.
+     *
+     * @param canvas       canvas covering the drawing area
+     * @param spatialIndex index of all shapes of the drawing
+     * @param stateManager state manager of the drawing area
+     */
+    public CanvasShapeRenderer(Canvas canvas, ShapeSpatialIndex spatialIndex, DrawingPaneStateManager stateManager) {
+        this.canvas = canvas;
+        this.spatialIndex = spatialIndex;
+        this.stateManager = stateManager;
+        this.cachedArgb = new int[COLOR_CACHE_SIZE];
+        this.cachedColors = new Color[COLOR_CACHE_SIZE];
+        this.bounds = new double[4];
+        this.storeListener = new ShapeStoreListener() {
+            @Override
+            public void shapesAdded(int fromId, int toId) {
+                onShapesAdded(fromId, toId);
+            }
+
+            @Override
+            public void shapeChanged(int id) {
+                onShapeChanged(id);
+            }
+
+            @Override
+            public void shapesRemoved(int fromId, int toId) {
+                onShapesRemoved(fromId, toId);
+            }
+
+            @Override
+            public void shapesCleared() {
+                onShapesCleared();
+            }
+        };
+        this.sizeListener = observable -> fullRepaint = true;
+        this.viewportListener = () -> fullRepaint = true;
+        this.layer = new Group();
+        this.layer.getTransforms().add(stateManager.getViewport().getTransform());
+        this.area = new ShapeDetailArea(spatialIndex, stateManager, MAX_DETAILED);
+        this.tileCache = new ShapeTileCache(this::paintTile, TILE_CACHE_BUDGET);
+        this.timer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                updateLiveShapes();
+                repaint();
+            }
+        };
+    }
+
+    @Override
+    public void attach(Pane drawingBox) {
+        this.drawingBox = drawingBox;
+        this.paintedBounds = new double[4 * Math.max(stateManager.getStore().size(), 16)];
+
+        drawingBox.getChildren().setAll(layer);
+        onShapesAdded(0, stateManager.getStore().size());
+        stateManager.getStore().addListener(storeListener);
+        stateManager.getViewport().addListener(viewportListener);
+        canvas.widthProperty().addListener(sizeListener);
+        canvas.heightProperty().addListener(sizeListener);
+        canvas.setVisible(true);
+
+        fullRepaint = true;
+        area.invalidate();
+        updateLiveShapes();
+        repaint();
+        timer.start();
+    }
+
+    @Override
+    public void detach() {
+        timer.stop();
+        stateManager.getStore().removeListener(storeListener);
+        stateManager.getViewport().removeListener(viewportListener);
+        canvas.widthProperty().removeListener(sizeListener);
+        canvas.heightProperty().removeListener(sizeListener);
+
+        canvas.getGraphicsContext2D().clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+        canvas.setVisible(false);
+        layer.getChildren().clear();
+        drawingBox.getChildren().clear();
+        area.clear();
+        tileCache.clear();
+
+        selectedView = null;
+        drawnView = null;
+        detailedIds = new int[0];
+        paintedBounds = null;
+        drawingBox = null;
+    }
+
+    /**
+     * Attaches view of newly selected or drawn shape and paints previous one onto the canvas.
+     */
+    private void updateLiveShapes() {
+        int selected = stateManager.getSelectedShape();
+        int drawn = stateManager.getDrawnShape();
+
+        if (selected != idOf(selectedView)) {
+            ShapeComponentView<?> previous = selectedView;
+            selectedView = showLive(selected);
+            hideLive(previous);
+
+            if (previous != null) {
+                previous.onDeselected();
+            }
+            if (selectedView != null) {
+                selectedView.onSelected();
+            }
+        }
+
+        if (drawn != idOf(drawnView)) {
+            ShapeComponentView<?> previous = drawnView;
+            drawnView = showLive(drawn);
+            hideLive(previous);
+        }
+    }
+
+    private static int idOf(ShapeComponentView<?> view) {
+        return view == null ? DrawingPaneStateManager.NO_SHAPE : view.getShapeId();
+    }
+
+    private boolean isLive(int id) {
+        return id == idOf(selectedView) || id == idOf(drawnView);
+    }
+
+    /**
+     * Attaches view of the shape and removes the shape from the canvas.
+     *
+     * @return view of the shape or null if there is no shape
+     */
+    private ShapeComponentView<?> showLive(int id) {
+        if (id == DrawingPaneStateManager.NO_SHAPE || stateManager.getStore().getType(id) == ShapeType.PLACEHOLDER) {
+            return null;
+        }
+
+        // the same shape can be selected and drawn at once
+        if (id == idOf(selectedView)) {
+            return selectedView;
+        }
+        if (id == idOf(drawnView)) {
+            return drawnView;
+        }
+
+        ShapeComponentView<?> view = ShapeComponentFactory.create(stateManager, id);
+        layer.getChildren().add(view);
+        invalidate(id);
+        // tiny shape leaves the density layer
+        area.invalidate();
+
+        return view;
+    }
+
+    /**
+     * Detaches view and paints its shape onto the canvas, if it is not shown as a live view anymore.
+     */
+    private void hideLive(ShapeComponentView<?> view) {
+        if (view == null || view == selectedView || view == drawnView) {
+            return;
+        }
+
+        layer.getChildren().remove(view);
+        invalidate(view.getShapeId());
+        area.invalidate();
+    }
+
+    /**
+     * Marks areas of added shapes to be repainted.
+     */
+    private void onShapesAdded(int fromId, int toId) {
+        if (4 * toId > paintedBounds.length) {
+            paintedBounds = Arrays.copyOf(paintedBounds, Math.max(4 * toId, 2 * paintedBounds.length));
+        }
+        area.invalidate();
+
+        if (toId - fromId > FULL_REPAINT_THRESHOLD) {
+            tileCache.invalidateAll();
+            fullRepaint = true;
+        }
+
+        for (int id = fromId; id < toId; id++) {
+            invalidate(id);
+        }
+    }
+
+    /**
+     * Marks area the shape left and area it covers now to be repainted, unless the shape is live, so it isn't painted
+     * onto tiles. Live view of the shape is updated instead. Shapes of the area are found again if the changed shape is
+     * painted onto tiles, because it could become tiny or leave the area.
+     */
+    private void onShapeChanged(int id) {
+        if (!isLive(id)) {
+            addDirtyArea(paintedBounds[4 * id], paintedBounds[4 * id + 1], paintedBounds[4 * id + 2], paintedBounds[4 * id + 3]);
+            invalidate(id);
+            area.invalidate();
+        }
+
+        if (selectedView != null && selectedView.getShapeId() == id) {
+            selectedView.sync();
+        }
+        if (drawnView != null && drawnView.getShapeId() == id) {
+            drawnView.sync();
+        }
+    }
+
+    /**
+     * Marks areas of removed shapes to be repainted and detaches their views.
+     */
+    private void onShapesRemoved(int fromId, int toId) {
+        area.invalidate();
+
+        if (toId - fromId > FULL_REPAINT_THRESHOLD) {
+            tileCache.invalidateAll();
+            fullRepaint = true;
+        } else {
+            for (int id = fromId; id < toId; id++) {
+                addDirtyArea(paintedBounds[4 * id], paintedBounds[4 * id + 1], paintedBounds[4 * id + 2], paintedBounds[4 * id + 3]);
+            }
+        }
+
+        if (idOf(selectedView) >= fromId) {
+            layer.getChildren().remove(selectedView);
+            selectedView = null;
+        }
+        if (idOf(drawnView) >= fromId) {
+            layer.getChildren().remove(drawnView);
+            drawnView = null;
+        }
+    }
+
+    private void onShapesCleared() {
+        layer.getChildren().clear();
+        selectedView = null;
+        drawnView = null;
+        paintedBounds = new double[4 * 16];
+        detailedIds = new int[0];
+        area.invalidate();
+        tileCache.invalidateAll();
+        fullRepaint = true;
+    }
+
+    /**
+     * Remembers current bounds of the shape and adds them to the area which will be repainted in the next pulse.
+     *
+     * @param id changed shape
+     */
+    private void invalidate(int id) {
+        ShapeGeometry.bounds(stateManager.getStore(), id, bounds);
+        System.arraycopy(bounds, 0, paintedBounds, 4 * id, 4);
+        addDirtyArea(bounds[0], bounds[1], bounds[2], bounds[3]);
+    }
+
+    private void addDirtyArea(double minX, double minY, double maxX, double maxY) {
+        if (minX > maxX || minY > maxY) {
+            return;
+        }
+
+        dirtyMinX = Math.min(dirtyMinX, minX - DIRTY_MARGIN);
+        dirtyMinY = Math.min(dirtyMinY, minY - DIRTY_MARGIN);
+        dirtyMaxX = Math.max(dirtyMaxX, maxX + DIRTY_MARGIN);
+        dirtyMaxY = Math.max(dirtyMaxY, maxY + DIRTY_MARGIN);
+    }
+
+    /**
+     * Repaints tiles in the changed area and copies tiles onto the canvas. Shapes of the area are found first if it
+     * must be updated. If it moved while the density layer is shown, all tiles are painted again.
+     */
+    private void repaint() {
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        DrawingViewport viewport = stateManager.getViewport();
+        ShapeDensityLayer densityLayer = area.getDensityLayer();
+
+        if (area.needsUpdate()) {
+            boolean densityShown = densityLayer.getView().isVisible();
+            detailedIds = area.update(this::isLive);
+
+            if (area.wasMoved() && (densityShown || densityLayer.getView().isVisible())) {
+                tileCache.invalidateAll();
+            }
+        }
+
+        if (dirtyMinX <= dirtyMaxX) {
+            // antialiased edges and pixels of the density layer can reach out of the changed area
+            double margin = Math.max(2 / viewport.getScale(), 2 * densityLayer.getPixelSize());
+            tileCache.invalidate(dirtyMinX - margin, dirtyMinY - margin, dirtyMaxX + margin, dirtyMaxY + margin);
+        }
+
+        if (fullRepaint) {
+            gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+        }
+        tileCache.draw(gc, viewport, fullRepaint);
+
+        fullRepaint = false;
+        dirtyMinX = Double.POSITIVE_INFINITY;
+        dirtyMinY = Double.POSITIVE_INFINITY;
+        dirtyMaxX = Double.NEGATIVE_INFINITY;
+        dirtyMaxY = Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Paints the density layer and detailed shapes which are not live in the part of the drawing covered by a tile.
+     */
+    private void paintTile(GraphicsContext gc, double minX, double minY, double maxX, double maxY) {
+        ShapeStore store = stateManager.getStore();
+        double scale = stateManager.getViewport().getScale();
+
+        area.getDensityLayer().draw(gc);
+
+        if (!area.covers(minX, minY, maxX, maxY)) {
+            // tiles reaching out of the area find their shapes in the index
+            for (int id : spatialIndex.query(minX, minY, maxX, maxY)) {
+                if (!isLive(id) && !area.isTiny(id)) {
+                    paint(gc, store, id, scale);
+                }
+            }
+            return;
+        }
+
+        for (int id : detailedIds) {
+            if (!isLive(id) && paintedBounds[4 * id] <= maxX && paintedBounds[4 * id + 2] >= minX
+                    && paintedBounds[4 * id + 1] <= maxY && paintedBounds[4 * id + 3] >= minY) {
+                paint(gc, store, id, scale);
+            }
+        }
+    }
+
+    /**
+     * Paints the shape the same way its view is rendered, including position, rotation, fill and stroke. Placeholders
+     * are not painted.
+     *
+     * @param gc    graphics context of a tile transformed by the viewport
+     * @param store store with the shape
+     * @param id    shape id
+     * @param scale zoom of the drawing
+     */
+    private void paint(GraphicsContext gc, ShapeStore store, int id, double scale) {
+        ShapeType type = store.getType(id);
+        if (type == ShapeType.PLACEHOLDER) {
+            return;
+        }
+
+        ShapeLevelOfDetail levelOfDetail = stateManager.getLevelOfDetail();
+        if (levelOfDetail.isTiny(id, scale)) {
+            // single pixel in the color of the fill, or of the stroke if shape has no fill
+            double size = 1 / scale;
+            double centerX = store.getX(id) + (store.getMinX(id) + store.getMaxX(id)) / 2;
+            double centerY = store.getY(id) + (store.getMinY(id) + store.getMaxY(id)) / 2;
+
+            gc.setFill(color(store.getFill(id) >>> 24 == 0 ? store.getStroke(id) : store.getFill(id)));
+            gc.fillRect(centerX - size / 2, centerY - size / 2, size, size);
+            return;
+        }
+
+        gc.save();
+        gc.translate(store.getX(id), store.getY(id));
+
+        if (store.getRotation(id) != 0) {
+            // views are rotated around the center of the geometry
+            double centerX = (store.getMinX(id) + store.getMaxX(id)) / 2;
+            double centerY = (store.getMinY(id) + store.getMaxY(id)) / 2;
+
+            gc.translate(centerX, centerY);
+            gc.rotate(store.getRotation(id));
+            gc.translate(-centerX, -centerY);
+        }
+
+        gc.setFill(color(store.getFill(id)));
+        gc.setStroke(color(store.getStroke(id)));
+        gc.setLineWidth(ShapeStore.STROKE_WIDTH);
+
+        gc.beginPath();
+        switch (type) {
+            case RECTANGLE -> gc.rect(store.getMinX(id), store.getMinY(id), store.getWidth(id), store.getHeight(id));
+            case CIRCLE -> {
+                double radius = store.getRadius(id);
+
+                gc.arc(store.getMinX(id) + radius, store.getMinY(id) + radius, radius, radius, 0, 360);
+                gc.closePath();
+            }
+            case POLYGON -> {
+                double[] simplified = levelOfDetail.simplifiedPoints(id, scale);
+
+                if (simplified != null) {
+                    simplifiedPath(gc, store, id, simplified);
+                } else {
+                    for (int i = 0; i < store.getPointCount(id); i++) {
+                        if (i == 0) {
+                            gc.moveTo(store.getPointX(id, i), store.getPointY(id, i));
+                        } else {
+                            gc.lineTo(store.getPointX(id, i), store.getPointY(id, i));
+                        }
+                    }
+                    gc.closePath();
+                }
+            }
+            default -> {
+            }
+        }
+        gc.fill();
+        gc.stroke();
+
+        gc.restore();
+    }
+
+    /**
+     * Adds simplified raw points of the polygon to the current path, scaled and shifted like points of the store.
+     */
+    private static void simplifiedPath(GraphicsContext gc, ShapeStore store, int id, double[] points) {
+        double pointScale = store.getPointScale(id);
+        double shiftX = store.getPointShiftX(id);
+        double shiftY = store.getPointShiftY(id);
+
+        gc.moveTo(points[0] * pointScale + shiftX, points[1] * pointScale + shiftY);
+        for (int i = 2; i < points.length; i += 2) {
+            gc.lineTo(points[i] * pointScale + shiftX, points[i + 1] * pointScale + shiftY);
+        }
+        gc.closePath();
+    }
+
+    /**
+     * Returns color for ARGB int, reusing colors created before.
+     */
+    private Color color(int argb) {
+        int slot = (argb ^ (argb >>> 16)) & (COLOR_CACHE_SIZE - 1);
+
+        if (cachedColors[slot] == null || cachedArgb[slot] != argb) {
+            cachedArgb[slot] = argb;
+            cachedColors[slot] = ColorUtils.fromArgb(argb);
+        }
+
+        return cachedColors[slot];
+    }
+}
@@ -0,0 +1,580 @@
+package com.demo.lab5;
+
+import com.demo.lab5.model.ShapeStore;
+import com.demo.lab5.model.ShapeStoreListener;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.BitSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Client of collaborative editing which keeps a store in sync with the drawing of a {@link CollaborationServer}.
+ * <p>
+ * Local changes are tracked through store events, so edits made anywhere in the application are shared. They are sent
+ * by {@link #flush()}, which should be called once per frame. Only one batch is sent at a time; changes made while it
+ * waits for the update which applied it are sent with the next batch. Changes of other clients are applied as they
+ * arrive, except for shapes the client changed itself and the server didn't apply yet, because the server applies the
+ * local change later and it wins.
+ * <p>
+ * The store holds shapes known to the server, possibly with local changes, followed by shapes added locally which the
+ * server didn't place yet. When other client adds or removes shapes, local shapes are moved behind them, where the
+ * server places them. Ids of shapes added locally can therefore change, which is reported to the {@link Listener}.
+ * <p>
+ * Instances are not thread safe. All methods except {@link #connect(String, int)} and updates from the server run on
+ * the executor given to the constructor, which must be the thread modifying the store.
+ */
+public class CollaborationClient implements ShapeStoreListener, Closeable {
+    private final ShapeStore store;
+    /**
+     * Executor of the thread owning the store
+     */
+    private final Executor owner;
+    private final Listener listener;
+    private final ExecutorService sender;
+    private final CollaborationProtocol.FrameWriter writer = new CollaborationProtocol.FrameWriter();
+    /**
+     * Decoded shapes before they are put into the store
+     */
+    private final ShapeStore scratch = new ShapeStore();
+    /**
+     * Shapes added locally, while shapes of other clients are put before them
+     */
+    private final ShapeStore tail = new ShapeStore();
+
+    private SocketChannel channel;
+    private volatile boolean closed;
+    private int clientId;
+    /**
+     * True after the snapshot was applied
+     */
+    private boolean joined;
+    /**
+     * Sequence number of the last applied update
+     */
+    private long sequence;
+    /**
+     * Number of shapes of the server drawing, as of the last applied update
+     */
+    private int serverSize;
+    /**
+     * Number of shapes at the start of the store which are shapes of the server drawing with the same ids. Shapes
+     * above it were added locally. It is lower than {@link #serverSize} if shapes of the server were removed locally.
+     */
+    private int kept;
+    /**
+     * Server size when shapes were removed locally. Shapes added by others later were not seen, so they are not removed.
+     */
+    private int removedTo;
+    private boolean cleared;
+    /**
+     * Shapes changed locally and not sent yet
+     */
+    private final BitSet dirty = new BitSet();
+    /**
+     * Shapes changed by the batch which was sent and not applied by the server yet
+     */
+    private final BitSet sent = new BitSet();
+    /**
+     * Number of shapes added by the batch which was sent and not removed locally since. They are right above
+     * {@link #kept}, in the order the server adds them.
+     */
+    private int sentShapes;
+    private boolean waiting;
+    private long sentTime;
+    private int sentOps;
+    /**
+     * True while changes of the server are applied to the store, so they are not sent back
+     */
+    private boolean applying;
+
+    /**
+     * Creates disconnected client.
+     *
+     * @param store    store kept in sync, its content is replaced by the server drawing when the client joins
+     * @param owner    executor of the thread which modifies the store
+     * @param listener listener notified on the owner thread
+     */
+    public CollaborationClient(ShapeStore store, Executor owner, Listener listener) {
+        this.store = store;
+        this.owner = owner;
+        this.listener = listener;
+        this.sender = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "collaboration-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Connects to the server. Drawing of the server replaces the store content on the owner thread once it is received.
+     *
+     * @param host host of the server
+     * @param port port of the server
+     * @throws IOException if connection fails
+     */
+    public void connect(String host, int port) throws IOException {
+        channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+        Thread reader = new Thread(this::read, "collaboration-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Sends changes made since the last batch, unless the last batch was not applied by the server yet.
+     */
+    public void flush() {
+        if (!joined || waiting || closed || !hasChanges()) {
+            return;
+        }
+
+        ByteBuffer batch;
+        try {
+            batch = encodeBatch();
+        } catch (IllegalArgumentException e) {
+            // placeholders of lazily opened drawings can't be shared
+            fail(new IOException("Drawing can't be shared", e));
+            return;
+        }
+
+        waiting = true;
+        sentTime = System.nanoTime();
+        sender.execute(() -> {
+            try {
+                CollaborationProtocol.writeFrame(channel, batch);
+            } catch (IOException e) {
+                owner.execute(() -> fail(e));
+            }
+        });
+    }
+
+    public boolean isJoined() {
+        return joined;
+    }
+
+    /**
+     * Checks if all local changes were applied by the server.
+     *
+     * @return true if the client joined and has no changes to send or waiting for the server
+     */
+    public boolean isSynchronized() {
+        return joined && !waiting && !hasChanges();
+    }
+
+    /**
+     * Disconnects from the server. Store keeps its content.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        store.removeListener(this);
+        sender.shutdown();
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            // connection is dropped anyway
+        }
+    }
+
+    private boolean hasChanges() {
+        return cleared || kept < serverSize || !dirty.isEmpty() || store.size() > kept;
+    }
+
+    /**
+     * Encodes clearing or removal, changes of shapes known to the server and all shapes added locally.
+     */
+    private ByteBuffer encodeBatch() {
+        writer.begin(CollaborationProtocol.BATCH_FRAME);
+        writer.putLong(sequence);
+        writer.putInt(kept);
+        int countPosition = writer.position();
+        writer.putInt(0);
+        int count = 0;
+
+        if (cleared) {
+            writer.put(CollaborationProtocol.CLEAR_OP);
+            count++;
+        } else if (kept < serverSize) {
+            writer.put(CollaborationProtocol.REMOVE_OP);
+            writer.putInt(kept);
+            writer.putInt(removedTo);
+            count++;
+        }
+
+        for (int id = dirty.nextSetBit(0); id >= 0 && id < kept; id = dirty.nextSetBit(id + 1)) {
+            writer.putShape(CollaborationProtocol.SHAPE_OP, store, id);
+            sent.set(id);
+            count++;
+        }
+        for (int id = kept; id < store.size(); id++) {
+            writer.putShape(CollaborationProtocol.SHAPE_OP, store, id);
+            count++;
+        }
+
+        writer.putInt(countPosition, count);
+        sentShapes = store.size() - kept;
+        dirty.clear();
+        cleared = false;
+        sentOps = count;
+
+        return writer.finish();
+    }
+
+    private void read() {
+        try {
+            ByteBuffer frame;
+            while ((frame = CollaborationProtocol.readFrame(channel)) != null) {
+                ByteBuffer received = frame;
+                owner.execute(() -> apply(received));
+            }
+            if (!closed) {
+                owner.execute(() -> fail(new IOException("Server closed the connection")));
+            }
+        } catch (IOException e) {
+            // closing the client closes the channel under the reader
+            if (!closed) {
+                owner.execute(() -> fail(e));
+            }
+        }
+    }
+
+    private void apply(ByteBuffer frame) {
+        if (closed) {
+            return;
+        }
+
+        try {
+            byte type = frame.get();
+            if (type == CollaborationProtocol.SNAPSHOT_FRAME) {
+                applySnapshot(frame);
+            } else if (type == CollaborationProtocol.UPDATE_FRAME && joined) {
+                applyUpdate(frame);
+            } else {
+                throw new IOException("Unexpected frame: " + type);
+            }
+        } catch (IOException | RuntimeException e) {
+            fail(e instanceof IOException io ? io : new IOException("Invalid frame", e));
+        }
+    }
+
+    private void applySnapshot(ByteBuffer frame) throws IOException {
+        sequence = frame.getLong();
+        clientId = frame.getInt();
+        int count = frame.getInt();
+
+        // shapes are attached at once, not one event per shape
+        ShapeStore shapes = new ShapeStore(count);
+        for (int i = 0; i < count; i++) {
+            frame.get();
+            frame.getInt();
+            ShapesBinaryEncoder.decodeShape(frame, shapes);
+        }
+
+        store.clear();
+        store.addAll(shapes);
+        serverSize = count;
+        kept = count;
+        joined = true;
+        store.addListener(this);
+
+        listener.structureChanged();
+    }
+
+    private void applyUpdate(ByteBuffer frame) throws IOException {
+        sequence = frame.getLong();
+        int sections = frame.getInt();
+        boolean structural = false;
+
+        applying = true;
+        try {
+            for (int section = 0; section < sections; section++) {
+                boolean own = frame.getInt() == clientId;
+                int count = frame.getInt();
+
+                for (int i = 0; i < count; i++) {
+                    byte op = frame.get();
+
+                    if (op == CollaborationProtocol.SHAPE_OP) {
+                        int id = frame.getInt();
+                        scratch.truncate(0);
+                        ShapesBinaryEncoder.decodeShape(frame, scratch);
+                        if (own) {
+                            confirmShape(id);
+                        } else {
+                            structural |= applyShape(id);
+                        }
+                    } else if (op == CollaborationProtocol.REMOVE_OP) {
+                        int from = frame.getInt();
+                        frame.getInt();
+                        structural |= applyRemove(from, own);
+                    } else if (op == CollaborationProtocol.CLEAR_OP) {
+                        structural |= applyRemove(0, own);
+                    } else if (op == CollaborationProtocol.RESTORE_OP) {
+                        int id = frame.getInt();
+                        scratch.truncate(0);
+                        ShapesBinaryEncoder.decodeShape(frame, scratch);
+                        if (own) {
+                            structural |= restoreShape(id);
+                        }
+                    } else {
+                        throw new IOException("Unknown operation: " + op);
+                    }
+                }
+
+                if (own) {
+                    waiting = false;
+                    sent.clear();
+                    sentShapes = 0;
+                    listener.batchApplied(sentOps, System.nanoTime() - sentTime);
+                }
+            }
+        } finally {
+            applying = false;
+        }
+
+        if (structural) {
+            listener.structureChanged();
+        }
+        if (hasChanges()) {
+            // changes made while waiting for the update, or local shapes moved by it
+            listener.changesPending();
+        }
+    }
+
+    /**
+     * Handles own change applied by the server. Added shape is already in the store at the same id, because shapes of
+     * other clients placed before it were put before it when they arrived.
+     */
+    private void confirmShape(int id) throws IOException {
+        if (id < serverSize) {
+            return;
+        }
+        if (id > serverSize) {
+            throw new IOException("Shape added out of order: " + id);
+        }
+
+        if (sentShapes > 0) {
+            kept++;
+            sentShapes--;
+        } else if (kept == serverSize) {
+            // shape was removed locally before the server added it
+            removedTo = serverSize + 1;
+        } else if (removedTo == serverSize) {
+            removedTo++;
+        }
+        serverSize++;
+    }
+
+    /**
+     * Applies change of other client decoded into {@link #scratch}.
+     *
+     * @return true if shapes were added
+     */
+    private boolean applyShape(int id) throws IOException {
+        if (id < serverSize) {
+            if (id < kept && !dirty.get(id) && !sent.get(id)) {
+                store.replace(id, scratch, 0);
+            }
+            return false;
+        }
+        if (id > serverSize) {
+            throw new IOException("Shape added out of order: " + id);
+        }
+
+        serverSize++;
+        if (kept < serverSize - 1) {
+            // local removal is rejected by the server, which restores this shape too
+            return false;
+        }
+
+        insertBeforeTail();
+        return true;
+    }
+
+    /**
+     * Handles removal of shapes from given id. Own removal is already done locally.
+     *
+     * @return true if shapes were removed from the store
+     */
+    private boolean applyRemove(int from, boolean own) {
+        serverSize = from;
+        // shapes added by others later must not be removed by a pending local removal
+        removedTo = Math.min(removedTo, from);
+        if (own || kept <= from) {
+            kept = Math.min(kept, from);
+            return false;
+        }
+
+        int size = store.size();
+        tail.truncate(0);
+        tail.addAll(store, kept, size);
+        store.truncate(from);
+        store.addAll(tail);
+        kept = from;
+        markTail(from);
+
+        return true;
+    }
+
+    /**
+     * Puts shape of the server rejecting own change, decoded into {@link #scratch}, back into the store.
+     *
+     * @return true if the shape was added
+     */
+    private boolean restoreShape(int id) {
+        if (id < kept) {
+            if (!dirty.get(id)) {
+                store.replace(id, scratch, 0);
+            }
+            return false;
+        }
+        if (id != kept || kept >= serverSize) {
+            // shapes below it are still removed locally, next removal takes care of it
+            return false;
+        }
+
+        insertBeforeTail();
+        return true;
+    }
+
+    /**
+     * Puts shape decoded into {@link #scratch} right after the shapes of the server, before shapes added locally.
+     */
+    private void insertBeforeTail() {
+        int size = store.size();
+        tail.truncate(0);
+        tail.addAll(store, kept, size);
+        store.truncate(kept);
+        store.addAll(scratch);
+        store.addAll(tail);
+        kept++;
+        markTail(kept);
+    }
+
+    /**
+     * Local shapes which were moved are sent again once the server placed them, as their changes were tracked under
+     * their old ids.
+     */
+    private void markTail(int from) {
+        dirty.clear(from, Math.max(from, dirty.length()));
+        dirty.set(from, store.size());
+    }
+
+    /**
+     * Disconnects after an error and informs the listener.
+     */
+    private void fail(IOException e) {
+        if (closed) {
+            return;
+        }
+
+        close();
+        listener.disconnected(e);
+    }
+
+    @Override
+    public void shapesAdded(int fromId, int toId) {
+        if (!applying) {
+            // shapes above kept are always sent whole
+            listener.changesPending();
+        }
+    }
+
+    @Override
+    public void shapeChanged(int id) {
+        if (!applying) {
+            dirty.set(id);
+            listener.changesPending();
+        }
+    }
+
+    @Override
+    public void shapesChanged(int[] ids, int count) {
+        if (applying) {
+            return;
+        }
+
+        for (int i = 0; i < count; i++) {
+            dirty.set(ids[i]);
+        }
+        listener.changesPending();
+    }
+
+    @Override
+    public void shapesRemoved(int fromId, int toId) {
+        if (applying) {
+            return;
+        }
+
+        dirty.clear(fromId, Math.max(fromId, dirty.length()));
+        sentShapes = Math.max(0, Math.min(sentShapes, fromId - kept));
+        if (fromId < kept) {
+            if (kept == serverSize) {
+                removedTo = serverSize;
+            }
+            kept = fromId;
+        }
+        listener.changesPending();
+    }
+
+    @Override
+    public void shapesCleared() {
+        if (applying) {
+            return;
+        }
+
+        dirty.clear();
+        cleared = true;
+        kept = 0;
+        sentShapes = 0;
+        listener.changesPending();
+    }
+
+    /**
+     * Listener of the session, called on the owner thread.
+     */
+    public interface Listener {
+        /**
+         * Called when the drawing was replaced by the server drawing or other client added or removed shapes, which can
+         * give shapes added locally new ids. References to shapes by id, like selection or undo history, should be
+         * dropped.
+         */
+        void structureChanged();
+
+        /**
+         * Called when the connection was lost. Client is closed.
+         *
+         * @param cause reason of disconnecting
+         */
+        void disconnected(IOException cause);
+
+        /**
+         * Called when there are local changes which were not sent yet. {@link #flush()} should be called in the next
+         * frame.
+         */
+        void changesPending();
+
+        /**
+         * Called when the server applied a batch of this client.
+         *
+         * @param ops       number of operations in the batch
+         * @param roundTrip time from sending the batch until its update arrived, in nanoseconds
+         */
+        default void batchApplied(int ops, long roundTrip) {
+        }
+    }
+}
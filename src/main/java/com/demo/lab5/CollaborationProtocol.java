@@ -0,0 +1,189 @@
+package com.demo.lab5;
+
+import com.demo.lab5.model.ShapeStore;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Binary protocol of collaborative editing between {@link CollaborationServer} and {@link CollaborationClient}.
+ * <p>
+ * Every frame starts with its length and type. Shapes are sent as records in {@link ShapesBinaryEncoder} format.
+ * <ul>
+ *     <li>snapshot, sent by the server to a client which joined: sequence number of the last update included in the
+ *     snapshot, id of the client, number of shapes and their records,</li>
+ *     <li>batch, sent by a client once per frame with its changes: sequence number of the last update the client
+ *     applied, size of the drawing the batch is based on, number of operations and operations,</li>
+ *     <li>update, sent by the server to every client once per frame: sequence number and sections, each with id of the
+ *     client whose batch it holds, number of operations and operations as they were applied by the server.</li>
+ * </ul>
+ * Operations are:
+ * <ul>
+ *     <li>shape - id and record; shape with id below the base size of the batch is replaced, other shapes are added to
+ *     the end of the drawing,</li>
+ *     <li>remove - range of ids removed from the end of the drawing,</li>
+ *     <li>clear - all shapes are removed,</li>
+ *     <li>restore - id and record of a shape whose change was rejected by the server, sent back to the author of the
+ *     change only.</li>
+ * </ul>
+ */
+public class CollaborationProtocol {
+    /**
+     * Port the server listens on by default.
+     */
+    public static final int DEFAULT_PORT = 47800;
+
+    static final byte SNAPSHOT_FRAME = 1;
+    static final byte BATCH_FRAME = 2;
+    static final byte UPDATE_FRAME = 3;
+
+    static final byte SHAPE_OP = 1;
+    static final byte REMOVE_OP = 2;
+    static final byte CLEAR_OP = 3;
+    static final byte RESTORE_OP = 4;
+
+    /**
+     * Larger frames are rejected, so a broken peer can't make the other side allocate arbitrary memory.
+     */
+    private static final int MAX_FRAME_SIZE = 512 * 1024 * 1024;
+
+    private CollaborationProtocol() {
+    }
+
+    /**
+     * Reads a whole frame.
+     *
+     * @param channel channel in blocking mode
+     * @return frame without its length, positioned at its type, or null if the channel ended between frames
+     * @throws IOException if frame can't be read or is too large
+     */
+    static ByteBuffer readFrame(ReadableByteChannel channel) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+        if (!readFully(channel, length)) {
+            if (length.position() == 0) {
+                return null;
+            }
+            throw new EOFException("Connection closed inside a frame");
+        }
+
+        int size = length.flip().getInt();
+        if (size <= 0 || size > MAX_FRAME_SIZE) {
+            throw new IOException("Invalid frame size: " + size);
+        }
+
+        ByteBuffer frame = ByteBuffer.allocate(size);
+        if (!readFully(channel, frame)) {
+            throw new EOFException("Connection closed inside a frame");
+        }
+
+        return frame.flip();
+    }
+
+    /**
+     * Writes a whole frame.
+     *
+     * @param channel channel in blocking mode
+     * @param frame   frame with its length, it is not modified
+     * @throws IOException if frame can't be written
+     */
+    static void writeFrame(WritableByteChannel channel, ByteBuffer frame) throws IOException {
+        ByteBuffer remaining = frame.duplicate();
+        while (remaining.hasRemaining()) {
+            channel.write(remaining);
+        }
+    }
+
+    private static boolean readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Encoder of frames into a growing buffer. It is reused for all frames written by a single thread.
+     */
+    static final class FrameWriter {
+        private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+        /**
+         * Starts a new frame. Its length is written by {@link #finish()}.
+         *
+         * @param type type of the frame
+         */
+        void begin(byte type) {
+            buffer.clear();
+            buffer.putInt(0);
+            buffer.put(type);
+        }
+
+        int position() {
+            return buffer.position();
+        }
+
+        void put(byte value) {
+            ensureSpace(1).put(value);
+        }
+
+        void putInt(int value) {
+            ensureSpace(Integer.BYTES).putInt(value);
+        }
+
+        /**
+         * Overwrites an int written before, for example a count which was not known when it was written.
+         */
+        void putInt(int position, int value) {
+            buffer.putInt(position, value);
+        }
+
+        void putLong(long value) {
+            ensureSpace(Long.BYTES).putLong(value);
+        }
+
+        /**
+         * Writes operation with shape id followed by the shape record.
+         *
+         * @throws IllegalArgumentException if shape can't be encoded, for example it is a placeholder
+         */
+        void putShape(byte op, ShapeStore store, int id) {
+            // encoder flushes unless there is room for the largest fixed-size record
+            int recordSize = Math.max(ShapesBinaryEncoder.recordSize(store, id),
+                    ShapesBinaryEncoder.RECORD_HEADER_SIZE + 2 * Double.BYTES);
+            ensureSpace(1 + Integer.BYTES + recordSize);
+            buffer.put(op);
+            buffer.putInt(id);
+
+            try {
+                // buffer has room for the whole record, so it is never flushed to the channel
+                ShapesBinaryEncoder.encodeShape(store, id, buffer, null);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Ends the frame.
+         *
+         * @return frame with its length, independent of the writer
+         */
+        ByteBuffer finish() {
+            buffer.putInt(0, buffer.position() - Integer.BYTES);
+            return ByteBuffer.wrap(Arrays.copyOf(buffer.array(), buffer.position()));
+        }
+
+        private ByteBuffer ensureSpace(int bytes) {
+            if (buffer.remaining() < bytes) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * buffer.capacity(), buffer.position() + bytes));
+                larger.put(buffer.flip());
+                buffer = larger;
+            }
+            return buffer;
+        }
+    }
+}
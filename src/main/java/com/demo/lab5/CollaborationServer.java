@@ -0,0 +1,491 @@
+package com.demo.lab5;
+
+import com.demo.lab5.model.ShapeStore;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Server of collaborative editing which holds the shared drawing and orders changes of all clients. It listens on the
+ * loopback interface only.
+ * <p>
+ * Batches of clients are applied by a single thread in the order they arrived, once per frame, and the changes are sent
+ * to every client in one update. The server order decides all conflicts:
+ * <ul>
+ *     <li>the change applied last wins, for every shape as a whole,</li>
+ *     <li>added shapes are placed at the end of the drawing in the server order, so shapes added at once by several
+ *     clients never replace each other,</li>
+ *     <li>change of a shape which was removed, or removed and added again, since the update the client based its batch
+ *     on is dropped, and the current shape is restored to the client,</li>
+ *     <li>removal which would remove shapes the client didn't know about is dropped and the shapes are restored to the
+ *     client.</li>
+ * </ul>
+ * Every client which saw the same updates therefore sees the same drawing.
+ * <p>
+ * Usage: {@code CollaborationServer [port] [drawing]}
+ */
+public class CollaborationServer implements Closeable {
+    /**
+     * Time between updates in nanoseconds
+     */
+    static final long FRAME_INTERVAL = TimeUnit.MILLISECONDS.toNanos(16);
+    /**
+     * Written to the outbox of a client to stop its writer thread
+     */
+    private static final ByteBuffer CLOSE = ByteBuffer.allocate(0);
+
+    private final ServerSocketChannel serverChannel;
+    private final Thread acceptor;
+    private final Thread sequencer;
+    /**
+     * Batches, joins and leaves of clients waiting for the next frame
+     */
+    private final BlockingQueue<Message> inbox = new LinkedBlockingQueue<>();
+    private volatile boolean closed;
+
+    // state below is owned by the sequencer thread
+
+    /**
+     * Shared drawing
+     */
+    private final ShapeStore document;
+    /**
+     * Sequence number of the update which added every shape of the drawing. Shapes whose number is higher than the
+     * update a client acknowledged are unknown to the client.
+     */
+    private long[] addedIn;
+    /**
+     * Sequence number of the last update
+     */
+    private long sequence;
+    private final List<Connection> connections = new ArrayList<>();
+    private final ShapeStore scratch = new ShapeStore();
+    private final CollaborationProtocol.FrameWriter writer = new CollaborationProtocol.FrameWriter();
+    private int nextClientId = 1;
+    private volatile long appliedOps;
+    private volatile long droppedOps;
+
+    /**
+     * Starts server with given drawing, which is owned by the server from now on.
+     *
+     * @param document initial drawing
+     * @param port     port to listen on, or 0 for any free port
+     * @throws IOException if port can't be bound
+     */
+    public CollaborationServer(ShapeStore document, int port) throws IOException {
+        this.document = document;
+        this.addedIn = new long[Math.max(16, document.size())];
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+
+        this.acceptor = new Thread(this::accept, "collaboration-acceptor");
+        this.sequencer = new Thread(this::sequence, "collaboration-sequencer");
+        acceptor.setDaemon(true);
+        sequencer.setDaemon(true);
+        acceptor.start();
+        sequencer.start();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length > 2) {
+            System.err.println("Usage: CollaborationServer [port] [drawing]");
+            System.exit(2);
+        }
+
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : CollaborationProtocol.DEFAULT_PORT;
+        ShapeStore document = new ShapeStore();
+
+        if (args.length > 1) {
+            File file = new File(args[1]);
+            DrawingFormat format = Objects.requireNonNullElse(DrawingFormat.forFile(file), DrawingFormat.XML);
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                format.read(channel, document, id -> {
+                });
+            } catch (IOException | XMLStreamException e) {
+                System.err.println("Can't read drawing: " + e.getMessage());
+                System.exit(1);
+            }
+        }
+
+        CollaborationServer server = new CollaborationServer(document, port);
+        System.out.printf("Sharing %d shapes on port %d%n", document.size(), server.getPort());
+        server.sequencer.join();
+    }
+
+    /**
+     * Returns port the server listens on.
+     *
+     * @return local port
+     */
+    public int getPort() {
+        try {
+            return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns number of operations applied to the drawing since the server started.
+     *
+     * @return applied operations
+     */
+    public long getAppliedOps() {
+        return appliedOps;
+    }
+
+    /**
+     * Returns number of operations rejected by the conflict policy since the server started.
+     *
+     * @return dropped operations
+     */
+    public long getDroppedOps() {
+        return droppedOps;
+    }
+
+    /**
+     * Runs given action on the sequencer thread with the shared drawing, between two frames, and waits for it. It is
+     * meant for tests and tools which compare the drawing with clients.
+     *
+     * @param action action reading the drawing
+     * @throws InterruptedException if waiting is interrupted
+     */
+    public void inspect(Consumer<ShapeStore> action) throws InterruptedException {
+        Inspect message = new Inspect(action, new CountDownLatch(1));
+        inbox.add(message);
+        message.done().await();
+    }
+
+    /**
+     * Stops the server and disconnects all clients.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverChannel.close();
+        sequencer.interrupt();
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                inbox.add(new Join(new Connection(channel)));
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                // connection failed before it was accepted, server keeps running
+            }
+        }
+    }
+
+    /**
+     * Applies messages of clients once per frame and broadcasts the changes.
+     */
+    private void sequence() {
+        List<Message> messages = new ArrayList<>();
+        long nextFrame = System.nanoTime();
+
+        try {
+            while (!closed) {
+                nextFrame += FRAME_INTERVAL;
+                long wait = nextFrame - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } else {
+                    // frame took too long, next one starts now instead of catching up
+                    nextFrame = System.nanoTime();
+                }
+
+                inbox.drainTo(messages);
+                if (!messages.isEmpty()) {
+                    processFrame(messages);
+                    messages.clear();
+                }
+            }
+        } catch (InterruptedException e) {
+            // server closed
+        } finally {
+            for (Connection connection : connections) {
+                connection.close();
+            }
+            connections.clear();
+        }
+    }
+
+    private void processFrame(List<Message> messages) {
+        int batches = 0;
+        for (Message message : messages) {
+            if (message instanceof Batch) {
+                batches++;
+            }
+        }
+
+        // joined clients get a snapshot which already includes this update
+        if (batches > 0) {
+            sequence++;
+            writer.begin(CollaborationProtocol.UPDATE_FRAME);
+            writer.putLong(sequence);
+            writer.putInt(batches);
+
+            for (Message message : messages) {
+                if (message instanceof Batch batch) {
+                    apply(batch);
+                }
+            }
+
+            ByteBuffer update = writer.finish();
+            for (Connection connection : connections) {
+                connection.send(update);
+            }
+        }
+
+        for (Message message : messages) {
+            if (message instanceof Join join) {
+                int clientId = nextClientId++;
+                connections.add(join.connection());
+                join.connection().start(clientId, encodeSnapshot(clientId));
+            } else if (message instanceof Leave leave) {
+                connections.remove(leave.connection());
+                leave.connection().close();
+            } else if (message instanceof Inspect inspect) {
+                inspect.action().accept(document);
+                inspect.done().countDown();
+            }
+        }
+    }
+
+    private ByteBuffer encodeSnapshot(int clientId) {
+        writer.begin(CollaborationProtocol.SNAPSHOT_FRAME);
+        writer.putLong(sequence);
+        writer.putInt(clientId);
+        writer.putInt(document.size());
+        for (int id = 0; id < document.size(); id++) {
+            writer.putShape(CollaborationProtocol.SHAPE_OP, document, id);
+        }
+
+        return writer.finish();
+    }
+
+    /**
+     * Applies batch of a client and writes its section of the update. Invalid batch disconnects the client, operations
+     * applied before the error stay.
+     */
+    private void apply(Batch batch) {
+        Connection client = batch.connection();
+        ByteBuffer frame = batch.frame();
+        writer.putInt(client.id);
+        int countPosition = writer.position();
+        writer.putInt(0);
+        int count = 0;
+
+        try {
+            if (frame.get() != CollaborationProtocol.BATCH_FRAME) {
+                throw new IOException("Unexpected frame from client " + client.id);
+            }
+
+            long acknowledged = frame.getLong();
+            int base = frame.getInt();
+            int ops = frame.getInt();
+
+            for (int i = 0; i < ops; i++) {
+                byte op = frame.get();
+
+                if (op == CollaborationProtocol.SHAPE_OP) {
+                    int id = frame.getInt();
+                    scratch.truncate(0);
+                    ShapesBinaryEncoder.decodeShape(frame, scratch);
+                    count += applyShape(id, base, acknowledged);
+                } else if (op == CollaborationProtocol.REMOVE_OP) {
+                    int from = frame.getInt();
+                    int to = frame.getInt();
+                    base = from;
+                    count += applyRemove(from, to, acknowledged);
+                } else if (op == CollaborationProtocol.CLEAR_OP) {
+                    base = 0;
+                    document.clear();
+                    writer.put(CollaborationProtocol.CLEAR_OP);
+                    count++;
+                    appliedOps++;
+                } else {
+                    throw new IOException("Unknown operation: " + op);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            inbox.add(new Leave(client));
+        }
+
+        writer.putInt(countPosition, count);
+    }
+
+    /**
+     * Replaces or adds shape decoded into {@link #scratch}.
+     *
+     * @return number of written operations
+     */
+    private int applyShape(int id, int base, long acknowledged) {
+        if (id >= base) {
+            int added = document.size();
+            document.addAll(scratch);
+            if (added == addedIn.length) {
+                addedIn = Arrays.copyOf(addedIn, 2 * added);
+            }
+            addedIn[added] = sequence;
+
+            writer.putShape(CollaborationProtocol.SHAPE_OP, document, added);
+            appliedOps++;
+            return 1;
+        }
+
+        if (id < document.size() && addedIn[id] <= acknowledged) {
+            document.replace(id, scratch, 0);
+            writer.putShape(CollaborationProtocol.SHAPE_OP, document, id);
+            appliedOps++;
+            return 1;
+        }
+
+        droppedOps++;
+        if (id >= document.size()) {
+            // removed, client learns about it from the update which removed it
+            return 0;
+        }
+
+        // shape was removed and another one took its id
+        writer.putShape(CollaborationProtocol.RESTORE_OP, document, id);
+        return 1;
+    }
+
+    /**
+     * Removes shapes from given id if the client knew all of them. Otherwise restores them to the client.
+     *
+     * @return number of written operations
+     */
+    private int applyRemove(int from, int to, long acknowledged) {
+        int size = document.size();
+        boolean known = from >= 0 && from <= size && to >= size;
+
+        for (int id = Math.max(from, 0); known && id < size; id++) {
+            known = addedIn[id] <= acknowledged;
+        }
+
+        if (known) {
+            if (from == size) {
+                return 0;
+            }
+
+            document.truncate(from);
+            writer.put(CollaborationProtocol.REMOVE_OP);
+            writer.putInt(from);
+            writer.putInt(size);
+            appliedOps++;
+            return 1;
+        }
+
+        droppedOps++;
+        for (int id = Math.max(from, 0); id < size; id++) {
+            writer.putShape(CollaborationProtocol.RESTORE_OP, document, id);
+        }
+        return Math.max(size - Math.max(from, 0), 0);
+    }
+
+    private interface Message {
+    }
+
+    private record Batch(Connection connection, ByteBuffer frame) implements Message {
+    }
+
+    private record Join(Connection connection) implements Message {
+    }
+
+    private record Leave(Connection connection) implements Message {
+    }
+
+    private record Inspect(Consumer<ShapeStore> action, CountDownLatch done) implements Message {
+    }
+
+    /**
+     * Connection of a single client with threads reading its batches and writing updates to it, so a slow client
+     * doesn't hold the others.
+     */
+    private class Connection {
+        private final SocketChannel channel;
+        private final BlockingQueue<ByteBuffer> outbox = new LinkedBlockingQueue<>();
+        private int id;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Sends snapshot with the client id and starts reading batches.
+         */
+        void start(int id, ByteBuffer snapshot) {
+            this.id = id;
+            outbox.add(snapshot);
+
+            Thread reader = new Thread(this::read, "collaboration-reader-" + id);
+            Thread writer = new Thread(this::write, "collaboration-writer-" + id);
+            reader.setDaemon(true);
+            writer.setDaemon(true);
+            reader.start();
+            writer.start();
+        }
+
+        void send(ByteBuffer frame) {
+            outbox.add(frame);
+        }
+
+        void close() {
+            outbox.add(CLOSE);
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // client is gone anyway
+            }
+        }
+
+        private void read() {
+            try {
+                ByteBuffer frame;
+                while ((frame = CollaborationProtocol.readFrame(channel)) != null) {
+                    inbox.add(new Batch(this, frame));
+                }
+            } catch (IOException e) {
+                // client disconnected
+            }
+            inbox.add(new Leave(this));
+        }
+
+        private void write() {
+            try {
+                ByteBuffer frame;
+                while ((frame = outbox.take()) != CLOSE) {
+                    CollaborationProtocol.writeFrame(channel, frame);
+                }
+            } catch (IOException | InterruptedException e) {
+                close();
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.demo.lab5;
+
+import javafx.scene.paint.Color;
+import javafx.scene.paint.Paint;
+
+/**
+ * Color utility class. Converts between JavaFX colors and ARGB ints used by the shape model.
+ */
+public class ColorUtils {
+    private ColorUtils() {
+    }
+
+    /**
+     * Packs color to ARGB int. Paints other than {@link Color} are not supported.
+     *
+     * @param paint color to pack
+     * @return packed color
+     */
+    public static int toArgb(Paint paint) {
+        if (!(paint instanceof Color color)) {
+            throw new IllegalArgumentException("Paint not supported");
+        }
+
+        return (int) Math.round(color.getOpacity() * 255) << 24
+                | (int) Math.round(color.getRed() * 255) << 16
+                | (int) Math.round(color.getGreen() * 255) << 8
+                | (int) Math.round(color.getBlue() * 255);
+    }
+
+    /**
+     * Unpacks color from ARGB int.
+     *
+     * @param argb packed color
+     * @return unpacked color
+     */
+    public static Color fromArgb(int argb) {
+        return Color.rgb((argb >> 16) & 0xFF, (argb >> 8) & 0xFF, argb & 0xFF, ((argb >>> 24) & 0xFF) / 255.0);
+    }
+
+    /**
+     * Formats ARGB color the same way as {@link Color#toString()}, for example {@code 0xff0000ff} for opaque red.
+     *
+     * @param argb packed color
+     * @return web color string
+     */
+    public static String toWebString(int argb) {
+        // RGBA order, as in Color.toString()
+        int rgba = (argb << 8) | (argb >>> 24);
+        String hex = Integer.toHexString(rgba);
+
+        return "0x" + "00000000".substring(hex.length()) + hex;
+    }
+
+    /**
+     * Parses color string. Strings in {@link Color#toString()} format are parsed directly, other formats fall back to
+     * {@link Color#valueOf(String)}.
+     *
+     * @param value color string
+     * @return packed color
+     */
+    public static int parseArgb(String value) {
+        if (value.length() == 10 && value.startsWith("0x")) {
+            try {
+                int rgba = Integer.parseUnsignedInt(value, 2, 10, 16);
+                return (rgba >>> 8) | (rgba << 24);
+            } catch (NumberFormatException e) {
+                // not a hex color, parsed below
+            }
+        }
+
+        return toArgb(Color.valueOf(value));
+    }
+}
@@ -0,0 +1,801 @@
+package com.demo.lab5;
+
+import com.demo.lab5.model.ShapeGeometry;
+import com.demo.lab5.model.ShapeStore;
+import com.demo.lab5.model.ShapeStoreListener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.IntConsumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Drawing stored as spatially coherent chunks of shapes, each compressed on its own with Deflate.
+ * <p>
+ * File starts with {@link #MAGIC}, format version and offset of the index. Index holds number of shapes and, for every
+ * chunk, its offset, compressed and uncompressed length, number of shapes and bounds (min x, min y, max x, max y).
+ * Chunk holds ids of its shapes in ascending order followed by their records in {@link ShapesBinaryEncoder} format.
+ * Shapes close to each other are put into the same chunk, so a part of the drawing can be read by decompressing only
+ * chunks which intersect it.
+ * <p>
+ * Drawing read from or written to an archive can be saved again by {@link #update(FileChannel, Update, IntConsumer)},
+ * which appends only chunks with changed shapes and a new index to the end of the file and then points the header to
+ * the new index. Replaced chunks stay in the file as garbage until the whole file is written again, see
+ * {@link #needsRewrite()}.
+ * <p>
+ * Instances are not thread safe. Update is prepared on the thread which owns the store and written by a background
+ * task, which owns the archive until it finishes.
+ */
+public class DrawingArchive {
+    /**
+     * File signature, "JFXA" in ASCII.
+     */
+    public static final int MAGIC = 0x4A465841;
+    /**
+     * Current format version.
+     */
+    public static final short VERSION = 1;
+    /**
+     * Maximal number of shapes in a chunk.
+     */
+    public static final int CHUNK_SIZE = 1024;
+
+    /**
+     * Size of the file header: magic, version and index offset.
+     */
+    static final int HEADER_SIZE = Integer.BYTES + Short.BYTES + Long.BYTES;
+    /**
+     * Size of the index header: number of shapes and number of chunks.
+     */
+    static final int INDEX_HEADER_SIZE = 2 * Integer.BYTES;
+    /**
+     * Size of a single index entry: offset, compressed length, length, number of shapes and bounds.
+     */
+    static final int INDEX_ENTRY_SIZE = Long.BYTES + 3 * Integer.BYTES + 4 * Double.BYTES;
+
+    /**
+     * Garbage smaller than this never forces the whole file to be written again.
+     */
+    private static final long MIN_GARBAGE = 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Chunks in index order. Chunks whose shapes were all removed are kept empty, so indexes of other chunks don't
+     * change.
+     */
+    private List<Chunk> chunks;
+    /**
+     * Index of the chunk holding every shape
+     */
+    private int[] chunkOf;
+    /**
+     * Number of shapes
+     */
+    private int size;
+    /**
+     * Size of the file and number of its bytes used by the current header, chunks and index
+     */
+    private long fileSize;
+    private long liveBytes;
+
+    private DrawingArchive(List<Chunk> chunks, int size) {
+        this.chunks = chunks;
+        this.size = size;
+        this.chunkOf = new int[Math.max(size, 1)];
+    }
+
+    /**
+     * Writes all shapes of the store to the channel as a complete archive. Channel is not closed.
+     *
+     * @param store       shapes to write
+     * @param channel     target channel, empty
+     * @param beforeShape called with id of every shape before it is written, can be used to report progress or to load
+     *                    placeholders; shapes are written chunk by chunk, not in id order
+     * @return archive which can update the written file
+     * @throws IOException if shapes can't be written
+     */
+    public static DrawingArchive write(ShapeStore store, FileChannel channel, IntConsumer beforeShape) throws IOException {
+        int[] order = new int[store.size()];
+        Arrays.setAll(order, id -> id);
+        sortSpatially(store, order);
+
+        DrawingArchive archive = new DrawingArchive(new ArrayList<>(), store.size());
+        ChunkEncoder encoder = new ChunkEncoder();
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        long position = HEADER_SIZE;
+
+        try {
+            for (int from = 0; from < order.length; from += CHUNK_SIZE) {
+                int[] ids = Arrays.copyOfRange(order, from, Math.min(from + CHUNK_SIZE, order.length));
+                Arrays.sort(ids);
+
+                EncodedChunk encoded = encoder.encode(store, ids, archive.chunks.size(), beforeShape);
+                Chunk chunk = writeChunk(encoded, channel, position, deflater);
+                position += chunk.compressedLength;
+
+                archive.chunks.add(chunk);
+                for (int id : ids) {
+                    archive.chunkOf[id] = encoded.index;
+                }
+            }
+        } finally {
+            deflater.end();
+        }
+
+        archive.writeIndex(channel, position);
+        return archive;
+    }
+
+    /**
+     * Reads all shapes from the channel and adds them to the store in id order. Channel is not closed.
+     *
+     * @param channel    source channel
+     * @param target     store receiving decoded shapes in id order
+     * @param afterShape called with id of every shape after it is added to the store
+     * @return archive which can update the read file
+     * @throws IOException if channel doesn't contain proper archive
+     */
+    public static DrawingArchive read(FileChannel channel, ShapeStore target, IntConsumer afterShape) throws IOException {
+        DrawingArchive archive = readIndex(channel);
+        ByteBuffer[] records = new ByteBuffer[archive.chunks.size()];
+        Arrays.fill(archive.chunkOf, -1);
+        Inflater inflater = new Inflater();
+
+        try {
+            for (int i = 0; i < records.length; i++) {
+                Chunk chunk = archive.chunks.get(i);
+                records[i] = readChunk(channel, chunk, inflater);
+                chunk.ids = readIds(records[i], chunk.count, archive.size);
+
+                for (int id : chunk.ids) {
+                    if (archive.chunkOf[id] != -1) {
+                        throw new IOException("Shape " + id + " is stored twice");
+                    }
+                    archive.chunkOf[id] = i;
+                }
+            }
+        } finally {
+            inflater.end();
+        }
+
+        // records of every chunk are in id order, so each chunk is read from its start to its end
+        for (int id = 0; id < archive.size; id++) {
+            if (archive.chunkOf[id] == -1) {
+                throw new IOException("Shape " + id + " is missing");
+            }
+
+            afterShape.accept(ShapesBinaryEncoder.decodeShape(records[archive.chunkOf[id]], target));
+        }
+
+        return archive;
+    }
+
+    /**
+     * Reads only shapes of chunks which intersect given rectangle. Other chunks are not decompressed. Channel is not
+     * closed.
+     *
+     * @param channel source channel
+     * @param minX    min x of the rectangle
+     * @param minY    min y of the rectangle
+     * @param maxX    max x of the rectangle
+     * @param maxY    max y of the rectangle
+     * @param target  store receiving decoded shapes
+     * @return ids of added shapes in the drawing, in order in which they were added to the store
+     * @throws IOException if channel doesn't contain proper archive
+     */
+    public static int[] read(FileChannel channel, double minX, double minY, double maxX, double maxY, ShapeStore target) throws IOException {
+        DrawingArchive archive = readIndex(channel);
+        List<Chunk> intersecting = new ArrayList<>();
+        int count = 0;
+
+        for (Chunk chunk : archive.chunks) {
+            if (chunk.count > 0 && chunk.bounds[0] <= maxX && chunk.bounds[1] <= maxY && chunk.bounds[2] >= minX && chunk.bounds[3] >= minY) {
+                intersecting.add(chunk);
+                count += chunk.count;
+            }
+        }
+
+        int[] ids = new int[count];
+        int added = 0;
+        Inflater inflater = new Inflater();
+
+        try {
+            for (Chunk chunk : intersecting) {
+                ByteBuffer records = readChunk(channel, chunk, inflater);
+                System.arraycopy(readIds(records, chunk.count, archive.size), 0, ids, added, chunk.count);
+
+                for (int i = 0; i < chunk.count; i++) {
+                    ShapesBinaryEncoder.decodeShape(records, target);
+                }
+                added += chunk.count;
+            }
+        } finally {
+            inflater.end();
+        }
+
+        return ids;
+    }
+
+    /**
+     * Returns number of shapes in the archive.
+     *
+     * @return number of shapes
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Checks if the file should be written again as a whole instead of being updated, because replaced chunks take more
+     * space than the drawing or chunks were split by removed shapes.
+     *
+     * @return true if the file should be written again
+     */
+    public boolean needsRewrite() {
+        long garbage = fileSize - liveBytes;
+
+        return garbage > Math.max(liveBytes, MIN_GARBAGE) || chunks.size() > 2 * (size / CHUNK_SIZE + 1);
+    }
+
+    /**
+     * Encodes chunks of the archive which contain changed shapes. Shapes added after the archive was written fill the
+     * last chunk first and then form new chunks. It costs time proportional to the number of changed chunks, so it can
+     * be called on the thread which owns the store.
+     *
+     * @param store      changed drawing
+     * @param changedIds ids of shapes changed, added or removed since the archive was written
+     * @return update which can be written by a background thread
+     */
+    public Update prepareUpdate(ShapeStore store, BitSet changedIds) {
+        int newSize = store.size();
+        int common = Math.min(size, newSize);
+        BitSet dirty = new BitSet(chunks.size());
+
+        for (int id = changedIds.nextSetBit(0); id >= 0 && id < common; id = changedIds.nextSetBit(id + 1)) {
+            dirty.set(chunkOf[id]);
+        }
+        for (int id = newSize; id < size; id++) {
+            dirty.set(chunkOf[id]);
+        }
+
+        // added shapes fill the last chunk, so small edits don't create small chunks
+        int last = chunks.size() - 1;
+        int added = Math.max(newSize - size, 0);
+        int filled = 0;
+        if (added > 0 && last >= 0) {
+            filled = Math.min(added, CHUNK_SIZE - countBelow(chunks.get(last).ids, newSize));
+            if (filled > 0) {
+                dirty.set(last);
+            }
+        }
+
+        ChunkEncoder encoder = new ChunkEncoder();
+        List<EncodedChunk> encoded = new ArrayList<>();
+        IntConsumer none = id -> {
+        };
+
+        for (int index = dirty.nextSetBit(0); index >= 0; index = dirty.nextSetBit(index + 1)) {
+            int[] kept = chunks.get(index).ids;
+            int count = countBelow(kept, newSize);
+            int extra = index == last ? filled : 0;
+
+            int[] ids = Arrays.copyOf(kept, count + extra);
+            for (int i = 0; i < extra; i++) {
+                ids[count + i] = size + i;
+            }
+            Arrays.sort(ids);
+
+            encoded.add(encoder.encode(store, ids, index, none));
+        }
+
+        int[] rest = new int[added - filled];
+        for (int i = 0; i < rest.length; i++) {
+            rest[i] = size + filled + i;
+        }
+        sortSpatially(store, rest);
+        for (int from = 0; from < rest.length; from += CHUNK_SIZE) {
+            int[] ids = Arrays.copyOfRange(rest, from, Math.min(from + CHUNK_SIZE, rest.length));
+            Arrays.sort(ids);
+            encoded.add(encoder.encode(store, ids, -1, none));
+        }
+
+        return new Update(newSize, encoded);
+    }
+
+    /**
+     * Writes the update to the end of the archive file and then points the header to the new index. Until the header is
+     * written the file holds the previous drawing, so interrupted update leaves only garbage at the end of the file.
+     * Archive is changed only when the update is written.
+     *
+     * @param channel  channel of the archive file opened for reading and writing
+     * @param update   update prepared by {@link #prepareUpdate(ShapeStore, BitSet)}
+     * @param progress called with number of written shapes before every chunk is written
+     * @throws IOException if update can't be written
+     */
+    public void update(FileChannel channel, Update update, IntConsumer progress) throws IOException {
+        List<Chunk> updated = new ArrayList<>(chunks);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        long position = channel.size();
+        int written = 0;
+
+        try {
+            for (EncodedChunk encoded : update.chunks) {
+                progress.accept(written);
+
+                Chunk chunk = writeChunk(encoded, channel, position, deflater);
+                position += chunk.compressedLength;
+                written += chunk.count;
+
+                if (encoded.index >= 0) {
+                    updated.set(encoded.index, chunk);
+                } else {
+                    encoded.index = updated.size();
+                    updated.add(chunk);
+                }
+            }
+        } finally {
+            deflater.end();
+        }
+
+        // new index must be durable before the header points to it
+        long indexOffset = position;
+        position = writeIndex(channel, indexOffset, updated, update.size);
+        channel.force(false);
+        writeHeader(channel, indexOffset);
+        channel.force(false);
+
+        chunks = updated;
+        size = update.size;
+        if (chunkOf.length < size) {
+            chunkOf = Arrays.copyOf(chunkOf, Math.max(size, 2 * chunkOf.length));
+        }
+        for (EncodedChunk encoded : update.chunks) {
+            for (int id : encoded.ids) {
+                chunkOf[id] = encoded.index;
+            }
+        }
+        fileSize = position;
+        liveBytes = computeLiveBytes();
+    }
+
+    /**
+     * Writes index of the archive after its chunks and the header pointing to it.
+     */
+    private void writeIndex(FileChannel channel, long indexOffset) throws IOException {
+        fileSize = writeIndex(channel, indexOffset, chunks, size);
+        writeHeader(channel, indexOffset);
+        liveBytes = computeLiveBytes();
+    }
+
+    private long computeLiveBytes() {
+        long bytes = HEADER_SIZE + INDEX_HEADER_SIZE + (long) chunks.size() * INDEX_ENTRY_SIZE;
+        for (Chunk chunk : chunks) {
+            bytes += chunk.compressedLength;
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Writes index at given offset.
+     *
+     * @return offset after the index
+     */
+    private static long writeIndex(FileChannel channel, long offset, List<Chunk> chunks, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(INDEX_HEADER_SIZE + chunks.size() * INDEX_ENTRY_SIZE);
+        buffer.putInt(size);
+        buffer.putInt(chunks.size());
+
+        for (Chunk chunk : chunks) {
+            buffer.putLong(chunk.offset);
+            buffer.putInt(chunk.compressedLength);
+            buffer.putInt(chunk.length);
+            buffer.putInt(chunk.count);
+            for (double bound : chunk.bounds) {
+                buffer.putDouble(bound);
+            }
+        }
+
+        buffer.flip();
+        return offset + writeFully(channel, buffer, offset);
+    }
+
+    private static void writeHeader(FileChannel channel, long indexOffset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putShort(VERSION);
+        header.putLong(indexOffset);
+        header.flip();
+
+        writeFully(channel, header, 0);
+    }
+
+    /**
+     * Reads header and index of the archive. Ids of shapes in chunks are not known until chunks are read.
+     *
+     * @throws IOException if channel doesn't contain proper archive
+     */
+    private static DrawingArchive readIndex(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        if (fileSize < HEADER_SIZE + INDEX_HEADER_SIZE) {
+            throw new IOException("Not a drawing archive");
+        }
+
+        ByteBuffer header = readFully(channel, 0, HEADER_SIZE);
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Not a drawing archive");
+        }
+        short version = header.getShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported drawing archive version: " + version);
+        }
+
+        long indexOffset = header.getLong();
+        if (indexOffset < HEADER_SIZE || indexOffset > fileSize - INDEX_HEADER_SIZE) {
+            throw new IOException("Invalid archive index");
+        }
+
+        ByteBuffer indexHeader = readFully(channel, indexOffset, INDEX_HEADER_SIZE);
+        int size = indexHeader.getInt();
+        int count = indexHeader.getInt();
+        if (size < 0 || count < 0 || (long) count * INDEX_ENTRY_SIZE > fileSize - indexOffset - INDEX_HEADER_SIZE) {
+            throw new IOException("Invalid archive index");
+        }
+
+        ByteBuffer entries = readFully(channel, indexOffset + INDEX_HEADER_SIZE, count * INDEX_ENTRY_SIZE);
+        List<Chunk> chunks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Chunk chunk = new Chunk();
+            chunk.offset = entries.getLong();
+            chunk.compressedLength = entries.getInt();
+            chunk.length = entries.getInt();
+            chunk.count = entries.getInt();
+            for (int j = 0; j < 4; j++) {
+                chunk.bounds[j] = entries.getDouble();
+            }
+
+            if (chunk.offset < HEADER_SIZE || chunk.compressedLength < 0 || chunk.offset + chunk.compressedLength > indexOffset
+                    || chunk.count < 0 || chunk.length < (long) chunk.count * Integer.BYTES) {
+                throw new IOException("Invalid archive index");
+            }
+            chunks.add(chunk);
+        }
+
+        DrawingArchive archive = new DrawingArchive(chunks, size);
+        archive.fileSize = fileSize;
+        archive.liveBytes = archive.computeLiveBytes();
+        return archive;
+    }
+
+    /**
+     * Compresses encoded chunk and writes it at given offset.
+     *
+     * @return written chunk
+     */
+    private static Chunk writeChunk(EncodedChunk encoded, FileChannel channel, long offset, Deflater deflater) throws IOException {
+        byte[] compressed = new byte[BUFFER_SIZE];
+        int written = 0;
+
+        deflater.reset();
+        deflater.setInput(encoded.data);
+        deflater.finish();
+        while (!deflater.finished()) {
+            int length = deflater.deflate(compressed);
+            written += writeFully(channel, ByteBuffer.wrap(compressed, 0, length), offset + written);
+        }
+
+        Chunk chunk = new Chunk();
+        chunk.offset = offset;
+        chunk.compressedLength = written;
+        chunk.length = encoded.data.length;
+        chunk.count = encoded.ids.length;
+        chunk.ids = encoded.ids;
+        System.arraycopy(encoded.bounds, 0, chunk.bounds, 0, 4);
+        return chunk;
+    }
+
+    /**
+     * Reads and decompresses chunk.
+     *
+     * @return buffer positioned at the first id of the chunk
+     */
+    private static ByteBuffer readChunk(FileChannel channel, Chunk chunk, Inflater inflater) throws IOException {
+        ByteBuffer compressed = readFully(channel, chunk.offset, chunk.compressedLength);
+        byte[] data = new byte[chunk.length];
+
+        inflater.reset();
+        inflater.setInput(compressed.array(), 0, chunk.compressedLength);
+        try {
+            int length = inflater.inflate(data);
+            if (length != chunk.length || !inflater.finished()) {
+                throw new IOException("Corrupted archive chunk");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted archive chunk", e);
+        }
+
+        return ByteBuffer.wrap(data);
+    }
+
+    /**
+     * Reads ids at the start of the chunk and checks they are ascending ids of the drawing.
+     */
+    private static int[] readIds(ByteBuffer records, int count, int size) throws IOException {
+        int[] ids = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            ids[i] = records.getInt();
+            if (ids[i] < 0 || ids[i] >= size || i > 0 && ids[i] <= ids[i - 1]) {
+                throw new IOException("Invalid shape id in archive chunk: " + ids[i]);
+            }
+        }
+
+        return ids;
+    }
+
+    /**
+     * Sorts ids by the Z-order curve of centers of their shapes, so consecutive shapes lie close to each other.
+     */
+    private static void sortSpatially(ShapeStore store, int[] ids) {
+        if (ids.length < 2) {
+            return;
+        }
+
+        double[] centers = new double[2 * ids.length];
+        double[] bounds = new double[4];
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+
+        for (int i = 0; i < ids.length; i++) {
+            ShapeGeometry.bounds(store, ids[i], bounds);
+            double x = (bounds[0] + bounds[2]) / 2;
+            double y = (bounds[1] + bounds[3]) / 2;
+            centers[2 * i] = x;
+            centers[2 * i + 1] = y;
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+        }
+
+        // cells are 16 bits in both axes, key holds cell in the upper half and id in the lower half
+        double scaleX = maxX > minX ? 0xFFFF / (maxX - minX) : 0;
+        double scaleY = maxY > minY ? 0xFFFF / (maxY - minY) : 0;
+        long[] keys = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            int cellX = (int) ((centers[2 * i] - minX) * scaleX);
+            int cellY = (int) ((centers[2 * i + 1] - minY) * scaleY);
+            keys[i] = (spread(cellX) | spread(cellY) << 1) << 32 | ids[i];
+        }
+
+        Arrays.sort(keys);
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = (int) keys[i];
+        }
+    }
+
+    /**
+     * Spreads lower 16 bits of the value to even bits.
+     */
+    private static long spread(int value) {
+        long bits = value & 0xFFFFL;
+        bits = (bits | bits << 8) & 0x00FF00FFL;
+        bits = (bits | bits << 4) & 0x0F0F0F0FL;
+        bits = (bits | bits << 2) & 0x33333333L;
+        bits = (bits | bits << 1) & 0x55555555L;
+
+        return bits;
+    }
+
+    /**
+     * Counts ids of ascending array which are smaller than the limit.
+     */
+    private static int countBelow(int[] ids, int limit) {
+        int index = Arrays.binarySearch(ids, limit);
+
+        return index >= 0 ? index : -index - 1;
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of drawing archive");
+            }
+        }
+
+        buffer.flip();
+        return buffer;
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+        int length = buffer.remaining();
+
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, offset + length - buffer.remaining());
+        }
+
+        return length;
+    }
+
+    /**
+     * Chunks with changed shapes encoded on the thread which owns the store.
+     */
+    public static final class Update {
+        /**
+         * Number of shapes of the drawing
+         */
+        private final int size;
+        private final List<EncodedChunk> chunks;
+
+        private Update(int size, List<EncodedChunk> chunks) {
+            this.size = size;
+            this.chunks = chunks;
+        }
+
+        /**
+         * Returns number of shapes in chunks of the update.
+         *
+         * @return number of written shapes
+         */
+        public int getShapeCount() {
+            int count = 0;
+            for (EncodedChunk chunk : chunks) {
+                count += chunk.ids.length;
+            }
+
+            return count;
+        }
+    }
+
+    /**
+     * Tracks ids of shapes changed since the archive was read or written. Changes are tracked through store events, so
+     * they cost time proportional to the edit.
+     */
+    public static class ChangeTracker implements ShapeStoreListener {
+        private final BitSet changedIds = new BitSet();
+        /**
+         * True if the store was cleared, so the archive can't be updated
+         */
+        private boolean cleared;
+
+        /**
+         * Forgets tracked changes.
+         */
+        public void reset() {
+            changedIds.clear();
+            cleared = false;
+        }
+
+        public boolean isCleared() {
+            return cleared;
+        }
+
+        public BitSet getChangedIds() {
+            return changedIds;
+        }
+
+        @Override
+        public void shapesAdded(int fromId, int toId) {
+            changedIds.set(fromId, toId);
+        }
+
+        @Override
+        public void shapeChanged(int id) {
+            changedIds.set(id);
+        }
+
+        @Override
+        public void shapesChanged(int[] ids, int count) {
+            for (int i = 0; i < count; i++) {
+                changedIds.set(ids[i]);
+            }
+        }
+
+        @Override
+        public void shapesRemoved(int fromId, int toId) {
+            changedIds.set(fromId, toId);
+        }
+
+        @Override
+        public void shapesCleared() {
+            cleared = true;
+        }
+    }
+
+    /**
+     * Chunk stored in the file.
+     */
+    private static final class Chunk {
+        private long offset;
+        private int compressedLength;
+        private int length;
+        private int count;
+        private final double[] bounds = new double[4];
+        /**
+         * Ascending ids of shapes in the chunk, null until the chunk is read
+         */
+        private int[] ids;
+    }
+
+    /**
+     * Uncompressed chunk waiting to be written.
+     */
+    private static final class EncodedChunk {
+        /**
+         * Index of replaced chunk, or -1 if chunk is added
+         */
+        private int index;
+        private final int[] ids;
+        /**
+         * Ids followed by records of the shapes
+         */
+        private final byte[] data;
+        private final double[] bounds;
+
+        private EncodedChunk(int index, int[] ids, byte[] data, double[] bounds) {
+            this.index = index;
+            this.ids = ids;
+            this.data = data;
+            this.bounds = bounds;
+        }
+    }
+
+    /**
+     * Encodes shapes of chunks with reusable buffers.
+     */
+    private static final class ChunkEncoder {
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final ByteArrayOutputStream encoded = new ByteArrayOutputStream(BUFFER_SIZE);
+        private final WritableByteChannel encodedChannel = Channels.newChannel(encoded);
+        private final double[] shapeBounds = new double[4];
+
+        private EncodedChunk encode(ShapeStore store, int[] ids, int index, IntConsumer beforeShape) {
+            double[] bounds = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+            encoded.reset();
+
+            try {
+                for (int id : ids) {
+                    ShapesBinaryEncoder.ensureSpace(buffer, encodedChannel, Integer.BYTES);
+                    buffer.putInt(id);
+                }
+
+                for (int id : ids) {
+                    beforeShape.accept(id);
+                    ShapesBinaryEncoder.encodeShape(store, id, buffer, encodedChannel);
+
+                    ShapeGeometry.bounds(store, id, shapeBounds);
+                    bounds[0] = Math.min(bounds[0], shapeBounds[0]);
+                    bounds[1] = Math.min(bounds[1], shapeBounds[1]);
+                    bounds[2] = Math.max(bounds[2], shapeBounds[2]);
+                    bounds[3] = Math.max(bounds[3], shapeBounds[3]);
+                }
+
+                ShapesBinaryEncoder.flush(buffer, encodedChannel);
+            } catch (IOException e) {
+                // writing to the byte array can't fail
+                throw new IllegalStateException(e);
+            }
+
+            if (ids.length == 0) {
+                Arrays.fill(bounds, 0);
+            }
+
+            return new EncodedChunk(index, ids, encoded.toByteArray(), bounds);
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package com.demo.lab5;
+
+import com.demo.lab5.model.ShapeStore;
+import com.demo.lab5.model.ShapeStoreListener;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.application.Platform;
+import javafx.util.Duration;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically appends shapes changed since the last autosave to the {@link DrawingJournal} of the opened drawing.
+ * <p>
+ * Changed shapes are tracked through store events and encoded on the JavaFX Application Thread, which costs time
+ * proportional to the edit, not to the drawing. Writing, syncing and compacting the journal run on a separate
+ * background thread. Only compaction needs a copy of the whole store, which is taken when the journal grew larger than
+ * the drawing.
+ */
+public class DrawingAutosave implements ShapeStoreListener {
+    /**
+     * Time between autosaves.
+     */
+    private static final Duration INTERVAL = Duration.seconds(2);
+    /**
+     * Number of changed shapes above which the journal is compacted instead of appended to, if they are more than half of
+     * the drawing.
+     */
+    private static final int MIN_SNAPSHOT_CHANGES = 1024;
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * Store of the drawing
+     */
+    private final ShapeStore store;
+    /**
+     * Thread writing the journal
+     */
+    private final ExecutorService executor;
+    /**
+     * Timer triggering autosaves
+     */
+    private final Timeline timer;
+
+    /**
+     * Journal of the opened drawing. It is only used by tasks on the executor. It is null when drawing has no file.
+     */
+    private DrawingJournal journal;
+    /**
+     * True if changes are tracked but not written, for example while drawing is being saved
+     */
+    private boolean paused;
+    /**
+     * Ids of shapes changed since the last autosave, in order of their first change
+     */
+    private int[] dirty = new int[64];
+    private int dirtyCount;
+    /**
+     * Membership of {@link #dirty}
+     */
+    private final BitSet dirtyIds = new BitSet();
+    /**
+     * True if anything changed since the last autosave, including removal of shapes
+     */
+    private boolean changed;
+    /**
+     * Set by the executor when the journal should be compacted
+     */
+    private volatile boolean compactionRequested;
+    /**
+     * True if the journal has to start with a snapshot, because the drawing file doesn't keep shapes exactly
+     */
+    private boolean snapshotRequired;
+
+    /**
+     * Reusable buffers for encoding changes
+     */
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final ByteArrayOutputStream encoded = new ByteArrayOutputStream(BUFFER_SIZE);
+    private final WritableByteChannel encodedChannel = Channels.newChannel(encoded);
+
+    /**
+     * Creates autosave of given store. It does nothing until a drawing file is opened.
+     *
+     * @param store store of the drawing
+     */
+    public DrawingAutosave(ShapeStore store) {
+        this.store = store;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "drawing-autosave");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timer = new Timeline(new KeyFrame(INTERVAL, event -> save()));
+        this.timer.setCycleCount(Timeline.INDEFINITE);
+
+        store.addListener(this);
+    }
+
+    /**
+     * Starts autosaving changes of the drawing which was just read from the file. Existing journal of the drawing is
+     * dropped, unless the drawing was recovered from it, in which case it is compacted.
+     *
+     * @param drawing   drawing file
+     * @param recovered true if store content was recovered from the journal of the drawing
+     */
+    public void open(File drawing, boolean recovered) {
+        close();
+        clearChanges();
+
+        DrawingJournal opened = new DrawingJournal(drawing.toPath());
+        journal = opened;
+        compactionRequested = recovered;
+        snapshotRequired = false;
+        submit(() -> {
+            if (!recovered) {
+                opened.reset();
+            }
+        });
+        resume();
+    }
+
+    /**
+     * Starts autosaving changes of the drawing which was just saved to the file. Journal of the previous file is deleted,
+     * as its changes are saved now. Changes made after the save started are kept for the next autosave. If the file
+     * doesn't keep shapes exactly, the first change starts the journal with a snapshot, as changes of shapes by their
+     * ids can't be replayed on the drawing read back from the file.
+     *
+     * @param drawing saved file
+     * @param exact   true if the file keeps shapes exactly, see {@link DrawingFormat#isExact()}
+     */
+    public void saved(File drawing, boolean exact) {
+        DrawingJournal previous = journal;
+        DrawingJournal saved = new DrawingJournal(drawing.toPath());
+        journal = saved;
+        compactionRequested = false;
+        snapshotRequired = !exact;
+        submit(() -> {
+            if (previous != null) {
+                previous.delete();
+            }
+            saved.reset();
+        });
+        resume();
+    }
+
+    /**
+     * Writes pending changes and stops autosaving until {@link #resume()}. Changes are still tracked.
+     */
+    public void pause() {
+        save();
+        paused = true;
+        timer.stop();
+    }
+
+    /**
+     * Resumes autosaving.
+     */
+    public void resume() {
+        paused = false;
+        timer.play();
+    }
+
+    /**
+     * Writes pending changes and stops autosaving. Journal is kept, so changes can be recovered when the drawing is
+     * opened again.
+     */
+    public void close() {
+        save();
+        timer.stop();
+
+        DrawingJournal closed = journal;
+        journal = null;
+        if (closed != null) {
+            submit(closed::close);
+        }
+    }
+
+    /**
+     * Closes the journal and waits until all changes are written. It must be called when the application exits.
+     */
+    public void shutdown() {
+        close();
+        executor.shutdown();
+
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes changes made since the last autosave to the journal, or compacts the journal if it is too large.
+     */
+    private void save() {
+        if (journal == null || paused) {
+            return;
+        }
+
+        DrawingJournal target = journal;
+
+        // rewriting most of the drawing costs the same as a snapshot, which also keeps the journal small
+        if (compactionRequested || snapshotRequired && changed
+                || dirtyCount > MIN_SNAPSHOT_CHANGES && dirtyCount > store.size() / 2) {
+            compactionRequested = false;
+            snapshotRequired = false;
+            ShapeStore snapshot = store.copy();
+            clearChanges();
+            submit(() -> target.compact(snapshot));
+            return;
+        }
+
+        if (!changed) {
+            return;
+        }
+
+        int[] ids = Arrays.copyOf(dirty, dirtyCount);
+        Arrays.sort(ids);
+        clearChanges();
+
+        try {
+            encoded.reset();
+            DrawingJournal.encodeBatch(store, ids, ids.length, buffer, encodedChannel);
+            ShapesBinaryEncoder.flush(buffer, encodedChannel);
+        } catch (IOException | IllegalArgumentException e) {
+            // store can't be encoded, for example it has placeholders of a lazily opened drawing
+            buffer.clear();
+            fail(e);
+            return;
+        }
+
+        byte[] batch = encoded.toByteArray();
+        submit(() -> {
+            target.append(batch, batch.length);
+            if (target.needsCompaction()) {
+                compactionRequested = true;
+            }
+        });
+    }
+
+    /**
+     * Runs journal operation on the executor. Failure stops autosaving.
+     */
+    private void submit(JournalOperation operation) {
+        executor.execute(() -> {
+            try {
+                operation.run();
+            } catch (IOException e) {
+                Platform.runLater(() -> fail(e));
+            }
+        });
+    }
+
+    /**
+     * Stops autosaving and informs user about the failure.
+     */
+    private void fail(Exception e) {
+        if (journal == null) {
+            return;
+        }
+
+        timer.stop();
+        journal = null;
+        ErrorUtils.showError("Autosave error", "Autosave stopped", "Changes can't be written to the journal. " + e.getMessage());
+    }
+
+    private void clearChanges() {
+        for (int i = 0; i < dirtyCount; i++) {
+            dirtyIds.clear(dirty[i]);
+        }
+        dirtyCount = 0;
+        changed = false;
+    }
+
+    private void markDirty(int id) {
+        changed = true;
+        if (dirtyIds.get(id)) {
+            return;
+        }
+
+        if (dirtyCount == dirty.length) {
+            dirty = Arrays.copyOf(dirty, 2 * dirtyCount);
+        }
+        dirty[dirtyCount++] = id;
+        dirtyIds.set(id);
+    }
+
+    @Override
+    public void shapesAdded(int from, int to) {
+        if (journal == null) {
+            return;
+        }
+
+        for (int id = from; id < to; id++) {
+            markDirty(id);
+        }
+    }
+
+    @Override
+    public void shapeChanged(int id) {
+        if (journal != null) {
+            markDirty(id);
+        }
+    }
+
+    @Override
+    public void shapesRemoved(int from, int to) {
+        if (journal != null) {
+            changed = true;
+        }
+    }
+
+    @Override
+    public void shapesCleared() {
+        if (journal != null) {
+            changed = true;
+        }
+    }
+
+    /**
+     * Operation on the journal run by the executor.
+     */
+    @FunctionalInterface
+    private interface JournalOperation {
+        void run() throws IOException;
+    }
+}
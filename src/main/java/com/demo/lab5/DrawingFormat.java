@@ -0,0 +1,171 @@
+package com.demo.lab5;
+
+import com.demo.lab5.model.ShapeStore;
+import javafx.stage.FileChooser;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+
+/**
+ * DrawingFormat represents file formats in which drawings can be saved and opened.
+ */
+public enum DrawingFormat {
+    XML("XML files (*.xml)", "xml"),
+    BINARY("Binary drawings (*.jfxp)", "jfxp"),
+    ARCHIVE("Drawing archives (*.jfxa)", "jfxa"),
+    SVG("SVG images (*.svg)", "svg");
+
+    /**
+     * Description shown in file choosers
+     */
+    private final String description;
+    /**
+     * File extension without the dot
+     */
+    private final String extension;
+
+    DrawingFormat(String description, String extension) {
+        this.description = description;
+        this.extension = extension;
+    }
+
+    /**
+     * Finds format by file extension.
+     *
+     * @param file file
+     * @return format of the file or null if extension is not known
+     */
+    public static DrawingFormat forFile(File file) {
+        String name = file.getName().toLowerCase();
+
+        for (DrawingFormat format : values()) {
+            if (name.endsWith("." + format.extension)) {
+                return format;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Finds format by file chooser filter created with {@link #createFilter()}.
+     *
+     * @param filter file chooser filter
+     * @return format matching the filter or null if filter doesn't belong to any format
+     */
+    public static DrawingFormat forFilter(FileChooser.ExtensionFilter filter) {
+        for (DrawingFormat format : values()) {
+            if (filter != null && filter.getDescription().equals(format.description)) {
+                return format;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Creates file chooser filter for this format.
+     *
+     * @return file chooser filter
+     */
+    public FileChooser.ExtensionFilter createFilter() {
+        return new FileChooser.ExtensionFilter(description, "*." + extension);
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * Checks if drawings read from files in this format have the same shapes under the same ids as the written drawing.
+     * SVG documents are read as images of other tools, so shapes of exported drawings may come back changed.
+     *
+     * @return true if files keep shapes exactly
+     */
+    public boolean isExact() {
+        return this != SVG;
+    }
+
+    /**
+     * Writes all shapes of the store to the channel in this format.
+     *
+     * @param store       shapes to write
+     * @param channel     target channel
+     * @param beforeShape called with id of every shape before it is written
+     * @throws IOException        if shapes can't be written
+     * @throws XMLStreamException if xml can't be encoded
+     */
+    public void write(ShapeStore store, FileChannel channel, IntConsumer beforeShape) throws IOException, XMLStreamException {
+        switch (this) {
+            case XML -> {
+                OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel));
+                ShapesXmlEncoder.write(store, out, beforeShape);
+                out.flush();
+            }
+            case BINARY -> ShapesBinaryEncoder.write(store, channel, beforeShape);
+            case ARCHIVE -> DrawingArchive.write(store, channel, beforeShape);
+            case SVG -> ShapesSvgEncoder.write(store, channel, beforeShape);
+        }
+    }
+
+    /**
+     * Reads shapes in this format from the channel.
+     *
+     * @param channel    source channel
+     * @param target     store receiving decoded shapes in file order
+     * @param afterShape called with id of every shape after it is added to the store
+     * @throws IOException        if channel can't be read or doesn't contain proper binary drawing or svg document
+     * @throws XMLStreamException if channel doesn't contain proper xml
+     */
+    public void read(FileChannel channel, ShapeStore target, IntConsumer afterShape) throws IOException, XMLStreamException {
+        switch (this) {
+            case XML -> {
+                InputStream in = new BufferedInputStream(Channels.newInputStream(channel));
+                ShapesXmlEncoder.read(in, target, afterShape);
+            }
+            case BINARY -> ShapesBinaryEncoder.read(channel, target, afterShape);
+            case ARCHIVE -> DrawingArchive.read(channel, target, afterShape);
+            case SVG -> ShapesSvgEncoder.read(channel, target, afterShape);
+        }
+    }
+
+    /**
+     * Reads shapes in this format from the channel and decodes them in parallel, if the format needs parsing. Shapes of
+     * xml files are decoded by tasks of the pool. Binary records and archive chunks are copied into the store as they are
+     * read and svg elements are decoded as they are scanned, so they are read the same way as by
+     * {@link #read(FileChannel, ShapeStore, IntConsumer)} and reading is counted as decoding.
+     *
+     * @param channel    source channel
+     * @param target     store receiving decoded shapes in file order
+     * @param afterShape called with id of every shape after it is added to the store
+     * @param pool       pool decoding shapes
+     * @param phases     durations of parse and decode phases
+     * @throws IOException        if channel can't be read or doesn't contain proper binary drawing
+     * @throws XMLStreamException if channel doesn't contain proper xml
+     */
+    public void read(FileChannel channel, ShapeStore target, IntConsumer afterShape, ForkJoinPool pool, LoadPhases phases) throws IOException, XMLStreamException {
+        switch (this) {
+            case XML -> {
+                InputStream in = new BufferedInputStream(Channels.newInputStream(channel));
+                ShapesXmlEncoder.read(in, target, afterShape, pool, phases);
+            }
+            case BINARY, ARCHIVE, SVG -> {
+                long start = System.nanoTime();
+                try {
+                    read(channel, target, afterShape);
+                } finally {
+                    phases.addDecode(System.nanoTime() - start);
+                }
+            }
+        }
+    }
+}
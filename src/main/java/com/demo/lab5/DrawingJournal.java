@@ -0,0 +1,487 @@
+package com.demo.lab5;
+
+import com.demo.lab5.model.ShapeStore;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.IntConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of changes made to a drawing since it was last opened or saved. Journal is kept in a file next
+ * to the drawing, so unsaved changes can be recovered after a crash.
+ * <p>
+ * Journal starts with a header which tells whether it is based on the drawing file or on a snapshot stored in the
+ * journal itself. It is followed by batches of changes, each with its length and CRC32, so a batch torn by a crash is
+ * detected and ignored. Batch consists of operations:
+ * <ul>
+ *     <li>size of the drawing, shapes above it are removed,</li>
+ *     <li>id of a shape followed by its record in {@link ShapesBinaryEncoder} format, which replaces the shape or adds
+ *     it to the end of the drawing.</li>
+ * </ul>
+ * When the journal grows larger than its base, it is compacted into a snapshot: a single batch with all shapes, which
+ * replaces the journal atomically.
+ * <p>
+ * Instances are not thread safe. They are meant to be used by a single background thread.
+ */
+public class DrawingJournal implements Closeable {
+    /**
+     * First bytes of every journal, "JFXJ" in ASCII.
+     */
+    public static final int MAGIC = 0x4A46584A;
+    /**
+     * Current journal version.
+     */
+    public static final short VERSION = 1;
+    /**
+     * Suffix added to the drawing file name.
+     */
+    public static final String SUFFIX = ".journal";
+
+    static final byte BASE_DRAWING = 0;
+    static final byte BASE_SNAPSHOT = 1;
+    static final byte SIZE_OP = 1;
+    static final byte SHAPE_OP = 2;
+    /**
+     * Magic, version, base, size and modification time of the drawing file.
+     */
+    static final int HEADER_SIZE = Integer.BYTES + Short.BYTES + 1 + 2 * Long.BYTES;
+    /**
+     * Journals smaller than this are never compacted.
+     */
+    private static final long MIN_COMPACTION_SIZE = 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Drawing file
+     */
+    private final Path drawing;
+    /**
+     * Journal file
+     */
+    private final Path path;
+    /**
+     * Channel appending to the journal. It is null until the first batch is written.
+     */
+    private FileChannel channel;
+    /**
+     * Size of the journal file
+     */
+    private long size;
+    /**
+     * Size of the data the journal is based on, either the drawing file or the snapshot
+     */
+    private long baseSize;
+
+    /**
+     * Creates journal of given drawing. Journal file is not touched until {@link #reset()} or the first write.
+     *
+     * @param drawing drawing file
+     */
+    public DrawingJournal(Path drawing) {
+        this.drawing = drawing.toAbsolutePath();
+        this.path = pathFor(this.drawing);
+    }
+
+    /**
+     * Returns path of the journal of given drawing.
+     *
+     * @param drawing drawing file
+     * @return journal file next to the drawing
+     */
+    public static Path pathFor(Path drawing) {
+        return drawing.resolveSibling(drawing.getFileName() + SUFFIX);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Deletes existing journal, so the next batch starts a new one based on the current drawing file.
+     *
+     * @throws IOException if journal can't be deleted
+     */
+    public void reset() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+        size = 0;
+        baseSize = Files.exists(drawing) ? Files.size(drawing) : 0;
+    }
+
+    /**
+     * Appends batch encoded with {@link #encodeBatch(ShapeStore, int[], int, ByteBuffer, WritableByteChannel)} and
+     * forces it to the disk.
+     *
+     * @param batch  encoded batch
+     * @param length number of bytes of the batch
+     * @throws IOException if batch can't be written
+     */
+    public void append(byte[] batch, int length) throws IOException {
+        if (channel == null) {
+            open();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(batch, 0, length);
+
+        ByteBuffer buffer = ByteBuffer.allocate(length + 2 * Integer.BYTES);
+        buffer.putInt(length);
+        buffer.put(batch, 0, length);
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+
+        while (buffer.hasRemaining()) {
+            size += channel.write(buffer, size);
+        }
+        channel.force(false);
+    }
+
+    /**
+     * Checks if journal grew larger than data it is based on, so it should be compacted.
+     *
+     * @return true if journal should be compacted
+     */
+    public boolean needsCompaction() {
+        return size - HEADER_SIZE > Math.max(MIN_COMPACTION_SIZE, baseSize);
+    }
+
+    /**
+     * Replaces the journal with a snapshot of all shapes. Snapshot is written to a temporary file which is moved over the
+     * journal, so a crash during compaction leaves the old journal intact.
+     *
+     * @param shapes all shapes of the drawing, it must not contain placeholders
+     * @throws IOException if snapshot can't be written
+     */
+    public void compact(ShapeStore shapes) throws IOException {
+        close();
+
+        Path temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+
+        try {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                writeHeader(out, BASE_SNAPSHOT);
+
+                // length is written after the batch, when it is known
+                ChecksumChannel checksum = new ChecksumChannel(out);
+                out.position(HEADER_SIZE + Integer.BYTES);
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                encodeBatch(shapes, null, shapes.size(), buffer, checksum);
+                ShapesBinaryEncoder.flush(buffer, checksum);
+
+                buffer.putInt((int) checksum.crc.getValue());
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+
+                buffer.clear();
+                buffer.putInt((int) checksum.written);
+                buffer.flip();
+                out.write(buffer, HEADER_SIZE);
+                out.force(false);
+
+                baseSize = checksum.written;
+            }
+
+            move(temp, path);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        channel = FileChannel.open(path, StandardOpenOption.WRITE);
+        size = channel.size();
+    }
+
+    /**
+     * Closes and deletes the journal.
+     *
+     * @throws IOException if journal can't be deleted
+     */
+    public void delete() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Encodes batch of changes: current size of the store and given shapes. Buffer is flushed to the channel whenever
+     * it runs out of space, remaining bytes are left in the buffer.
+     *
+     * @param store   store with the shapes
+     * @param ids     ids of changed shapes in ascending order, or null for all shapes
+     * @param count   number of ids
+     * @param buffer  buffer in write mode
+     * @param channel channel to flush buffer to
+     * @throws IOException if buffer can't be flushed
+     */
+    public static void encodeBatch(ShapeStore store, int[] ids, int count, ByteBuffer buffer, WritableByteChannel channel) throws IOException {
+        ShapesBinaryEncoder.ensureSpace(buffer, channel, 1 + Integer.BYTES);
+        buffer.put(SIZE_OP);
+        buffer.putInt(store.size());
+
+        for (int i = 0; i < count; i++) {
+            int id = ids == null ? i : ids[i];
+            if (id >= store.size()) {
+                // removed after it was changed, size operation takes care of it
+                continue;
+            }
+
+            ShapesBinaryEncoder.ensureSpace(buffer, channel, 1 + Integer.BYTES);
+            buffer.put(SHAPE_OP);
+            buffer.putInt(id);
+            ShapesBinaryEncoder.encodeShape(store, id, buffer, channel);
+        }
+    }
+
+    /**
+     * Checks if there is a journal with changes which can be applied to the current drawing file.
+     *
+     * @param drawing drawing file
+     * @return true if drawing has a journal which can be replayed
+     */
+    public static boolean isRecoverable(Path drawing) {
+        Path path = pathFor(drawing.toAbsolutePath());
+
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            return in.size() > HEADER_SIZE && readHeader(in, drawing) >= 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads drawing with all changes from its journal. Batches after the first damaged one are ignored, as they could
+     * only be written by a session which crashed.
+     *
+     * @param drawing    drawing file
+     * @param format     format of the drawing file
+     * @param target     empty store receiving the drawing
+     * @param afterShape called with id of every shape read from the drawing file or the journal
+     * @throws IOException        if journal doesn't belong to the drawing or files can't be read
+     * @throws XMLStreamException if drawing file doesn't contain proper xml
+     */
+    public static void replay(Path drawing, DrawingFormat format, ShapeStore target, IntConsumer afterShape) throws IOException, XMLStreamException {
+        Path path = pathFor(drawing.toAbsolutePath());
+
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            int base = readHeader(in, drawing);
+            if (base < 0) {
+                throw new IOException("Journal doesn't belong to the drawing");
+            }
+
+            if (base == BASE_DRAWING) {
+                try (FileChannel drawingChannel = FileChannel.open(drawing, StandardOpenOption.READ)) {
+                    format.read(drawingChannel, target, afterShape);
+                }
+            }
+
+            ShapeStore scratch = new ShapeStore(1);
+            ByteBuffer lengthBuffer = ByteBuffer.allocate(Integer.BYTES);
+            CRC32 crc = new CRC32();
+
+            while (true) {
+                lengthBuffer.clear();
+                if (!readFully(in, lengthBuffer)) {
+                    return;
+                }
+
+                int length = lengthBuffer.getInt();
+                if (length <= 0 || length > in.size() - in.position()) {
+                    return;
+                }
+
+                ByteBuffer batch = ByteBuffer.allocate(length + Integer.BYTES);
+                if (!readFully(in, batch)) {
+                    return;
+                }
+
+                crc.reset();
+                crc.update(batch.array(), 0, length);
+                if (batch.getInt(length) != (int) crc.getValue()) {
+                    return;
+                }
+
+                batch.limit(length);
+                applyBatch(batch, target, scratch, afterShape);
+            }
+        }
+    }
+
+    /**
+     * Applies operations of a single batch to the store.
+     */
+    private static void applyBatch(ByteBuffer batch, ShapeStore target, ShapeStore scratch, IntConsumer afterShape) throws IOException {
+        int expectedSize = -1;
+
+        try {
+            while (batch.hasRemaining()) {
+                byte op = batch.get();
+
+                if (op == SIZE_OP) {
+                    expectedSize = batch.getInt();
+                    if (expectedSize < 0) {
+                        throw new IOException("Invalid drawing size in journal: " + expectedSize);
+                    }
+                    if (expectedSize < target.size()) {
+                        target.truncate(expectedSize);
+                    }
+                } else if (op == SHAPE_OP) {
+                    int id = batch.getInt();
+
+                    if (id == target.size()) {
+                        ShapesBinaryEncoder.decodeShape(batch, target);
+                    } else if (id >= 0 && id < target.size()) {
+                        scratch.truncate(0);
+                        ShapesBinaryEncoder.decodeShape(batch, scratch);
+                        target.replace(id, scratch, 0);
+                    } else {
+                        throw new IOException("Invalid shape id in journal: " + id);
+                    }
+
+                    afterShape.accept(id);
+                } else {
+                    throw new IOException("Unknown journal operation: " + op);
+                }
+            }
+        } catch (RuntimeException e) {
+            // buffer underflow of a batch with valid checksum means the journal was not written by this app
+            throw new IOException("Invalid journal batch", e);
+        }
+
+        if (expectedSize != target.size()) {
+            throw new IOException("Journal batch doesn't match the drawing");
+        }
+    }
+
+    /**
+     * Creates the journal file with a header saying it is based on the current drawing file.
+     */
+    private void open() throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        writeHeader(channel, BASE_DRAWING);
+        size = HEADER_SIZE;
+    }
+
+    /**
+     * Writes header at the start of the channel. Drawing size and modification time let replay detect drawing files
+     * changed after the journal was created.
+     */
+    private void writeHeader(FileChannel out, byte base) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putShort(VERSION);
+        header.put(base);
+        header.putLong(Files.size(drawing));
+        header.putLong(Files.getLastModifiedTime(drawing).toMillis());
+        header.flip();
+
+        while (header.hasRemaining()) {
+            out.write(header, header.position());
+        }
+    }
+
+    /**
+     * Reads and validates journal header.
+     *
+     * @return base of the journal or -1 if the journal doesn't belong to the current drawing file
+     */
+    private static int readHeader(FileChannel in, Path drawing) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (!readFully(in, header) || header.getInt() != MAGIC || header.getShort() != VERSION) {
+            return -1;
+        }
+
+        byte base = header.get();
+        long drawingSize = header.getLong();
+        long drawingModified = header.getLong();
+
+        if (drawingSize != Files.size(drawing) || drawingModified != Files.getLastModifiedTime(drawing).toMillis()) {
+            return -1;
+        }
+
+        return base == BASE_DRAWING || base == BASE_SNAPSHOT ? base : -1;
+    }
+
+    /**
+     * Fills the buffer from the channel and flips it.
+     *
+     * @return false if channel ended before the buffer was filled
+     */
+    private static boolean readFully(FileChannel in, ByteBuffer buffer) throws IOException {
+        try {
+            while (buffer.hasRemaining()) {
+                if (in.read(buffer) < 0) {
+                    throw new EOFException();
+                }
+            }
+        } catch (EOFException e) {
+            return false;
+        }
+
+        buffer.flip();
+        return true;
+    }
+
+    /**
+     * Replaces target file with the written one, atomically if file system supports it.
+     */
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Channel computing checksum and length of everything written through it.
+     */
+    private static class ChecksumChannel implements WritableByteChannel {
+        private final WritableByteChannel channel;
+        private final CRC32 crc = new CRC32();
+        private long written;
+
+        private ChecksumChannel(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int write(ByteBuffer source) throws IOException {
+            ByteBuffer data = source.duplicate();
+            int count = channel.write(source);
+            data.limit(data.position() + count);
+            crc.update(data);
+            written += count;
+
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
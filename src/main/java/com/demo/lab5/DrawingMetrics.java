@@ -0,0 +1,325 @@
+package com.demo.lab5;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import javafx.scene.Node;
+import javafx.scene.Parent;
+import javafx.scene.Scene;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+/**
+ * Performance metrics of the drawing area shown in the HUD and published through JMX.
+ * <p>
+ * Frame time is measured only while metrics are {@link #setActive(boolean) active}. Then a timer keeps pulses running,
+ * so time between pulses is time of a frame and not time the application was idle, and samples the scene twice a
+ * second. Durations of loading and saving are recorded always.
+ */
+public class DrawingMetrics implements DrawingMetricsMXBean {
+    /**
+     * Name under which metrics are registered in the platform MBean server
+     */
+    public static final String OBJECT_NAME = "com.demo.lab5:type=DrawingMetrics";
+    /**
+     * Time between samples in nanoseconds
+     */
+    private static final long SAMPLE_INTERVAL = 500_000_000L;
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private final DrawingPaneStateManager stateManager;
+    private final Parent drawingBox;
+    private final MemoryMXBean memory;
+    /**
+     * Called on the JavaFX Application Thread after every sample
+     */
+    private final Runnable onSample;
+    private final Runnable pulseListener;
+    private final AnimationTimer sampler;
+
+    private Scene scene;
+    private volatile boolean active;
+    /**
+     * Time of the last pulse, or 0 if no pulse was seen since metrics were activated
+     */
+    private long lastPulse;
+    private long lastSample;
+    private long frameTimeSum;
+    private long maxFrameTime;
+    private int frames;
+
+    private volatile double frameTimeMillis;
+    private volatile double maxFrameTimeMillis;
+    private volatile int nodeCount;
+    private volatile int selectedShapeListenerCount;
+    private volatile int shapeCount;
+    private volatile long heapUsedPerShape;
+    private volatile double lastLoadParseMillis;
+    private volatile double lastLoadDecodeMillis;
+    private volatile double lastLoadAttachMillis;
+    private volatile double lastLoadMillis;
+    private volatile double lastSaveCopyMillis;
+    private volatile double lastSaveWriteMillis;
+    private volatile double lastSaveMillis;
+
+    /**
+     * Creates inactive metrics of the drawing area.
+     *
+     * @param stateManager state manager of the drawing area
+     * @param drawingBox   drawing area whose nodes are counted
+     * @param onSample     called on the JavaFX Application Thread after every sample
+     */
+    public DrawingMetrics(DrawingPaneStateManager stateManager, Parent drawingBox, Runnable onSample) {
+        this.stateManager = stateManager;
+        this.drawingBox = drawingBox;
+        this.onSample = onSample;
+        this.memory = ManagementFactory.getMemoryMXBean();
+        this.pulseListener = () -> recordPulse(System.nanoTime());
+        this.sampler = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                if (now - lastSample >= SAMPLE_INTERVAL) {
+                    lastSample = now;
+                    sample();
+                }
+            }
+        };
+    }
+
+    /**
+     * Measures frames of the scene. Metrics can be attached to a single scene.
+     *
+     * @param scene scene of the drawing area
+     */
+    public void attach(Scene scene) {
+        if (this.scene != null && active) {
+            this.scene.removePreLayoutPulseListener(pulseListener);
+        }
+
+        this.scene = scene;
+        lastPulse = 0;
+
+        if (scene != null && active) {
+            scene.addPreLayoutPulseListener(pulseListener);
+        }
+    }
+
+    /**
+     * {@inheritDoc} It can be called from any thread.
+     */
+    @Override
+    public void setActive(boolean active) {
+        if (!Platform.isFxApplicationThread()) {
+            Platform.runLater(() -> setActive(active));
+            return;
+        }
+        if (this.active == active) {
+            return;
+        }
+
+        this.active = active;
+        lastPulse = 0;
+
+        if (active) {
+            if (scene != null) {
+                scene.addPreLayoutPulseListener(pulseListener);
+            }
+            lastSample = 0;
+            sampler.start();
+        } else {
+            if (scene != null) {
+                scene.removePreLayoutPulseListener(pulseListener);
+            }
+            sampler.stop();
+        }
+    }
+
+    @Override
+    public boolean isActive() {
+        return active;
+    }
+
+    private void recordPulse(long now) {
+        if (lastPulse != 0) {
+            long frameTime = now - lastPulse;
+            frameTimeSum += frameTime;
+            maxFrameTime = Math.max(maxFrameTime, frameTime);
+            frames++;
+        }
+
+        lastPulse = now;
+    }
+
+    /**
+     * Publishes frame times since the previous sample and counts nodes, listeners and shapes.
+     */
+    private void sample() {
+        if (frames > 0) {
+            frameTimeMillis = frameTimeSum / NANOS_PER_MILLI / frames;
+            maxFrameTimeMillis = maxFrameTime / NANOS_PER_MILLI;
+        }
+        frameTimeSum = 0;
+        maxFrameTime = 0;
+        frames = 0;
+
+        int shapes = stateManager.getStore().size();
+        nodeCount = countNodes(drawingBox);
+        selectedShapeListenerCount = stateManager.getSelectedShapeListenerCount();
+        shapeCount = shapes;
+        heapUsedPerShape = shapes == 0 ? 0 : memory.getHeapMemoryUsage().getUsed() / shapes;
+
+        onSample.run();
+    }
+
+    private static int countNodes(Node node) {
+        int count = 1;
+
+        if (node instanceof Parent parent) {
+            for (Node child : parent.getChildrenUnmodifiable()) {
+                count += countNodes(child);
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Records durations of opening a drawing.
+     *
+     * @param phases durations of loading phases
+     * @param total  time from choosing the file until shapes were attached in nanoseconds
+     */
+    public void recordLoad(LoadPhases phases, long total) {
+        lastLoadParseMillis = phases.getParse() / NANOS_PER_MILLI;
+        lastLoadDecodeMillis = phases.getDecode() / NANOS_PER_MILLI;
+        lastLoadAttachMillis = phases.getAttach() / NANOS_PER_MILLI;
+        lastLoadMillis = total / NANOS_PER_MILLI;
+    }
+
+    /**
+     * Records durations of saving a drawing.
+     *
+     * @param copy  time of copying shapes on the JavaFX Application Thread in nanoseconds
+     * @param write time of writing the file in nanoseconds
+     * @param total time from choosing the file until it was written in nanoseconds
+     */
+    public void recordSave(long copy, long write, long total) {
+        lastSaveCopyMillis = copy / NANOS_PER_MILLI;
+        lastSaveWriteMillis = write / NANOS_PER_MILLI;
+        lastSaveMillis = total / NANOS_PER_MILLI;
+    }
+
+    /**
+     * Registers metrics in the platform MBean server. Metrics are optional, so failure is ignored.
+     */
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        } catch (JMException ignored) {
+            // drawing works without metrics
+        }
+    }
+
+    public void unregister() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException ignored) {
+            // nothing to clean up
+        }
+    }
+
+    /**
+     * Formats metrics as lines of the HUD.
+     *
+     * @return text of the HUD
+     */
+    public String format() {
+        return String.format("""
+                        frame %.1f ms (max %.1f ms)
+                        nodes %d, selection listeners %d
+                        shapes %d, heap %d B/shape
+                        load %.0f ms (parse %.0f, decode %.0f, attach %.0f)
+                        save %.0f ms (copy %.0f, write %.0f)""",
+                frameTimeMillis, maxFrameTimeMillis,
+                nodeCount, selectedShapeListenerCount,
+                shapeCount, heapUsedPerShape,
+                lastLoadMillis, lastLoadParseMillis, lastLoadDecodeMillis, lastLoadAttachMillis,
+                lastSaveMillis, lastSaveCopyMillis, lastSaveWriteMillis);
+    }
+
+    @Override
+    public double getFrameTimeMillis() {
+        return frameTimeMillis;
+    }
+
+    @Override
+    public double getMaxFrameTimeMillis() {
+        return maxFrameTimeMillis;
+    }
+
+    @Override
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    @Override
+    public int getSelectedShapeListenerCount() {
+        return selectedShapeListenerCount;
+    }
+
+    @Override
+    public int getShapeCount() {
+        return shapeCount;
+    }
+
+    @Override
+    public long getHeapUsedPerShape() {
+        return heapUsedPerShape;
+    }
+
+    @Override
+    public double getLastLoadParseMillis() {
+        return lastLoadParseMillis;
+    }
+
+    @Override
+    public double getLastLoadDecodeMillis() {
+        return lastLoadDecodeMillis;
+    }
+
+    @Override
+    public double getLastLoadAttachMillis() {
+        return lastLoadAttachMillis;
+    }
+
+    @Override
+    public double getLastLoadMillis() {
+        return lastLoadMillis;
+    }
+
+    @Override
+    public double getLastSaveCopyMillis() {
+        return lastSaveCopyMillis;
+    }
+
+    @Override
+    public double getLastSaveWriteMillis() {
+        return lastSaveWriteMillis;
+    }
+
+    @Override
+    public double getLastSaveMillis() {
+        return lastSaveMillis;
+    }
+}
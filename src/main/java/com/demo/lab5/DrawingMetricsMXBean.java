@@ -0,0 +1,74 @@
+package com.demo.lab5;
+
+/**
+ * Performance metrics of the drawing area published through JMX as {@code com.demo.lab5:type=DrawingMetrics}. Values
+ * are sampled on the JavaFX Application Thread, so reading them doesn't touch the scene graph.
+ */
+public interface DrawingMetricsMXBean {
+    /**
+     * Starts or stops measuring frames and sampling the scene. Other metrics keep their last sampled values while
+     * sampling is stopped.
+     *
+     * @param active true to start measuring
+     */
+    void setActive(boolean active);
+
+    boolean isActive();
+
+    /**
+     * Returns average time between pulses since the last sample.
+     *
+     * @return average frame time in milliseconds
+     */
+    double getFrameTimeMillis();
+
+    /**
+     * Returns the longest time between pulses since the last sample.
+     *
+     * @return maximum frame time in milliseconds
+     */
+    double getMaxFrameTimeMillis();
+
+    /**
+     * Returns number of nodes under the drawing area, including the drawing area.
+     *
+     * @return number of nodes
+     */
+    int getNodeCount();
+
+    int getSelectedShapeListenerCount();
+
+    int getShapeCount();
+
+    /**
+     * Returns used heap divided by number of shapes. It includes everything else on the heap, so it is meaningful only
+     * for large drawings.
+     *
+     * @return bytes of used heap per shape, or 0 if there are no shapes
+     */
+    long getHeapUsedPerShape();
+
+    double getLastLoadParseMillis();
+
+    /**
+     * Returns time spent decoding shapes of the last opened drawing, summed over all decoding threads.
+     *
+     * @return decode time in milliseconds
+     */
+    double getLastLoadDecodeMillis();
+
+    double getLastLoadAttachMillis();
+
+    /**
+     * Returns time from choosing the last opened file until all its shapes were attached.
+     *
+     * @return load time in milliseconds
+     */
+    double getLastLoadMillis();
+
+    double getLastSaveCopyMillis();
+
+    double getLastSaveWriteMillis();
+
+    double getLastSaveMillis();
+}
@@ -0,0 +1,43 @@
+package com.demo.lab5;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event covering opening of a drawing, from choosing the file until all shapes are attached to the drawing area.
+ */
+@Name("com.demo.lab5.DrawingOpen")
+@Label("Drawing Open")
+@Category("Drawing")
+@Description("Opening of a drawing file with durations of its phases")
+public class DrawingOpenEvent extends Event {
+    @Label("File")
+    String file;
+
+    @Label("Format")
+    String format;
+
+    @Label("Result")
+    @Description("Succeeded, failed or cancelled")
+    String result;
+
+    @Label("Shapes")
+    int shapes;
+
+    @Label("Parse Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long parseTime;
+
+    @Label("Decode Time")
+    @Description("Summed over all decoding threads")
+    @Timespan(Timespan.NANOSECONDS)
+    long decodeTime;
+
+    @Label("Attach Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long attachTime;
+}
@@ -1,49 +1,237 @@
 package com.demo.lab5;
 
-import com.demo.lab5.shapes.DraggingCreatedShapeComponentView;
-import com.demo.lab5.shapes.PolygonComponentView;
+import com.demo.lab5.model.ShapeGeometry;
+import com.demo.lab5.model.ShapeHistory;
+import com.demo.lab5.model.ShapeStore;
+import com.demo.lab5.model.ShapeType;
 import com.demo.lab5.shapes.ShapeComponentFactory;
-import com.demo.lab5.shapes.ShapeComponentView;
+import javafx.animation.AnimationTimer;
 import javafx.application.Platform;
+import javafx.concurrent.Task;
+import javafx.concurrent.Worker;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.scene.Cursor;
-import javafx.scene.Node;
+import javafx.scene.canvas.Canvas;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
+import javafx.scene.control.ButtonType;
+import javafx.scene.control.CheckMenuItem;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.control.TextInputDialog;
 import javafx.scene.input.MouseButton;
 import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
 import javafx.scene.layout.Pane;
+import javafx.scene.shape.Rectangle;
 import javafx.stage.FileChooser;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
+
+import javax.xml.stream.XMLStreamException;
 import java.io.File;
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Controller for the main view of application which contains drawing area, buttons and menu..
  */
 public class DrawingPaneController {
+    /**
+     * Zoom multiplier for a single pixel of scrolling.
+     */
+    private static final double ZOOM_PER_PIXEL = 1.005;
 
     /**
      * State manager for the drawing area. It manages the current mode and state of the application.
      */
     private final DrawingPaneStateManager stateManager;
+    /**
+     * Index of shapes in the drawing area used to select shapes under the cursor.
+     */
+    private final ShapeSpatialIndex spatialIndex;
     /**
      * Drawing area
      */
     @FXML
     private Pane drawingBox;
+    /**
+     * Pane above the drawing area holding {@link #selectionOverlay}
+     */
+    @FXML
+    private Pane overlayBox;
+    /**
+     * Canvas under the drawing area used by {@link CanvasShapeRenderer}
+     */
+    @FXML
+    private Canvas shapesCanvas;
+    /**
+     * Progress of currently running file task. Hidden when no task is running.
+     */
+    @FXML
+    private ProgressBar taskProgress;
+    /**
+     * Button cancelling currently running file task. Hidden when no task is running.
+     */
+    @FXML
+    private Button cancelTaskButton;
+    /**
+     * Performance HUD showing {@link #metrics}. Hidden unless enabled in the view menu.
+     */
+    @FXML
+    private Label hudLabel;
 
+    /**
+     * Executor running file loading and saving in the background.
+     */
+    private final ExecutorService fileTaskExecutor;
+    /**
+     * Currently running file task. It is null if no task is running.
+     */
+    private Task<?> runningTask;
+    /**
+     * Autosave of the drawing opened from or saved to a file
+     */
+    private final DrawingAutosave autosave;
+    /**
+     * Lazily opened drawing. Its shapes are placeholders in the store, starting at id 0, which are loaded when they
+     * become visible. It is null if drawing was not opened lazily.
+     */
+    private MappedDrawing mappedDrawing;
+    /**
+     * Archive the drawing was read from or last saved to, which can save changes by rewriting only changed chunks. It
+     * is null if drawing has no archive or it is being saved.
+     */
+    private DrawingArchive archive;
+    private File archiveFile;
+    /**
+     * Changes of the drawing since {@link #archive} was read or written
+     */
+    private final DrawingArchive.ChangeTracker archiveChanges;
+    /**
+     * Renderer showing every shape as a node
+     */
+    private ShapeRenderer nodeRenderer;
+    /**
+     * Renderer painting shapes onto {@link #shapesCanvas}
+     */
+    private ShapeRenderer canvasRenderer;
+    /**
+     * Currently attached renderer
+     */
+    private ShapeRenderer renderer;
+    /**
+     * Last point of panning with secondary or middle button in drawing area coordinates
+     */
+    private double panX;
+    private double panY;
+    /**
+     * Overlay showing bounds of selected shapes and the rubber band
+     */
+    private ShapeSelectionOverlay selectionOverlay;
+    /**
+     * Whether primary button drag in selection mode selects shapes in a rectangle or moves all selected shapes. Both
+     * are false if it does neither.
+     */
+    private boolean bandSelecting;
+    private boolean selectionDragging;
+    /**
+     * Point where rubber band started in drawing area coordinates, or last point of dragging selected shapes in
+     * coordinates of the drawing
+     */
+    private double dragX;
+    private double dragY;
+    /**
+     * Performance metrics shown in the HUD and published through JMX
+     */
+    private DrawingMetrics metrics;
+    /**
+     * Server of the hosted collaboration session, or null
+     */
+    private CollaborationServer collaborationServer;
+    /**
+     * Connection to the collaboration session, or null if the drawing is not shared
+     */
+    private CollaborationClient collaboration;
+    /**
+     * Sends local changes to the collaboration session once per frame
+     */
+    private final AnimationTimer collaborationFlush = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            stop();
+            if (collaboration != null) {
+                collaboration.flush();
+            }
+        }
+    };
 
     public DrawingPaneController() {
         this.stateManager = new DrawingPaneStateManager();
+        this.spatialIndex = new ShapeSpatialIndex(stateManager.getStore());
+        this.fileTaskExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "drawing-file-task");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.autosave = new DrawingAutosave(stateManager.getStore());
+        this.archiveChanges = new DrawingArchive.ChangeTracker();
+        stateManager.getStore().addListener(archiveChanges);
+    }
+
+    /**
+     * Initializes the controller after FXML fields are injected.
+     */
+    @FXML
+    public void initialize() {
+        shapesCanvas.widthProperty().bind(drawingBox.widthProperty());
+        shapesCanvas.heightProperty().bind(drawingBox.heightProperty());
+
+        // drawing is unbounded, so panned shapes must not cover the rest of the window
+        Rectangle clip = new Rectangle();
+        clip.widthProperty().bind(drawingBox.widthProperty());
+        clip.heightProperty().bind(drawingBox.heightProperty());
+        drawingBox.setClip(clip);
+        Rectangle overlayClip = new Rectangle();
+        overlayClip.widthProperty().bind(overlayBox.widthProperty());
+        overlayClip.heightProperty().bind(overlayBox.heightProperty());
+        overlayBox.setClip(overlayClip);
+
+        selectionOverlay = new ShapeSelectionOverlay(stateManager);
+        overlayBox.getChildren().add(selectionOverlay.getNode());
+
+        nodeRenderer = new NodeShapeRenderer(spatialIndex, stateManager);
+        canvasRenderer = new CanvasShapeRenderer(shapesCanvas, spatialIndex, stateManager);
+        renderer = nodeRenderer;
+        renderer.attach(drawingBox);
+
+        DrawingViewport viewport = stateManager.getViewport();
+        drawingBox.layoutBoundsProperty().addListener((observable, oldBounds, newBounds) ->
+                viewport.setSize(newBounds.getWidth(), newBounds.getHeight()));
+        viewport.addListener(this::showMappedShapes);
+
+        metrics = new DrawingMetrics(stateManager, drawingBox, () -> {
+            if (hudLabel.isVisible()) {
+                hudLabel.setText(metrics.format());
+            }
+        });
+        drawingBox.sceneProperty().addListener((observable, oldScene, newScene) -> metrics.attach(newScene));
+        metrics.register();
+    }
+
+    /**
+     * Handles performance HUD menu item. Metrics are sampled only while the HUD is shown.
+     */
+    @FXML
+    protected void onHudToggle(ActionEvent event) {
+        boolean visible = ((CheckMenuItem) event.getSource()).isSelected();
+
+        hudLabel.setVisible(visible);
+        if (visible) {
+            hudLabel.setText(metrics.format());
+        }
+        metrics.setActive(visible);
     }
 
     /**
@@ -51,49 +239,238 @@ public class DrawingPaneController {
      */
     @FXML
     protected void onClear() {
-        this.drawingBox.getChildren().clear();
+        if (runningTask != null) {
+            return;
+        }
+
+        clearShapes();
     }
 
     /**
-     * Handles the mouse pressed event. Creates a new shape or adds a node to the existing shape.
+     * Handles the mouse pressed event. Creates a new shape or adds a node to the existing shape. Secondary and middle
+     * button start panning. In selection mode, pressing on one of many selected shapes starts dragging all of them and
+     * pressing on empty space starts the rubber band.
      * <p>
-     * Selection of a shape is created in the {@link ShapeComponentView} class.
+     * Selection of a shape is handled in {@link #onMouseClicked(MouseEvent)}.
      *
      * @param event mouse event
      */
     @FXML
     protected void onMousePressed(MouseEvent event) {
-        if (event.getButton() != MouseButton.PRIMARY || stateManager.getMode() == DrawingMode.SELECT_SHAPE) {
+        if (event.getButton() == MouseButton.SECONDARY || event.getButton() == MouseButton.MIDDLE) {
+            panX = event.getX();
+            panY = event.getY();
+            return;
+        }
+
+        if (event.getButton() != MouseButton.PRIMARY) {
+            return;
+        }
+
+        DrawingViewport viewport = stateManager.getViewport();
+
+        if (stateManager.getMode() == DrawingMode.SELECT_SHAPE) {
+            ShapeSelection selection = stateManager.getSelection();
+            int shape = spatialIndex.hitTest(viewport.toWorldX(event.getX()), viewport.toWorldY(event.getY()));
+
+            if (selection.size() > 1 && selection.contains(shape)) {
+                // whole dragging of the selection is undone at once
+                stateManager.getPointerInput().flush();
+                stateManager.getHistory().seal();
+                selectionDragging = true;
+                dragX = viewport.toWorldX(event.getX());
+                dragY = viewport.toWorldY(event.getY());
+            } else if (shape == DrawingPaneStateManager.NO_SHAPE) {
+                bandSelecting = true;
+                dragX = event.getX();
+                dragY = event.getY();
+            }
+            return;
+        }
+
+        double x = viewport.toWorldX(event.getX());
+        double y = viewport.toWorldY(event.getY());
+        ShapeHistory history = stateManager.getHistory();
+        int drawnShape = stateManager.getDrawnShape();
+        // every click starts a new undoable step
+        stateManager.getPointerInput().flush();
+        history.seal();
+
+        if (stateManager.getMode() == DrawingMode.POLYGON && drawnShape != DrawingPaneStateManager.NO_SHAPE
+                && stateManager.getStore().getType(drawnShape) == ShapeType.POLYGON) {
+            history.addPoint(drawnShape, x, y);
             return;
         }
 
-        if (stateManager.getMode() == DrawingMode.POLYGON && stateManager.getDrawnShape() instanceof PolygonComponentView s) {
-            s.addNode(event.getX(), event.getY());
+        stateManager.setDrawStart(new Coordinates(x, y));
+        stateManager.setDrawnShape(history.add(ShapeComponentFactory.shapeType(stateManager.getMode()), x, y));
+    }
+
+    /**
+     * Handles the mouse clicked event. Selects the topmost shape under the cursor in selection mode. With shift down
+     * the shape is added to the selection or removed from it. Clicks ending dragging are ignored.
+     *
+     * @param event mouse event
+     */
+    @FXML
+    protected void onMouseClicked(MouseEvent event) {
+        if (event.getButton() != MouseButton.PRIMARY || stateManager.getMode() != DrawingMode.SELECT_SHAPE
+                || !event.isStillSincePress()) {
             return;
         }
 
-        stateManager.setDrawnShape(ShapeComponentFactory.create(stateManager.getMode(), event.getX(), event.getY()));
-        stateManager.getDrawnShape().setStateManager(stateManager);
+        DrawingViewport viewport = stateManager.getViewport();
+        int shape = spatialIndex.hitTest(viewport.toWorldX(event.getX()), viewport.toWorldY(event.getY()));
+        if (shape == DrawingPaneStateManager.NO_SHAPE) {
+            return;
+        }
 
-        drawingBox.getChildren().add(stateManager.getDrawnShape());
+        stateManager.getPointerInput().flush();
+        if (event.isShiftDown()) {
+            stateManager.toggleSelected(shape);
+        } else {
+            stateManager.setSelectedShape(shape);
+        }
     }
 
     /**
-     * Handles the mouse dragged event. Updates the size of the shape being drawn.
+     * Handles the mouse released event. Ends dragging of selected shapes or selects shapes intersecting the rubber
+     * band. With shift down they are added to the selection.
+     *
+     * @param event mouse event
+     */
+    @FXML
+    protected void onMouseReleased(MouseEvent event) {
+        if (event.getButton() != MouseButton.PRIMARY) {
+            return;
+        }
+
+        if (selectionDragging) {
+            selectionDragging = false;
+            stateManager.getPointerInput().flush();
+            stateManager.getHistory().seal();
+        }
+
+        if (!bandSelecting) {
+            return;
+        }
+
+        bandSelecting = false;
+        selectionOverlay.hideBand();
+        if (event.isStillSincePress()) {
+            return;
+        }
+
+        DrawingViewport viewport = stateManager.getViewport();
+        double minX = viewport.toWorldX(Math.min(dragX, event.getX()));
+        double minY = viewport.toWorldY(Math.min(dragY, event.getY()));
+        double maxX = viewport.toWorldX(Math.max(dragX, event.getX()));
+        double maxY = viewport.toWorldY(Math.max(dragY, event.getY()));
+
+        // index returns shapes of touched cells, only shapes whose bounds intersect the band are kept
+        ShapeStore store = stateManager.getStore();
+        int[] ids = spatialIndex.query(minX, minY, maxX, maxY);
+        double[] bounds = new double[4];
+        int count = 0;
+        for (int id : ids) {
+            ShapeGeometry.bounds(store, id, bounds);
+
+            if (store.getType(id) != ShapeType.PLACEHOLDER && bounds[0] <= maxX && bounds[2] >= minX
+                    && bounds[1] <= maxY && bounds[3] >= minY) {
+                ids[count++] = id;
+            }
+        }
+
+        stateManager.getPointerInput().flush();
+        stateManager.selectShapes(ids, count, event.isShiftDown());
+    }
+
+    /**
+     * Handles rendering engine menu item click event. Switches between rendering shapes as nodes and painting them onto
+     * a canvas.
+     *
+     * @param event click event
+     */
+    @FXML
+    protected void onRendererToggle(ActionEvent event) {
+        if (event.getSource() instanceof CheckMenuItem item) {
+            renderer.detach();
+            renderer = item.isSelected() ? canvasRenderer : nodeRenderer;
+            renderer.attach(drawingBox);
+        }
+    }
+
+    /**
+     * Handles the mouse dragged event. Updates the size of the shape being drawn or position of selected shapes once per
+     * frame, updates the rubber band or pans the drawing.
      *
      * @param event mouse event
      */
     @FXML
     protected void onMouseDragged(MouseEvent event) {
-        if (event.getButton() != MouseButton.PRIMARY || stateManager.getMode() == DrawingMode.SELECT_SHAPE) {
+        DrawingViewport viewport = stateManager.getViewport();
+
+        if (event.getButton() == MouseButton.SECONDARY || event.getButton() == MouseButton.MIDDLE) {
+            viewport.pan(event.getX() - panX, event.getY() - panY);
+            panX = event.getX();
+            panY = event.getY();
             return;
         }
 
-        if (stateManager.getDrawnShape() instanceof DraggingCreatedShapeComponentView s) {
-            s.updateSize(event.getX(), event.getY());
+        if (event.getButton() != MouseButton.PRIMARY) {
+            return;
+        }
+
+        if (selectionDragging) {
+            double x = viewport.toWorldX(event.getX());
+            double y = viewport.toWorldY(event.getY());
+            stateManager.getPointerInput().moveAll(stateManager.getSelection().toArray(), x - dragX, y - dragY);
+            dragX = x;
+            dragY = y;
+            return;
+        }
+        if (bandSelecting) {
+            selectionOverlay.showBand(dragX, dragY, event.getX(), event.getY());
+            return;
+        }
+        if (stateManager.getMode() == DrawingMode.SELECT_SHAPE) {
+            return;
+        }
+
+        int drawnShape = stateManager.getDrawnShape();
+
+        if (drawnShape != DrawingPaneStateManager.NO_SHAPE && stateManager.getStore().getType(drawnShape) != ShapeType.POLYGON) {
+            Coordinates start = stateManager.getDrawStart();
+            stateManager.getPointerInput().setDraggedSize(drawnShape, start.x(), start.y(),
+                    viewport.toWorldX(event.getX()), viewport.toWorldY(event.getY()));
+        }
+    }
+
+    /**
+     * Handles the scroll event which was not used by the selected shape. Zooms around the cursor with shortcut key down,
+     * pans otherwise.
+     *
+     * @param event scroll event
+     */
+    @FXML
+    protected void onScroll(ScrollEvent event) {
+        DrawingViewport viewport = stateManager.getViewport();
+
+        if (event.isShortcutDown()) {
+            viewport.zoom(Math.pow(ZOOM_PER_PIXEL, event.getDeltaY()), event.getX(), event.getY());
+        } else {
+            viewport.pan(event.getDeltaX(), event.getDeltaY());
         }
     }
 
+    /**
+     * Handles reset view menu item click event. Resets pan and zoom of the drawing.
+     */
+    @FXML
+    protected void onResetView() {
+        stateManager.getViewport().reset();
+    }
+
     /**
      * Handles selection mode button click event. Sets the mode to select shape. Also updates the cursor if mode changes.
      *
@@ -103,7 +480,7 @@ public class DrawingPaneController {
     protected void onModeSelect(ActionEvent event) {
         if (event.getSource() instanceof Button button) {
             drawingBox.setCursor(Cursor.CROSSHAIR);
-            stateManager.setDrawnShape(null);
+            stateManager.setDrawnShape(DrawingPaneStateManager.NO_SHAPE);
 
             switch (button.getId()) {
                 case "selectModeButton" -> {
@@ -123,47 +500,74 @@ public class DrawingPaneController {
      */
     @FXML
     protected void onSave() {
+        if (runningTask != null) {
+            return;
+        }
+
         // file selection
-        FileChooser fileChooser = new FileChooser();
-        fileChooser.setTitle("Save Drawing Pane");
-        FileChooser.ExtensionFilter extFilter =
-                new FileChooser.ExtensionFilter("XML files (*.xml)", "*.xml");
-        fileChooser.getExtensionFilters().add(extFilter);
+        FileChooser fileChooser = createFileChooser("Save Drawing Pane");
 
         File selectedFile = fileChooser.showSaveDialog(drawingBox.getScene().getWindow());
 
-        // creating file variable
-        Document document;
-        try {
-            document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
-        } catch (Exception e) {
-            ErrorUtils.showError("File save error", "Unknown error", "File can't be saved due to unexpected error.");
+        if (selectedFile == null) {
             return;
         }
 
-        Element root = document.createElement("shapes");
-        document.appendChild(root);
-
-        // building xml shapes
-        for (Node nodes : drawingBox.getChildren()) {
-            if (nodes instanceof ShapeComponentView shape) {
-                Element xmlElement = document.createElement("shape");
-                ShapesXmlEncoder.encodeShape(shape, xmlElement);
-                root.appendChild(xmlElement);
-            }
+        // format is taken from the file name, or from the selected filter if name has no known extension
+        DrawingFormat format = DrawingFormat.forFile(selectedFile);
+        if (format == null) {
+            format = Objects.requireNonNullElse(DrawingFormat.forFilter(fileChooser.getSelectedExtensionFilter()), DrawingFormat.XML);
+            selectedFile = new File(selectedFile.getPath() + "." + format.getExtension());
         }
 
-        // transforming xml to file and saving
-        try {
-            DOMSource dom = new DOMSource(document);
-            Transformer transformer = TransformerFactory.newInstance()
-                    .newTransformer();
+        // changes made while the drawing is saved are autosaved to the journal of the new file
+        stateManager.getPointerInput().flush();
+        autosave.pause();
 
-            StreamResult result = new StreamResult(new File(selectedFile.getPath()));
-            transformer.transform(dom, result);
-        } catch (Exception e) {
-            ErrorUtils.showError("File save error", "Encoding error", "File can't be saved due to error with encoding. Try again.");
-        }
+        DrawingSaveEvent saveEvent = new DrawingSaveEvent();
+        saveEvent.begin();
+        saveEvent.file = selectedFile.getPath();
+        saveEvent.format = format.name();
+        long start = System.nanoTime();
+
+        // saving to the archive the drawing came from rewrites only chunks with changed shapes
+        File savedFile = selectedFile;
+        DrawingFormat savedFormat = format;
+        ShapeStore store = stateManager.getStore();
+        boolean updateArchive = format == DrawingFormat.ARCHIVE && archive != null && mappedDrawing == null
+                && savedFile.getAbsoluteFile().equals(archiveFile.getAbsoluteFile())
+                && !archiveChanges.isCleared() && !archive.needsRewrite();
+        ShapesSaveTask task = updateArchive
+                ? new ShapesSaveTask(selectedFile, archive, store, archiveChanges.getChangedIds())
+                : new ShapesSaveTask(selectedFile, format, store, mappedDrawing);
+        // changes made while the drawing is saved are saved next time
+        archive = null;
+        archiveChanges.reset();
+        task.stateProperty().addListener((observable, oldState, state) -> {
+            if (isFinished(state)) {
+                metrics.recordSave(task.getCopyTime(), task.getWriteTime(), System.nanoTime() - start);
+                commitSaveEvent(saveEvent, task, state.toString());
+            }
+        });
+        task.setOnSucceeded(event -> {
+            // placeholders of lazily opened drawing can't be autosaved
+            if (mappedDrawing == null) {
+                autosave.saved(savedFile, savedFormat.isExact());
+                archive = task.getArchive();
+                archiveFile = savedFile;
+            }
+        });
+        task.setOnCancelled(event -> autosave.resume());
+        task.setOnFailed(event -> {
+            autosave.resume();
+            if (task.getException() instanceof IOException) {
+                ErrorUtils.showError("File save error", "Unknown error", "File can't be saved due to unexpected error.");
+            } else {
+                ErrorUtils.showError("File save error", "Encoding error", "File can't be saved due to error with encoding. Try again.");
+            }
+        });
+
+        runTask(task);
     }
 
     /**
@@ -171,44 +575,423 @@ public class DrawingPaneController {
      */
     @FXML
     protected void onOpen() {
+        if (runningTask != null) {
+            return;
+        }
+
         // selects file
+        FileChooser fileChooser = createFileChooser("Open Drawing Pane");
+
+        File selectedFile = fileChooser.showOpenDialog(drawingBox.getScene().getWindow());
+
+        if (selectedFile == null) {
+            return;
+        }
+
+        DrawingOpenEvent openEvent = new DrawingOpenEvent();
+        openEvent.begin();
+        long start = System.nanoTime();
+
+        DrawingFormat format = Objects.requireNonNullElse(DrawingFormat.forFile(selectedFile), DrawingFormat.XML);
+        openEvent.file = selectedFile.getPath();
+        openEvent.format = format.name();
+        boolean recover = DrawingJournal.isRecoverable(selectedFile.toPath()) && confirmRecovery();
+
+        // previous drawing keeps its journal, clearing it is not autosaved
+        stateManager.getPointerInput().flush();
+        autosave.close();
+
+        ShapeHistory history = stateManager.getHistory();
+        history.seal();
+        clearShapes();
+
+        // shapes are decoded in the background and attached to the drawing area in batches, which are undone
+        // together with clearing of the previous drawing
+        File openedFile = selectedFile;
+        ShapesLoadTask task = new ShapesLoadTask(selectedFile, format, recover, history::addAll);
+        task.stateProperty().addListener((observable, oldState, state) -> {
+            if (isFinished(state)) {
+                // batches are attached before the task reports it is done
+                metrics.recordLoad(task.getPhases(), System.nanoTime() - start);
+                commitOpenEvent(openEvent, task.getPhases(), state.toString());
+            }
+        });
+        task.setOnSucceeded(event -> {
+            history.seal();
+            autosave.open(openedFile, recover);
+            archive = task.getArchive();
+            archiveFile = openedFile;
+            archiveChanges.reset();
+        });
+        task.setOnFailed(event -> {
+            if (task.getException() instanceof XMLStreamException || task.getException() instanceof IOException) {
+                ErrorUtils.showError("File decoding error", "Decoding failed", "This file can't be decoded. Check if it is a proper drawing generated by this app.");
+            } else {
+                ErrorUtils.showError("File decoding error", "Encoding failed", "This file can't be encoded. Check if it contains proper xml generated by this app.");
+            }
+            clearShapes();
+            history.seal();
+        });
+        task.setOnCancelled(event -> {
+            clearShapes();
+            history.seal();
+        });
+
+        runTask(task);
+    }
+
+    private static boolean isFinished(Worker.State state) {
+        return state == Worker.State.SUCCEEDED || state == Worker.State.FAILED || state == Worker.State.CANCELLED;
+    }
+
+    private void commitOpenEvent(DrawingOpenEvent event, LoadPhases phases, String result) {
+        if (!event.shouldCommit()) {
+            return;
+        }
+
+        event.result = result;
+        event.shapes = stateManager.getStore().size();
+        event.parseTime = phases.getParse();
+        event.decodeTime = phases.getDecode();
+        event.attachTime = phases.getAttach();
+        event.commit();
+    }
+
+    private void commitSaveEvent(DrawingSaveEvent event, ShapesSaveTask task, String result) {
+        if (!event.shouldCommit()) {
+            return;
+        }
+
+        event.result = result;
+        event.shapes = task.getShapeCount();
+        event.copyTime = task.getCopyTime();
+        event.writeTime = task.getWriteTime();
+        event.commit();
+    }
+
+    /**
+     * Handles lazy file open button click event. Opens binary drawing through a memory-mapped file and loads only shapes
+     * visible in the drawing area. Other shapes are placeholders which are loaded when they become visible.
+     */
+    @FXML
+    protected void onOpenMapped() {
+        if (runningTask != null) {
+            return;
+        }
+
         FileChooser fileChooser = new FileChooser();
-        fileChooser.setTitle("Open Drawing Pane");
-        FileChooser.ExtensionFilter extFilter =
-                new FileChooser.ExtensionFilter("XML files (*.xml)", "*.xml");
-        fileChooser.getExtensionFilters().add(extFilter);
+        fileChooser.setTitle("Open Drawing Pane Lazily");
+        fileChooser.getExtensionFilters().add(DrawingFormat.BINARY.createFilter());
 
         File selectedFile = fileChooser.showOpenDialog(drawingBox.getScene().getWindow());
 
-        // opens and parses xml file
-        Document document;
-        try {
-            document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(selectedFile);
-        } catch (Exception e) {
-            ErrorUtils.showError("File decoding error", "Decoding failed", "This file can't be decoded. Check if it contains proper xml generated by this app.");
+        if (selectedFile == null) {
+            return;
+        }
+
+        stateManager.getPointerInput().flush();
+        autosave.close();
+        stateManager.getHistory().seal();
+        clearShapes();
 
+        try {
+            mappedDrawing = MappedDrawing.open(selectedFile.toPath());
+        } catch (IOException e) {
+            ErrorUtils.showError("File decoding error", "Decoding failed", "This file can't be opened lazily. " + e.getMessage());
             return;
         }
 
+        // placeholders are a part of clearing, so opening is undone at once
+        mappedDrawing.addPlaceholders(stateManager.getStore());
+        stateManager.getHistory().seal();
+        showMappedShapes();
+    }
 
-        NodeList nodeList = document.getElementsByTagName("shape");
+    /**
+     * Asks user whether changes autosaved to the journal of the opened drawing should be recovered.
+     *
+     * @return true if changes should be recovered
+     */
+    private boolean confirmRecovery() {
+        Alert alert = new Alert(Alert.AlertType.CONFIRMATION);
+        alert.setTitle("Recover drawing");
+        alert.setHeaderText("Unsaved changes found");
+        alert.setContentText("This drawing has autosaved changes which were not saved. Do you want to recover them?");
 
-        drawingBox.getChildren().clear();
+        return alert.showAndWait().filter(ButtonType.OK::equals).isPresent();
+    }
+
+    /**
+     * Loads placeholders of the lazily opened drawing which intersect the viewport.
+     */
+    private void showMappedShapes() {
+        if (mappedDrawing == null) {
+            return;
+        }
+
+        ShapeStore store = stateManager.getStore();
+        DrawingViewport viewport = stateManager.getViewport();
+
+        for (int id : spatialIndex.query(viewport.getMinX(), viewport.getMinY(), viewport.getMaxX(), viewport.getMaxY())) {
+            if (id >= mappedDrawing.size() || store.getType(id) != ShapeType.PLACEHOLDER) {
+                continue;
+            }
 
-        // reads children and assigns them to the drawing area
-        for (int i = 0; i < nodeList.getLength(); i++) {
-            ShapeComponentView<?> component;
             try {
-                component = ShapesXmlEncoder.decodeShape(nodeList.item(i));
-            } catch (Exception e) {
-                ErrorUtils.showError("File decoding error", "Encoding failed", "This file can't be encoded. Check if it contains proper xml generated by this app.");
-                drawingBox.getChildren().clear();
+                mappedDrawing.load(id, store, id);
+            } catch (IOException e) {
+                ErrorUtils.showError("File decoding error", "Decoding failed", "This file can't be decoded. Check if it is a proper drawing generated by this app.");
+                clearShapes();
                 return;
             }
-            component.setStateManager(stateManager);
-            drawingBox.getChildren().add(component);
+        }
+    }
+
+    /**
+     * Removes all shapes from the drawing area. Removal can be undone, unless drawing was opened lazily.
+     */
+    private void clearShapes() {
+        if (mappedDrawing == null) {
+            stateManager.clearShapes();
+            return;
+        }
+
+        // placeholders can't be loaded after the drawing is closed, so history which could bring them back is dropped
+        stateManager.getPointerInput().flush();
+        stateManager.clearSelection();
+        stateManager.getStore().clear();
+        stateManager.getHistory().reset();
+        closeMappedDrawing();
+    }
+
+    /**
+     * Closes lazily opened drawing if there is one.
+     */
+    private void closeMappedDrawing() {
+        if (mappedDrawing == null) {
+            return;
         }
 
+        try {
+            mappedDrawing.close();
+        } catch (IOException e) {
+            // file was only read, so nothing is lost
+        }
+
+        mappedDrawing = null;
+    }
+
+    /**
+     * Creates file chooser with filters for all supported drawing formats.
+     *
+     * @param title chooser title
+     * @return file chooser
+     */
+    private FileChooser createFileChooser(String title) {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle(title);
+
+        for (DrawingFormat format : DrawingFormat.values()) {
+            fileChooser.getExtensionFilters().add(format.createFilter());
+        }
+
+        return fileChooser;
+    }
+
+    /**
+     * Handles undo menu item click event. Undoes the last change of the drawing.
+     */
+    @FXML
+    protected void onUndo() {
+        if (runningTask != null) {
+            return;
+        }
+
+        stateManager.getPointerInput().flush();
+        stateManager.clearSelection();
+        stateManager.getHistory().undo();
+    }
+
+    /**
+     * Handles redo menu item click event. Redoes the last undone change of the drawing.
+     */
+    @FXML
+    protected void onRedo() {
+        if (runningTask != null) {
+            return;
+        }
+
+        stateManager.getPointerInput().flush();
+        stateManager.clearSelection();
+        stateManager.getHistory().redo();
+    }
+
+    /**
+     * Handles cancel button click event. Cancels currently running file task.
+     */
+    @FXML
+    protected void onCancelTask() {
+        if (runningTask != null) {
+            runningTask.cancel();
+        }
+    }
+
+    /**
+     * Runs file task in the background. Drawing area is locked and progress is shown until the task finishes.
+     *
+     * @param task task to run
+     */
+    private void runTask(Task<?> task) {
+        runningTask = task;
+
+        drawingBox.setDisable(true);
+        taskProgress.progressProperty().bind(task.progressProperty());
+        taskProgress.setVisible(true);
+        cancelTaskButton.setVisible(true);
+
+        task.runningProperty().addListener((observable, wasRunning, running) -> {
+            if (running || runningTask != task) {
+                return;
+            }
+
+            runningTask = null;
+            drawingBox.setDisable(false);
+            taskProgress.progressProperty().unbind();
+            taskProgress.setVisible(false);
+            cancelTaskButton.setVisible(false);
+        });
+
+        fileTaskExecutor.execute(task);
+    }
+
+    /**
+     * Handles host session menu item click event. Shares the drawing through a collaboration server on this machine
+     * and joins it.
+     */
+    @FXML
+    protected void onHostSession() {
+        if (!canCollaborate()) {
+            return;
+        }
+
+        stateManager.getPointerInput().flush();
+        try {
+            collaborationServer = new CollaborationServer(stateManager.getStore().copy(), CollaborationProtocol.DEFAULT_PORT);
+        } catch (IOException e) {
+            ErrorUtils.showError("Collaboration error", "Session can't be hosted", "Port " + CollaborationProtocol.DEFAULT_PORT + " is not available. " + e.getMessage());
+            return;
+        }
+
+        joinSession(collaborationServer.getPort());
+    }
+
+    /**
+     * Handles join session menu item click event. Replaces the drawing with the drawing of a session hosted on this
+     * machine.
+     */
+    @FXML
+    protected void onJoinSession() {
+        if (!canCollaborate()) {
+            return;
+        }
+
+        TextInputDialog dialog = new TextInputDialog(String.valueOf(CollaborationProtocol.DEFAULT_PORT));
+        dialog.setTitle("Join session");
+        dialog.setHeaderText("Join a drawing shared on this machine");
+        dialog.setContentText("Port:");
+
+        dialog.showAndWait().ifPresent(port -> {
+            try {
+                joinSession(Integer.parseInt(port.trim()));
+            } catch (NumberFormatException e) {
+                ErrorUtils.showError("Collaboration error", "Invalid port", "Port must be a number.");
+            }
+        });
+    }
+
+    /**
+     * Handles leave session menu item click event. Drawing keeps its shapes, but they are not shared anymore.
+     */
+    @FXML
+    protected void onLeaveSession() {
+        leaveSession();
+    }
+
+    private boolean canCollaborate() {
+        if (runningTask != null || collaboration != null) {
+            return false;
+        }
+        if (mappedDrawing != null) {
+            ErrorUtils.showError("Collaboration error", "Drawing can't be shared", "Lazily opened drawings can't be shared. Open the drawing normally.");
+            return false;
+        }
+        return true;
+    }
+
+    private void joinSession(int port) {
+        stateManager.getPointerInput().flush();
+
+        // pending pointer input is applied before changes of others, so it refers to the same shapes
+        CollaborationClient client = new CollaborationClient(stateManager.getStore(), task -> Platform.runLater(() -> {
+            stateManager.getPointerInput().flush();
+            task.run();
+        }), new CollaborationClient.Listener() {
+            @Override
+            public void structureChanged() {
+                // ids of shapes added by this user may change, and undo could remove shapes of others
+                stateManager.clearSelection();
+                stateManager.setDrawnShape(DrawingPaneStateManager.NO_SHAPE);
+                stateManager.getHistory().reset();
+            }
+
+            @Override
+            public void changesPending() {
+                collaborationFlush.start();
+            }
+
+            @Override
+            public void disconnected(IOException cause) {
+                leaveSession();
+                ErrorUtils.showError("Collaboration error", "Disconnected", "Drawing is not shared anymore. " + cause.getMessage());
+            }
+        });
+
+        try {
+            client.connect("localhost", port);
+        } catch (IOException e) {
+            client.close();
+            leaveSession();
+            ErrorUtils.showError("Collaboration error", "Session can't be joined", "No session found on port " + port + ".");
+            return;
+        }
+
+        collaboration = client;
+    }
+
+    private void leaveSession() {
+        collaborationFlush.stop();
+        if (collaboration != null) {
+            collaboration.close();
+            collaboration = null;
+        }
+        if (collaborationServer != null) {
+            try {
+                collaborationServer.close();
+            } catch (IOException e) {
+                // server is stopped anyway
+            }
+            collaborationServer = null;
+        }
+    }
+
+    /**
+     * Writes pending autosave changes. It must be called before the application exits.
+     */
+    public void shutdown() {
+        leaveSession();
+        metrics.unregister();
+        stateManager.getPointerInput().flush();
+        autosave.shutdown();
     }
 
     /**
@@ -216,6 +999,7 @@ public class DrawingPaneController {
      */
     @FXML
     protected void onClose() {
+        shutdown();
         Platform.exit();
         System.exit(0);
     }
@@ -249,9 +1033,12 @@ public class DrawingPaneController {
         alert.setContentText("1. Select a shape from the toolbar.\n" +
                 "2. Click and drag on the drawing area to create a cricle or a rectangle. Click to add a polygon nodes. " +
                 "When you want to add another polygon, just click at its tab button once again.\n" +
-                "3. Use the select mode to select, move, rotate and recolor shapes. Select shapes by clicking at them\n" +
-                "4. Click and drag to move shape, scroll to resize it or rotate and recolor shape from the toolbar." +
-                "5. Use the clear button to clear the drawing area.\n" +
+                "3. Use the select mode to select, move, rotate and recolor shapes. Select shapes by clicking at them, " +
+                "add them to the selection with Shift+click or select all shapes in a rectangle by dragging over empty space. " +
+                "Changes made to one of selected shapes are made to all of them.\n" +
+                "4. Click and drag to move shape, scroll to resize it or rotate and recolor shape from the toolbar.\n" +
+                "Drag with right or middle button or scroll to pan the drawing, scroll with Ctrl to zoom.\n" +
+                "5. Use the clear button to clear the drawing area. Use Edit -> Undo and Edit -> Redo to revert changes.\n" +
                 "6. Use the File -> Save to save your drawing or File -> Open to load existing one.");
 
         alert.show();
@@ -1,6 +1,10 @@
 package com.demo.lab5;
 
-import com.demo.lab5.shapes.ShapeComponentView;
+import com.demo.lab5.model.ShapeHistory;
+import com.demo.lab5.model.ShapeLevelOfDetail;
+import com.demo.lab5.model.ShapeStore;
+import com.demo.lab5.shapes.GeometryEngine;
+import com.demo.lab5.shapes.ShapeToolbarComponentView;
 
 import java.util.HashSet;
 import java.util.Set;
@@ -8,32 +12,121 @@ import java.util.Set;
 /**
  * DrawingPaneStateManager holds state for the drawing pane. It also manages selection events. It is used to share this
  * state between different shapes by just passing it to them.
+ * <p>
+ * Shapes are kept in {@link ShapeStore} and referenced by their ids. Edits made by the user go through
+ * {@link ShapeHistory}, so they can be undone.
+ * <p>
+ * Many shapes can be selected at once in {@link ShapeSelection}. The selected shape is the one of them which was selected
+ * last. It has a toolbar and can be edited directly, edits of other selected shapes go through bulk edits of the
+ * history.
  */
 public class DrawingPaneStateManager {
+    /**
+     * Id used when no shape is selected or drawn.
+     */
+    public static final int NO_SHAPE = -1;
+
+    /**
+     * Model of all shapes of the drawing.
+     */
+    private final ShapeStore store;
+    /**
+     * Undo and redo journal of the store.
+     */
+    private final ShapeHistory history;
+    /**
+     * Coalescer of dragging and scrolling, which applies them once per frame
+     */
+    private final PointerInputCoalescer pointerInput;
+    /**
+     * Pan and zoom of the drawing area
+     */
+    private final DrawingViewport viewport;
+    /**
+     * Rules for showing small shapes and large polygons when zoomed out
+     */
+    private final ShapeLevelOfDetail levelOfDetail;
+    /**
+     * All selected shapes, including the selected shape
+     */
+    private final ShapeSelection selection;
     /**
      * List of listeners for selected shape events. It is used to notify listeners when the selected shape changes.
-     * These listeners which should belong mainly to shapes are used to for example hide the toolbar etc.
-     *
-     *
-     * It prevents two shapes being selected at the same time.
+     * <p>
+     * Shapes are not registered here, renderers notify views of previously and newly selected shapes, so selection
+     * change doesn't depend on the number of shapes.
      */
     private final Set<SelectedShapeListener> selectedShapeListeners;
+    /**
+     * Toolbar shared by views of all shapes, created when a shape is selected for the first time
+     */
+    private ShapeToolbarComponentView toolbar;
     /**
      * Current drawing mode.
      */
     private DrawingMode mode;
     /**
-     * Currently selected shape. It is null if no shape is selected.
+     * Id of the last selected shape, which has a toolbar. It is {@link #NO_SHAPE} if no shape is selected.
      */
-    private ShapeComponentView<?> selectedShape;
+    private int selectedShape;
     /**
-     * Shape which is currently drawn by the user.
+     * Id of shape which is currently drawn by the user. It is {@link #NO_SHAPE} if no shape is drawn.
      */
-    private ShapeComponentView<?> drawnShape;
+    private int drawnShape;
+    /**
+     * Point where drawing of the drawn shape started.
+     */
+    private Coordinates drawStart;
 
     public DrawingPaneStateManager() {
+        this.store = new ShapeStore();
+        this.history = new ShapeHistory(store);
+        this.pointerInput = new PointerInputCoalescer(history);
+        this.viewport = new DrawingViewport();
+        this.levelOfDetail = new ShapeLevelOfDetail(store);
+        this.selection = new ShapeSelection(store);
         this.mode = DrawingMode.SELECT_SHAPE;
         this.selectedShapeListeners = new HashSet<>();
+        this.selectedShape = NO_SHAPE;
+        this.drawnShape = NO_SHAPE;
+    }
+
+    public ShapeStore getStore() {
+        return store;
+    }
+
+    public ShapeHistory getHistory() {
+        return history;
+    }
+
+    public PointerInputCoalescer getPointerInput() {
+        return pointerInput;
+    }
+
+    public DrawingViewport getViewport() {
+        return viewport;
+    }
+
+    public ShapeLevelOfDetail getLevelOfDetail() {
+        return levelOfDetail;
+    }
+
+    public ShapeSelection getSelection() {
+        return selection;
+    }
+
+    /**
+     * Returns toolbar shown by the view of the selected shape. The same toolbar is moved between views, so it must be
+     * created on the JavaFX application thread.
+     *
+     * @return shared toolbar
+     */
+    public ShapeToolbarComponentView getToolbar() {
+        if (toolbar == null) {
+            toolbar = new ShapeToolbarComponentView(history, selection, new GeometryEngine(this));
+        }
+
+        return toolbar;
     }
 
     public DrawingMode getMode() {
@@ -44,15 +137,68 @@ public class DrawingPaneStateManager {
         this.mode = mode;
     }
 
-    public ShapeComponentView<?> getSelectedShape() {
+    public int getSelectedShape() {
         return selectedShape;
     }
 
-    public void setSelectedShape(ShapeComponentView<?> selectedShape) {
+    /**
+     * Selects only the shape. Listeners get both previously and newly selected shape, so previous one can hide its
+     * toolbar. Selection is recorded as {@link ShapeSelectionEvent} when JFR records it.
+     *
+     * @param selectedShape id of newly selected shape or {@link #NO_SHAPE} to clear selection
+     */
+    public void setSelectedShape(int selectedShape) {
+        ShapeSelectionEvent event = new ShapeSelectionEvent();
+        event.begin();
+
+        int previous = this.selectedShape;
+        selection.set(selectedShape);
+        changeSelectedShape(selectedShape);
+
+        if (event.shouldCommit()) {
+            event.previousShape = previous;
+            event.newShape = selectedShape;
+            event.selectedShapes = selection.size();
+            event.listeners = selectedShapeListeners.size();
+            event.commit();
+        }
+    }
+
+    /**
+     * Adds the shape to the selection, or removes it if it was selected. Added shape becomes the selected shape.
+     *
+     * @param id shape id
+     */
+    public void toggleSelected(int id) {
+        if (selection.toggle(id)) {
+            changeSelectedShape(id);
+        } else if (id == selectedShape) {
+            changeSelectedShape(selection.last());
+        }
+    }
+
+    /**
+     * Selects shapes at once. The topmost selected shape becomes the selected shape.
+     *
+     * @param ids   ids of shapes
+     * @param count number of shapes in the array
+     * @param add   true to add shapes to the selection, false to replace it
+     */
+    public void selectShapes(int[] ids, int count, boolean add) {
+        selection.selectAll(ids, count, add);
+        changeSelectedShape(selection.last());
+    }
+
+    private void changeSelectedShape(int selectedShape) {
+        int previous = this.selectedShape;
         this.selectedShape = selectedShape;
 
+        if (previous == selectedShape) {
+            return;
+        }
+
         for (SelectedShapeListener listener : this.selectedShapeListeners) {
-            listener.run(selectedShape);
+            listener.run(previous, selectedShape);
         }
     }
 
@@ -64,15 +210,44 @@ public class DrawingPaneStateManager {
         this.selectedShapeListeners.remove(listener);
     }
 
-    public ShapeComponentView<?> getDrawnShape() {
+    public int getSelectedShapeListenerCount() {
+        return this.selectedShapeListeners.size();
+    }
+
+    /**
+     * Clears selected and drawn shape. It must be called before shapes are removed from the store.
+     */
+    public void clearSelection() {
+        setSelectedShape(NO_SHAPE);
+        setDrawnShape(NO_SHAPE);
+    }
+
+    /**
+     * Removes all shapes of the drawing and clears selected and drawn shape. Removal is recorded, so it can be undone.
+     */
+    public void clearShapes() {
+        pointerInput.flush();
+        clearSelection();
+        history.clear();
+    }
+
+    public int getDrawnShape() {
         return this.drawnShape;
     }
 
-    public void setDrawnShape(ShapeComponentView<?> drawnShape) {
+    public void setDrawnShape(int drawnShape) {
         this.drawnShape = drawnShape;
     }
 
+    public Coordinates getDrawStart() {
+        return drawStart;
+    }
+
+    public void setDrawStart(Coordinates drawStart) {
+        this.drawStart = drawStart;
+    }
+
     public interface SelectedShapeListener {
-        void run(ShapeComponentView<?> newShape);
+        void run(int previousShape, int newShape);
     }
 }
@@ -0,0 +1,38 @@
+package com.demo.lab5;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event covering saving of a drawing, from copying its shapes until the file is replaced.
+ */
+@Name("com.demo.lab5.DrawingSave")
+@Label("Drawing Save")
+@Category("Drawing")
+@Description("Saving of a drawing file with durations of its phases")
+public class DrawingSaveEvent extends Event {
+    @Label("File")
+    String file;
+
+    @Label("Format")
+    String format;
+
+    @Label("Result")
+    @Description("Succeeded, failed or cancelled")
+    String result;
+
+    @Label("Shapes")
+    int shapes;
+
+    @Label("Copy Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long copyTime;
+
+    @Label("Write Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long writeTime;
+}
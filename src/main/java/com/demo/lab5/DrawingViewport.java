@@ -0,0 +1,189 @@
+package com.demo.lab5;
+
+import javafx.scene.transform.Affine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Visible part of the unbounded drawing. It maps coordinates of the drawing area (screen) to coordinates of the store
+ * (world) by panning and zooming.
+ * <p>
+ * World point {@code (x, y)} is shown at {@code (x * scale + translateX, y * scale + translateY)}. Renderers put the
+ * {@link #getTransform() transform} on their layers, so panning and zooming don't touch views of the shapes.
+ */
+public class DrawingViewport {
+    /**
+     * Limits of zoom.
+     */
+    public static final double MIN_SCALE = 0.01;
+    public static final double MAX_SCALE = 64;
+
+    /**
+     * Transform from world to screen coordinates
+     */
+    private final Affine transform;
+    /**
+     * Listeners notified after the viewport is panned, zoomed or resized
+     */
+    private final List<ViewportListener> listeners;
+
+    /**
+     * Size of the drawing area in screen pixels
+     */
+    private double width;
+    private double height;
+
+    public DrawingViewport() {
+        this.transform = new Affine();
+        this.listeners = new ArrayList<>();
+    }
+
+    /**
+     * Returns transform from world to screen coordinates. It is updated in place and must not be modified.
+     *
+     * @return viewport transform
+     */
+    public Affine getTransform() {
+        return transform;
+    }
+
+    public double getScale() {
+        return transform.getMxx();
+    }
+
+    public double getTranslateX() {
+        return transform.getTx();
+    }
+
+    public double getTranslateY() {
+        return transform.getTy();
+    }
+
+    /**
+     * Sets size of the drawing area. It must be called whenever the drawing area is resized.
+     *
+     * @param width  width in screen pixels
+     * @param height height in screen pixels
+     */
+    public void setSize(double width, double height) {
+        if (this.width == width && this.height == height) {
+            return;
+        }
+
+        this.width = width;
+        this.height = height;
+        fireChanged();
+    }
+
+    /**
+     * Moves the drawing by given distance on the screen.
+     *
+     * @param deltaX horizontal distance in screen pixels
+     * @param deltaY vertical distance in screen pixels
+     */
+    public void pan(double deltaX, double deltaY) {
+        if (deltaX == 0 && deltaY == 0) {
+            return;
+        }
+
+        transform.setTx(transform.getTx() + deltaX);
+        transform.setTy(transform.getTy() + deltaY);
+        fireChanged();
+    }
+
+    /**
+     * Zooms the drawing, keeping given screen point over the same world point. Scale is clamped to
+     * {@link #MIN_SCALE} and {@link #MAX_SCALE}.
+     *
+     * @param factor multiplier of the scale
+     * @param pivotX x of the fixed point in screen pixels
+     * @param pivotY y of the fixed point in screen pixels
+     */
+    public void zoom(double factor, double pivotX, double pivotY) {
+        double scale = getScale();
+        double newScale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, scale * factor));
+
+        if (newScale == scale) {
+            return;
+        }
+
+        double worldX = toWorldX(pivotX);
+        double worldY = toWorldY(pivotY);
+
+        transform.setMxx(newScale);
+        transform.setMyy(newScale);
+        transform.setTx(pivotX - worldX * newScale);
+        transform.setTy(pivotY - worldY * newScale);
+        fireChanged();
+    }
+
+    /**
+     * Resets pan and zoom, so world and screen coordinates are the same.
+     */
+    public void reset() {
+        if (getScale() == 1 && getTranslateX() == 0 && getTranslateY() == 0) {
+            return;
+        }
+
+        transform.setToIdentity();
+        fireChanged();
+    }
+
+    /**
+     * Maps x from the drawing area to the store.
+     *
+     * @param screenX x in screen pixels
+     * @return world x
+     */
+    public double toWorldX(double screenX) {
+        return (screenX - getTranslateX()) / getScale();
+    }
+
+    /**
+     * Maps y from the drawing area to the store.
+     *
+     * @param screenY y in screen pixels
+     * @return world y
+     */
+    public double toWorldY(double screenY) {
+        return (screenY - getTranslateY()) / getScale();
+    }
+
+    /**
+     * Bounds of the visible part of the drawing in world coordinates.
+     */
+    public double getMinX() {
+        return toWorldX(0);
+    }
+
+    public double getMinY() {
+        return toWorldY(0);
+    }
+
+    public double getMaxX() {
+        return toWorldX(width);
+    }
+
+    public double getMaxY() {
+        return toWorldY(height);
+    }
+
+    public void addListener(ViewportListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(ViewportListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void fireChanged() {
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).viewportChanged();
+        }
+    }
+
+    public interface ViewportListener {
+        void viewportChanged();
+    }
+}
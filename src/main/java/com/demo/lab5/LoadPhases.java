@@ -0,0 +1,42 @@
+package com.demo.lab5;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Durations of phases of loading a drawing in nanoseconds. Phases are summed over all threads which run them, so they
+ * can add up to more than the time of loading when shapes are decoded in parallel.
+ * <ul>
+ *     <li>parse - reading the file and splitting it into shape records on the loading thread</li>
+ *     <li>decode - decoding records into shapes, on any thread</li>
+ *     <li>attach - adding decoded shapes to the drawing on the JavaFX Application Thread</li>
+ * </ul>
+ */
+public class LoadPhases {
+    private final LongAdder parse = new LongAdder();
+    private final LongAdder decode = new LongAdder();
+    private final LongAdder attach = new LongAdder();
+
+    public void addParse(long nanos) {
+        parse.add(nanos);
+    }
+
+    public void addDecode(long nanos) {
+        decode.add(nanos);
+    }
+
+    public void addAttach(long nanos) {
+        attach.add(nanos);
+    }
+
+    public long getParse() {
+        return parse.sum();
+    }
+
+    public long getDecode() {
+        return decode.sum();
+    }
+
+    public long getAttach() {
+        return attach.sum();
+    }
+}
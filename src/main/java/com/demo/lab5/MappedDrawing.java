@@ -0,0 +1,147 @@
+package com.demo.lab5;
+
+import com.demo.lab5.model.ShapeStore;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary drawing opened through a memory-mapped file. Shapes are decoded only when they are needed, so opening a
+ * drawing costs only reading its table of contents.
+ * <p>
+ * Drawing is shown as placeholders added to the {@link ShapeStore}, which are replaced with decoded shapes when they
+ * become visible.
+ *
+ * @see ShapesBinaryEncoder
+ */
+public class MappedDrawing implements Closeable {
+    /**
+     * Channel of the mapped file
+     */
+    private final FileChannel channel;
+    /**
+     * Whole mapped file
+     */
+    private final MappedByteBuffer buffer;
+    /**
+     * File offsets of shape records in drawing order
+     */
+    private final long[] offsets;
+    /**
+     * Shape bounds, four values (min x, min y, max x, max y) for every shape
+     */
+    private final double[] bounds;
+
+    private MappedDrawing(FileChannel channel, MappedByteBuffer buffer, long[] offsets, double[] bounds) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.offsets = offsets;
+        this.bounds = bounds;
+    }
+
+    /**
+     * Maps binary drawing file and reads its table of contents.
+     *
+     * @param file drawing file, written in binary format version 2 or newer
+     * @return opened drawing
+     * @throws IOException if file can't be mapped or doesn't contain table of contents
+     */
+    public static MappedDrawing open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Drawing is too large to be mapped");
+            }
+            if (size < ShapesBinaryEncoder.HEADER_SIZE + ShapesBinaryEncoder.TRAILER_SIZE) {
+                throw new IOException("Not a binary drawing");
+            }
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            if (ShapesBinaryEncoder.readHeader(buffer) < 2) {
+                throw new IOException("Drawing has no table of contents, save it again to open it lazily");
+            }
+
+            buffer.position((int) size - ShapesBinaryEncoder.TRAILER_SIZE);
+            long tocOffset = buffer.getLong();
+            if (buffer.getInt() != ShapesBinaryEncoder.MAGIC || tocOffset < 0 || tocOffset > size - Integer.BYTES) {
+                throw new IOException("Invalid table of contents");
+            }
+
+            buffer.position((int) tocOffset);
+            int count = buffer.getInt();
+            if (count < 0 || (long) count * ShapesBinaryEncoder.TOC_ENTRY_SIZE > buffer.remaining()) {
+                throw new IOException("Invalid table of contents");
+            }
+
+            long[] offsets = new long[count];
+            double[] bounds = new double[4 * count];
+            for (int i = 0; i < count; i++) {
+                offsets[i] = buffer.getLong();
+                for (int j = 0; j < 4; j++) {
+                    bounds[4 * i + j] = buffer.getDouble();
+                }
+            }
+
+            return new MappedDrawing(channel, buffer, offsets, bounds);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns number of shapes in the drawing.
+     *
+     * @return number of shapes
+     */
+    public int size() {
+        return offsets.length;
+    }
+
+    /**
+     * Adds placeholder for every shape of the drawing to the store. Placeholders have bounds of the shapes they stand
+     * for, so they can be found by {@link ShapeSpatialIndex} before they are decoded.
+     *
+     * @param store store receiving placeholders in drawing order
+     */
+    public void addPlaceholders(ShapeStore store) {
+        ShapeStore placeholders = new ShapeStore(offsets.length);
+        for (int i = 0; i < offsets.length; i++) {
+            placeholders.addPlaceholder(bounds[4 * i], bounds[4 * i + 1], bounds[4 * i + 2], bounds[4 * i + 3]);
+        }
+
+        // added at once, so listeners of the store are notified only once
+        store.addAll(placeholders);
+    }
+
+    /**
+     * Decodes shape and puts it in place of a shape in the store, usually its placeholder. Buffer is duplicated, so it
+     * can be called from any thread.
+     *
+     * @param index  shape index in the drawing
+     * @param target store with the replaced shape
+     * @param id     id of the replaced shape
+     * @throws IOException if shape record is not valid
+     */
+    public void load(int index, ShapeStore target, int id) throws IOException {
+        ByteBuffer record = buffer.duplicate();
+        record.position((int) offsets[index]);
+
+        ShapeStore decoded = new ShapeStore(1);
+        ShapesBinaryEncoder.decodeShape(record, decoded);
+        target.replace(id, decoded, 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,396 @@
+package com.demo.lab5;
+
+import com.demo.lab5.model.ShapeStoreListener;
+import com.demo.lab5.model.ShapeType;
+import com.demo.lab5.shapes.ShapeComponentView;
+import com.demo.lab5.shapes.ShapeViewPool;
+import javafx.animation.AnimationTimer;
+import javafx.scene.Group;
+import javafx.scene.Node;
+import javafx.scene.layout.Pane;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Renderer which shows shapes as nodes in the drawing area. Every shape can be edited directly.
+ * <p>
+ * Only detailed shapes of the {@link ShapeDetailArea} around the viewport are attached. Views of shapes which leave
+ * the area or become tiny are detached and pooled for shapes which enter it, so the number of nodes depends on the
+ * visible part of the drawing, not on its size. Tiny shapes are shown by the density layer below the views. Area is
+ * updated at most once per pulse. The selected and the drawn shape stay attached wherever they are.
+ * <p>
+ * Views are kept by shape id. Placeholders of lazily opened drawing get their views when they are loaded.
+ */
+public class NodeShapeRenderer implements ShapeRenderer {
+    /**
+     * Maximal number of views in the area
+     */
+    private static final int MAX_VIEWS = 2048;
+    /**
+     * Maximal number of free views of a single type kept for reuse. Views of a whole area fit, so clearing and opening
+     * a drawing reuses them.
+     */
+    private static final int POOL_CAPACITY = MAX_VIEWS;
+
+    private final DrawingPaneStateManager stateManager;
+    /**
+     * Listener mirroring changes of the store to the drawing area
+     */
+    private final ShapeStoreListener storeListener;
+    /**
+     * Listener showing and hiding toolbars of selected shapes
+     */
+    private final DrawingPaneStateManager.SelectedShapeListener selectionListener;
+    /**
+     * Listener scheduling update of the area when the viewport leaves it
+     */
+    private final DrawingViewport.ViewportListener viewportListener;
+    /**
+     * Timer updating the area in the next pulse, so continuous panning and changes of tiny shapes query the index once
+     * per frame
+     */
+    private final AnimationTimer areaUpdater;
+    /**
+     * Area whose detailed shapes have views
+     */
+    private final ShapeDetailArea area;
+    /**
+     * Detached views
+     */
+    private final ShapeViewPool pool;
+    /**
+     * Layer holding views
+     */
+    private final Group layer;
+    /**
+     * Layer holding the density layer and views, transformed by the viewport
+     */
+    private final Group content;
+    /**
+     * Reusable membership of detailed shapes of the area
+     */
+    private final BitSet detailed;
+    /**
+     * Reusable views which are detached and attached at once after changes of shapes and updates of the area
+     */
+    private final Set<Node> removedViews;
+    private final List<Node> addedViews;
+
+    private Pane drawingBox;
+    /**
+     * Views of attached shapes by id. Placeholders, detached and tiny shapes have no views.
+     */
+    private ShapeComponentView<?>[] views;
+    /**
+     * Zoom bucket polygon views were synced at
+     */
+    private int syncedBucket;
+
+    /**
+     * Creates renderer showing shapes of the store held by state manager.
+     *
+     * @param spatialIndex index of all shapes of the drawing
+     * @param stateManager state manager of the drawing area
+     */
+    public NodeShapeRenderer(ShapeSpatialIndex spatialIndex, DrawingPaneStateManager stateManager) {
+        this.stateManager = stateManager;
+        this.area = new ShapeDetailArea(spatialIndex, stateManager, MAX_VIEWS);
+        this.pool = new ShapeViewPool(stateManager, POOL_CAPACITY);
+        this.layer = new Group();
+        this.content = new Group(area.getDensityLayer().getView(), layer);
+        this.content.getTransforms().add(stateManager.getViewport().getTransform());
+        this.detailed = new BitSet();
+        this.removedViews = new HashSet<>();
+        this.addedViews = new ArrayList<>();
+        this.storeListener = new ShapeStoreListener() {
+            @Override
+            public void shapesAdded(int fromId, int toId) {
+                onShapesAdded(fromId, toId);
+            }
+
+            @Override
+            public void shapeChanged(int id) {
+                onShapeChanged(id);
+                applyViewChanges();
+            }
+
+            @Override
+            public void shapesChanged(int[] ids, int count) {
+                for (int i = 0; i < count; i++) {
+                    onShapeChanged(ids[i]);
+                }
+                applyViewChanges();
+            }
+
+            @Override
+            public void shapesRemoved(int fromId, int toId) {
+                onShapesRemoved(fromId, toId);
+            }
+
+            @Override
+            public void shapesCleared() {
+                releaseAll();
+                views = new ShapeComponentView<?>[16];
+                scheduleUpdate();
+            }
+        };
+        this.selectionListener = this::onSelectionChanged;
+        this.viewportListener = this::onViewportChanged;
+        this.areaUpdater = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                stop();
+                updateArea();
+            }
+        };
+    }
+
+    @Override
+    public void attach(Pane drawingBox) {
+        this.drawingBox = drawingBox;
+        this.views = new ShapeComponentView<?>[Math.max(stateManager.getStore().size(), 16)];
+
+        drawingBox.getChildren().setAll(content);
+        area.invalidate();
+        updateArea();
+        onSelectionChanged(DrawingPaneStateManager.NO_SHAPE, stateManager.getSelectedShape());
+
+        stateManager.getStore().addListener(storeListener);
+        stateManager.addSelectedShapeListener(selectionListener);
+        stateManager.getViewport().addListener(viewportListener);
+    }
+
+    @Override
+    public void detach() {
+        areaUpdater.stop();
+        stateManager.getStore().removeListener(storeListener);
+        stateManager.removeSelectedShapeListener(selectionListener);
+        stateManager.getViewport().removeListener(viewportListener);
+
+        releaseAll();
+        pool.clear();
+        area.clear();
+        drawingBox.getChildren().clear();
+
+        views = null;
+        drawingBox = null;
+    }
+
+    private void onViewportChanged() {
+        if (area.needsUpdate()) {
+            areaUpdater.start();
+        }
+    }
+
+    /**
+     * Updates the area in the next pulse, because shapes shown in the density layer changed.
+     */
+    private void scheduleUpdate() {
+        area.invalidate();
+        areaUpdater.start();
+    }
+
+    /**
+     * Updates the area around the viewport. Views of shapes which are not detailed shapes of the area anymore are
+     * detached and detailed shapes without views get them.
+     */
+    private void updateArea() {
+        int[] ids = area.update(this::isPinned);
+        for (int id : ids) {
+            detailed.set(id);
+        }
+
+        int bucket = Math.getExponent(stateManager.getViewport().getScale());
+        boolean zoomChanged = bucket != syncedBucket;
+        syncedBucket = bucket;
+
+        for (Node node : layer.getChildren()) {
+            ShapeComponentView<?> view = (ShapeComponentView<?>) node;
+            int id = view.getShapeId();
+
+            if (!detailed.get(id) && !isPinned(id)) {
+                removedViews.add(node);
+                release(id);
+            } else if (zoomChanged && view.getViewType() == ShapeType.POLYGON) {
+                // points are simplified for the zoom
+                view.sync();
+            }
+        }
+
+        for (int id : ids) {
+            detailed.clear(id);
+
+            if (views[id] == null) {
+                addedViews.add(acquire(id));
+            }
+        }
+        applyViewChanges();
+    }
+
+    /**
+     * Attaches views of added detailed shapes at once. Added tiny shapes are painted in the next pulse. Batches which
+     * could exceed {@link #MAX_VIEWS}, like opened drawings, are left to the next update of the area, which picks their
+     * detailed shapes, so they don't create views which are detached right away.
+     */
+    private void onShapesAdded(int fromId, int toId) {
+        if (toId > views.length) {
+            views = Arrays.copyOf(views, Math.max(toId, 2 * views.length));
+        }
+
+        if (toId - fromId > MAX_VIEWS - layer.getChildren().size()) {
+            scheduleUpdate();
+            return;
+        }
+
+        List<Node> added = new ArrayList<>();
+
+        for (int id = fromId; id < toId; id++) {
+            if (stateManager.getStore().getType(id) == ShapeType.PLACEHOLDER || !area.contains(id)) {
+                continue;
+            }
+
+            if (area.isTiny(id)) {
+                scheduleUpdate();
+            } else {
+                added.add(acquire(id));
+            }
+        }
+
+        layer.getChildren().addAll(added);
+    }
+
+    /**
+     * Detaches views of removed shapes at once. Density layer is repainted, if it shows any shapes.
+     */
+    private void onShapesRemoved(int fromId, int toId) {
+        if (area.getDensityLayer().getView().isVisible()) {
+            scheduleUpdate();
+        }
+
+        Set<Node> removed = new HashSet<>();
+
+        for (int id = fromId; id < toId; id++) {
+            if (views[id] != null) {
+                removed.add(views[id]);
+                release(id);
+            }
+        }
+
+        layer.getChildren().removeAll(removed);
+    }
+
+    /**
+     * Updates view of changed shape. Shape which left the area or became tiny is detached and shape which entered it,
+     * or placeholder which was replaced with a loaded shape, is attached. Views are detached and attached by
+     * {@link #applyViewChanges()}, so changes of many shapes change children of the layer once. Density layer is
+     * repainted if the shape is or could have been shown in it.
+     */
+    private void onShapeChanged(int id) {
+        ShapeComponentView<?> view = views[id];
+        ShapeType type = stateManager.getStore().getType(id);
+        boolean inArea = type != ShapeType.PLACEHOLDER && area.contains(id);
+        boolean tiny = inArea && area.isTiny(id);
+        boolean shown = type != ShapeType.PLACEHOLDER && (isPinned(id) || inArea && !tiny);
+
+        if (tiny && !isPinned(id) || view == null && area.getDensityLayer().getView().isVisible()) {
+            scheduleUpdate();
+        }
+
+        if (view != null && shown && view.getViewType() == type) {
+            view.sync();
+            return;
+        }
+
+        if (view != null) {
+            removedViews.add(view);
+            release(id);
+        }
+        if (shown) {
+            addedViews.add(acquire(id));
+        }
+    }
+
+    /**
+     * Detaches and attaches views collected by {@link #onShapeChanged(int)}.
+     */
+    private void applyViewChanges() {
+        if (!removedViews.isEmpty()) {
+            layer.getChildren().removeAll(removedViews);
+            removedViews.clear();
+        }
+        if (!addedViews.isEmpty()) {
+            layer.getChildren().addAll(addedViews);
+            addedViews.clear();
+        }
+    }
+
+    private void onSelectionChanged(int previousShape, int newShape) {
+        if (previousShape != DrawingPaneStateManager.NO_SHAPE && views[previousShape] != null) {
+            views[previousShape].onDeselected();
+
+            // selected shape could be dragged out of the area or be too small to have a view
+            if (!area.contains(previousShape) || area.isTiny(previousShape)) {
+                layer.getChildren().remove(views[previousShape]);
+                release(previousShape);
+                scheduleUpdate();
+            }
+        }
+
+        if (newShape == DrawingPaneStateManager.NO_SHAPE) {
+            return;
+        }
+
+        if (views[newShape] == null && stateManager.getStore().getType(newShape) != ShapeType.PLACEHOLDER) {
+            // selected tiny shape is removed from the density layer
+            layer.getChildren().add(acquire(newShape));
+            scheduleUpdate();
+        }
+        if (views[newShape] != null) {
+            views[newShape].onSelected();
+        }
+    }
+
+    /**
+     * Checks if the shape keeps its view outside the area or when it is tiny. Selected shape can be dragged away and
+     * shape which is being drawn starts tiny.
+     */
+    private boolean isPinned(int id) {
+        return id == stateManager.getSelectedShape() || id == stateManager.getDrawnShape();
+    }
+
+    private ShapeComponentView<?> acquire(int id) {
+        ShapeComponentView<?> view = pool.acquire(id);
+        // views are added in any order when placeholders are loaded or shapes enter the area, so drawing order is kept
+        // with view order
+        view.setViewOrder(-id);
+        views[id] = view;
+
+        return view;
+    }
+
+    /**
+     * Returns view of the shape to the pool. View must be removed from the layer by the caller.
+     */
+    private void release(int id) {
+        pool.release(views[id]);
+        views[id] = null;
+    }
+
+    /**
+     * Detaches all views and returns them to the pool.
+     */
+    private void releaseAll() {
+        for (Node node : layer.getChildren()) {
+            ShapeComponentView<?> view = (ShapeComponentView<?>) node;
+            views[view.getShapeId()] = null;
+            pool.release(view);
+        }
+
+        layer.getChildren().clear();
+    }
+}
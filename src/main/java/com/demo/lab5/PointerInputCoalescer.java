@@ -0,0 +1,243 @@
+package com.demo.lab5;
+
+import com.demo.lab5.model.ShapeGeometry;
+import com.demo.lab5.model.ShapeHistory;
+import javafx.animation.AnimationTimer;
+
+/**
+ * Coalesces dragging, resizing and scrolling of shapes, so they are applied at most once per animation pulse.
+ * <p>
+ * Mice with high polling rate send several events per frame. Only the latest pointer state of every kind of change is
+ * kept in primitive fields and applied through {@link ShapeHistory} when the next pulse starts, so the store, the
+ * spatial index and the views are updated once per frame and nothing is allocated while dragging.
+ * <p>
+ * Pending changes must be applied with {@link #flush()} before the history is sealed or any other change is made.
+ */
+public class PointerInputCoalescer extends AnimationTimer {
+    private static final int NO_SHAPE = DrawingPaneStateManager.NO_SHAPE;
+
+    /**
+     * History through which changes are applied
+     */
+    private final ShapeHistory history;
+
+    /**
+     * Shape waiting to be moved and its new position
+     */
+    private int movedShape = NO_SHAPE;
+    private double moveX;
+    private double moveY;
+
+    /**
+     * Shape waiting to be resized by dragging, the start point of dragging and the current point
+     */
+    private int resizedShape = NO_SHAPE;
+    private double resizeStartX;
+    private double resizeStartY;
+    private double resizeX;
+    private double resizeY;
+
+    /**
+     * Shape waiting to be scaled and product of all pending scales
+     */
+    private int scaledShape = NO_SHAPE;
+    private double scale;
+
+    /**
+     * Shapes waiting to be moved together and sum of pending distances
+     */
+    private int[] movedShapes;
+    private double moveAllX;
+    private double moveAllY;
+
+    /**
+     * Shapes waiting to be scaled together and product of all pending scales
+     */
+    private int[] scaledShapes;
+    private double scaleAll;
+    /**
+     * Reusable bounds of scaled shapes
+     */
+    private final double[] bounds = new double[4];
+
+    /**
+     * Creates coalescer applying changes through given history. It must be created on the JavaFX Application Thread.
+     *
+     * @param history history of the store
+     */
+    public PointerInputCoalescer(ShapeHistory history) {
+        this.history = history;
+    }
+
+    /**
+     * Moves shape in the next pulse. Previous pending position of the shape is dropped.
+     *
+     * @param id shape id
+     * @param x  new x position
+     * @param y  new y position
+     * @see ShapeHistory#move(int, double, double)
+     */
+    public void move(int id, double x, double y) {
+        if (movedShape != id) {
+            applyMove();
+            movedShape = id;
+        }
+
+        moveX = x;
+        moveY = y;
+        start();
+    }
+
+    /**
+     * Sets size of the shape created by dragging in the next pulse. Previous pending size of the shape is dropped.
+     *
+     * @param id     rectangle or circle id
+     * @param startX x of the point where dragging started
+     * @param startY y of the point where dragging started
+     * @param x      current x
+     * @param y      current y
+     * @see ShapeHistory#setDraggedSize(int, double, double, double, double)
+     */
+    public void setDraggedSize(int id, double startX, double startY, double x, double y) {
+        if (resizedShape != id) {
+            applyResize();
+            resizedShape = id;
+        }
+
+        resizeStartX = startX;
+        resizeStartY = startY;
+        resizeX = x;
+        resizeY = y;
+        start();
+    }
+
+    /**
+     * Scales shape in the next pulse. Scales pending for the shape are multiplied.
+     *
+     * @param id         shape id
+     * @param multiplier scale
+     * @see ShapeHistory#scale(int, double)
+     */
+    public void scale(int id, double multiplier) {
+        if (scaledShape != id) {
+            applyScale();
+            scaledShape = id;
+            scale = 1;
+        }
+
+        scale *= multiplier;
+        start();
+    }
+
+    /**
+     * Moves shapes together in the next pulse. Pending distances of the same shapes are added.
+     *
+     * @param ids ids of moved shapes, the same array while the same shapes are dragged
+     * @param dx  distance along x axis
+     * @param dy  distance along y axis
+     * @see ShapeHistory#moveAll(int[], double, double)
+     */
+    public void moveAll(int[] ids, double dx, double dy) {
+        if (movedShapes != ids) {
+            applyMoveAll();
+            movedShapes = ids;
+        }
+
+        moveAllX += dx;
+        moveAllY += dy;
+        start();
+    }
+
+    /**
+     * Scales shapes together around the center of their bounds in the next pulse. Scales pending for the same shapes
+     * are multiplied.
+     *
+     * @param ids        ids of scaled shapes, the same array while the same shapes are scaled
+     * @param multiplier scale
+     * @see ShapeHistory#scaleAll(int[], double, double, double)
+     */
+    public void scaleAll(int[] ids, double multiplier) {
+        if (scaledShapes != ids) {
+            applyScaleAll();
+            scaledShapes = ids;
+            scaleAll = 1;
+        }
+
+        scaleAll *= multiplier;
+        start();
+    }
+
+    /**
+     * Applies all pending changes immediately.
+     */
+    public void flush() {
+        applyMove();
+        applyResize();
+        applyScale();
+        applyMoveAll();
+        applyScaleAll();
+    }
+
+    private void applyMove() {
+        if (movedShape != NO_SHAPE) {
+            int id = movedShape;
+            movedShape = NO_SHAPE;
+            history.move(id, moveX, moveY);
+        }
+    }
+
+    private void applyResize() {
+        if (resizedShape != NO_SHAPE) {
+            int id = resizedShape;
+            resizedShape = NO_SHAPE;
+            history.setDraggedSize(id, resizeStartX, resizeStartY, resizeX, resizeY);
+        }
+    }
+
+    private void applyScale() {
+        if (scaledShape != NO_SHAPE) {
+            int id = scaledShape;
+            scaledShape = NO_SHAPE;
+            history.scale(id, scale);
+        }
+    }
+
+    private void applyMoveAll() {
+        if (movedShapes != null) {
+            int[] ids = movedShapes;
+            movedShapes = null;
+            history.moveAll(ids, moveAllX, moveAllY);
+            moveAllX = 0;
+            moveAllY = 0;
+        }
+    }
+
+    private void applyScaleAll() {
+        if (scaledShapes == null) {
+            return;
+        }
+
+        int[] ids = scaledShapes;
+        scaledShapes = null;
+
+        ShapeGeometry.bounds(history.getStore(), ids, bounds);
+        history.scaleAll(ids, scaleAll, (bounds[0] + bounds[2]) / 2, (bounds[1] + bounds[3]) / 2);
+    }
+
+    /**
+     * Applies pending changes at the start of the pulse, before layout and rendering. Timer keeps running while changes
+     * arrive and is stopped at the first pulse without them, so starting it doesn't add work to every event.
+     *
+     * @param now time of the pulse
+     */
+    @Override
+    public void handle(long now) {
+        if (movedShape == NO_SHAPE && resizedShape == NO_SHAPE && scaledShape == NO_SHAPE && movedShapes == null
+                && scaledShapes == null) {
+            stop();
+            return;
+        }
+
+        flush();
+    }
+}
@@ -0,0 +1,302 @@
+package com.demo.lab5;
+
+import com.demo.lab5.model.ShapeGeometry;
+import com.demo.lab5.model.ShapeStore;
+
+import javax.imageio.ImageIO;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Command line entry point which renders every drawing in a directory to a PNG image.
+ * <p>
+ * Drawings are decoded with the same codecs as the application and painted with Java2D into a {@link BufferedImage}, so
+ * no JavaFX stage or display is needed. Files are processed in parallel, one per thread, and throughput of every file
+ * and of the whole run is printed.
+ * <p>
+ * Usage: {@code ShapeBatchRenderer <input directory> <output directory> [threads]}
+ */
+public class ShapeBatchRenderer {
+    /**
+     * Free space added right and below the drawing.
+     */
+    private static final int MARGIN = 16;
+    /**
+     * Maximal width and height of rendered image. Larger drawings are scaled down.
+     */
+    private static final int MAX_IMAGE_SIZE = 8192;
+
+    /**
+     * Reusable geometry of painted shapes
+     */
+    private final Rectangle2D.Double rectangle = new Rectangle2D.Double();
+    private final Ellipse2D.Double ellipse = new Ellipse2D.Double();
+    private final Path2D.Double path = new Path2D.Double();
+    private final AffineTransform transform = new AffineTransform();
+    private final BasicStroke stroke = new BasicStroke((float) ShapeStore.STROKE_WIDTH);
+    private final double[] bounds = new double[4];
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("Usage: ShapeBatchRenderer <input directory> <output directory> [threads]");
+            System.exit(2);
+        }
+
+        // Java2D must not look for a display
+        System.setProperty("java.awt.headless", "true");
+
+        Path input = Path.of(args[0]);
+        Path output = Path.of(args[1]);
+        int threads = args.length == 3 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        List<Path> drawings;
+        try {
+            Files.createDirectories(output);
+            drawings = listDrawings(input);
+        } catch (IOException e) {
+            System.err.println("Can't read input directory: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        System.exit(renderAll(drawings, output, threads) ? 0 : 1);
+    }
+
+    /**
+     * Renders drawings in parallel and prints statistics of every file as soon as it is done.
+     *
+     * @param drawings drawing files
+     * @param output   directory for images
+     * @param threads  number of files rendered at once
+     * @return true if every drawing was rendered
+     * @throws InterruptedException if waiting for renders is interrupted
+     */
+    public static boolean renderAll(List<Path> drawings, Path output, int threads) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CompletionService<Result> completion = new ExecutorCompletionService<>(executor);
+        // renderer reuses its geometry, so every thread has its own
+        ThreadLocal<ShapeBatchRenderer> renderers = ThreadLocal.withInitial(ShapeBatchRenderer::new);
+
+        long start = System.nanoTime();
+        for (Path drawing : drawings) {
+            completion.submit(() -> renderers.get().render(drawing, output));
+        }
+
+        boolean success = true;
+        long shapes = 0;
+        long pixels = 0;
+        long bytes = 0;
+
+        try {
+            for (int i = 0; i < drawings.size(); i++) {
+                try {
+                    Result result = completion.take().get();
+                    shapes += result.shapes();
+                    pixels += result.pixels();
+                    bytes += result.bytes();
+                    System.out.printf(Locale.ROOT, "%s: %d shapes, %d px, read %.1f ms, paint %.1f ms, write %.1f ms%n",
+                            result.file().getFileName(), result.shapes(), result.pixels(),
+                            millis(result.readTime()), millis(result.paintTime()), millis(result.writeTime()));
+                } catch (ExecutionException e) {
+                    success = false;
+                    System.err.println("Rendering failed: " + e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+        System.out.printf(Locale.ROOT, "Rendered %d files with %d threads in %.2f s: %.1f files/s, %.0f shapes/s, %.1f Mpx/s, %.1f MB/s read%n",
+                drawings.size(), threads, seconds, drawings.size() / seconds, shapes / seconds, pixels / seconds / 1e6,
+                bytes / seconds / 1e6);
+
+        return success;
+    }
+
+    /**
+     * Lists drawing files of known formats in the directory, sorted by name.
+     *
+     * @param directory input directory
+     * @return drawing files
+     * @throws IOException if directory can't be read
+     */
+    private static List<Path> listDrawings(Path directory) throws IOException {
+        List<Path> drawings = new ArrayList<>();
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, Files::isRegularFile)) {
+            for (Path file : files) {
+                if (DrawingFormat.forFile(file.toFile()) != null) {
+                    drawings.add(file);
+                }
+            }
+        }
+
+        drawings.sort(null);
+        return drawings;
+    }
+
+    /**
+     * Reads drawing and writes it as a PNG image with the same name into the output directory.
+     *
+     * @param drawing drawing file
+     * @param output  directory for images
+     * @return statistics of rendering
+     * @throws Exception if drawing can't be read or image can't be written
+     */
+    public Result render(Path drawing, Path output) throws Exception {
+        long start = System.nanoTime();
+        ShapeStore store = new ShapeStore();
+
+        try (FileChannel channel = FileChannel.open(drawing, StandardOpenOption.READ)) {
+            DrawingFormat.forFile(drawing.toFile()).read(channel, store, id -> {
+            });
+        }
+
+        long read = System.nanoTime();
+        BufferedImage image = paint(store);
+
+        long painted = System.nanoTime();
+        File target = output.resolve(drawing.getFileName() + ".png").toFile();
+        ImageIO.write(image, "png", target);
+
+        long written = System.nanoTime();
+        return new Result(drawing, store.size(), (long) image.getWidth() * image.getHeight(), Files.size(drawing),
+                read - start, painted - read, written - painted);
+    }
+
+    /**
+     * Paints all shapes into a new image with transparent background. Image covers the drawing area from its origin to
+     * the furthest shape.
+     *
+     * @param store shapes
+     * @return painted image
+     */
+    public BufferedImage paint(ShapeStore store) {
+        double maxX = 0;
+        double maxY = 0;
+        for (int id = 0; id < store.size(); id++) {
+            ShapeGeometry.bounds(store, id, bounds);
+            maxX = Math.max(maxX, bounds[2]);
+            maxY = Math.max(maxY, bounds[3]);
+        }
+
+        double scale = Math.min(1, MAX_IMAGE_SIZE / Math.max(maxX + MARGIN, maxY + MARGIN));
+        int width = (int) Math.ceil((maxX + MARGIN) * scale);
+        int height = (int) Math.ceil((maxY + MARGIN) * scale);
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = image.createGraphics();
+
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            graphics.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+            graphics.setStroke(stroke);
+            graphics.scale(scale, scale);
+            AffineTransform base = graphics.getTransform();
+
+            for (int id = 0; id < store.size(); id++) {
+                paint(graphics, base, store, id);
+            }
+        } finally {
+            graphics.dispose();
+        }
+
+        return image;
+    }
+
+    /**
+     * Paints the shape the same way its view is rendered, including position, rotation, fill and stroke.
+     *
+     * @param graphics graphics of the image
+     * @param base     transform of the drawing area
+     * @param store    store with the shape
+     * @param id       shape id
+     */
+    private void paint(Graphics2D graphics, AffineTransform base, ShapeStore store, int id) {
+        Shape shape;
+
+        switch (store.getType(id)) {
+            case RECTANGLE -> {
+                rectangle.setRect(store.getMinX(id), store.getMinY(id), store.getWidth(id), store.getHeight(id));
+                shape = rectangle;
+            }
+            case CIRCLE -> {
+                double diameter = 2 * store.getRadius(id);
+                ellipse.setFrame(store.getMinX(id), store.getMinY(id), diameter, diameter);
+                shape = ellipse;
+            }
+            case POLYGON -> {
+                path.reset();
+                for (int i = 0; i < store.getPointCount(id); i++) {
+                    if (i == 0) {
+                        path.moveTo(store.getPointX(id, i), store.getPointY(id, i));
+                    } else {
+                        path.lineTo(store.getPointX(id, i), store.getPointY(id, i));
+                    }
+                }
+                path.closePath();
+                shape = path;
+            }
+            default -> {
+                return;
+            }
+        }
+
+        transform.setTransform(base);
+        transform.translate(store.getX(id), store.getY(id));
+        if (store.getRotation(id) != 0) {
+            // views are rotated around the center of the geometry
+            double centerX = (store.getMinX(id) + store.getMaxX(id)) / 2;
+            double centerY = (store.getMinY(id) + store.getMaxY(id)) / 2;
+            transform.rotate(Math.toRadians(store.getRotation(id)), centerX, centerY);
+        }
+        graphics.setTransform(transform);
+
+        graphics.setColor(new Color(store.getFill(id), true));
+        graphics.fill(shape);
+        graphics.setColor(new Color(store.getStroke(id), true));
+        graphics.draw(shape);
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    /**
+     * Statistics of a single rendered drawing.
+     *
+     * @param file      drawing file
+     * @param shapes    number of shapes
+     * @param pixels    number of pixels of the image
+     * @param bytes     size of the drawing file
+     * @param readTime  time of decoding in nanoseconds
+     * @param paintTime time of painting in nanoseconds
+     * @param writeTime time of encoding the image in nanoseconds
+     */
+    public record Result(Path file, int shapes, long pixels, long bytes, long readTime, long paintTime, long writeTime) {
+    }
+}
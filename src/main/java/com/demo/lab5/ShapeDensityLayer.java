@@ -0,0 +1,165 @@
+package com.demo.lab5;
+
+import com.demo.lab5.model.ShapeStore;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+import java.util.Arrays;
+
+/**
+ * Image aggregating tiny shapes of an area of the drawing, so they don't need nodes when the drawing is zoomed out.
+ * <p>
+ * Every shape sets its fill color to the pixel under its center and every further shape in the same pixel makes it
+ * more opaque. Image has one pixel per screen pixel at the zoom it was painted at and is placed in coordinates of the
+ * drawing, so panning and small zoom changes reuse it until the area is painted again.
+ */
+public class ShapeDensityLayer {
+    /**
+     * Maximal width and height of the image in pixels
+     */
+    private static final int MAX_SIZE = 4096;
+    /**
+     * Opacity of a pixel with a single shape and opacity added by every other shape
+     */
+    private static final int BASE_ALPHA = 160;
+    private static final int ALPHA_STEP = 32;
+
+    private final ImageView view;
+
+    private WritableImage image;
+    /**
+     * ARGB pixels of the image being painted
+     */
+    private int[] pixels = new int[0];
+    private int width;
+    private int height;
+
+    /**
+     * Painted area in coordinates of the drawing and pixels per unit of the drawing
+     */
+    private double minX;
+    private double minY;
+    private double resolution;
+
+    /**
+     * True if any shape was painted since {@link #reset(double, double, double, double, double)}
+     */
+    private boolean painted;
+
+    public ShapeDensityLayer() {
+        this.view = new ImageView();
+        this.view.setMouseTransparent(true);
+        this.view.setVisible(false);
+    }
+
+    /**
+     * Returns node showing the image. It must be put in a layer transformed by the viewport. It is hidden while there
+     * is nothing to show.
+     *
+     * @return image view
+     */
+    public ImageView getView() {
+        return view;
+    }
+
+    /**
+     * Returns size of a pixel of the image, so changes can be repainted with the pixels they touch.
+     *
+     * @return width and height of a pixel in coordinates of the drawing, 0 before the first painting
+     */
+    public double getPixelSize() {
+        return resolution == 0 ? 0 : 1 / resolution;
+    }
+
+    /**
+     * Starts painting of a new area. Image is shown unchanged until {@link #publish()}.
+     *
+     * @param minX  min x of the area
+     * @param minY  min y of the area
+     * @param maxX  max x of the area
+     * @param maxY  max y of the area
+     * @param scale zoom of the drawing
+     */
+    public void reset(double minX, double minY, double maxX, double maxY, double scale) {
+        this.resolution = Math.min(scale, MAX_SIZE / Math.max(maxX - minX, maxY - minY));
+        this.minX = minX;
+        this.minY = minY;
+        this.width = Math.max(1, (int) Math.ceil((maxX - minX) * resolution));
+        this.height = Math.max(1, (int) Math.ceil((maxY - minY) * resolution));
+        this.painted = false;
+
+        if (pixels.length < width * height) {
+            pixels = new int[width * height];
+        } else {
+            Arrays.fill(pixels, 0, width * height, 0);
+        }
+    }
+
+    /**
+     * Paints the shape as a point.
+     *
+     * @param store store with the shape
+     * @param id    shape id
+     */
+    public void add(ShapeStore store, int id) {
+        double centerX = store.getX(id) + (store.getMinX(id) + store.getMaxX(id)) / 2;
+        double centerY = store.getY(id) + (store.getMinY(id) + store.getMaxY(id)) / 2;
+        int column = (int) ((centerX - minX) * resolution);
+        int row = (int) ((centerY - minY) * resolution);
+
+        if (column < 0 || row < 0 || column >= width || row >= height) {
+            return;
+        }
+
+        int pixel = row * width + column;
+        int alpha = pixels[pixel] == 0 ? BASE_ALPHA : Math.min(255, (pixels[pixel] >>> 24) + ALPHA_STEP);
+        // shapes without fill are shown with their stroke
+        int color = store.getFill(id) >>> 24 == 0 ? store.getStroke(id) : store.getFill(id);
+        pixels[pixel] = alpha << 24 | color & 0xFFFFFF;
+        painted = true;
+    }
+
+    /**
+     * Shows painted image. Image is hidden if no shape was painted.
+     */
+    public void publish() {
+        view.setVisible(painted);
+        if (!painted) {
+            return;
+        }
+
+        if (image == null || image.getWidth() != width || image.getHeight() != height) {
+            image = new WritableImage(width, height);
+            view.setImage(image);
+        }
+
+        image.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+        view.setLayoutX(minX);
+        view.setLayoutY(minY);
+        view.setFitWidth(width / resolution);
+        view.setFitHeight(height / resolution);
+    }
+
+    /**
+     * Paints the published image onto a canvas.
+     *
+     * @param gc graphics context transformed by the viewport
+     */
+    public void draw(GraphicsContext gc) {
+        if (view.isVisible()) {
+            gc.drawImage(image, view.getLayoutX(), view.getLayoutY(), view.getFitWidth(), view.getFitHeight());
+        }
+    }
+
+    /**
+     * Hides the image and releases its memory.
+     */
+    public void clear() {
+        view.setVisible(false);
+        view.setImage(null);
+        image = null;
+        pixels = new int[0];
+    }
+}
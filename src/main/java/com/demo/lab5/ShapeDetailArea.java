@@ -0,0 +1,226 @@
+package com.demo.lab5;
+
+import com.demo.lab5.model.ShapeGeometry;
+import com.demo.lab5.model.ShapeLevelOfDetail;
+import com.demo.lab5.model.ShapeStore;
+import com.demo.lab5.model.ShapeType;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * Area around the viewport whose shapes are split into detailed shapes, which renderers show one by one, and tiny
+ * shapes, which are aggregated in a {@link ShapeDensityLayer}.
+ * <p>
+ * Area is the viewport extended by a margin, so it stays valid while the viewport is panned inside it. Shapes smaller
+ * than {@link ShapeLevelOfDetail#MIN_DETAIL_SIZE} pixels are tiny. If there are still more detailed shapes than the
+ * renderer can show smoothly, the smallest of them are tiny too, so work of the renderer doesn't grow with zooming out.
+ */
+public class ShapeDetailArea {
+    /**
+     * Part of the viewport size added to every side of the area
+     */
+    private static final double MARGIN_RATIO = 0.5;
+
+    private final ShapeSpatialIndex spatialIndex;
+    private final DrawingPaneStateManager stateManager;
+    private final ShapeDensityLayer densityLayer;
+    /**
+     * Maximal number of detailed shapes in the area
+     */
+    private final int maxDetailed;
+    /**
+     * Reusable bounds of a single shape
+     */
+    private final double[] bounds;
+    /**
+     * Reusable sizes of detailed shapes of the last update
+     */
+    private double[] sizes = new double[0];
+
+    /**
+     * Area in coordinates of the drawing
+     */
+    private double minX;
+    private double minY;
+    private double maxX;
+    private double maxY;
+    /**
+     * Zoom of the last update
+     */
+    private double scale = 1;
+    /**
+     * Size in coordinates of the drawing below which shapes are tiny
+     */
+    private double minDetailSize;
+    /**
+     * False if the area must be updated regardless of the viewport
+     */
+    private boolean valid;
+    /**
+     * True if the last update moved the area or changed its zoom
+     */
+    private boolean moved;
+
+    /**
+     * Creates area which is updated on the first use.
+     *
+     * @param spatialIndex index of all shapes of the drawing
+     * @param stateManager state manager of the drawing area
+     * @param maxDetailed  maximal number of detailed shapes
+     */
+    public ShapeDetailArea(ShapeSpatialIndex spatialIndex, DrawingPaneStateManager stateManager, int maxDetailed) {
+        this.spatialIndex = spatialIndex;
+        this.stateManager = stateManager;
+        this.densityLayer = new ShapeDensityLayer();
+        this.maxDetailed = maxDetailed;
+        this.bounds = new double[4];
+    }
+
+    public ShapeDensityLayer getDensityLayer() {
+        return densityLayer;
+    }
+
+    /**
+     * Checks if the area must be updated, because it was invalidated, the viewport left it, the viewport was zoomed in
+     * so much that most of the area can't be seen, or zoom crossed a bucket of {@link ShapeLevelOfDetail}.
+     *
+     * @return true if {@link #update(IntPredicate)} should be called
+     */
+    public boolean needsUpdate() {
+        DrawingViewport viewport = stateManager.getViewport();
+        double width = viewport.getMaxX() - viewport.getMinX();
+        double height = viewport.getMaxY() - viewport.getMinY();
+
+        boolean inside = viewport.getMinX() >= minX && viewport.getMinY() >= minY
+                && viewport.getMaxX() <= maxX && viewport.getMaxY() <= maxY;
+        boolean tooLarge = maxX - minX > 2 * (1 + 2 * MARGIN_RATIO) * width
+                || maxY - minY > 2 * (1 + 2 * MARGIN_RATIO) * height;
+
+        return !valid || !inside || tooLarge || Math.getExponent(viewport.getScale()) != Math.getExponent(scale);
+    }
+
+    /**
+     * Marks the area to be updated, for example because tiny shapes changed.
+     */
+    public void invalidate() {
+        valid = false;
+    }
+
+    /**
+     * Sets the area around the viewport, paints its tiny shapes into the density layer and finds its detailed shapes.
+     *
+     * @param excluded shapes which must not be painted into the density layer, because they are shown another way
+     * @return ids of detailed shapes in drawing order
+     */
+    public int[] update(IntPredicate excluded) {
+        DrawingViewport viewport = stateManager.getViewport();
+        ShapeStore store = stateManager.getStore();
+        ShapeLevelOfDetail levelOfDetail = stateManager.getLevelOfDetail();
+
+        double marginX = (viewport.getMaxX() - viewport.getMinX()) * MARGIN_RATIO;
+        double marginY = (viewport.getMaxY() - viewport.getMinY()) * MARGIN_RATIO;
+        moved = minX != viewport.getMinX() - marginX || minY != viewport.getMinY() - marginY
+                || maxX != viewport.getMaxX() + marginX || maxY != viewport.getMaxY() + marginY || scale != viewport.getScale();
+        minX = viewport.getMinX() - marginX;
+        minY = viewport.getMinY() - marginY;
+        maxX = viewport.getMaxX() + marginX;
+        maxY = viewport.getMaxY() + marginY;
+        scale = viewport.getScale();
+        minDetailSize = ShapeLevelOfDetail.MIN_DETAIL_SIZE / scale;
+        valid = true;
+
+        int[] ids = spatialIndex.query(minX, minY, maxX, maxY);
+
+        if (sizes.length < ids.length) {
+            sizes = new double[Math.max(ids.length, 2 * sizes.length)];
+        }
+        int detailed = 0;
+        for (int id : ids) {
+            double size = levelOfDetail.getSize(id);
+
+            if (store.getType(id) != ShapeType.PLACEHOLDER && size >= minDetailSize) {
+                sizes[detailed++] = size;
+            }
+        }
+
+        if (detailed > maxDetailed) {
+            // only the largest shapes are detailed, shapes of the same size are all detailed or all tiny
+            Arrays.sort(sizes, 0, detailed);
+            minDetailSize = Math.nextUp(sizes[detailed - maxDetailed - 1]);
+        }
+
+        densityLayer.reset(minX, minY, maxX, maxY, scale);
+        int count = 0;
+
+        for (int id : ids) {
+            if (store.getType(id) == ShapeType.PLACEHOLDER) {
+                continue;
+            }
+
+            if (!isTiny(id)) {
+                ids[count++] = id;
+            } else if (!excluded.test(id)) {
+                densityLayer.add(store, id);
+            }
+        }
+        densityLayer.publish();
+
+        return Arrays.copyOf(ids, count);
+    }
+
+    /**
+     * Checks if the last {@link #update(IntPredicate)} moved the area or changed its zoom. Otherwise the density layer
+     * changed only where tiny shapes changed.
+     *
+     * @return true if the density layer was painted at another place or zoom
+     */
+    public boolean wasMoved() {
+        return moved;
+    }
+
+    /**
+     * Checks if the part of the drawing lies inside the area, so its detailed shapes are among the shapes returned by
+     * the last {@link #update(IntPredicate)}.
+     *
+     * @param minX min x of the part
+     * @param minY min y of the part
+     * @param maxX max x of the part
+     * @param maxY max y of the part
+     * @return true if the part is inside the area
+     */
+    public boolean covers(double minX, double minY, double maxX, double maxY) {
+        return valid && minX >= this.minX && minY >= this.minY && maxX <= this.maxX && maxY <= this.maxY;
+    }
+
+    /**
+     * Checks if the shape intersects the area.
+     *
+     * @param id shape id
+     * @return true if shape is in the area
+     */
+    public boolean contains(int id) {
+        ShapeGeometry.bounds(stateManager.getStore(), id, bounds);
+
+        return bounds[0] <= maxX && bounds[2] >= minX && bounds[1] <= maxY && bounds[3] >= minY;
+    }
+
+    /**
+     * Checks if the shape is shown in the density layer at the zoom of the last update, if it is in the area.
+     *
+     * @param id shape id
+     * @return true if shape is tiny
+     */
+    public boolean isTiny(int id) {
+        return stateManager.getLevelOfDetail().getSize(id) < minDetailSize;
+    }
+
+    /**
+     * Hides the density layer and releases its memory. Area is updated on the next use.
+     */
+    public void clear() {
+        densityLayer.clear();
+        sizes = new double[0];
+        valid = false;
+    }
+}
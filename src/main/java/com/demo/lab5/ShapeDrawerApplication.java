@@ -8,6 +8,8 @@ import javafx.stage.Stage;
 import java.io.IOException;
 
 public class ShapeDrawerApplication extends Application {
+    private DrawingPaneController controller;
+
     public static void main(String[] args) {
         launch();
     }
@@ -16,8 +18,14 @@ public class ShapeDrawerApplication extends Application {
     public void start(Stage stage) throws IOException {
         FXMLLoader fxmlLoader = new FXMLLoader(ShapeDrawerApplication.class.getResource("drawing-pane.fxml"));
         Scene scene = new Scene(fxmlLoader.load(), 640, 400);
+        controller = fxmlLoader.getController();
         stage.setTitle("Shape drawer");
         stage.setScene(scene);
         stage.show();
     }
+
+    @Override
+    public void stop() {
+        controller.shutdown();
+    }
 }
\ No newline at end of file
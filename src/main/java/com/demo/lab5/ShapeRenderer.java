@@ -0,0 +1,22 @@
+package com.demo.lab5;
+
+import javafx.scene.layout.Pane;
+
+/**
+ * Rendering engine which shows shapes of the drawing in the drawing area. Only one renderer is attached at a time and
+ * it can be switched while the app is running.
+ */
+public interface ShapeRenderer {
+    /**
+     * Starts rendering shapes in the drawing area. Renderer follows changes of the shape store and selection until it
+     * is detached.
+     *
+     * @param drawingBox drawing area
+     */
+    void attach(Pane drawingBox);
+
+    /**
+     * Stops rendering and removes everything renderer added to the drawing area.
+     */
+    void detach();
+}
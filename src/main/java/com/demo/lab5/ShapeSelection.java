@@ -0,0 +1,159 @@
+package com.demo.lab5;
+
+import com.demo.lab5.model.ShapeStore;
+import com.demo.lab5.model.ShapeStoreListener;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Set of selected shapes kept as a bit set of their ids, so membership checks don't depend on the number of selected
+ * shapes and selecting thousands of shapes doesn't box them.
+ * <p>
+ * Removed shapes leave the selection. Listeners are notified once per change of the selection, also when many shapes
+ * are selected at once.
+ */
+public class ShapeSelection implements ShapeStoreListener {
+    private final BitSet members;
+    private final List<SelectionListener> listeners;
+    private int size;
+    /**
+     * Ids of selected shapes in drawing order, null until they are needed after the selection changed
+     */
+    private int[] ids;
+
+    /**
+     * Creates empty selection of shapes of the store and starts following its changes.
+     *
+     * @param store shapes
+     */
+    public ShapeSelection(ShapeStore store) {
+        this.members = new BitSet();
+        this.listeners = new ArrayList<>();
+
+        store.addListener(this);
+    }
+
+    public boolean contains(int id) {
+        return id >= 0 && members.get(id);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns selected shape drawn above other selected shapes.
+     *
+     * @return id of the last selected shape or {@link DrawingPaneStateManager#NO_SHAPE} if selection is empty
+     */
+    public int last() {
+        return size == 0 ? DrawingPaneStateManager.NO_SHAPE : members.length() - 1;
+    }
+
+    /**
+     * Returns ids of selected shapes in drawing order. The same array is returned until the selection changes, so it
+     * identifies the selection in coalesced bulk edits of {@link com.demo.lab5.model.ShapeHistory}. It must not be
+     * modified.
+     *
+     * @return ids of selected shapes
+     */
+    public int[] toArray() {
+        if (ids == null) {
+            ids = members.stream().toArray();
+        }
+
+        return ids;
+    }
+
+    /**
+     * Replaces the selection with a single shape.
+     *
+     * @param id shape id or {@link DrawingPaneStateManager#NO_SHAPE} to clear the selection
+     */
+    public void set(int id) {
+        if (size == (id == DrawingPaneStateManager.NO_SHAPE ? 0 : 1) && (size == 0 || members.get(id))) {
+            return;
+        }
+
+        members.clear();
+        if (id != DrawingPaneStateManager.NO_SHAPE) {
+            members.set(id);
+        }
+        changed();
+    }
+
+    /**
+     * Adds shape to the selection or removes it if it was selected.
+     *
+     * @param id shape id
+     * @return true if shape was added
+     */
+    public boolean toggle(int id) {
+        members.flip(id);
+        changed();
+
+        return members.get(id);
+    }
+
+    /**
+     * Selects shapes at once.
+     *
+     * @param ids   ids of shapes
+     * @param count number of shapes in the array
+     * @param add   true to add shapes to the selection, false to replace it
+     */
+    public void selectAll(int[] ids, int count, boolean add) {
+        if (!add) {
+            members.clear();
+        }
+
+        for (int i = 0; i < count; i++) {
+            members.set(ids[i]);
+        }
+        changed();
+    }
+
+    public void clear() {
+        set(DrawingPaneStateManager.NO_SHAPE);
+    }
+
+    public void addListener(SelectionListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(SelectionListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void shapesRemoved(int fromId, int toId) {
+        if (members.length() > fromId) {
+            members.clear(fromId, toId);
+            changed();
+        }
+    }
+
+    @Override
+    public void shapesCleared() {
+        clear();
+    }
+
+    private void changed() {
+        size = members.cardinality();
+        ids = null;
+
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).selectionChanged();
+        }
+    }
+
+    public interface SelectionListener {
+        void selectionChanged();
+    }
+}
@@ -0,0 +1,26 @@
+package com.demo.lab5;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event covering {@link DrawingPaneStateManager#setSelectedShape(int)} with notification of its listeners.
+ */
+@Name("com.demo.lab5.ShapeSelection")
+@Label("Shape Selection")
+@Category("Drawing")
+public class ShapeSelectionEvent extends Event {
+    @Label("Previous Shape")
+    int previousShape;
+
+    @Label("New Shape")
+    int newShape;
+
+    @Label("Selected Shapes")
+    int selectedShapes;
+
+    @Label("Listeners")
+    int listeners;
+}
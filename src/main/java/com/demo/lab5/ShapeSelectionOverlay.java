@@ -0,0 +1,141 @@
+package com.demo.lab5;
+
+import com.demo.lab5.model.ShapeGeometry;
+import com.demo.lab5.model.ShapeStoreListener;
+import javafx.animation.AnimationTimer;
+import javafx.scene.Group;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Rectangle;
+
+/**
+ * Overlay of the drawing area which shows bounds of all selected shapes and the rubber band used to select shapes in a
+ * rectangle.
+ * <p>
+ * Selected shapes are not highlighted one by one, so selecting or moving thousands of shapes changes a single node.
+ * Bounds are shown only when more than one shape is selected, single selected shape is shown with its toolbar. They are
+ * updated at most once per pulse.
+ */
+public class ShapeSelectionOverlay {
+    private final DrawingPaneStateManager stateManager;
+    private final Group node;
+    /**
+     * Bounds of selected shapes in screen coordinates
+     */
+    private final Rectangle selectionBounds;
+    /**
+     * Rubber band in screen coordinates
+     */
+    private final Rectangle band;
+    /**
+     * Timer updating bounds in the next pulse
+     */
+    private final AnimationTimer updater;
+    /**
+     * Reusable bounds of selected shapes
+     */
+    private final double[] bounds;
+
+    /**
+     * Creates overlay following selection of the state manager.
+     *
+     * @param stateManager state manager of the drawing area
+     */
+    public ShapeSelectionOverlay(DrawingPaneStateManager stateManager) {
+        this.stateManager = stateManager;
+        this.bounds = new double[4];
+        this.selectionBounds = createRectangle(Color.DODGERBLUE);
+        this.band = createRectangle(Color.GRAY);
+        this.node = new Group(selectionBounds, band);
+        this.node.setMouseTransparent(true);
+        this.node.setManaged(false);
+        this.updater = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                stop();
+                updateBounds();
+            }
+        };
+
+        ShapeSelection selection = stateManager.getSelection();
+        selection.addListener(updater::start);
+        stateManager.getViewport().addListener(updater::start);
+        stateManager.getStore().addListener(new ShapeStoreListener() {
+            @Override
+            public void shapeChanged(int id) {
+                if (selection.size() > 1 && selection.contains(id)) {
+                    updater.start();
+                }
+            }
+
+            @Override
+            public void shapesChanged(int[] ids, int count) {
+                for (int i = 0; i < count && selection.size() > 1; i++) {
+                    if (selection.contains(ids[i])) {
+                        updater.start();
+                        return;
+                    }
+                }
+            }
+        });
+    }
+
+    private static Rectangle createRectangle(Color color) {
+        Rectangle rectangle = new Rectangle();
+        rectangle.setFill(Color.TRANSPARENT);
+        rectangle.setStroke(color);
+        rectangle.getStrokeDashArray().setAll(6.0, 4.0);
+        rectangle.setVisible(false);
+
+        return rectangle;
+    }
+
+    /**
+     * Returns node of the overlay. It must be placed above the drawing area, without any transformation.
+     *
+     * @return overlay node
+     */
+    public Group getNode() {
+        return node;
+    }
+
+    /**
+     * Shows rubber band between two points.
+     *
+     * @param startX x where dragging started in screen coordinates
+     * @param startY y where dragging started in screen coordinates
+     * @param x      current x in screen coordinates
+     * @param y      current y in screen coordinates
+     */
+    public void showBand(double startX, double startY, double x, double y) {
+        band.setX(Math.min(startX, x));
+        band.setY(Math.min(startY, y));
+        band.setWidth(Math.abs(x - startX));
+        band.setHeight(Math.abs(y - startY));
+        band.setVisible(true);
+    }
+
+    public void hideBand() {
+        band.setVisible(false);
+    }
+
+    /**
+     * Sets bounds to the union of bounds of all selected shapes.
+     */
+    private void updateBounds() {
+        ShapeSelection selection = stateManager.getSelection();
+        if (selection.size() < 2) {
+            selectionBounds.setVisible(false);
+            return;
+        }
+
+        ShapeGeometry.bounds(stateManager.getStore(), selection.toArray(), bounds);
+
+        DrawingViewport viewport = stateManager.getViewport();
+        double scale = viewport.getScale();
+        selectionBounds.setX(bounds[0] * scale + viewport.getTranslateX());
+        selectionBounds.setY(bounds[1] * scale + viewport.getTranslateY());
+        selectionBounds.setWidth((bounds[2] - bounds[0]) * scale);
+        selectionBounds.setHeight((bounds[3] - bounds[1]) * scale);
+        selectionBounds.setVisible(true);
+    }
+}
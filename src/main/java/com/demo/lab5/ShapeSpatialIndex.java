@@ -0,0 +1,330 @@
+package com.demo.lab5;
+
+import com.demo.lab5.model.ShapeGeometry;
+import com.demo.lab5.model.ShapeStore;
+import com.demo.lab5.model.ShapeStoreListener;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Uniform grid index of shapes of a {@link ShapeStore}. It is used to find shapes under the cursor or in an area
+ * without walking all shapes of the drawing.
+ * <p>
+ * Index listens to the store, so adding, moving, resizing and rotating shapes keeps it up to date.
+ */
+public class ShapeSpatialIndex implements ShapeStoreListener {
+    /**
+     * Distance in pixels from the stroke within which the shape is still hit by the cursor.
+     */
+    public static final double HIT_TOLERANCE = 2;
+
+    /**
+     * Size of a single grid cell in pixels.
+     */
+    private static final double CELL_SIZE = 64;
+    /**
+     * Shapes which would be put in more cells than this are kept in {@link #largeShapes} instead.
+     */
+    private static final int MAX_SHAPE_CELLS = 256;
+
+    /**
+     * Indexed store
+     */
+    private final ShapeStore store;
+    /**
+     * Grid cells with ids of shapes whose bounds intersect them. Key is built from cell column and row.
+     */
+    private final Map<Long, IdList> cells;
+    /**
+     * Shapes too large to be put in the grid. They are checked on every query.
+     */
+    private final IdList largeShapes;
+    /**
+     * Bounds of the shape which is being indexed
+     */
+    private final double[] bounds;
+    /**
+     * Reusable ids found by the current query, so repeated queries of large areas allocate only their results
+     */
+    private final IdList found;
+
+    /**
+     * Cell range of every indexed shape. Range is empty (min greater than max) for shapes with empty bounds and large
+     * shapes.
+     */
+    private int[] minColumn;
+    private int[] minRow;
+    private int[] maxColumn;
+    private int[] maxRow;
+    private boolean[] large;
+
+    /**
+     * Creates index of all shapes of the store and starts following its changes.
+     *
+     * @param store indexed store
+     */
+    public ShapeSpatialIndex(ShapeStore store) {
+        this.store = store;
+        this.cells = new HashMap<>();
+        this.largeShapes = new IdList();
+        this.bounds = new double[4];
+        this.found = new IdList();
+        allocate(store.size());
+
+        shapesAdded(0, store.size());
+        store.addListener(this);
+    }
+
+    @Override
+    public void shapesAdded(int fromId, int toId) {
+        ensureCapacity(toId);
+
+        for (int id = fromId; id < toId; id++) {
+            insert(id);
+        }
+    }
+
+    @Override
+    public void shapeChanged(int id) {
+        ShapeGeometry.bounds(store, id, bounds);
+
+        if (large[id] == isLarge() && minColumn[id] == cell(bounds[0]) && minRow[id] == cell(bounds[1])
+                && maxColumn[id] == cell(bounds[2]) && maxRow[id] == cell(bounds[3])) {
+            return;
+        }
+
+        erase(id);
+        insert(id);
+    }
+
+    @Override
+    public void shapesRemoved(int fromId, int toId) {
+        for (int id = fromId; id < toId; id++) {
+            erase(id);
+        }
+    }
+
+    @Override
+    public void shapesCleared() {
+        cells.clear();
+        largeShapes.clear();
+        allocate(0);
+    }
+
+    /**
+     * Finds the topmost shape whose geometry hits given point.
+     *
+     * @param x x coordinate in the drawing area
+     * @param y y coordinate in the drawing area
+     * @return id of the topmost hit shape or -1 if no shape is hit
+     */
+    public int hitTest(double x, double y) {
+        // bounds of indexed shapes don't include the tolerance, so shapes of neighbouring cells can be hit too
+        int hit = -1;
+        for (int column = cell(x - HIT_TOLERANCE); column <= cell(x + HIT_TOLERANCE); column++) {
+            for (int row = cell(y - HIT_TOLERANCE); row <= cell(y + HIT_TOLERANCE); row++) {
+                hit = hitTest(cells.get(key(column, row)), x, y, hit);
+            }
+        }
+
+        return hitTest(largeShapes, x, y, hit);
+    }
+
+    /**
+     * Finds shapes whose bounds intersect given area.
+     *
+     * @param minX min x of the area
+     * @param minY min y of the area
+     * @param maxX max x of the area
+     * @param maxY max y of the area
+     * @return ids of found shapes in drawing order, from the bottom one
+     */
+    public int[] query(double minX, double minY, double maxX, double maxY) {
+        found.size = 0;
+
+        long columns = (long) cell(maxX) - cell(minX) + 1;
+        long rows = (long) cell(maxY) - cell(minY) + 1;
+
+        if (columns * rows > cells.size()) {
+            // area covers more cells than there are filled ones, so it is cheaper to check filled cells only
+            for (IdList cell : cells.values()) {
+                collectIntersecting(cell, minX, minY, maxX, maxY, found);
+            }
+        } else {
+            for (int column = cell(minX); column <= cell(maxX); column++) {
+                for (int row = cell(minY); row <= cell(maxY); row++) {
+                    collectIntersecting(cells.get(key(column, row)), minX, minY, maxX, maxY, found);
+                }
+            }
+        }
+        collectIntersecting(largeShapes, minX, minY, maxX, maxY, found);
+
+        // shapes spanning multiple cells are found multiple times
+        int[] ids = found.ids;
+        Arrays.sort(ids, 0, found.size);
+
+        int unique = 0;
+        for (int i = 0; i < found.size; i++) {
+            if (i == 0 || ids[i] != ids[i - 1]) {
+                ids[unique++] = ids[i];
+            }
+        }
+
+        return Arrays.copyOf(ids, unique);
+    }
+
+    private void collectIntersecting(IdList candidates, double minX, double minY, double maxX, double maxY, IdList found) {
+        if (candidates == null) {
+            return;
+        }
+
+        for (int i = 0; i < candidates.size; i++) {
+            int id = candidates.ids[i];
+            ShapeGeometry.bounds(store, id, bounds);
+
+            if (bounds[0] <= maxX && bounds[2] >= minX && bounds[1] <= maxY && bounds[3] >= minY) {
+                found.add(id);
+            }
+        }
+    }
+
+    /**
+     * Finds topmost hit shape among candidates, starting from already found shape. Shapes with higher ids are drawn
+     * above shapes with lower ids.
+     */
+    private int hitTest(IdList candidates, double x, double y, int hit) {
+        if (candidates == null) {
+            return hit;
+        }
+
+        for (int i = 0; i < candidates.size; i++) {
+            int candidate = candidates.ids[i];
+
+            if (candidate > hit && ShapeGeometry.contains(store, candidate, x, y, ShapeStore.STROKE_WIDTH / 2 + HIT_TOLERANCE)) {
+                hit = candidate;
+            }
+        }
+
+        return hit;
+    }
+
+    /**
+     * Puts shape in the cells matching its current bounds.
+     */
+    private void insert(int id) {
+        ShapeGeometry.bounds(store, id, bounds);
+
+        minColumn[id] = cell(bounds[0]);
+        minRow[id] = cell(bounds[1]);
+        maxColumn[id] = cell(bounds[2]);
+        maxRow[id] = cell(bounds[3]);
+        large[id] = isLarge();
+
+        if (large[id]) {
+            largeShapes.add(id);
+            return;
+        }
+
+        for (int column = minColumn[id]; column <= maxColumn[id]; column++) {
+            for (int row = minRow[id]; row <= maxRow[id]; row++) {
+                cells.computeIfAbsent(key(column, row), key -> new IdList()).add(id);
+            }
+        }
+    }
+
+    /**
+     * Removes shape from the cells it was put in.
+     */
+    private void erase(int id) {
+        if (large[id]) {
+            largeShapes.remove(id);
+            return;
+        }
+
+        for (int column = minColumn[id]; column <= maxColumn[id]; column++) {
+            for (int row = minRow[id]; row <= maxRow[id]; row++) {
+                long key = key(column, row);
+                IdList cell = cells.get(key);
+
+                if (cell != null) {
+                    cell.remove(id);
+                    if (cell.size == 0) {
+                        cells.remove(key);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks if shape with {@link #bounds} is too large to be put in the grid.
+     */
+    private boolean isLarge() {
+        long columns = (long) cell(bounds[2]) - cell(bounds[0]) + 1;
+        long rows = (long) cell(bounds[3]) - cell(bounds[1]) + 1;
+
+        return columns > 0 && rows > 0 && columns * rows > MAX_SHAPE_CELLS;
+    }
+
+    private void allocate(int capacity) {
+        capacity = Math.max(capacity, 16);
+        minColumn = new int[capacity];
+        minRow = new int[capacity];
+        maxColumn = new int[capacity];
+        maxRow = new int[capacity];
+        large = new boolean[capacity];
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= large.length) {
+            return;
+        }
+
+        int newCapacity = Math.max(capacity, 2 * large.length);
+        minColumn = Arrays.copyOf(minColumn, newCapacity);
+        minRow = Arrays.copyOf(minRow, newCapacity);
+        maxColumn = Arrays.copyOf(maxColumn, newCapacity);
+        maxRow = Arrays.copyOf(maxRow, newCapacity);
+        large = Arrays.copyOf(large, newCapacity);
+    }
+
+    private static int cell(double coordinate) {
+        return (int) Math.floor(coordinate / CELL_SIZE);
+    }
+
+    private static long key(int column, int row) {
+        return ((long) column << 32) | (row & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Growable list of shape ids.
+     */
+    private static class IdList {
+        private int[] ids = new int[4];
+        private int size;
+
+        private void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, 2 * size);
+            }
+            ids[size++] = id;
+        }
+
+        private void remove(int id) {
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == id) {
+                    System.arraycopy(ids, i + 1, ids, i, size - i - 1);
+                    size--;
+                    return;
+                }
+            }
+        }
+
+        private void clear() {
+            ids = new int[4];
+            size = 0;
+        }
+    }
+}
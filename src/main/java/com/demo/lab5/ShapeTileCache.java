@@ -0,0 +1,259 @@
+package com.demo.lab5;
+
+import javafx.scene.SnapshotParameters;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Cache of the drawing rasterized into square tiles of {@link #TILE_SIZE} screen pixels at the current zoom.
+ * <p>
+ * Tiles are painted by a {@link TilePainter} into an offscreen canvas and copied into their own {@link WritableImage}.
+ * Drawing the viewport copies cached tiles, so panning and repainting around an edited shape don't paint other shapes
+ * again. Tiles are invalidated only where the drawing changed and painted again when they are drawn. Least recently used
+ * tiles are dropped when the cache reaches its memory budget, and all tiles are dropped when zoom changes.
+ */
+public class ShapeTileCache {
+    /**
+     * Width and height of a tile in pixels
+     */
+    public static final int TILE_SIZE = 256;
+    /**
+     * Memory used by pixels of a single tile in bytes
+     */
+    private static final long TILE_BYTES = 4L * TILE_SIZE * TILE_SIZE;
+
+    /**
+     * Paints part of the drawing into a tile.
+     */
+    public interface TilePainter {
+        /**
+         * Paints shapes in given area of the drawing.
+         *
+         * @param gc   graphics context transformed, so the area of the drawing covers the tile
+         * @param minX min x of the area
+         * @param minY min y of the area
+         * @param maxX max x of the area
+         * @param maxY max y of the area
+         */
+        void paint(GraphicsContext gc, double minX, double minY, double maxX, double maxY);
+    }
+
+    private final TilePainter painter;
+    /**
+     * Maximal number of cached tiles
+     */
+    private final int maxTiles;
+    /**
+     * Tiles by column and row in access order, so the first tile is the least recently used one
+     */
+    private final LinkedHashMap<Long, Tile> tiles;
+    /**
+     * Images of dropped tiles, reused by new tiles
+     */
+    private final ArrayDeque<WritableImage> freeImages;
+    /**
+     * Offscreen canvas tiles are painted onto
+     */
+    private final Canvas canvas;
+    private final SnapshotParameters snapshotParameters;
+
+    /**
+     * Zoom cached tiles were painted at
+     */
+    private double scale = Double.NaN;
+
+    /**
+     * Creates empty cache.
+     *
+     * @param painter painter of tiles
+     * @param budget  maximal memory used by pixels of cached tiles in bytes, at least memory of a single tile is used
+     */
+    public ShapeTileCache(TilePainter painter, long budget) {
+        this.painter = painter;
+        this.maxTiles = (int) Math.max(1, budget / TILE_BYTES);
+        this.tiles = new LinkedHashMap<>(16, 0.75f, true);
+        this.freeImages = new ArrayDeque<>();
+        this.canvas = new Canvas(TILE_SIZE, TILE_SIZE);
+        this.snapshotParameters = new SnapshotParameters();
+        this.snapshotParameters.setFill(Color.TRANSPARENT);
+    }
+
+    /**
+     * Marks tiles which overlap the area of the drawing to be painted again.
+     *
+     * @param minX min x of the area
+     * @param minY min y of the area
+     * @param maxX max x of the area
+     * @param maxY max y of the area
+     */
+    public void invalidate(double minX, double minY, double maxX, double maxY) {
+        if (tiles.isEmpty() || minX > maxX || minY > maxY) {
+            return;
+        }
+
+        long minColumn = tileIndex(minX);
+        long minRow = tileIndex(minY);
+        long maxColumn = tileIndex(maxX);
+        long maxRow = tileIndex(maxY);
+
+        if ((maxColumn - minColumn + 1) * (maxRow - minRow + 1) > tiles.size()) {
+            // large areas check every cached tile instead of every tile of the area
+            for (Tile tile : tiles.values()) {
+                if (tile.column >= minColumn && tile.column <= maxColumn && tile.row >= minRow && tile.row <= maxRow) {
+                    tile.valid = false;
+                }
+            }
+            return;
+        }
+
+        for (long row = minRow; row <= maxRow; row++) {
+            for (long column = minColumn; column <= maxColumn; column++) {
+                Tile tile = tiles.get(key((int) column, (int) row));
+
+                if (tile != null) {
+                    tile.valid = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks all tiles to be painted again.
+     */
+    public void invalidateAll() {
+        for (Tile tile : tiles.values()) {
+            tile.valid = false;
+        }
+    }
+
+    /**
+     * Draws tiles covering the viewport onto a canvas. Missing and invalid tiles are painted first.
+     *
+     * @param gc       graphics context of the canvas, without transformation
+     * @param viewport viewport of the drawing shown by the canvas
+     * @param all      true to draw every tile, false to draw only tiles which were painted again
+     */
+    public void draw(GraphicsContext gc, DrawingViewport viewport, boolean all) {
+        if (viewport.getScale() != scale) {
+            dropAll();
+            scale = viewport.getScale();
+        }
+
+        int minColumn = (int) tileIndex(viewport.getMinX());
+        int minRow = (int) tileIndex(viewport.getMinY());
+        int maxColumn = (int) tileIndex(viewport.getMaxX());
+        int maxRow = (int) tileIndex(viewport.getMaxY());
+
+        gc.save();
+        // tiles are copied pixel by pixel, translation of the viewport only shifts them
+        gc.setImageSmoothing(false);
+
+        for (int row = minRow; row <= maxRow; row++) {
+            for (int column = minColumn; column <= maxColumn; column++) {
+                Tile tile = tiles.get(key(column, row));
+                boolean painted = tile == null || !tile.valid;
+
+                if (tile == null) {
+                    tile = new Tile(column, row, takeImage());
+                    tiles.put(key(column, row), tile);
+                }
+                if (painted) {
+                    paint(tile);
+                }
+
+                if (all || painted) {
+                    double x = (double) column * TILE_SIZE + viewport.getTranslateX();
+                    double y = (double) row * TILE_SIZE + viewport.getTranslateY();
+
+                    gc.clearRect(x, y, TILE_SIZE, TILE_SIZE);
+                    gc.drawImage(tile.image, x, y);
+                }
+            }
+        }
+
+        gc.restore();
+    }
+
+    /**
+     * Drops all tiles and releases their memory.
+     */
+    public void clear() {
+        tiles.clear();
+        freeImages.clear();
+        scale = Double.NaN;
+    }
+
+    /**
+     * Paints the tile into its image.
+     */
+    private void paint(Tile tile) {
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        double minX = tile.column * (double) TILE_SIZE / scale;
+        double minY = tile.row * (double) TILE_SIZE / scale;
+
+        gc.clearRect(0, 0, TILE_SIZE, TILE_SIZE);
+        gc.save();
+        gc.setTransform(scale, 0, 0, scale, -tile.column * (double) TILE_SIZE, -tile.row * (double) TILE_SIZE);
+        painter.paint(gc, minX, minY, minX + TILE_SIZE / scale, minY + TILE_SIZE / scale);
+        gc.restore();
+
+        canvas.snapshot(snapshotParameters, tile.image);
+        tile.valid = true;
+    }
+
+    /**
+     * Returns image for a new tile. Least recently used tile is dropped if the cache is full.
+     */
+    private WritableImage takeImage() {
+        if (tiles.size() >= maxTiles) {
+            Iterator<Tile> eldest = tiles.values().iterator();
+            WritableImage image = eldest.next().image;
+            eldest.remove();
+
+            return image;
+        }
+
+        WritableImage image = freeImages.pollLast();
+        return image != null ? image : new WritableImage(TILE_SIZE, TILE_SIZE);
+    }
+
+    /**
+     * Drops all tiles, keeping their images for reuse.
+     */
+    private void dropAll() {
+        for (Tile tile : tiles.values()) {
+            freeImages.addLast(tile.image);
+        }
+        tiles.clear();
+    }
+
+    private long tileIndex(double coordinate) {
+        return (long) Math.floor(coordinate * scale / TILE_SIZE);
+    }
+
+    private static Long key(int column, int row) {
+        return (long) column << 32 | row & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Cached tile with its column and row in the grid of tiles at the current zoom.
+     */
+    private static class Tile {
+        private final int column;
+        private final int row;
+        private final WritableImage image;
+        private boolean valid;
+
+        private Tile(int column, int row, WritableImage image) {
+            this.column = column;
+            this.row = row;
+            this.image = image;
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package com.demo.lab5;
+
+import com.demo.lab5.model.ShapeGeometry;
+import com.demo.lab5.model.ShapeStore;
+import com.demo.lab5.model.ShapeType;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Utility class for encoding and decoding shapes to and from compact binary format.
+ * <p>
+ * File starts with {@link #MAGIC} and format version. It is followed by shape records, each starting with a type tag,
+ * and ends with {@link #END_TAG}. Every record holds position, rotation, fill and stroke packed as ARGB ints and
+ * geometry stored as raw doubles:
+ * <ul>
+ *     <li>rectangle - width and height</li>
+ *     <li>circle - radius</li>
+ *     <li>polygon - number of points followed by x and y of every point</li>
+ * </ul>
+ * Since version 2 the end tag is followed by a table of contents, which holds number of shapes and then file offset
+ * and bounds (min x, min y, max x, max y) of every record. File ends with the offset of the table of contents and
+ * {@link #MAGIC}, so the table can be found without reading the records. It is used by {@link MappedDrawing}.
+ */
+public class ShapesBinaryEncoder {
+    /**
+     * File signature, "JFXP" in ASCII.
+     */
+    public static final int MAGIC = 0x4A465850;
+    /**
+     * Current format version.
+     */
+    public static final short VERSION = 2;
+    /**
+     * Oldest version which can still be read.
+     */
+    static final short MIN_VERSION = 1;
+
+    static final byte END_TAG = 0;
+    static final byte RECTANGLE_TAG = 1;
+    static final byte CIRCLE_TAG = 2;
+    static final byte POLYGON_TAG = 3;
+
+    /**
+     * Size of the part of the record which is common for all shapes: tag, x, y, rotation, fill and stroke.
+     */
+    static final int RECORD_HEADER_SIZE = 1 + 3 * Double.BYTES + 2 * Integer.BYTES;
+    /**
+     * Size of the file header: magic and version.
+     */
+    static final int HEADER_SIZE = Integer.BYTES + Short.BYTES;
+    /**
+     * Size of a single table of contents entry: offset and bounds.
+     */
+    static final int TOC_ENTRY_SIZE = Long.BYTES + 4 * Double.BYTES;
+    /**
+     * Size of the file trailer: table of contents offset and magic.
+     */
+    static final int TRAILER_SIZE = Long.BYTES + Integer.BYTES;
+
+    /**
+     * Size of the buffer used to read and write files.
+     */
+    static final int BUFFER_SIZE = 64 * 1024;
+    /**
+     * Channel without any data. Used to decode records from buffers which can't be refilled.
+     */
+    private static final ReadableByteChannel EXHAUSTED_CHANNEL = Channels.newChannel(InputStream.nullInputStream());
+
+    private ShapesBinaryEncoder() {
+    }
+
+    /**
+     * Writes all shapes of the store to the channel as a complete binary drawing. Channel is not closed.
+     *
+     * @param store       shapes to write
+     * @param channel     target channel
+     * @param beforeShape called with id of every shape before it is written, can be used to report progress or to load
+     *                    placeholders
+     * @throws IOException if shapes can't be written
+     */
+    public static void write(ShapeStore store, WritableByteChannel channel, IntConsumer beforeShape) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        TableOfContents toc = new TableOfContents(store.size());
+        double[] bounds = new double[4];
+        long flushed = 0;
+
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+
+        for (int id = 0; id < store.size(); id++) {
+            beforeShape.accept(id);
+
+            if (buffer.remaining() < RECORD_HEADER_SIZE + 2 * Double.BYTES) {
+                flushed += flush(buffer, channel);
+            }
+
+            ShapeGeometry.bounds(store, id, bounds);
+            toc.add(flushed + buffer.position(), bounds);
+            flushed += encodeShape(store, id, buffer, channel);
+        }
+
+        // last record can fill the buffer up
+        if (!buffer.hasRemaining()) {
+            flushed += flush(buffer, channel);
+        }
+        buffer.put(END_TAG);
+
+        long tocOffset = flushed + buffer.position();
+        ensureSpace(buffer, channel, Integer.BYTES);
+        buffer.putInt(toc.size);
+        for (int i = 0; i < toc.size; i++) {
+            ensureSpace(buffer, channel, TOC_ENTRY_SIZE);
+            buffer.putLong(toc.offsets[i]);
+            for (int j = 0; j < 4; j++) {
+                buffer.putDouble(toc.bounds[4 * i + j]);
+            }
+        }
+
+        ensureSpace(buffer, channel, TRAILER_SIZE);
+        buffer.putLong(tocOffset);
+        buffer.putInt(MAGIC);
+        flush(buffer, channel);
+    }
+
+    /**
+     * Reads shapes from the channel and adds each one to the store as soon as it is decoded. Channel is not closed.
+     *
+     * @param channel    source channel
+     * @param target     store receiving decoded shapes in file order
+     * @param afterShape called with id of every shape after it is added to the store
+     * @throws IOException if channel doesn't contain proper binary drawing
+     */
+    public static void read(ReadableByteChannel channel, ShapeStore target, IntConsumer afterShape) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        buffer.flip();
+
+        require(buffer, channel, HEADER_SIZE);
+        readHeader(buffer);
+
+        while (true) {
+            require(buffer, channel, 1);
+            byte tag = buffer.get();
+
+            if (tag == END_TAG) {
+                return;
+            }
+
+            afterShape.accept(decodeShape(tag, buffer, channel, target));
+        }
+    }
+
+    /**
+     * Reads and validates file header.
+     *
+     * @param buffer buffer positioned at the start of the file
+     * @return file version
+     * @throws IOException if header is not valid
+     */
+    static short readHeader(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Not a binary drawing");
+        }
+
+        short version = buffer.getShort();
+        if (version < MIN_VERSION || version > VERSION) {
+            throw new IOException("Unsupported binary drawing version: " + version);
+        }
+
+        return version;
+    }
+
+    /**
+     * Writes shape record to the buffer. Buffer is flushed to the channel whenever it runs out of space.
+     *
+     * @param store   store with the shape
+     * @param id      id of shape to encode
+     * @param buffer  buffer in write mode
+     * @param channel channel to flush buffer to
+     * @return number of bytes flushed to the channel
+     * @throws IOException if buffer can't be flushed
+     */
+    public static long encodeShape(ShapeStore store, int id, ByteBuffer buffer, WritableByteChannel channel) throws IOException {
+        long flushed = 0;
+
+        if (buffer.remaining() < RECORD_HEADER_SIZE + 2 * Double.BYTES) {
+            flushed += flush(buffer, channel);
+        }
+
+        ShapeType type = store.getType(id);
+        switch (type) {
+            case RECTANGLE -> buffer.put(RECTANGLE_TAG);
+            case CIRCLE -> buffer.put(CIRCLE_TAG);
+            case POLYGON -> buffer.put(POLYGON_TAG);
+            default -> throw new IllegalArgumentException("Shape not supported");
+        }
+
+        buffer.putDouble(store.getX(id));
+        buffer.putDouble(store.getY(id));
+        buffer.putDouble(store.getRotation(id));
+        buffer.putInt(store.getFill(id));
+        buffer.putInt(store.getStroke(id));
+
+        if (type == ShapeType.RECTANGLE) {
+            buffer.putDouble(store.getWidth(id));
+            buffer.putDouble(store.getHeight(id));
+        } else if (type == ShapeType.CIRCLE) {
+            buffer.putDouble(store.getRadius(id));
+        } else {
+            int count = store.getPointCount(id);
+            buffer.putInt(count);
+
+            for (int i = 0; i < count; i++) {
+                if (buffer.remaining() < 2 * Double.BYTES) {
+                    flushed += flush(buffer, channel);
+                }
+                buffer.putDouble(store.getPointX(id, i));
+                buffer.putDouble(store.getPointY(id, i));
+            }
+        }
+
+        return flushed;
+    }
+
+    /**
+     * Returns number of bytes of the record of a shape.
+     *
+     * @param store store with the shape
+     * @param id    id of the shape
+     * @return size of the record written by {@link #encodeShape(ShapeStore, int, ByteBuffer, WritableByteChannel)}
+     */
+    public static int recordSize(ShapeStore store, int id) {
+        return switch (store.getType(id)) {
+            case RECTANGLE -> RECORD_HEADER_SIZE + 2 * Double.BYTES;
+            case CIRCLE -> RECORD_HEADER_SIZE + Double.BYTES;
+            case POLYGON -> RECORD_HEADER_SIZE + Integer.BYTES + 2 * Double.BYTES * store.getPointCount(id);
+            default -> throw new IllegalArgumentException("Shape not supported");
+        };
+    }
+
+    /**
+     * Decodes shape record whose tag was already read and adds it to the store.
+     *
+     * @param tag     record type tag
+     * @param buffer  buffer in read mode
+     * @param channel channel to refill buffer from
+     * @param target  store receiving decoded shape
+     * @return id of decoded shape
+     * @throws IOException if record can't be read
+     */
+    public static int decodeShape(byte tag, ByteBuffer buffer, ReadableByteChannel channel, ShapeStore target) throws IOException {
+        require(buffer, channel, RECORD_HEADER_SIZE - 1);
+
+        double x = buffer.getDouble();
+        double y = buffer.getDouble();
+        double rotation = buffer.getDouble();
+        int fill = buffer.getInt();
+        int stroke = buffer.getInt();
+
+        switch (tag) {
+            case RECTANGLE_TAG -> {
+                require(buffer, channel, 2 * Double.BYTES);
+                double width = buffer.getDouble();
+                double height = buffer.getDouble();
+
+                return target.addRectangle(x, y, width, height, rotation, fill, stroke);
+            }
+            case CIRCLE_TAG -> {
+                require(buffer, channel, Double.BYTES);
+
+                return target.addCircle(x, y, buffer.getDouble(), rotation, fill, stroke);
+            }
+            case POLYGON_TAG -> {
+                require(buffer, channel, Integer.BYTES);
+                int count = buffer.getInt();
+                if (count < 0) {
+                    throw new IOException("Invalid number of polygon points: " + count);
+                }
+
+                double[] points = new double[2 * count];
+                for (int i = 0; i < points.length; i++) {
+                    require(buffer, channel, Double.BYTES);
+                    points[i] = buffer.getDouble();
+                }
+
+                return target.addPolygon(x, y, points, 0, points.length, rotation, fill, stroke);
+            }
+            default -> throw new IOException("Unknown shape tag: " + tag);
+        }
+    }
+
+    /**
+     * Decodes shape record from a buffer which holds the whole record, for example a memory-mapped file.
+     *
+     * @param buffer buffer positioned at the record tag
+     * @param target store receiving decoded shape
+     * @return id of decoded shape
+     * @throws IOException if record is not valid or is truncated
+     */
+    public static int decodeShape(ByteBuffer buffer, ShapeStore target) throws IOException {
+        return decodeShape(buffer.get(), buffer, EXHAUSTED_CHANNEL, target);
+    }
+
+    /**
+     * Makes sure buffer in write mode has at least given number of bytes free, flushing it if needed.
+     */
+    static void ensureSpace(ByteBuffer buffer, WritableByteChannel channel, int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush(buffer, channel);
+        }
+    }
+
+    /**
+     * Writes whole buffer content to the channel and clears the buffer.
+     *
+     * @return number of written bytes
+     */
+    static int flush(ByteBuffer buffer, WritableByteChannel channel) throws IOException {
+        buffer.flip();
+        int written = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+        return written;
+    }
+
+    /**
+     * Makes sure buffer in read mode has at least given number of bytes available, reading from the channel if needed.
+     *
+     * @throws EOFException if channel ends before enough bytes are read
+     */
+    private static void require(ByteBuffer buffer, ReadableByteChannel channel, int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) {
+            return;
+        }
+
+        buffer.compact();
+        while (buffer.position() < bytes) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Unexpected end of binary drawing");
+            }
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Table of contents collected while writing the file.
+     */
+    private static class TableOfContents {
+        private long[] offsets;
+        private double[] bounds;
+        private int size;
+
+        private TableOfContents(int capacity) {
+            offsets = new long[Math.max(capacity, 1)];
+            bounds = new double[4 * offsets.length];
+        }
+
+        private void add(long offset, double[] shapeBounds) {
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, 2 * size);
+                bounds = Arrays.copyOf(bounds, 8 * size);
+            }
+
+            offsets[size] = offset;
+            System.arraycopy(shapeBounds, 0, bounds, 4 * size, 4);
+            size++;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.demo.lab5;
+
+import com.demo.lab5.model.ShapeStore;
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * Background task which reads a drawing file and hands decoded shapes to the JavaFX Application Thread in batches.
+ * <p>
+ * File reading runs on the worker thread and shapes of xml files are decoded in parallel by the common fork-join pool,
+ * in file order. Only the batch consumer is called on the FX thread, so the first shapes show up on the pane right after
+ * they are decoded, not after the whole file is parsed.
+ * <p>
+ * When unsaved changes are recovered from the {@link DrawingJournal}, they are applied to the whole drawing in the
+ * background and shapes are passed to the FX thread at once.
+ */
+public class ShapesLoadTask extends Task<Void> {
+    /**
+     * Maximal number of shapes passed to the FX thread at once.
+     */
+    private static final int MAX_BATCH_SIZE = 2048;
+    /**
+     * Maximal time in nanoseconds for which decoded shapes are held back before being passed to the FX thread.
+     */
+    private static final long MAX_BATCH_DELAY = 16_000_000L;
+
+    /**
+     * File to read
+     */
+    private final File file;
+    /**
+     * Format of the file
+     */
+    private final DrawingFormat format;
+    /**
+     * Consumer called on the FX thread with every batch of decoded shapes
+     */
+    private final Consumer<ShapeStore> batchConsumer;
+    /**
+     * True if changes from the journal of the file are applied
+     */
+    private final boolean recover;
+
+    /**
+     * Shapes decoded since the last batch was sent
+     */
+    private final ShapeStore batch;
+    /**
+     * Durations of loading phases
+     */
+    private final LoadPhases phases;
+    /**
+     * Time of sending the last batch
+     */
+    private long lastBatchTime;
+    /**
+     * Archive which was read, or null if the file is not an archive or changes were recovered
+     */
+    private volatile DrawingArchive archive;
+
+    /**
+     * Creates task reading given file.
+     *
+     * @param file          file to read
+     * @param format        format of the file
+     * @param recover       true if changes from the journal of the file should be applied
+     * @param batchConsumer consumer called on the FX thread with stores of decoded shapes in file order
+     */
+    public ShapesLoadTask(File file, DrawingFormat format, boolean recover, Consumer<ShapeStore> batchConsumer) {
+        this.file = file;
+        this.format = format;
+        this.recover = recover;
+        this.batchConsumer = batchConsumer;
+        this.batch = new ShapeStore(MAX_BATCH_SIZE);
+        this.phases = new LoadPhases();
+    }
+
+    /**
+     * Returns durations of loading phases. They are complete when the task is done.
+     *
+     * @return durations of loading phases
+     */
+    public LoadPhases getPhases() {
+        return phases;
+    }
+
+    /**
+     * Returns archive which was read. It describes the file, so it is valid only if the drawing is not changed before
+     * the task succeeds.
+     *
+     * @return read archive or null if the file is not an archive or changes were recovered from the journal
+     */
+    public DrawingArchive getArchive() {
+        return archive;
+    }
+
+    @Override
+    protected Void call() throws Exception {
+        if (recover) {
+            recoverDrawing();
+            return null;
+        }
+
+        lastBatchTime = System.nanoTime();
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = Math.max(channel.size(), 1);
+
+            IntConsumer afterShape = id -> {
+                if (isCancelled()) {
+                    throw new CancellationException();
+                }
+
+                long now = System.nanoTime();
+                if (batch.size() >= MAX_BATCH_SIZE || now - lastBatchTime >= MAX_BATCH_DELAY) {
+                    sendBatch();
+                    lastBatchTime = now;
+                    updateProgress(position(channel), size);
+                }
+            };
+
+            if (format == DrawingFormat.ARCHIVE) {
+                // archive is kept, so the drawing can be saved by rewriting only changed chunks
+                long start = System.nanoTime();
+                try {
+                    archive = DrawingArchive.read(channel, batch, afterShape);
+                } finally {
+                    phases.addDecode(System.nanoTime() - start);
+                }
+            } else {
+                format.read(channel, batch, afterShape, ForkJoinPool.commonPool(), phases);
+            }
+        }
+
+        sendBatch();
+        updateProgress(1, 1);
+
+        return null;
+    }
+
+    /**
+     * Reads the drawing with changes from its journal. Shapes can be changed by any later batch of the journal, so they
+     * are passed to the FX thread after the whole journal is applied.
+     *
+     * @throws Exception if drawing or journal can't be read
+     */
+    private void recoverDrawing() throws Exception {
+        ShapeStore recovered = new ShapeStore();
+        long start = System.nanoTime();
+
+        DrawingJournal.replay(file.toPath(), format, recovered, id -> {
+            if (isCancelled()) {
+                throw new CancellationException();
+            }
+        });
+        phases.addDecode(System.nanoTime() - start);
+
+        Platform.runLater(() -> attach(recovered));
+        updateProgress(1, 1);
+    }
+
+    /**
+     * Returns current position of the channel, which is used as a progress of reading.
+     *
+     * @param channel read channel
+     * @return channel position or 0 if it can't be read
+     */
+    private static long position(FileChannel channel) {
+        try {
+            return channel.position();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Passes decoded shapes to the FX thread. Batches which arrive after the task is cancelled are dropped.
+     */
+    private void sendBatch() {
+        if (batch.size() == 0) {
+            return;
+        }
+
+        ShapeStore shapes = batch.copy();
+        batch.clear();
+
+        Platform.runLater(() -> attach(shapes));
+    }
+
+    /**
+     * Passes shapes to the batch consumer on the FX thread, unless the task was cancelled.
+     */
+    private void attach(ShapeStore shapes) {
+        if (isCancelled()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        batchConsumer.accept(shapes);
+        phases.addAttach(System.nanoTime() - start);
+    }
+}
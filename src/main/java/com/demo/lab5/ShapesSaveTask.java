@@ -0,0 +1,241 @@
+package com.demo.lab5;
+
+import com.demo.lab5.model.ShapeStore;
+import com.demo.lab5.model.ShapeType;
+import javafx.concurrent.Task;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Background task which writes shapes to a drawing file.
+ * <p>
+ * Drawing is written to a temporary file next to the target and moved over it at the end, so a cancelled or failed
+ * save never leaves a truncated file behind. Task works on its own copy of the store, so shapes can be modified while
+ * it is running. Placeholders of lazily opened drawing are decoded from the mapped file right before they are written.
+ * <p>
+ * Drawing which was read from or written to a {@link DrawingArchive} can be saved to the same file by rewriting only
+ * chunks with changed shapes. Then only those chunks are copied and the archive file is updated in place, which keeps
+ * it valid until the update is complete.
+ */
+public class ShapesSaveTask extends Task<Void> {
+    /**
+     * Number of shapes written between progress updates.
+     */
+    private static final int PROGRESS_STEP = 1024;
+
+    /**
+     * Target file
+     */
+    private final File file;
+    /**
+     * Format of the file
+     */
+    private final DrawingFormat format;
+    /**
+     * Copy of saved shapes, or null if only changed chunks of the archive are saved
+     */
+    private final ShapeStore shapes;
+    /**
+     * Encoded changed chunks of {@link #archive}, or null if the whole drawing is saved
+     */
+    private final DrawingArchive.Update update;
+    /**
+     * Number of shapes of the saved drawing
+     */
+    private final int shapeCount;
+    /**
+     * Number of shapes written so far
+     */
+    private int written;
+    /**
+     * Lazily opened drawing whose shapes are placeholders in the store, or null
+     */
+    private final MappedDrawing mappedDrawing;
+    /**
+     * Time of copying the store in nanoseconds
+     */
+    private final long copyTime;
+    /**
+     * Time of writing the file in nanoseconds
+     */
+    private volatile long writeTime;
+    /**
+     * Updated archive, or archive written in {@link DrawingFormat#ARCHIVE} format
+     */
+    private volatile DrawingArchive archive;
+
+    /**
+     * Creates task saving given shapes. Store is copied, so it must be called on the thread which owns the store.
+     *
+     * @param file          target file
+     * @param format        format of the file
+     * @param shapes        shapes to save
+     * @param mappedDrawing lazily opened drawing with shapes starting at id 0 or null if there is none
+     */
+    public ShapesSaveTask(File file, DrawingFormat format, ShapeStore shapes, MappedDrawing mappedDrawing) {
+        this.file = file;
+        this.format = format;
+        long start = System.nanoTime();
+        this.shapes = shapes.copy();
+        this.copyTime = System.nanoTime() - start;
+        this.mappedDrawing = mappedDrawing;
+        this.update = null;
+        this.shapeCount = shapes.size();
+    }
+
+    /**
+     * Creates task saving changed shapes to the archive file they were read from or written to. Only chunks with changed
+     * shapes are encoded, so it must be called on the thread which owns the store. Archive must not be used until the
+     * task is done.
+     *
+     * @param file       archive file
+     * @param archive    archive of the file
+     * @param shapes     changed drawing without placeholders
+     * @param changedIds ids of shapes changed since the archive was read or written
+     */
+    public ShapesSaveTask(File file, DrawingArchive archive, ShapeStore shapes, BitSet changedIds) {
+        this.file = file;
+        this.format = DrawingFormat.ARCHIVE;
+        this.archive = archive;
+        long start = System.nanoTime();
+        this.update = archive.prepareUpdate(shapes, changedIds);
+        this.copyTime = System.nanoTime() - start;
+        this.shapes = null;
+        this.mappedDrawing = null;
+        this.shapeCount = shapes.size();
+    }
+
+    /**
+     * Returns time of copying saved shapes, or encoding changed chunks, on the thread which owns the store.
+     *
+     * @return copy time in nanoseconds
+     */
+    public long getCopyTime() {
+        return copyTime;
+    }
+
+    /**
+     * Returns time of encoding and writing shapes, including decoding of placeholders and replacing the target file.
+     *
+     * @return write time in nanoseconds, 0 until the task is done
+     */
+    public long getWriteTime() {
+        return writeTime;
+    }
+
+    public int getShapeCount() {
+        return shapeCount;
+    }
+
+    /**
+     * Returns archive of the saved file, which can save later changes by rewriting only changed chunks.
+     *
+     * @return archive of the file or null if drawing was not saved as an archive; it is valid only after the task
+     * succeeded
+     */
+    public DrawingArchive getArchive() {
+        return archive;
+    }
+
+    @Override
+    protected Void call() throws Exception {
+        if (update != null) {
+            updateArchive();
+            return null;
+        }
+
+        long start = System.nanoTime();
+        Path target = file.toPath().toAbsolutePath();
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                if (format == DrawingFormat.ARCHIVE) {
+                    archive = DrawingArchive.write(shapes, channel, this::beforeShape);
+                } else {
+                    format.write(shapes, channel, this::beforeShape);
+                }
+            }
+
+            move(temp, target);
+        } finally {
+            Files.deleteIfExists(temp);
+            writeTime = System.nanoTime() - start;
+        }
+
+        return null;
+    }
+
+    /**
+     * Appends changed chunks to the archive file.
+     *
+     * @throws IOException if the file can't be updated
+     */
+    private void updateArchive() throws IOException {
+        long start = System.nanoTime();
+        int total = Math.max(update.getShapeCount(), 1);
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            archive.update(channel, update, count -> {
+                if (isCancelled()) {
+                    throw new CancellationException();
+                }
+
+                updateProgress(count, total);
+            });
+        } finally {
+            writeTime = System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Called before every shape is written. Reports progress, stops the save when the task is cancelled and loads
+     * placeholders.
+     *
+     * @param id id of shape which is about to be written
+     */
+    private void beforeShape(int id) {
+        if (isCancelled()) {
+            throw new CancellationException();
+        }
+
+        // archives are written chunk by chunk, so progress is counted by written shapes and not by ids
+        written++;
+        if (written % PROGRESS_STEP == 0) {
+            updateProgress(written, shapes.size());
+        }
+
+        if (shapes.getType(id) == ShapeType.PLACEHOLDER) {
+            try {
+                mappedDrawing.load(id, shapes, id);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Replaces target file with the written one, atomically if file system supports it.
+     *
+     * @param source written file
+     * @param target target file
+     * @throws IOException if file can't be moved
+     */
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
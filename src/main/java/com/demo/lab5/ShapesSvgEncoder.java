@@ -0,0 +1,1085 @@
+package com.demo.lab5;
+
+import com.demo.lab5.model.ShapeGeometry;
+import com.demo.lab5.model.ShapeStore;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Utility class for exporting shapes to SVG and importing shapes from SVG documents of other tools.
+ * <p>
+ * Shapes are written as {@code <rect>}, {@code <circle>} and {@code <polygon>} elements, straight into a byte buffer
+ * which is flushed to the channel whenever it fills up, so no document is built in memory. Coordinates are the same as
+ * in the drawing area, rotation is written as a transform.
+ * <p>
+ * Documents are read in UTF-8 by a streaming scanner, which decodes the channel into a char buffer and finds elements
+ * and attributes in it without creating strings. Attribute values are parsed in place by {@link SvgPathParser}.
+ * Rectangles and circles which are only moved, rotated or uniformly scaled stay rectangles and circles, other elements,
+ * including every subpath of {@code <path>}, become polygons with flattened curves. Transforms and fill and stroke
+ * colors are inherited from groups. Zero-size rectangles and circles and polygons with a single point, which the editor
+ * creates with a click, are imported too, so exported drawings keep all their shapes. Stroke widths, gradients, text, images and {@code <use>} references are not
+ * imported, elements inside {@code <defs>} and similar containers are skipped.
+ */
+public class ShapesSvgEncoder {
+    /**
+     * Namespace of SVG elements.
+     */
+    public static final String SVG_NAMESPACE = "http://www.w3.org/2000/svg";
+
+    /**
+     * Size of the buffer used to read and write files.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /**
+     * Maximal distance between imported curves and polygon edges replacing them, in the drawing area
+     */
+    private static final double FLATNESS = 0.25;
+    /**
+     * Relative difference below which transform is considered to keep angles
+     */
+    private static final double EPSILON = 1e-9;
+    /**
+     * Containers whose content is not rendered directly.
+     */
+    private static final String[] HIDDEN_ELEMENTS = {"defs", "clipPath", "mask", "symbol", "pattern", "marker", "style", "script"};
+
+    private ShapesSvgEncoder() {
+    }
+
+    /**
+     * Writes all shapes of the store to the channel as a complete SVG document whose view box covers all shapes.
+     * Channel is not closed.
+     *
+     * @param store       shapes to write
+     * @param channel     target channel
+     * @param beforeShape called with id of every shape before it is written, can be used to report progress or to load
+     *                    placeholders
+     * @throws IOException if shapes can't be written
+     */
+    public static void write(ShapeStore store, WritableByteChannel channel, IntConsumer beforeShape) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        StringBuilder builder = new StringBuilder(256);
+        double[] bounds = new double[4];
+
+        // placeholders have exact bounds, so they don't need to be loaded before the header is written
+        if (store.size() > 0) {
+            int[] ids = new int[store.size()];
+            Arrays.setAll(ids, id -> id);
+            ShapeGeometry.bounds(store, ids, bounds);
+        }
+        double width = bounds[2] - bounds[0];
+        double height = bounds[3] - bounds[1];
+
+        builder.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<svg xmlns=\"").append(SVG_NAMESPACE).append('"');
+        builder.append(" viewBox=\"").append(bounds[0]).append(' ').append(bounds[1]).append(' ')
+                .append(width).append(' ').append(height).append('"');
+        builder.append(" width=\"").append(width).append("\" height=\"").append(height).append("\">\n");
+        builder.append("<g stroke-width=\"").append(ShapeStore.STROKE_WIDTH).append("\">\n");
+        put(builder, buffer, channel);
+
+        for (int id = 0; id < store.size(); id++) {
+            beforeShape.accept(id);
+            encodeShape(store, id, builder);
+            put(builder, buffer, channel);
+        }
+
+        builder.append("</g>\n</svg>\n");
+        put(builder, buffer, channel);
+        flush(buffer, channel);
+    }
+
+    /**
+     * Encodes shape as a single empty element.
+     *
+     * @param store   store with the shape
+     * @param id      id of shape to encode
+     * @param builder builder the element is appended to, it is cleared first
+     * @throws IllegalArgumentException if shape can't be encoded, for example it is a placeholder
+     */
+    public static void encodeShape(ShapeStore store, int id, StringBuilder builder) {
+        builder.setLength(0);
+        double x = store.getX(id);
+        double y = store.getY(id);
+
+        switch (store.getType(id)) {
+            case RECTANGLE -> builder.append("<rect x=\"").append(x + store.getMinX(id))
+                    .append("\" y=\"").append(y + store.getMinY(id))
+                    .append("\" width=\"").append(store.getWidth(id))
+                    .append("\" height=\"").append(store.getHeight(id)).append('"');
+            case CIRCLE -> {
+                double radius = store.getRadius(id);
+                builder.append("<circle cx=\"").append(x + store.getMinX(id) + radius)
+                        .append("\" cy=\"").append(y + store.getMinY(id) + radius)
+                        .append("\" r=\"").append(radius).append('"');
+            }
+            case POLYGON -> {
+                builder.append("<polygon points=\"");
+                for (int i = 0; i < store.getPointCount(id); i++) {
+                    if (i > 0) {
+                        builder.append(' ');
+                    }
+                    builder.append(x + store.getPointX(id, i)).append(',').append(y + store.getPointY(id, i));
+                }
+                builder.append('"');
+            }
+            default -> throw new IllegalArgumentException("Shape not supported");
+        }
+
+        appendPaint(builder, "fill", store.getFill(id));
+        appendPaint(builder, "stroke", store.getStroke(id));
+
+        if (store.getRotation(id) != 0) {
+            // shapes are rotated around the center of their geometry
+            builder.append(" transform=\"rotate(").append(store.getRotation(id))
+                    .append(' ').append(x + (store.getMinX(id) + store.getMaxX(id)) / 2)
+                    .append(' ').append(y + (store.getMinY(id) + store.getMaxY(id)) / 2).append(")\"");
+        }
+
+        builder.append("/>\n");
+    }
+
+    /**
+     * Appends paint attribute with RGB color and opacity attribute, if color is not opaque.
+     */
+    private static void appendPaint(StringBuilder builder, String attribute, int argb) {
+        int alpha = argb >>> 24;
+        builder.append(' ').append(attribute).append("=\"");
+
+        if (alpha == 0) {
+            builder.append("none\"");
+            return;
+        }
+
+        builder.append('#');
+        for (int shift = 20; shift >= 0; shift -= 4) {
+            builder.append(Character.forDigit((argb >> shift) & 0xF, 16));
+        }
+        builder.append('"');
+
+        if (alpha != 0xFF) {
+            builder.append(' ').append(attribute).append("-opacity=\"").append(alpha / 255.0).append('"');
+        }
+    }
+
+    /**
+     * Copies ASCII characters of the builder into the buffer, flushing it when it is full.
+     */
+    private static void put(StringBuilder builder, ByteBuffer buffer, WritableByteChannel channel) throws IOException {
+        for (int i = 0; i < builder.length(); i++) {
+            if (!buffer.hasRemaining()) {
+                flush(buffer, channel);
+            }
+            buffer.put((byte) builder.charAt(i));
+        }
+        builder.setLength(0);
+    }
+
+    private static void flush(ByteBuffer buffer, WritableByteChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Reads shapes from the SVG document and adds each one to the store as soon as it is decoded. Shapes keep the
+     * coordinates of the document, view box of the root element is not applied. Channel is not closed.
+     *
+     * @param channel    source channel with document in UTF-8
+     * @param target     store receiving decoded shapes in document order
+     * @param afterShape called with id of every shape after it is added to the store
+     * @throws IOException if channel can't be read or doesn't contain proper SVG document
+     */
+    public static void read(ReadableByteChannel channel, ShapeStore target, IntConsumer afterShape) throws IOException {
+        new Reader(channel, target, afterShape).read();
+    }
+
+    /**
+     * Streaming scanner of a single document. Markup is always kept whole in the char buffer, which grows when an
+     * element is larger than the buffer.
+     */
+    private static final class Reader {
+        /*
+         * Inherited values of every open element: transform matrix (a, b, c, d, e, f) mapping its coordinates to the
+         * drawing area, fill and stroke colors with their own alpha, fill and stroke opacities, product of opacities of
+         * the element and its ancestors and whether the element is hidden. Colors and the flag are stored as doubles.
+         */
+        private static final int FILL = 6;
+        private static final int STROKE = 7;
+        private static final int FILL_OPACITY = 8;
+        private static final int STROKE_OPACITY = 9;
+        private static final int OPACITY = 10;
+        private static final int HIDDEN = 11;
+        private static final int STATE_SIZE = 12;
+
+        private final ReadableByteChannel channel;
+        private final ShapeStore target;
+        private final IntConsumer afterShape;
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+        private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE).flip();
+        private final SvgPathParser parser = new SvgPathParser();
+        private final SvgPathParser.SubpathConsumer polygonConsumer = this::addPolygon;
+
+        /**
+         * Decoded characters, those before position are already scanned
+         */
+        private char[] chars = new char[BUFFER_SIZE];
+        private int position;
+        private int limit;
+        private boolean endOfInput;
+        /**
+         * Whether all characters of the document are decoded
+         */
+        private boolean finished;
+
+        /**
+         * Name start, name end, value start and value end of every attribute of the current element
+         */
+        private int[] attributes = new int[64];
+        private int attributeCount;
+
+        /**
+         * Characters of the attribute value selected by {@link #value(int)}, either the buffer or unescaped copy
+         */
+        private char[] valueChars;
+        private int valueStart;
+        private int valueEnd;
+        private char[] unescaped = new char[64];
+
+        /**
+         * States of open elements, {@link #STATE_SIZE} values for every element, the first state is the initial one
+         */
+        private double[] states = new double[16 * STATE_SIZE];
+        private int depth;
+        /**
+         * State of the current element
+         */
+        private final double[] state = new double[STATE_SIZE];
+        private boolean rootFound;
+
+        Reader(ReadableByteChannel channel, ShapeStore target, IntConsumer afterShape) {
+            this.channel = channel;
+            this.target = target;
+            this.afterShape = afterShape;
+
+            // identity transform and initial values of SVG, fill is opaque black and stroke is none
+            states[0] = 1;
+            states[3] = 1;
+            states[FILL] = 0xFF000000;
+            states[STROKE] = 0;
+            states[FILL_OPACITY] = 1;
+            states[STROKE_OPACITY] = 1;
+            states[OPACITY] = 1;
+        }
+
+        void read() throws IOException {
+            while (true) {
+                int start = indexOf('<', position);
+                if (start < 0) {
+                    // text between elements is skipped
+                    position = limit;
+                    if (!fill()) {
+                        break;
+                    }
+                    continue;
+                }
+
+                position = start;
+                int end = markupEnd(start);
+                if (end < 0) {
+                    if (!fill()) {
+                        throw new EOFException("Document ends inside markup");
+                    }
+                    continue;
+                }
+
+                char kind = chars[start + 1];
+                if (kind == '/') {
+                    depth = Math.max(depth - 1, 0);
+                } else if (kind != '!' && kind != '?') {
+                    element(start + 1, end);
+                }
+                position = end;
+            }
+
+            if (!rootFound) {
+                throw new IOException("Document has no svg element");
+            }
+        }
+
+        /**
+         * Handles start tag from its name to the end of the markup.
+         */
+        private void element(int start, int end) throws IOException {
+            int nameEnd = start;
+            while (nameEnd < end && !isWhitespace(chars[nameEnd]) && chars[nameEnd] != '/' && chars[nameEnd] != '>') {
+                nameEnd++;
+            }
+            // prefixed names, such as svg:rect, are matched by their local part
+            int nameStart = nameEnd;
+            while (nameStart > start && chars[nameStart - 1] != ':') {
+                nameStart--;
+            }
+            boolean empty = chars[end - 2] == '/';
+
+            parseAttributes(nameEnd, empty ? end - 2 : end - 1);
+            System.arraycopy(states, depth * STATE_SIZE, state, 0, STATE_SIZE);
+
+            if (matches(chars, nameStart, nameEnd, "svg")) {
+                rootFound = true;
+            }
+            if (state[HIDDEN] == 0) {
+                applyPresentation(nameStart, nameEnd);
+            }
+            if (state[HIDDEN] == 0) {
+                addShape(nameStart, nameEnd);
+            }
+
+            if (!empty) {
+                depth++;
+                if (states.length < (depth + 1) * STATE_SIZE) {
+                    states = Arrays.copyOf(states, 2 * states.length);
+                }
+                System.arraycopy(state, 0, states, depth * STATE_SIZE, STATE_SIZE);
+            }
+        }
+
+        /**
+         * Finds ranges of attribute names and values between the element name and the end of the tag.
+         *
+         * @throws IOException if attributes are malformed
+         */
+        private void parseAttributes(int from, int to) throws IOException {
+            attributeCount = 0;
+            int i = from;
+
+            while (true) {
+                while (i < to && isWhitespace(chars[i])) {
+                    i++;
+                }
+                if (i >= to) {
+                    return;
+                }
+
+                int nameStart = i;
+                while (i < to && chars[i] != '=' && !isWhitespace(chars[i])) {
+                    i++;
+                }
+                int nameEnd = i;
+                while (i < to && isWhitespace(chars[i])) {
+                    i++;
+                }
+                if (i >= to || chars[i] != '=') {
+                    throw new IOException("Attribute without value: " + new String(chars, nameStart, nameEnd - nameStart));
+                }
+                i++;
+                while (i < to && isWhitespace(chars[i])) {
+                    i++;
+                }
+                if (i >= to || chars[i] != '"' && chars[i] != '\'') {
+                    throw new IOException("Attribute value is not quoted: " + new String(chars, nameStart, nameEnd - nameStart));
+                }
+
+                char quote = chars[i];
+                int valueStart = i + 1;
+                int valueEnd = valueStart;
+                while (chars[valueEnd] != quote) {
+                    valueEnd++;
+                }
+
+                if (attributes.length < 4 * (attributeCount + 1)) {
+                    attributes = Arrays.copyOf(attributes, 2 * attributes.length);
+                }
+                attributes[4 * attributeCount] = nameStart;
+                attributes[4 * attributeCount + 1] = nameEnd;
+                attributes[4 * attributeCount + 2] = valueStart;
+                attributes[4 * attributeCount + 3] = valueEnd;
+                attributeCount++;
+                i = valueEnd + 1;
+            }
+        }
+
+        /**
+         * Updates state of the current element by its transform, presentation attributes and style. Declarations of
+         * the style override attributes.
+         */
+        private void applyPresentation(int nameStart, int nameEnd) {
+            for (String hidden : HIDDEN_ELEMENTS) {
+                if (matches(chars, nameStart, nameEnd, hidden)) {
+                    state[HIDDEN] = 1;
+                    return;
+                }
+            }
+
+            int style = -1;
+            for (int i = 0; i < attributeCount; i++) {
+                int attributeStart = attributes[4 * i];
+                int attributeEnd = attributes[4 * i + 1];
+
+                if (matches(chars, attributeStart, attributeEnd, "style")) {
+                    style = i;
+                } else if (matches(chars, attributeStart, attributeEnd, "transform")) {
+                    value(i);
+                    transform();
+                } else {
+                    value(i);
+                    presentation(chars, attributeStart, attributeEnd);
+                }
+            }
+
+            if (style >= 0) {
+                char[] declarations = value(style);
+                int end = valueEnd;
+
+                for (int i = valueStart; i < end; ) {
+                    int semicolon = i;
+                    while (semicolon < end && declarations[semicolon] != ';') {
+                        semicolon++;
+                    }
+                    int colon = i;
+                    while (colon < semicolon && declarations[colon] != ':') {
+                        colon++;
+                    }
+
+                    if (colon < semicolon) {
+                        valueChars = declarations;
+                        valueStart = colon + 1;
+                        valueEnd = semicolon;
+                        presentation(declarations, trimStart(declarations, i, colon), trimEnd(declarations, i, colon));
+                    }
+                    i = semicolon + 1;
+                }
+            }
+        }
+
+        /**
+         * Applies presentation property with the current value, unknown properties are ignored.
+         */
+        private void presentation(char[] name, int start, int end) {
+            if (matches(name, start, end, "fill")) {
+                state[FILL] = paint(state[FILL]);
+            } else if (matches(name, start, end, "stroke")) {
+                state[STROKE] = paint(state[STROKE]);
+            } else if (matches(name, start, end, "fill-opacity")) {
+                state[FILL_OPACITY] = opacity(state[FILL_OPACITY]);
+            } else if (matches(name, start, end, "stroke-opacity")) {
+                state[STROKE_OPACITY] = opacity(state[STROKE_OPACITY]);
+            } else if (matches(name, start, end, "opacity")) {
+                state[OPACITY] *= opacity(1);
+            } else if (matches(name, start, end, "display") || matches(name, start, end, "visibility")) {
+                String value = valueString();
+                if (value.equals("none") || value.equals("hidden") || value.equals("collapse")) {
+                    state[HIDDEN] = 1;
+                }
+            }
+        }
+
+        /**
+         * Parses paint of the current value. Paint servers, such as gradients, and other values which are not colors
+         * keep the inherited color.
+         */
+        private double paint(double inherited) {
+            int hex = hexColor(valueChars, trimStart(valueChars, valueStart, valueEnd), trimEnd(valueChars, valueStart, valueEnd));
+            if (hex >= 0) {
+                return 0xFF000000 | hex;
+            }
+
+            String value = valueString();
+            if (value.equals("none")) {
+                return 0;
+            }
+            if (value.isEmpty() || value.startsWith("url(") || value.equals("inherit") || value.equals("currentColor")) {
+                return inherited;
+            }
+
+            try {
+                return ColorUtils.parseArgb(value);
+            } catch (IllegalArgumentException e) {
+                return inherited;
+            }
+        }
+
+        /**
+         * Parses color in {@code #rrggbb} or {@code #rgb} notation, which most documents use, without creating a string.
+         *
+         * @return RGB color or -1 if the value is not a hex color
+         */
+        private static int hexColor(char[] chars, int start, int end) {
+            int length = end - start;
+            if (length != 7 && length != 4 || chars[start] != '#') {
+                return -1;
+            }
+
+            int rgb = 0;
+            for (int i = start + 1; i < end; i++) {
+                int digit = Character.digit(chars[i], 16);
+                if (digit < 0) {
+                    return -1;
+                }
+                // short notation repeats every digit
+                rgb = length == 7 ? rgb << 4 | digit : rgb << 8 | digit << 4 | digit;
+            }
+            return rgb;
+        }
+
+        /**
+         * Parses opacity of the current value, as a number or percentage clamped to 0 - 1.
+         */
+        private double opacity(double inherited) {
+            parser.reset(valueChars, valueStart, valueEnd);
+            try {
+                double value = parser.nextNumber();
+                if (parser.next('%')) {
+                    value /= 100;
+                }
+                return Math.max(0, Math.min(1, value));
+            } catch (NumberFormatException e) {
+                return inherited;
+            }
+        }
+
+        /**
+         * Multiplies the transform of the current element by the transform list of the current value. Invalid
+         * transform lists are applied up to the error.
+         */
+        private void transform() {
+            parser.reset(valueChars, valueStart, valueEnd);
+            double[] arguments = new double[6];
+
+            try {
+                while (parser.skipSeparators()) {
+                    int type;
+                    if (parser.nextName("matrix")) {
+                        type = 0;
+                    } else if (parser.nextName("translate")) {
+                        type = 1;
+                    } else if (parser.nextName("scale")) {
+                        type = 2;
+                    } else if (parser.nextName("rotate")) {
+                        type = 3;
+                    } else if (parser.nextName("skewX")) {
+                        type = 4;
+                    } else if (parser.nextName("skewY")) {
+                        type = 5;
+                    } else {
+                        return;
+                    }
+
+                    if (!parser.next('(')) {
+                        return;
+                    }
+                    int count = 0;
+                    while (count < arguments.length && parser.hasNumber()) {
+                        arguments[count++] = parser.nextNumber();
+                    }
+                    if (!parser.next(')') || count == 0) {
+                        return;
+                    }
+
+                    switch (type) {
+                        case 0 -> {
+                            if (count == 6) {
+                                multiply(arguments[0], arguments[1], arguments[2], arguments[3], arguments[4], arguments[5]);
+                            }
+                        }
+                        case 1 -> multiply(1, 0, 0, 1, arguments[0], count > 1 ? arguments[1] : 0);
+                        case 2 -> multiply(arguments[0], 0, 0, count > 1 ? arguments[1] : arguments[0], 0, 0);
+                        case 3 -> {
+                            double angle = Math.toRadians(arguments[0]);
+                            double cos = Math.cos(angle);
+                            double sin = Math.sin(angle);
+                            double centerX = count > 2 ? arguments[1] : 0;
+                            double centerY = count > 2 ? arguments[2] : 0;
+                            multiply(cos, sin, -sin, cos,
+                                    centerX - cos * centerX + sin * centerY, centerY - sin * centerX - cos * centerY);
+                        }
+                        case 4 -> multiply(1, 0, Math.tan(Math.toRadians(arguments[0])), 1, 0, 0);
+                        default -> multiply(1, Math.tan(Math.toRadians(arguments[0])), 0, 1, 0, 0);
+                    }
+                }
+            } catch (NumberFormatException e) {
+                // transforms before the error are kept
+            }
+        }
+
+        /**
+         * Multiplies the transform of the current element by the given one, which is applied first.
+         */
+        private void multiply(double a, double b, double c, double d, double e, double f) {
+            double a0 = state[0];
+            double b0 = state[1];
+            double c0 = state[2];
+            double d0 = state[3];
+
+            state[0] = a0 * a + c0 * b;
+            state[1] = b0 * a + d0 * b;
+            state[2] = a0 * c + c0 * d;
+            state[3] = b0 * c + d0 * d;
+            state[4] += a0 * e + c0 * f;
+            state[5] += b0 * e + d0 * f;
+        }
+
+        /**
+         * Adds shapes of the current element, if it is a shape.
+         */
+        private void addShape(int nameStart, int nameEnd) {
+            double scale = Math.sqrt(Math.max(state[0] * state[0] + state[1] * state[1], state[2] * state[2] + state[3] * state[3]));
+            if (!(scale > 0)) {
+                return;
+            }
+            double tolerance = FLATNESS / scale;
+
+            if (matches(chars, nameStart, nameEnd, "path")) {
+                if (select("d")) {
+                    parser.reset(valueChars, valueStart, valueEnd);
+                    parser.parsePath(tolerance, polygonConsumer);
+                }
+            } else if (matches(chars, nameStart, nameEnd, "polygon") || matches(chars, nameStart, nameEnd, "polyline")) {
+                if (select("points")) {
+                    parser.reset(valueChars, valueStart, valueEnd);
+                    parser.parsePoints(polygonConsumer);
+                }
+            } else if (matches(chars, nameStart, nameEnd, "line")) {
+                double[] line = {number("x1"), number("y1"), number("x2"), number("y2")};
+                addPolygon(line, line.length);
+            } else if (matches(chars, nameStart, nameEnd, "rect")) {
+                addRectangle(number("x"), number("y"), number("width"), number("height"));
+            } else if (matches(chars, nameStart, nameEnd, "circle")) {
+                double radius = number("r");
+                addEllipse(number("cx"), number("cy"), radius, radius, tolerance);
+            } else if (matches(chars, nameStart, nameEnd, "ellipse")) {
+                addEllipse(number("cx"), number("cy"), number("rx"), number("ry"), tolerance);
+            }
+        }
+
+        private void addRectangle(double x, double y, double width, double height) {
+            // zero size is kept, editor creates such rectangles with a click
+            if (!(width >= 0 && height >= 0)) {
+                return;
+            }
+
+            if (isConformal()) {
+                // rectangles only moved, rotated or scaled keep their type, rotation is around their center
+                double scale = Math.hypot(state[0], state[1]);
+                double centerX = transformX(x + width / 2, y + height / 2);
+                double centerY = transformY(x + width / 2, y + height / 2);
+                width *= scale;
+                height *= scale;
+
+                int id = target.addRectangle(centerX - width / 2, centerY - height / 2, width, height, rotation(), fillColor(), strokeColor());
+                afterShape.accept(id);
+                return;
+            }
+
+            double[] corners = {x, y, x + width, y, x + width, y + height, x, y + height};
+            addPolygon(corners, corners.length);
+        }
+
+        private void addEllipse(double centerX, double centerY, double radiusX, double radiusY, double tolerance) {
+            if (!(radiusX >= 0 && radiusY >= 0)) {
+                return;
+            }
+
+            // zero radius is kept for circles, editor creates them with a click
+            if (radiusX == radiusY && isConformal()) {
+                double radius = radiusX * Math.hypot(state[0], state[1]);
+                double x = transformX(centerX, centerY);
+                double y = transformY(centerX, centerY);
+
+                int id = target.addCircle(x - radius, y - radius, radius, 0, fillColor(), strokeColor());
+                afterShape.accept(id);
+                return;
+            }
+            if (radiusX == 0 || radiusY == 0) {
+                return;
+            }
+
+            parser.ellipse(centerX, centerY, radiusX, radiusY, tolerance, polygonConsumer);
+        }
+
+        /**
+         * Adds polygon with points in coordinates of the current element. Polygon is positioned at its first point.
+         * Rotation of conformal transforms is kept as rotation of the polygon around the center of its points.
+         */
+        private void addPolygon(double[] coordinates, int length) {
+            double rotation = 0;
+
+            if (isConformal() && rotation() != 0) {
+                double scale = Math.hypot(state[0], state[1]);
+                double cos = state[0] / scale;
+                double sin = state[1] / scale;
+                double minX = Double.POSITIVE_INFINITY;
+                double minY = Double.POSITIVE_INFINITY;
+                double maxX = Double.NEGATIVE_INFINITY;
+                double maxY = Double.NEGATIVE_INFINITY;
+
+                for (int i = 0; i < length; i += 2) {
+                    coordinates[i] *= scale;
+                    coordinates[i + 1] *= scale;
+                    minX = Math.min(minX, coordinates[i]);
+                    minY = Math.min(minY, coordinates[i + 1]);
+                    maxX = Math.max(maxX, coordinates[i]);
+                    maxY = Math.max(maxY, coordinates[i + 1]);
+                }
+
+                // points are moved, so rotating them around their center gives the transformed points
+                double centerX = (minX + maxX) / 2;
+                double centerY = (minY + maxY) / 2;
+                double shiftX = state[4] + cos * centerX - sin * centerY - centerX;
+                double shiftY = state[5] + sin * centerX + cos * centerY - centerY;
+                for (int i = 0; i < length; i += 2) {
+                    coordinates[i] += shiftX;
+                    coordinates[i + 1] += shiftY;
+                }
+                rotation = rotation();
+            } else {
+                for (int i = 0; i < length; i += 2) {
+                    double x = coordinates[i];
+                    double y = coordinates[i + 1];
+                    coordinates[i] = transformX(x, y);
+                    coordinates[i + 1] = transformY(x, y);
+                }
+            }
+
+            double x = coordinates[0];
+            double y = coordinates[1];
+            for (int i = 0; i < length; i += 2) {
+                coordinates[i] -= x;
+                coordinates[i + 1] -= y;
+            }
+
+            int id = target.addPolygon(x, y, coordinates, 0, length, rotation, fillColor(), strokeColor());
+            afterShape.accept(id);
+        }
+
+        /**
+         * Checks if the transform keeps angles and proportions, so it is a combination of moves, rotations and
+         * uniform scaling.
+         */
+        private boolean isConformal() {
+            double scale = Math.hypot(state[0], state[1]);
+            return Math.abs(state[0] - state[3]) <= EPSILON * scale && Math.abs(state[1] + state[2]) <= EPSILON * scale;
+        }
+
+        /**
+         * Rotation of the conformal transform in degrees, between 0 and 360.
+         */
+        private double rotation() {
+            double rotation = Math.toDegrees(Math.atan2(state[1], state[0]));
+            return rotation < 0 ? rotation + 360 : rotation;
+        }
+
+        private double transformX(double x, double y) {
+            return state[0] * x + state[2] * y + state[4];
+        }
+
+        private double transformY(double x, double y) {
+            return state[1] * x + state[3] * y + state[5];
+        }
+
+        private int fillColor() {
+            return withOpacity((int) state[FILL], state[FILL_OPACITY] * state[OPACITY]);
+        }
+
+        private int strokeColor() {
+            return withOpacity((int) state[STROKE], state[STROKE_OPACITY] * state[OPACITY]);
+        }
+
+        private static int withOpacity(int argb, double opacity) {
+            int alpha = (int) Math.round((argb >>> 24) * opacity);
+            return alpha << 24 | argb & 0xFFFFFF;
+        }
+
+        /**
+         * Parses numeric attribute of the current element. Units are ignored.
+         *
+         * @return attribute value, or 0 if it is missing or is not a number
+         */
+        private double number(String name) {
+            if (!select(name)) {
+                return 0;
+            }
+
+            parser.reset(valueChars, valueStart, valueEnd);
+            try {
+                return parser.nextNumber();
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        /**
+         * Selects value of the attribute with given name.
+         *
+         * @return false if the current element has no such attribute
+         */
+        private boolean select(String name) {
+            for (int i = 0; i < attributeCount; i++) {
+                if (matches(chars, attributes[4 * i], attributes[4 * i + 1], name)) {
+                    value(i);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Selects value of the attribute. Values with entity references are unescaped into a separate array, others
+         * stay in the buffer.
+         *
+         * @return array holding the value
+         */
+        private char[] value(int attribute) {
+            int start = attributes[4 * attribute + 2];
+            int end = attributes[4 * attribute + 3];
+
+            for (int i = start; i < end; i++) {
+                if (chars[i] == '&') {
+                    return unescape(start, end);
+                }
+            }
+
+            valueChars = chars;
+            valueStart = start;
+            valueEnd = end;
+            return chars;
+        }
+
+        private char[] unescape(int start, int end) {
+            if (unescaped.length < end - start) {
+                unescaped = new char[end - start];
+            }
+            int length = 0;
+
+            for (int i = start; i < end; i++) {
+                int semicolon = chars[i] == '&' ? indexOf(';', i, end) : -1;
+                if (semicolon < 0) {
+                    unescaped[length++] = chars[i];
+                    continue;
+                }
+
+                int codePoint = entity(i + 1, semicolon);
+                if (codePoint < 0) {
+                    // unknown entities are kept as they are
+                    unescaped[length++] = chars[i];
+                    continue;
+                }
+                // a character reference is never shorter than the characters it stands for
+                length += Character.toChars(codePoint, unescaped, length);
+                i = semicolon;
+            }
+
+            valueChars = unescaped;
+            valueStart = 0;
+            valueEnd = length;
+            return unescaped;
+        }
+
+        /**
+         * Resolves predefined entity or character reference between ampersand and semicolon.
+         *
+         * @return code point or -1 if the reference is not known
+         */
+        private int entity(int start, int end) {
+            if (matches(chars, start, end, "amp")) {
+                return '&';
+            } else if (matches(chars, start, end, "lt")) {
+                return '<';
+            } else if (matches(chars, start, end, "gt")) {
+                return '>';
+            } else if (matches(chars, start, end, "quot")) {
+                return '"';
+            } else if (matches(chars, start, end, "apos")) {
+                return '\'';
+            } else if (end - start > 1 && chars[start] == '#') {
+                boolean hex = chars[start + 1] == 'x';
+                try {
+                    int codePoint = Integer.parseInt(new String(chars, start + (hex ? 2 : 1), end - start - (hex ? 2 : 1)), hex ? 16 : 10);
+                    return Character.isValidCodePoint(codePoint) ? codePoint : -1;
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+            return -1;
+        }
+
+        private String valueString() {
+            return new String(valueChars, trimStart(valueChars, valueStart, valueEnd),
+                    trimEnd(valueChars, valueStart, valueEnd) - trimStart(valueChars, valueStart, valueEnd));
+        }
+
+        /**
+         * Finds end of the markup starting at the index.
+         *
+         * @return index after the markup or -1 if the markup is not decoded whole yet
+         */
+        private int markupEnd(int start) {
+            if (start + 1 >= limit) {
+                return -1;
+            }
+
+            switch (chars[start + 1]) {
+                case '!' -> {
+                    if (limit - start < 9 && !finished) {
+                        return -1;
+                    }
+                    if (startsWith(start, "<!--")) {
+                        return find("-->", start + 4);
+                    }
+                    if (startsWith(start, "<![CDATA[")) {
+                        return find("]]>", start + 9);
+                    }
+
+                    // document type declaration, whose internal subset can contain brackets
+                    for (int i = start + 2; i < limit; i++) {
+                        if (chars[i] == '[') {
+                            i = indexOf(']', i, limit);
+                            if (i < 0) {
+                                return -1;
+                            }
+                        } else if (chars[i] == '>') {
+                            return i + 1;
+                        }
+                    }
+                    return -1;
+                }
+                case '?' -> {
+                    return find("?>", start + 2);
+                }
+                default -> {
+                    // tag ends at the first bracket outside of attribute values
+                    char quote = 0;
+                    for (int i = start + 1; i < limit; i++) {
+                        char c = chars[i];
+                        if (quote != 0) {
+                            if (c == quote) {
+                                quote = 0;
+                            }
+                        } else if (c == '"' || c == '\'') {
+                            quote = c;
+                        } else if (c == '>') {
+                            return i + 1;
+                        }
+                    }
+                    return -1;
+                }
+            }
+        }
+
+        /**
+         * Moves characters which are not scanned yet to the start of the buffer and decodes more characters after
+         * them. Buffer grows if it is full.
+         *
+         * @return false if there are no more characters
+         */
+        private boolean fill() throws IOException {
+            System.arraycopy(chars, position, chars, 0, limit - position);
+            limit -= position;
+            position = 0;
+
+            if (finished) {
+                return false;
+            }
+            if (limit == chars.length) {
+                chars = Arrays.copyOf(chars, 2 * chars.length);
+            }
+
+            CharBuffer buffer = CharBuffer.wrap(chars, limit, chars.length - limit);
+            while (buffer.hasRemaining()) {
+                CoderResult result = decoder.decode(bytes, buffer, endOfInput);
+                if (result.isError()) {
+                    result.throwException();
+                }
+                if (result.isOverflow()) {
+                    break;
+                }
+                if (endOfInput) {
+                    if (decoder.flush(buffer).isUnderflow()) {
+                        finished = true;
+                    }
+                    break;
+                }
+
+                bytes.compact();
+                endOfInput = channel.read(bytes) < 0;
+                bytes.flip();
+            }
+
+            int decoded = buffer.position() - limit;
+            limit = buffer.position();
+            return decoded > 0 || !finished;
+        }
+
+        private int indexOf(char c, int from) {
+            return indexOf(c, from, limit);
+        }
+
+        private int indexOf(char c, int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (chars[i] == c) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Finds the text from the index.
+         *
+         * @return index after the found text or -1 if it is not decoded yet
+         */
+        private int find(String text, int from) {
+            for (int i = from; i <= limit - text.length(); i++) {
+                if (startsWith(i, text)) {
+                    return i + text.length();
+                }
+            }
+            return -1;
+        }
+
+        private boolean startsWith(int index, String text) {
+            return limit - index >= text.length() && matches(chars, index, index + text.length(), text);
+        }
+
+        private static boolean matches(char[] chars, int start, int end, String text) {
+            if (end - start != text.length()) {
+                return false;
+            }
+            for (int i = 0; i < text.length(); i++) {
+                if (chars[start + i] != text.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int trimStart(char[] chars, int start, int end) {
+            while (start < end && isWhitespace(chars[start])) {
+                start++;
+            }
+            return start;
+        }
+
+        private static int trimEnd(char[] chars, int start, int end) {
+            while (end > start && isWhitespace(chars[end - 1])) {
+                end--;
+            }
+            return end;
+        }
+
+        private static boolean isWhitespace(char c) {
+            return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+        }
+    }
+}
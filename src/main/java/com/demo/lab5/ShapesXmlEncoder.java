@@ -1,112 +1,399 @@
 package com.demo.lab5;
 
-import com.demo.lab5.shapes.CircleComponentView;
-import com.demo.lab5.shapes.PolygonComponentView;
-import com.demo.lab5.shapes.RectangleComponentView;
-import com.demo.lab5.shapes.ShapeComponentView;
-import javafx.scene.paint.Color;
-import javafx.scene.shape.Circle;
-import javafx.scene.shape.Polygon;
-import javafx.scene.shape.Rectangle;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
+import com.demo.lab5.model.ShapeStore;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
 import java.util.Arrays;
-import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntConsumer;
 
 /**
  * Utility class for encoding and decoding shapes to and from XML.
+ * <p>
+ * Files are read and written with StAX, one {@code <shape>} element at a time, so memory used by the codec does not
+ * depend on the number of shapes in the drawing.
+ * <p>
+ * Shapes are decoded in two steps. Attribute values of a {@code <shape>} element are split into a record first and the
+ * record is decoded into the store. Parsing of numbers, colors and polygon points is most of the work, so
+ * {@link #read(InputStream, ShapeStore, IntConsumer, ForkJoinPool, LoadPhases)} decodes chunks of records in parallel while the
+ * document is being split.
  */
 public class ShapesXmlEncoder {
     /**
-     * Assigns shape to a given {@link Element}
-     * @param shape shape to encode (assign)
-     * @param element element to assign shape to
+     * Name of the root element of the file.
      */
-    public static void encodeShape(ShapeComponentView shape, Element element) {
-        if (shape instanceof RectangleComponentView rectangle) {
-            element.setAttribute("type", "rectangle");
-            element.setAttribute("width", String.valueOf((rectangle.getTargetShape()).getWidth()));
-            element.setAttribute("height", String.valueOf((rectangle.getTargetShape()).getHeight()));
-        } else if (shape instanceof CircleComponentView circle) {
-            element.setAttribute("type", "circle");
-            element.setAttribute("radius", String.valueOf(circle.getTargetShape().getRadius()));
-        } else if (shape instanceof PolygonComponentView polygon) {
-            element.setAttribute("type", "polygon");
-            Polygon targetPolygon = polygon.getTargetShape();
-
-            element.setAttribute("points", String.join(",", targetPolygon.getPoints().stream().map(String::valueOf).toList()));
-        } else {
-            throw new IllegalArgumentException("Shape not supported");
+    public static final String ROOT_ELEMENT = "shapes";
+    /**
+     * Name of the element holding a single shape.
+     */
+    public static final String SHAPE_ELEMENT = "shape";
+
+    /**
+     * Attributes of a shape in the order of their values in a record.
+     */
+    private static final String[] RECORD_ATTRIBUTES = {"type", "x", "y", "fill", "stroke", "rotation", "width", "height", "radius", "points"};
+    private static final int TYPE = 0;
+    private static final int X = 1;
+    private static final int Y = 2;
+    private static final int FILL = 3;
+    private static final int STROKE = 4;
+    private static final int ROTATION = 5;
+    private static final int WIDTH = 6;
+    private static final int HEIGHT = 7;
+    private static final int RADIUS = 8;
+    private static final int POINTS = 9;
+    private static final int RECORD_SIZE = RECORD_ATTRIBUTES.length;
+    /**
+     * Number of shapes decoded by a single task of parallel reading
+     */
+    private static final int CHUNK_SIZE = 1024;
+
+    private ShapesXmlEncoder() {
+    }
+
+    /**
+     * Writes all shapes of the store to the stream as a complete xml document. Stream is not closed.
+     *
+     * @param store       shapes to write
+     * @param out         target stream
+     * @param beforeShape called with id of every shape before it is written, can be used to report progress or to load
+     *                    placeholders
+     * @throws XMLStreamException if shapes can't be written
+     */
+    public static void write(ShapeStore store, OutputStream out, IntConsumer beforeShape) throws XMLStreamException {
+        XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+
+        try {
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeStartElement(ROOT_ELEMENT);
+
+            StringBuilder builder = new StringBuilder();
+            for (int id = 0; id < store.size(); id++) {
+                beforeShape.accept(id);
+                encodeShape(store, id, writer, builder);
+            }
+
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.flush();
+        } finally {
+            writer.close();
         }
+    }
 
+    /**
+     * Reads shapes from the stream and adds each one to the store as soon as it is decoded. Stream is not closed.
+     *
+     * @param in         source stream
+     * @param target     store receiving decoded shapes in document order
+     * @param afterShape called with id of every shape after it is added to the store
+     * @throws XMLStreamException if stream doesn't contain proper xml
+     */
+    public static void read(InputStream in, ShapeStore target, IntConsumer afterShape) throws XMLStreamException {
+        XMLStreamReader reader = createReader(in);
+        String[] record = new String[RECORD_SIZE];
 
-        element.setAttribute("hash", String.valueOf(shape.hashCode()));
-        element.setAttribute("x", String.valueOf(shape.getLayoutX()));
-        element.setAttribute("y", String.valueOf(shape.getLayoutY()));
-        element.setAttribute("fill", shape.getTargetShape().getFill().toString());
-        element.setAttribute("stroke", shape.getTargetShape().getStroke().toString());
-        element.setAttribute("rotation", String.valueOf(shape.getTargetShape().getRotate()));
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && SHAPE_ELEMENT.equals(reader.getLocalName())) {
+                    splitShape(reader, record, 0);
+                    afterShape.accept(decodeRecord(record, 0, target));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
 
+    /**
+     * Reads shapes from the stream and decodes them in parallel. The document is split into records of shapes on the
+     * calling thread and chunks of records are decoded into separate stores by tasks of the pool. Decoded chunks are
+     * added to the store in document order, as soon as all chunks before them are added, so z-order of shapes is kept.
+     * Stream is not closed.
+     * <p>
+     * Time of decoding is added to decode phase. The rest of the time of the calling thread, except waiting for
+     * decoded chunks, is added to parse phase.
+     *
+     * @param in         source stream
+     * @param target     store receiving decoded shapes in document order
+     * @param afterShape called with id of every shape after its chunk is added to the store
+     * @param pool       pool decoding chunks of records
+     * @param phases     durations of loading phases
+     * @throws XMLStreamException if stream doesn't contain proper xml
+     */
+    public static void read(InputStream in, ShapeStore target, IntConsumer afterShape, ForkJoinPool pool, LoadPhases phases) throws XMLStreamException {
+        long start = System.nanoTime();
+        long waiting = 0;
+        XMLStreamReader reader = createReader(in);
+        ArrayDeque<ForkJoinTask<ShapeStore>> chunks = new ArrayDeque<>();
+        // records waiting for decoding are limited, so splitting doesn't get far ahead of slow decoding
+        int maxChunks = 2 * pool.getParallelism() + 1;
+
+        try {
+            String[] records = new String[CHUNK_SIZE * RECORD_SIZE];
+            int count = 0;
+
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT || !SHAPE_ELEMENT.equals(reader.getLocalName())) {
+                    continue;
+                }
+
+                splitShape(reader, records, count++ * RECORD_SIZE);
+                if (count == CHUNK_SIZE) {
+                    chunks.addLast(pool.submit(decodeTask(records, count, phases)));
+                    records = new String[CHUNK_SIZE * RECORD_SIZE];
+                    count = 0;
+
+                    while (!chunks.isEmpty() && (chunks.peekFirst().isDone() || chunks.size() > maxChunks)) {
+                        long joined = System.nanoTime();
+                        ShapeStore chunk = chunks.pollFirst().join();
+                        waiting += System.nanoTime() - joined;
+
+                        addChunk(chunk, target, afterShape);
+                    }
+                }
+            }
+
+            if (count > 0) {
+                chunks.addLast(pool.submit(decodeTask(records, count, phases)));
+            }
+            while (!chunks.isEmpty()) {
+                long joined = System.nanoTime();
+                ShapeStore chunk = chunks.pollFirst().join();
+                waiting += System.nanoTime() - joined;
+
+                addChunk(chunk, target, afterShape);
+            }
+        } finally {
+            // chunks after a failed or cancelled one are not needed
+            for (ForkJoinTask<ShapeStore> chunk : chunks) {
+                chunk.cancel(false);
+            }
+            reader.close();
+            phases.addParse(System.nanoTime() - start - waiting);
+        }
+    }
+
+    private static XMLStreamReader createReader(InputStream in) throws XMLStreamException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        // files are generated by this app, so there is no need for DTDs or external entities
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
+        return factory.createXMLStreamReader(in);
     }
 
     /**
-     * Decodes shape from given xml {@link Node}
-     * @param node shape node from xml file
-     * @return decoded shape
+     * Creates task decoding records into a new store.
      */
-    public static ShapeComponentView<?> decodeShape(Node node) {
-        String shape = node.getAttributes().getNamedItem("type").getNodeValue();
+    private static ForkJoinTask<ShapeStore> decodeTask(String[] records, int count, LoadPhases phases) {
+        return ForkJoinTask.adapt(() -> {
+            long start = System.nanoTime();
+            ShapeStore decoded = new ShapeStore(count);
+            for (int i = 0; i < count; i++) {
+                decodeRecord(records, i * RECORD_SIZE, decoded);
+            }
 
-        ShapeComponentView<?> shapeComponent;
+            phases.addDecode(System.nanoTime() - start);
+            return decoded;
+        });
+    }
 
-        double x = Double.parseDouble(node.getAttributes().getNamedItem("x").getNodeValue());
-        double y = Double.parseDouble(node.getAttributes().getNamedItem("y").getNodeValue());
-        Color fill = Color.valueOf(node.getAttributes().getNamedItem("fill").getNodeValue());
-        Color stroke = Color.valueOf(node.getAttributes().getNamedItem("stroke").getNodeValue());
-        double rotation = Double.parseDouble(node.getAttributes().getNamedItem("rotation").getNodeValue());
+    /**
+     * Adds decoded chunk to the store. Ids are computed before the consumer is called, because it can take shapes out of
+     * the store.
+     */
+    private static void addChunk(ShapeStore chunk, ShapeStore target, IntConsumer afterShape) {
+        int first = target.size();
+        target.addAll(chunk);
 
+        for (int id = first; id < first + chunk.size(); id++) {
+            afterShape.accept(id);
+        }
+    }
 
-        switch (shape) {
-            case "rectangle":
-                shapeComponent = new RectangleComponentView(x, y);
-                double width = Double.parseDouble(node.getAttributes().getNamedItem("width").getNodeValue());
-                double height = Double.parseDouble(node.getAttributes().getNamedItem("height").getNodeValue());
+    /**
+     * Writes shape as a single empty {@code <shape>} element.
+     *
+     * @param store   store with the shape
+     * @param id      id of shape to encode
+     * @param writer  writer to write element to
+     * @param builder reusable builder for the list of polygon points
+     * @throws XMLStreamException if element can't be written
+     */
+    public static void encodeShape(ShapeStore store, int id, XMLStreamWriter writer, StringBuilder builder) throws XMLStreamException {
+        writer.writeEmptyElement(SHAPE_ELEMENT);
 
-                ((Rectangle) shapeComponent.getTargetShape()).setWidth(width);
-                ((Rectangle) shapeComponent.getTargetShape()).setHeight(height);
+        switch (store.getType(id)) {
+            case RECTANGLE -> {
+                writer.writeAttribute("type", "rectangle");
+                writer.writeAttribute("width", String.valueOf(store.getWidth(id)));
+                writer.writeAttribute("height", String.valueOf(store.getHeight(id)));
+            }
+            case CIRCLE -> {
+                writer.writeAttribute("type", "circle");
+                writer.writeAttribute("radius", String.valueOf(store.getRadius(id)));
+            }
+            case POLYGON -> {
+                writer.writeAttribute("type", "polygon");
 
-                break;
-            case "circle":
-                shapeComponent = new CircleComponentView(x, y);
+                builder.setLength(0);
+                for (int i = 0; i < store.getPointCount(id); i++) {
+                    if (i > 0) {
+                        builder.append(',');
+                    }
+                    builder.append(store.getPointX(id, i)).append(',').append(store.getPointY(id, i));
+                }
+
+                writer.writeAttribute("points", builder.toString());
+            }
+            default -> throw new IllegalArgumentException("Shape not supported");
+        }
 
-                double radius = Double.parseDouble(node.getAttributes().getNamedItem("radius").getNodeValue());
-                ((Circle) shapeComponent.getTargetShape()).setRadius(radius);
-                ((Circle) shapeComponent.getTargetShape()).setCenterX(radius);
-                ((Circle) shapeComponent.getTargetShape()).setCenterY(radius);
+        writer.writeAttribute("hash", String.valueOf(id));
+        writer.writeAttribute("x", String.valueOf(store.getX(id)));
+        writer.writeAttribute("y", String.valueOf(store.getY(id)));
+        writer.writeAttribute("fill", ColorUtils.toWebString(store.getFill(id)));
+        writer.writeAttribute("stroke", ColorUtils.toWebString(store.getStroke(id)));
+        writer.writeAttribute("rotation", String.valueOf(store.getRotation(id)));
+    }
 
+    /**
+     * Decodes shape from the {@code <shape>} element the reader is currently positioned at and adds it to the store.
+     *
+     * @param reader reader positioned at shape start element
+     * @param target store receiving decoded shape
+     * @return id of decoded shape
+     */
+    public static int decodeShape(XMLStreamReader reader, ShapeStore target) {
+        String[] record = new String[RECORD_SIZE];
+        splitShape(reader, record, 0);
 
-                break;
-            case "polygon":
-                shapeComponent = new PolygonComponentView(x, y);
+        return decodeRecord(record, 0, target);
+    }
+
+    /**
+     * Copies attribute values of the {@code <shape>} element the reader is positioned at into a record. Unknown
+     * attributes are skipped and missing ones are left null.
+     *
+     * @param reader  reader positioned at shape start element
+     * @param records array of records
+     * @param offset  offset of the record in the array
+     */
+    private static void splitShape(XMLStreamReader reader, String[] records, int offset) {
+        Arrays.fill(records, offset, offset + RECORD_SIZE, null);
+
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            int slot = switch (reader.getAttributeLocalName(i)) {
+                case "type" -> TYPE;
+                case "x" -> X;
+                case "y" -> Y;
+                case "fill" -> FILL;
+                case "stroke" -> STROKE;
+                case "rotation" -> ROTATION;
+                case "width" -> WIDTH;
+                case "height" -> HEIGHT;
+                case "radius" -> RADIUS;
+                case "points" -> POINTS;
+                default -> -1;
+            };
 
-                String points = node.getAttributes().getNamedItem("points").getNodeValue();
+            if (slot >= 0) {
+                records[offset + slot] = reader.getAttributeValue(i);
+            }
+        }
+    }
+
+    /**
+     * Decodes shape from a record and adds it to the store. It doesn't use the reader, so records can be decoded on any
+     * thread.
+     *
+     * @param records array of records
+     * @param offset  offset of the record in the array
+     * @param target  store receiving decoded shape
+     * @return id of decoded shape
+     */
+    private static int decodeRecord(String[] records, int offset, ShapeStore target) {
+        String shape = field(records, offset, TYPE);
 
-                List<Double> pointList = Arrays.stream(points.split(",")).map(Double::valueOf).toList();
+        double x = Double.parseDouble(field(records, offset, X));
+        double y = Double.parseDouble(field(records, offset, Y));
+        int fill = ColorUtils.parseArgb(field(records, offset, FILL));
+        int stroke = ColorUtils.parseArgb(field(records, offset, STROKE));
+        double rotation = Double.parseDouble(field(records, offset, ROTATION));
 
-                ((Polygon) shapeComponent.getTargetShape()).getPoints().addAll(pointList);
-                break;
+        switch (shape) {
+            case "rectangle":
+                double width = Double.parseDouble(field(records, offset, WIDTH));
+                double height = Double.parseDouble(field(records, offset, HEIGHT));
+
+                return target.addRectangle(x, y, width, height, rotation, fill, stroke);
+            case "circle":
+                double radius = Double.parseDouble(field(records, offset, RADIUS));
+
+                return target.addCircle(x, y, radius, rotation, fill, stroke);
+            case "polygon":
+                double[] points = parsePoints(field(records, offset, POINTS));
+
+                return target.addPolygon(x, y, points, 0, points.length, rotation, fill, stroke);
             default:
                 throw new IllegalArgumentException("Shape not supported");
         }
+    }
 
-        shapeComponent.setLayoutX(x);
-        shapeComponent.setLayoutY(y);
-        shapeComponent.getTargetShape().setRotate(rotation);
-        shapeComponent.getTargetShape().setFill(fill);
-        shapeComponent.getTargetShape().setStroke(stroke);
+    /**
+     * Parses comma separated list of points in a single pass.
+     *
+     * @param points comma separated coordinates
+     * @return parsed coordinates
+     */
+    private static double[] parsePoints(String points) {
+        int count = 1;
+        for (int i = 0; i < points.length(); i++) {
+            if (points.charAt(i) == ',') {
+                count++;
+            }
+        }
+
+        double[] values = new double[count];
+        int start = 0;
+        for (int i = 0; i < count; i++) {
+            int end = points.indexOf(',', start);
+            if (end < 0) {
+                end = points.length();
+            }
+            values[i] = Double.parseDouble(points.substring(start, end));
+            start = end + 1;
+        }
 
-        return shapeComponent;
+        return values;
     }
 
+    /**
+     * Returns value of required attribute from a record.
+     *
+     * @param records array of records
+     * @param offset  offset of the record in the array
+     * @param field   index of the attribute in the record
+     * @return attribute value
+     * @throws IllegalArgumentException if attribute is missing
+     */
+    private static String field(String[] records, int offset, int field) {
+        String value = records[offset + field];
+
+        if (value == null) {
+            throw new IllegalArgumentException("Missing attribute: " + RECORD_ATTRIBUTES[field]);
+        }
+
+        return value;
+    }
 }
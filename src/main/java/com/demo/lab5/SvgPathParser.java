@@ -0,0 +1,570 @@
+package com.demo.lab5;
+
+import java.util.Arrays;
+
+/**
+ * Tokenizer of SVG attribute values holding numbers, such as path data, point lists and transforms. It reads characters
+ * straight from the array they were decoded into, so values are never copied into strings, and parses numbers itself.
+ * Numbers with up to 15 significant digits and small exponents are converted exactly with a single multiplication or
+ * division, longer ones fall back to {@link Double#parseDouble(String)}.
+ * <p>
+ * Path data is flattened into polygons, one for every subpath. Curves and arcs are split into line segments, so the
+ * distance between the curve and the segments is at most the given tolerance.
+ */
+final class SvgPathParser {
+    /**
+     * Receiver of flattened subpaths.
+     */
+    interface SubpathConsumer {
+        /**
+         * Called with points of a subpath. The array is reused for the next subpath.
+         *
+         * @param coordinates x and y of every point
+         * @param length      number of coordinates, twice the number of points
+         */
+        void accept(double[] coordinates, int length);
+    }
+
+    /**
+     * Powers of ten which are exact doubles.
+     */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    /**
+     * Maximal number of significant digits of a number converted without {@link Double#parseDouble(String)}.
+     */
+    private static final int MAX_EXACT_DIGITS = 15;
+    /**
+     * Maximal number of segments a single curve is split into
+     */
+    private static final int MAX_SEGMENTS = 1024;
+
+    private char[] chars;
+    private int position;
+    private int end;
+
+    /**
+     * Points of the current subpath
+     */
+    private double[] points = new double[256];
+    private int length;
+
+    /**
+     * Starts tokenizing a range of characters.
+     *
+     * @param chars characters, they are not copied
+     * @param start index of the first character
+     * @param end   index after the last character
+     */
+    void reset(char[] chars, int start, int end) {
+        this.chars = chars;
+        this.position = start;
+        this.end = end;
+    }
+
+    /**
+     * Skips whitespace and at most one comma around it.
+     *
+     * @return true if there are characters left
+     */
+    boolean skipSeparators() {
+        skipWhitespace();
+        if (position < end && chars[position] == ',') {
+            position++;
+            skipWhitespace();
+        }
+        return position < end;
+    }
+
+    /**
+     * Checks if the next token, after separators, is a number.
+     */
+    boolean hasNumber() {
+        if (!skipSeparators()) {
+            return false;
+        }
+
+        char c = chars[position];
+        return c >= '0' && c <= '9' || c == '-' || c == '+' || c == '.';
+    }
+
+    /**
+     * Parses the next number. Units and other characters following the number are not consumed.
+     *
+     * @return parsed number
+     * @throws NumberFormatException if the next token is not a number
+     */
+    double nextNumber() {
+        skipSeparators();
+        int start = position;
+        boolean negative = false;
+
+        if (position < end && (chars[position] == '-' || chars[position] == '+')) {
+            negative = chars[position] == '-';
+            position++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean any = false;
+
+        while (position < end && isDigit(chars[position])) {
+            int digit = chars[position++] - '0';
+            any = true;
+            if (mantissa != 0 || digit != 0) {
+                // digits beyond the exact range are only counted, the number is parsed by the fallback
+                if (++digits <= MAX_EXACT_DIGITS) {
+                    mantissa = 10 * mantissa + digit;
+                } else {
+                    exponent++;
+                }
+            }
+        }
+
+        if (position < end && chars[position] == '.') {
+            position++;
+            while (position < end && isDigit(chars[position])) {
+                int digit = chars[position++] - '0';
+                any = true;
+                if (mantissa != 0 || digit != 0) {
+                    if (++digits <= MAX_EXACT_DIGITS) {
+                        mantissa = 10 * mantissa + digit;
+                        exponent--;
+                    }
+                } else {
+                    exponent--;
+                }
+            }
+        }
+
+        if (!any) {
+            position = start;
+            throw new NumberFormatException("Number expected at: " + context(start));
+        }
+
+        if (position < end && (chars[position] == 'e' || chars[position] == 'E') && hasExponentDigits(position + 1)) {
+            position++;
+            boolean negativeExponent = chars[position] == '-';
+            if (chars[position] == '-' || chars[position] == '+') {
+                position++;
+            }
+
+            int value = 0;
+            while (position < end && isDigit(chars[position])) {
+                // larger exponents overflow or underflow anyway
+                value = Math.min(10 * value + chars[position++] - '0', 100_000);
+            }
+            exponent += negativeExponent ? -value : value;
+        }
+
+        if (digits > MAX_EXACT_DIGITS || exponent < -22 || exponent > 22) {
+            return Double.parseDouble(new String(chars, start, position - start));
+        }
+
+        // both operands are exact, so the result is rounded only once
+        double value = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses the next arc flag. Flags are single digits, which don't need to be separated from the next number.
+     *
+     * @throws NumberFormatException if the next token is not a flag
+     */
+    boolean nextFlag() {
+        skipSeparators();
+        if (position < end && (chars[position] == '0' || chars[position] == '1')) {
+            return chars[position++] == '1';
+        }
+        throw new NumberFormatException("Flag expected at: " + context(position));
+    }
+
+    /**
+     * Checks if the next token, after whitespace, is a name, such as a command of transform list. Name is consumed if
+     * it matches.
+     */
+    boolean nextName(String name) {
+        skipSeparators();
+        if (end - position < name.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < name.length(); i++) {
+            if (chars[position + i] != name.charAt(i)) {
+                return false;
+            }
+        }
+
+        position += name.length();
+        return true;
+    }
+
+    /**
+     * Consumes the character if it is next after whitespace.
+     */
+    boolean next(char c) {
+        skipWhitespace();
+        if (position < end && chars[position] == c) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Parses list of point coordinates, as in the points attribute of polygons, into a single subpath. Parsing stops at
+     * the first error, an odd coordinate is ignored.
+     *
+     * @param consumer receiver of the subpath
+     */
+    void parsePoints(SubpathConsumer consumer) {
+        length = 0;
+
+        try {
+            while (hasNumber()) {
+                double x = nextNumber();
+                double y = nextNumber();
+                addPoint(x, y);
+            }
+        } catch (NumberFormatException e) {
+            // points before the error are kept, as SVG viewers do
+        }
+
+        // unlike subpaths, single point is kept, editor creates such polygons with a click
+        if (length >= 2) {
+            consumer.accept(points, length);
+        }
+        length = 0;
+    }
+
+    /**
+     * Parses path data and flattens its subpaths. Parsing stops at the first error and subpaths parsed before it are
+     * kept, as SVG viewers render them.
+     *
+     * @param tolerance maximal distance between curves and segments replacing them
+     * @param consumer  receiver of subpaths
+     */
+    void parsePath(double tolerance, SubpathConsumer consumer) {
+        length = 0;
+        double x = 0;
+        double y = 0;
+        double startX = 0;
+        double startY = 0;
+        // last control point of the previous curve, reflected by smooth curves
+        double controlX = 0;
+        double controlY = 0;
+        char command = 0;
+        char previous = 0;
+
+        try {
+            while (skipSeparators()) {
+                char c = chars[position];
+                if (isCommand(c)) {
+                    if (command == 0 && c != 'M' && c != 'm') {
+                        throw new NumberFormatException("Path data has to start with move: " + context(position));
+                    }
+                    command = c;
+                    position++;
+                } else if (command == 0 || command == 'z' || command == 'Z') {
+                    throw new NumberFormatException("Command expected at: " + context(position));
+                }
+
+                boolean relative = Character.isLowerCase(command);
+                double baseX = relative ? x : 0;
+                double baseY = relative ? y : 0;
+
+                if (length == 0 && command != 'M' && command != 'm') {
+                    // drawing after close path continues from the start of the closed subpath
+                    addPoint(x, y);
+                }
+
+                switch (Character.toUpperCase(command)) {
+                    case 'M' -> {
+                        emit(consumer, false);
+                        x = baseX + nextNumber();
+                        y = baseY + nextNumber();
+                        startX = x;
+                        startY = y;
+                        addPoint(x, y);
+                        // following pairs are implicit line commands
+                        command = relative ? 'l' : 'L';
+                    }
+                    case 'L' -> {
+                        x = baseX + nextNumber();
+                        y = baseY + nextNumber();
+                        addPoint(x, y);
+                    }
+                    case 'H' -> {
+                        x = baseX + nextNumber();
+                        addPoint(x, y);
+                    }
+                    case 'V' -> {
+                        y = baseY + nextNumber();
+                        addPoint(x, y);
+                    }
+                    case 'C', 'S' -> {
+                        double x1;
+                        double y1;
+                        if (Character.toUpperCase(command) == 'C') {
+                            x1 = baseX + nextNumber();
+                            y1 = baseY + nextNumber();
+                        } else if (previous == 'C' || previous == 'S') {
+                            x1 = 2 * x - controlX;
+                            y1 = 2 * y - controlY;
+                        } else {
+                            x1 = x;
+                            y1 = y;
+                        }
+                        double x2 = baseX + nextNumber();
+                        double y2 = baseY + nextNumber();
+                        double x3 = baseX + nextNumber();
+                        double y3 = baseY + nextNumber();
+
+                        cubic(x, y, x1, y1, x2, y2, x3, y3, tolerance);
+                        controlX = x2;
+                        controlY = y2;
+                        x = x3;
+                        y = y3;
+                    }
+                    case 'Q', 'T' -> {
+                        double x1;
+                        double y1;
+                        if (Character.toUpperCase(command) == 'Q') {
+                            x1 = baseX + nextNumber();
+                            y1 = baseY + nextNumber();
+                        } else if (previous == 'Q' || previous == 'T') {
+                            x1 = 2 * x - controlX;
+                            y1 = 2 * y - controlY;
+                        } else {
+                            x1 = x;
+                            y1 = y;
+                        }
+                        double x2 = baseX + nextNumber();
+                        double y2 = baseY + nextNumber();
+
+                        quadratic(x, y, x1, y1, x2, y2, tolerance);
+                        controlX = x1;
+                        controlY = y1;
+                        x = x2;
+                        y = y2;
+                    }
+                    case 'A' -> {
+                        double radiusX = nextNumber();
+                        double radiusY = nextNumber();
+                        double angle = nextNumber();
+                        boolean largeArc = nextFlag();
+                        boolean sweep = nextFlag();
+                        double x2 = baseX + nextNumber();
+                        double y2 = baseY + nextNumber();
+
+                        arc(x, y, radiusX, radiusY, angle, largeArc, sweep, x2, y2, tolerance);
+                        x = x2;
+                        y = y2;
+                    }
+                    case 'Z' -> {
+                        emit(consumer, true);
+                        x = startX;
+                        y = startY;
+                    }
+                    default -> throw new NumberFormatException("Unknown command at: " + context(position - 1));
+                }
+
+                previous = Character.toUpperCase(command);
+            }
+        } catch (NumberFormatException e) {
+            // subpaths before the error are kept, as SVG viewers do
+        }
+
+        emit(consumer, false);
+    }
+
+    /**
+     * Adds points of an ellipse as a single subpath.
+     *
+     * @param centerX   x of the center
+     * @param centerY   y of the center
+     * @param radiusX   horizontal radius
+     * @param radiusY   vertical radius
+     * @param tolerance maximal distance between the ellipse and segments replacing it
+     * @param consumer  receiver of the subpath
+     */
+    void ellipse(double centerX, double centerY, double radiusX, double radiusY, double tolerance, SubpathConsumer consumer) {
+        length = 0;
+        int segments = arcSegments(2 * Math.PI, Math.max(radiusX, radiusY), tolerance);
+
+        for (int i = 0; i < segments; i++) {
+            double angle = 2 * Math.PI * i / segments;
+            addPoint(centerX + radiusX * Math.cos(angle), centerY + radiusY * Math.sin(angle));
+        }
+
+        emit(consumer, true);
+    }
+
+    /**
+     * Flattens cubic Bézier curve. Number of segments is given by Wang's formula.
+     */
+    private void cubic(double x0, double y0, double x1, double y1, double x2, double y2, double x3, double y3, double tolerance) {
+        double deviation = Math.max(Math.hypot(x0 - 2 * x1 + x2, y0 - 2 * y1 + y2), Math.hypot(x1 - 2 * x2 + x3, y1 - 2 * y2 + y3));
+        int segments = segments(Math.sqrt(0.75 * deviation / tolerance));
+
+        for (int i = 1; i <= segments; i++) {
+            double t = (double) i / segments;
+            double u = 1 - t;
+            double a = u * u * u;
+            double b = 3 * u * u * t;
+            double c = 3 * u * t * t;
+            double d = t * t * t;
+            addPoint(a * x0 + b * x1 + c * x2 + d * x3, a * y0 + b * y1 + c * y2 + d * y3);
+        }
+    }
+
+    /**
+     * Flattens quadratic Bézier curve.
+     */
+    private void quadratic(double x0, double y0, double x1, double y1, double x2, double y2, double tolerance) {
+        double deviation = Math.hypot(x0 - 2 * x1 + x2, y0 - 2 * y1 + y2);
+        int segments = segments(Math.sqrt(0.25 * deviation / tolerance));
+
+        for (int i = 1; i <= segments; i++) {
+            double t = (double) i / segments;
+            double u = 1 - t;
+            addPoint(u * u * x0 + 2 * u * t * x1 + t * t * x2, u * u * y0 + 2 * u * t * y1 + t * t * y2);
+        }
+    }
+
+    /**
+     * Flattens elliptical arc given by its end points, as in path data. Arc is converted to center parameterization as
+     * described in the implementation notes of the SVG specification.
+     */
+    private void arc(double x1, double y1, double radiusX, double radiusY, double angle, boolean largeArc, boolean sweep,
+                     double x2, double y2, double tolerance) {
+        if (x1 == x2 && y1 == y2) {
+            return;
+        }
+        radiusX = Math.abs(radiusX);
+        radiusY = Math.abs(radiusY);
+        if (radiusX == 0 || radiusY == 0) {
+            addPoint(x2, y2);
+            return;
+        }
+
+        double phi = Math.toRadians(angle);
+        double cos = Math.cos(phi);
+        double sin = Math.sin(phi);
+        double halfX = (x1 - x2) / 2;
+        double halfY = (y1 - y2) / 2;
+        double x1p = cos * halfX + sin * halfY;
+        double y1p = -sin * halfX + cos * halfY;
+
+        // radii too small to reach the end point are scaled up
+        double lambda = x1p * x1p / (radiusX * radiusX) + y1p * y1p / (radiusY * radiusY);
+        if (lambda > 1) {
+            radiusX *= Math.sqrt(lambda);
+            radiusY *= Math.sqrt(lambda);
+        }
+
+        double rx2 = radiusX * radiusX;
+        double ry2 = radiusY * radiusY;
+        double numerator = rx2 * ry2 - rx2 * y1p * y1p - ry2 * x1p * x1p;
+        double denominator = rx2 * y1p * y1p + ry2 * x1p * x1p;
+        double coefficient = (largeArc != sweep ? 1 : -1) * Math.sqrt(Math.max(0, numerator / denominator));
+        double cxp = coefficient * radiusX * y1p / radiusY;
+        double cyp = -coefficient * radiusY * x1p / radiusX;
+        double centerX = cos * cxp - sin * cyp + (x1 + x2) / 2;
+        double centerY = sin * cxp + cos * cyp + (y1 + y2) / 2;
+
+        double ux = (x1p - cxp) / radiusX;
+        double uy = (y1p - cyp) / radiusY;
+        double vx = (-x1p - cxp) / radiusX;
+        double vy = (-y1p - cyp) / radiusY;
+        double start = Math.atan2(uy, ux);
+        double extent = Math.atan2(ux * vy - uy * vx, ux * vx + uy * vy);
+        if (!sweep && extent > 0) {
+            extent -= 2 * Math.PI;
+        } else if (sweep && extent < 0) {
+            extent += 2 * Math.PI;
+        }
+
+        int segments = arcSegments(Math.abs(extent), Math.max(radiusX, radiusY), tolerance);
+        for (int i = 1; i < segments; i++) {
+            double theta = start + extent * i / segments;
+            double ex = radiusX * Math.cos(theta);
+            double ey = radiusY * Math.sin(theta);
+            addPoint(centerX + cos * ex - sin * ey, centerY + sin * ex + cos * ey);
+        }
+        // end point is added exactly, so following relative commands don't accumulate errors
+        addPoint(x2, y2);
+    }
+
+    /**
+     * Number of segments of an arc, so the sagitta of every segment is at most the tolerance.
+     */
+    private static int arcSegments(double extent, double radius, double tolerance) {
+        double step = tolerance >= radius ? Math.PI / 2 : 2 * Math.acos(1 - tolerance / radius);
+        return Math.max(segments(extent / step), 4);
+    }
+
+    private static int segments(double estimate) {
+        if (!(estimate >= 1)) {
+            return 1;
+        }
+        return (int) Math.min(Math.ceil(estimate), MAX_SEGMENTS);
+    }
+
+    private void addPoint(double x, double y) {
+        if (length == points.length) {
+            points = Arrays.copyOf(points, 2 * length);
+        }
+        points[length++] = x;
+        points[length++] = y;
+    }
+
+    /**
+     * Passes the current subpath to the consumer and starts a new one. Subpaths with a single point are dropped.
+     *
+     * @param closed whether the last point can be dropped if it repeats the first one
+     */
+    private void emit(SubpathConsumer consumer, boolean closed) {
+        if (closed && length > 4 && points[length - 2] == points[0] && points[length - 1] == points[1]) {
+            length -= 2;
+        }
+        if (length >= 4) {
+            consumer.accept(points, length);
+        }
+        length = 0;
+    }
+
+    private void skipWhitespace() {
+        while (position < end && (chars[position] == ' ' || chars[position] == '\n' || chars[position] == '\r' || chars[position] == '\t')) {
+            position++;
+        }
+    }
+
+    private boolean hasExponentDigits(int index) {
+        if (index < end && (chars[index] == '-' || chars[index] == '+')) {
+            index++;
+        }
+        return index < end && isDigit(chars[index]);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isCommand(char c) {
+        return switch (c) {
+            case 'M', 'm', 'L', 'l', 'H', 'h', 'V', 'v', 'C', 'c', 'S', 's', 'Q', 'q', 'T', 't', 'A', 'a', 'Z', 'z' -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * Returns a few characters from the index, used in error messages.
+     */
+    private String context(int index) {
+        return new String(chars, index, Math.min(end - index, 16));
+    }
+}
@@ -0,0 +1,264 @@
+package com.demo.lab5.model;
+
+/**
+ * Utility class with geometry calculations on shapes of {@link ShapeStore}. It works only on the model, so it doesn't
+ * need JavaFX nodes.
+ */
+public class ShapeGeometry {
+    private ShapeGeometry() {
+    }
+
+    /**
+     * Calculates bounds of the shape in the drawing area, including rotation and stroke.
+     *
+     * @param store store with the shape
+     * @param id    shape id
+     * @param out   array receiving min x, min y, max x and max y
+     */
+    public static void bounds(ShapeStore store, int id, double[] out) {
+        double x = store.getX(id);
+        double y = store.getY(id);
+
+        if (store.getType(id) == ShapeType.PLACEHOLDER) {
+            // placeholders keep exact bounds of the shape they stand for
+            out[0] = x + store.getMinX(id);
+            out[1] = y + store.getMinY(id);
+            out[2] = x + store.getMaxX(id);
+            out[3] = y + store.getMaxY(id);
+            return;
+        }
+
+        double halfStroke = ShapeStore.STROKE_WIDTH / 2;
+        double halfWidth = store.getWidth(id) / 2 + halfStroke;
+        double halfHeight = store.getHeight(id) / 2 + halfStroke;
+        double centerX = x + (store.getMinX(id) + store.getMaxX(id)) / 2;
+        double centerY = y + (store.getMinY(id) + store.getMaxY(id)) / 2;
+
+        double extentX = halfWidth;
+        double extentY = halfHeight;
+
+        if (store.getRotation(id) != 0) {
+            double angle = Math.toRadians(store.getRotation(id));
+            double cos = Math.abs(Math.cos(angle));
+            double sin = Math.abs(Math.sin(angle));
+
+            extentX = halfWidth * cos + halfHeight * sin;
+            extentY = halfWidth * sin + halfHeight * cos;
+        }
+
+        out[0] = centerX - extentX;
+        out[1] = centerY - extentY;
+        out[2] = centerX + extentX;
+        out[3] = centerY + extentY;
+    }
+
+    /**
+     * Calculates bounds of all the shapes, like {@link #bounds(ShapeStore, int, double[])} of every shape.
+     *
+     * @param store store with the shapes
+     * @param ids   shape ids
+     * @param out   array receiving min x, min y, max x and max y, infinite bounds if there are no shapes
+     */
+    public static void bounds(ShapeStore store, int[] ids, double[] out) {
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+
+        for (int id : ids) {
+            bounds(store, id, out);
+            minX = Math.min(minX, out[0]);
+            minY = Math.min(minY, out[1]);
+            maxX = Math.max(maxX, out[2]);
+            maxY = Math.max(maxY, out[3]);
+        }
+
+        out[0] = minX;
+        out[1] = minY;
+        out[2] = maxX;
+        out[3] = maxY;
+    }
+
+    /**
+     * Checks if the point lies inside the shape geometry or within margin from its outline. Rotation is taken into
+     * account. Placeholders never contain any point.
+     *
+     * @param store  store with the shape
+     * @param id     shape id
+     * @param x      x coordinate in the drawing area
+     * @param y      y coordinate in the drawing area
+     * @param margin maximal distance from the outline
+     * @return true if point hits the shape
+     */
+    public static boolean contains(ShapeStore store, int id, double x, double y, double margin) {
+        // point relative to the shape position
+        double localX = x - store.getX(id);
+        double localY = y - store.getY(id);
+
+        if (store.getRotation(id) != 0) {
+            double centerX = (store.getMinX(id) + store.getMaxX(id)) / 2;
+            double centerY = (store.getMinY(id) + store.getMaxY(id)) / 2;
+            double angle = Math.toRadians(store.getRotation(id));
+            double cos = Math.cos(angle);
+            double sin = Math.sin(angle);
+            double dx = localX - centerX;
+            double dy = localY - centerY;
+
+            // rotation is reversed, so the point is in coordinates of not rotated shape
+            localX = centerX + dx * cos + dy * sin;
+            localY = centerY - dx * sin + dy * cos;
+        }
+
+        return switch (store.getType(id)) {
+            case RECTANGLE -> localX >= store.getMinX(id) - margin && localX <= store.getMaxX(id) + margin
+                    && localY >= store.getMinY(id) - margin && localY <= store.getMaxY(id) + margin;
+            case CIRCLE -> {
+                double radius = store.getRadius(id);
+                yield Math.hypot(localX - store.getMinX(id) - radius, localY - store.getMinY(id) - radius) <= radius + margin;
+            }
+            case POLYGON -> polygonContains(store, id, localX, localY, margin);
+            case PLACEHOLDER -> false;
+        };
+    }
+
+    /**
+     * Checks if the point is inside the polygon (even-odd rule) or within margin from any of its edges.
+     */
+    private static boolean polygonContains(ShapeStore store, int id, double x, double y, double margin) {
+        int count = store.getPointCount(id);
+        boolean inside = false;
+
+        for (int i = 0, j = count - 1; i < count; j = i++) {
+            double x1 = store.getPointX(id, i);
+            double y1 = store.getPointY(id, i);
+            double x2 = store.getPointX(id, j);
+            double y2 = store.getPointY(id, j);
+
+            if (distanceToSegment(x, y, x1, y1, x2, y2) <= margin) {
+                return true;
+            }
+
+            if ((y1 > y) != (y2 > y) && x < (x2 - x1) * (y - y1) / (y2 - y1) + x1) {
+                inside = !inside;
+            }
+        }
+
+        return inside;
+    }
+
+    /**
+     * Calculates distance between point and segment.
+     *
+     * @param x  point x
+     * @param y  point y
+     * @param x1 segment start x
+     * @param y1 segment start y
+     * @param x2 segment end x
+     * @param y2 segment end y
+     * @return distance
+     */
+    public static double distanceToSegment(double x, double y, double x1, double y1, double x2, double y2) {
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        double lengthSquared = dx * dx + dy * dy;
+
+        double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, ((x - x1) * dx + (y - y1) * dy) / lengthSquared));
+
+        return Math.hypot(x - (x1 + t * dx), y - (y1 + t * dy));
+    }
+
+    /**
+     * Simplifies closed polygon with the Douglas-Peucker algorithm. Points closer than tolerance to the simplified
+     * outline are dropped. Outline is split at the first point and the point furthest from it, which are always kept.
+     *
+     * @param points    x and y of every point
+     * @param count     number of points
+     * @param tolerance maximal distance of dropped points from the simplified outline
+     * @param out       array of at least {@code 2 * count} coordinates receiving kept points in their original order, it
+     *                  can be the same array as points
+     * @return number of kept points
+     */
+    public static int simplify(double[] points, int count, double tolerance, double[] out) {
+        if (count < 4) {
+            System.arraycopy(points, 0, out, 0, 2 * count);
+            return count;
+        }
+
+        int furthest = 0;
+        double furthestDistance = -1;
+        for (int i = 1; i < count; i++) {
+            double dx = points[2 * i] - points[0];
+            double dy = points[2 * i + 1] - points[1];
+
+            if (dx * dx + dy * dy > furthestDistance) {
+                furthestDistance = dx * dx + dy * dy;
+                furthest = i;
+            }
+        }
+
+        boolean[] kept = new boolean[count];
+        kept[0] = true;
+        kept[furthest] = true;
+
+        // ranges of points between two kept points, the end index equal to count stands for the first point
+        int[] ranges = new int[2 * count];
+        int size = 0;
+        ranges[size++] = 0;
+        ranges[size++] = furthest;
+        ranges[size++] = furthest;
+        ranges[size++] = count;
+
+        double toleranceSquared = tolerance * tolerance;
+
+        while (size > 0) {
+            int to = ranges[--size];
+            int from = ranges[--size];
+            double x1 = points[2 * from];
+            double y1 = points[2 * from + 1];
+            double x2 = points[2 * (to % count)];
+            double y2 = points[2 * (to % count) + 1];
+
+            int split = -1;
+            double splitDistance = toleranceSquared;
+            for (int i = from + 1; i < to; i++) {
+                double distance = distanceToSegmentSquared(points[2 * i], points[2 * i + 1], x1, y1, x2, y2);
+
+                if (distance > splitDistance) {
+                    splitDistance = distance;
+                    split = i;
+                }
+            }
+
+            if (split >= 0) {
+                kept[split] = true;
+                ranges[size++] = from;
+                ranges[size++] = split;
+                ranges[size++] = split;
+                ranges[size++] = to;
+            }
+        }
+
+        int keptCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (kept[i]) {
+                out[2 * keptCount] = points[2 * i];
+                out[2 * keptCount + 1] = points[2 * i + 1];
+                keptCount++;
+            }
+        }
+
+        return keptCount;
+    }
+
+    private static double distanceToSegmentSquared(double x, double y, double x1, double y1, double x2, double y2) {
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        double lengthSquared = dx * dx + dy * dy;
+
+        double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, ((x - x1) * dx + (y - y1) * dy) / lengthSquared));
+        double distanceX = x - (x1 + t * dx);
+        double distanceY = y - (y1 + t * dy);
+
+        return distanceX * distanceX + distanceY * distanceY;
+    }
+}
@@ -0,0 +1,740 @@
+package com.demo.lab5.model;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Undo and redo journal of a {@link ShapeStore}. Edits which should be undoable are made through the journal, which
+ * applies them to the store and records them as compact deltas with old and new values, never as copies of the
+ * drawing.
+ * <p>
+ * Streams of edits are coalesced into single commands:
+ * <ul>
+ *     <li>consecutive edits of the same kind of the same shape, like dragging or scrolling, until {@link #seal()} is
+ *     called or {@link #COALESCE_TIMEOUT} passes between them</li>
+ *     <li>edits of a shape right after it was added, like setting the size of a shape drawn by dragging, until
+ *     {@link #seal()} is called</li>
+ *     <li>everything done right after clearing the store, like loading a file, until {@link #seal()} is called</li>
+ * </ul>
+ * Bulk edits of many shapes, like moving a selection, are recorded as a single command with values of every shape and
+ * applied in a single batch of the store, when they are made, undone and redone. Consecutive bulk edits of the same kind
+ * are coalesced if they are given the same array of ids.
+ * Clearing is recorded by taking content out of the store, so undoing and redoing it doesn't copy any shapes. Undoing
+ * addition truncates the store, which retains removed shapes for redo. Edits which replace whole shapes, like
+ * geometry operations, keep copies of old and new shapes, but only of the replaced shapes or the replaced end of the
+ * store.
+ * <p>
+ * Journal holds commands up to a memory limit. When it is exceeded, the oldest commands are evicted.
+ */
+public class ShapeHistory {
+    /**
+     * Default memory limit of the journal in bytes.
+     */
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+    /**
+     * Time in nanoseconds after which edits of the same shape are not coalesced anymore.
+     */
+    public static final long COALESCE_TIMEOUT = 1_000_000_000L;
+
+    private static final byte ADD = 0;
+    private static final byte MOVE = 1;
+    private static final byte GEOMETRY = 2;
+    private static final byte ROTATE = 3;
+    private static final byte FILL = 4;
+    private static final byte STROKE = 5;
+    private static final byte ADD_POINT = 6;
+    private static final byte CLEAR = 7;
+    private static final byte MOVE_ALL = 8;
+    private static final byte GEOMETRY_ALL = 9;
+    private static final byte ROTATE_ALL = 10;
+    private static final byte FILL_ALL = 11;
+    private static final byte STROKE_ALL = 12;
+    private static final byte REPLACE_ALL = 13;
+    private static final byte REPLACE_FROM = 14;
+
+    /**
+     * Estimated memory used by a command without its values.
+     */
+    private static final long COMMAND_BYTES = 64;
+
+    private final ShapeStore store;
+    private final Deque<Command> undoStack;
+    private final Deque<Command> redoStack;
+    /**
+     * Memory limit in bytes
+     */
+    private final long maxBytes;
+    /**
+     * Estimated memory used by all commands, which can be undone or redone
+     */
+    private long bytes;
+    /**
+     * Whether the last command can't be extended with following edits
+     */
+    private boolean sealed;
+    /**
+     * Time of the last recorded edit
+     */
+    private long lastEditTime;
+    /**
+     * Geometry of the shape before the current change, reused by every geometry change
+     */
+    private final double[] geometry = new double[ShapeStore.GEOMETRY_SIZE];
+
+    public ShapeHistory(ShapeStore store) {
+        this(store, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Creates empty journal of the store.
+     *
+     * @param store    store whose edits are recorded
+     * @param maxBytes memory limit of the journal in bytes
+     */
+    public ShapeHistory(ShapeStore store, long maxBytes) {
+        this.store = store;
+        this.maxBytes = maxBytes;
+        this.undoStack = new ArrayDeque<>();
+        this.redoStack = new ArrayDeque<>();
+        this.sealed = true;
+    }
+
+    public ShapeStore getStore() {
+        return store;
+    }
+
+    /**
+     * Ends coalescing, so the next edit is recorded as a new command. It should be called when an interaction, like
+     * dragging, ends.
+     */
+    public void seal() {
+        sealed = true;
+    }
+
+    public boolean canUndo() {
+        return !undoStack.isEmpty();
+    }
+
+    public boolean canRedo() {
+        return !redoStack.isEmpty();
+    }
+
+    /**
+     * Forgets all commands. It must be called when the store is changed outside of the journal in a way which can't
+     * be undone.
+     */
+    public void reset() {
+        undoStack.clear();
+        redoStack.clear();
+        bytes = 0;
+        sealed = true;
+    }
+
+    /**
+     * Adds a new shape with default colors and empty geometry.
+     *
+     * @param type type of the shape
+     * @param x    x position
+     * @param y    y position
+     * @return id of the new shape
+     * @see ShapeStore#add(ShapeType, double, double)
+     */
+    public int add(ShapeType type, double x, double y) {
+        int from = store.size();
+        prepareAdd(from);
+
+        int id = store.add(type, x, y);
+        recordAdd(from, store.size());
+
+        return id;
+    }
+
+    /**
+     * Adds all shapes of other store to the end of the store.
+     *
+     * @param other store with shapes to add
+     * @see ShapeStore#addAll(ShapeStore)
+     */
+    public void addAll(ShapeStore other) {
+        int from = store.size();
+        prepareAdd(from);
+
+        store.addAll(other);
+        recordAdd(from, store.size());
+    }
+
+    /**
+     * Moves shape to a new position.
+     *
+     * @param id shape id
+     * @param x  new x position
+     * @param y  new y position
+     * @see ShapeStore#setPosition(int, double, double)
+     */
+    public void move(int id, double x, double y) {
+        double oldX = store.getX(id);
+        double oldY = store.getY(id);
+        store.setPosition(id, x, y);
+
+        if (isAbsorbed(id)) {
+            return;
+        }
+
+        Command last = coalescible(MOVE, id);
+        if (last != null) {
+            last.values[2] = x;
+            last.values[3] = y;
+        } else {
+            push(new Command(MOVE, id, new double[]{oldX, oldY, x, y}));
+        }
+    }
+
+    /**
+     * Scales shape geometry.
+     *
+     * @param id         shape id
+     * @param multiplier scale
+     * @see ShapeStore#scale(int, double)
+     */
+    public void scale(int id, double multiplier) {
+        store.getGeometry(id, geometry, 0);
+        store.scale(id, multiplier);
+        recordGeometry(id);
+    }
+
+    /**
+     * Sets geometry of a rectangle or circle created by dragging.
+     *
+     * @param id     rectangle or circle id
+     * @param startX x of the point where dragging started
+     * @param startY y of the point where dragging started
+     * @param x      current x
+     * @param y      current y
+     * @see ShapeStore#setDraggedSize(int, double, double, double, double)
+     */
+    public void setDraggedSize(int id, double startX, double startY, double x, double y) {
+        store.getGeometry(id, geometry, 0);
+        store.setDraggedSize(id, startX, startY, x, y);
+        recordGeometry(id);
+    }
+
+    public void rotate(int id, double rotation) {
+        double oldRotation = store.getRotation(id);
+        store.setRotation(id, rotation);
+
+        if (isAbsorbed(id)) {
+            return;
+        }
+
+        Command last = coalescible(ROTATE, id);
+        if (last != null) {
+            last.values[1] = rotation;
+        } else {
+            push(new Command(ROTATE, id, new double[]{oldRotation, rotation}));
+        }
+    }
+
+    public void setFill(int id, int fill) {
+        changeColor(FILL, id, store.getFill(id), fill);
+        store.setFill(id, fill);
+    }
+
+    public void setStroke(int id, int stroke) {
+        changeColor(STROKE, id, store.getStroke(id), stroke);
+        store.setStroke(id, stroke);
+    }
+
+    /**
+     * Adds point to the polygon.
+     *
+     * @param id polygon id
+     * @param x  x of the point in the drawing area
+     * @param y  y of the point in the drawing area
+     * @see ShapeStore#addPoint(int, double, double)
+     */
+    public void addPoint(int id, double x, double y) {
+        double[] values = new double[ShapeStore.GEOMETRY_SIZE + 3];
+        store.getGeometry(id, values, 0);
+        values[ShapeStore.GEOMETRY_SIZE] = store.getPointCount(id);
+        values[ShapeStore.GEOMETRY_SIZE + 1] = x;
+        values[ShapeStore.GEOMETRY_SIZE + 2] = y;
+
+        store.addPoint(id, x, y);
+
+        if (!isAbsorbed(id)) {
+            push(new Command(ADD_POINT, id, values));
+        }
+    }
+
+    /**
+     * Moves shapes by the same distance.
+     *
+     * @param ids ids of moved shapes, the same array should be given while the same shapes are dragged
+     * @param dx  distance along x axis
+     * @param dy  distance along y axis
+     */
+    public void moveAll(int[] ids, double dx, double dy) {
+        Command last = coalescibleBatch(MOVE_ALL, ids);
+        double[] values = last != null ? last.values : new double[4 * ids.length];
+
+        store.beginBatch();
+        for (int i = 0; i < ids.length; i++) {
+            double x = store.getX(ids[i]);
+            double y = store.getY(ids[i]);
+
+            if (last == null) {
+                values[4 * i] = x;
+                values[4 * i + 1] = y;
+            }
+            values[4 * i + 2] = x + dx;
+            values[4 * i + 3] = y + dy;
+            store.setPosition(ids[i], x + dx, y + dy);
+        }
+        store.endBatch();
+
+        if (last == null) {
+            push(new Command(MOVE_ALL, ids, values));
+        }
+    }
+
+    /**
+     * Scales shapes around a common pivot, so both their geometry and distances between them are scaled.
+     *
+     * @param ids        ids of scaled shapes, the same array should be given while the same shapes are scaled
+     * @param multiplier scale
+     * @param pivotX     x of the point which stays in place
+     * @param pivotY     y of the point which stays in place
+     * @see ShapeStore#scale(int, double)
+     */
+    public void scaleAll(int[] ids, double multiplier, double pivotX, double pivotY) {
+        Command last = coalescibleBatch(GEOMETRY_ALL, ids);
+        double[] values = last != null ? last.values : new double[2 * ShapeStore.GEOMETRY_SIZE * ids.length];
+
+        store.beginBatch();
+        for (int i = 0; i < ids.length; i++) {
+            int id = ids[i];
+            int offset = 2 * ShapeStore.GEOMETRY_SIZE * i;
+
+            if (last == null) {
+                store.getGeometry(id, values, offset);
+            }
+            store.scale(id, multiplier);
+            store.setPosition(id, pivotX + (store.getX(id) - pivotX) * multiplier, pivotY + (store.getY(id) - pivotY) * multiplier);
+            store.getGeometry(id, values, offset + ShapeStore.GEOMETRY_SIZE);
+        }
+        store.endBatch();
+
+        if (last == null) {
+            push(new Command(GEOMETRY_ALL, ids, values));
+        }
+    }
+
+    /**
+     * Sets the same rotation of shapes.
+     *
+     * @param ids      ids of rotated shapes
+     * @param rotation rotation in degrees
+     */
+    public void rotateAll(int[] ids, double rotation) {
+        Command last = coalescibleBatch(ROTATE_ALL, ids);
+        double[] values = last != null ? last.values : new double[2 * ids.length];
+
+        store.beginBatch();
+        for (int i = 0; i < ids.length; i++) {
+            if (last == null) {
+                values[2 * i] = store.getRotation(ids[i]);
+            }
+            values[2 * i + 1] = rotation;
+            store.setRotation(ids[i], rotation);
+        }
+        store.endBatch();
+
+        if (last == null) {
+            push(new Command(ROTATE_ALL, ids, values));
+        }
+    }
+
+    public void setFillAll(int[] ids, int fill) {
+        changeColors(FILL_ALL, ids, fill);
+    }
+
+    public void setStrokeAll(int[] ids, int stroke) {
+        changeColors(STROKE_ALL, ids, stroke);
+    }
+
+    /**
+     * Replaces shapes with other shapes, keeping their ids, in a single batch.
+     *
+     * @param ids          ids of replaced shapes
+     * @param replacements store with new shapes in order of ids, it is owned by the journal afterwards
+     * @see ShapeStore#replace(int, ShapeStore, int)
+     */
+    public void replaceAll(int[] ids, ShapeStore replacements) {
+        ShapeStore replaced = new ShapeStore(ids.length);
+        for (int id : ids) {
+            replaced.addAll(store, id, id + 1);
+        }
+
+        Command command = new Command(REPLACE_ALL, ids, null);
+        command.oldShapes = replaced;
+        command.newShapes = replacements;
+        command.bytes += replaced.estimateBytes() + replacements.estimateBytes();
+        push(command);
+
+        applyAll(command, true);
+    }
+
+    /**
+     * Replaces all shapes from the id to the end of the store with other shapes. It makes edits which remove shapes
+     * from the middle of the drawing, since the store removes shapes only from its end, so shapes after the first
+     * removed one are copied.
+     *
+     * @param id     first replaced shape
+     * @param shapes shapes to put at the end of the store, it is owned by the journal afterwards
+     */
+    public void replaceFrom(int id, ShapeStore shapes) {
+        ShapeStore replaced = new ShapeStore(store.size() - id);
+        replaced.addAll(store, id, store.size());
+
+        Command command = new Command(REPLACE_FROM, id, null);
+        command.oldShapes = replaced;
+        command.newShapes = shapes;
+        command.bytes += replaced.estimateBytes() + shapes.estimateBytes();
+        push(command);
+
+        store.truncate(id);
+        store.addAll(shapes);
+    }
+
+    /**
+     * Removes all shapes. Removed shapes are kept by the journal without copying them, until the command is evicted.
+     */
+    public void clear() {
+        if (isClearAbsorbed()) {
+            // content which was there before is already kept by the last command
+            store.clear();
+            return;
+        }
+
+        Command command = new Command(CLEAR, 0, null);
+        command.contents = store.takeContents();
+        command.bytes += command.contents.estimateBytes();
+        push(command);
+    }
+
+    /**
+     * Undoes the last command.
+     *
+     * @return true if there was a command to undo
+     */
+    public boolean undo() {
+        Command command = undoStack.pollLast();
+        if (command == null) {
+            return false;
+        }
+
+        sealed = true;
+        switch (command.kind) {
+            case ADD -> store.truncate(command.id);
+            case MOVE -> store.setPosition(command.id, command.values[0], command.values[1]);
+            case GEOMETRY -> store.setGeometry(command.id, command.values, 0);
+            case ROTATE -> store.setRotation(command.id, command.values[0]);
+            case FILL -> store.setFill(command.id, command.oldColor);
+            case STROKE -> store.setStroke(command.id, command.oldColor);
+            case ADD_POINT -> {
+                store.truncatePoints(command.id, (int) command.values[ShapeStore.GEOMETRY_SIZE]);
+                store.setGeometry(command.id, command.values, 0);
+            }
+            case CLEAR -> swapContents(command);
+            case REPLACE_FROM -> {
+                store.truncate(command.id);
+                store.addAll(command.oldShapes);
+            }
+            case MOVE_ALL, GEOMETRY_ALL, ROTATE_ALL, FILL_ALL, STROKE_ALL, REPLACE_ALL -> applyAll(command, false);
+            default -> throw new IllegalStateException("Unknown command");
+        }
+
+        redoStack.addLast(command);
+        return true;
+    }
+
+    /**
+     * Redoes the last undone command.
+     *
+     * @return true if there was a command to redo
+     */
+    public boolean redo() {
+        Command command = redoStack.pollLast();
+        if (command == null) {
+            return false;
+        }
+
+        sealed = true;
+        switch (command.kind) {
+            case ADD -> store.restore(command.toId);
+            case MOVE -> store.setPosition(command.id, command.values[2], command.values[3]);
+            case GEOMETRY -> store.setGeometry(command.id, command.values, ShapeStore.GEOMETRY_SIZE);
+            case ROTATE -> store.setRotation(command.id, command.values[1]);
+            case FILL -> store.setFill(command.id, command.newColor);
+            case STROKE -> store.setStroke(command.id, command.newColor);
+            case ADD_POINT -> store.addPoint(command.id, command.values[ShapeStore.GEOMETRY_SIZE + 1],
+                    command.values[ShapeStore.GEOMETRY_SIZE + 2]);
+            case CLEAR -> swapContents(command);
+            case REPLACE_FROM -> {
+                store.truncate(command.id);
+                store.addAll(command.newShapes);
+            }
+            case MOVE_ALL, GEOMETRY_ALL, ROTATE_ALL, FILL_ALL, STROKE_ALL, REPLACE_ALL -> applyAll(command, true);
+            default -> throw new IllegalStateException("Unknown command");
+        }
+
+        undoStack.addLast(command);
+        return true;
+    }
+
+    /**
+     * Applies old or new values of a bulk command to all its shapes in a single batch.
+     */
+    private void applyAll(Command command, boolean redo) {
+        int[] ids = command.ids;
+        double[] values = command.values;
+
+        store.beginBatch();
+        for (int i = 0; i < ids.length; i++) {
+            switch (command.kind) {
+                case MOVE_ALL -> {
+                    int offset = redo ? 4 * i + 2 : 4 * i;
+                    store.setPosition(ids[i], values[offset], values[offset + 1]);
+                }
+                case GEOMETRY_ALL -> store.setGeometry(ids[i], values,
+                        2 * ShapeStore.GEOMETRY_SIZE * i + (redo ? ShapeStore.GEOMETRY_SIZE : 0));
+                case ROTATE_ALL -> store.setRotation(ids[i], values[redo ? 2 * i + 1 : 2 * i]);
+                case FILL_ALL -> store.setFill(ids[i], redo ? command.newColor : command.oldColors[i]);
+                case STROKE_ALL -> store.setStroke(ids[i], redo ? command.newColor : command.oldColors[i]);
+                case REPLACE_ALL -> store.replace(ids[i], redo ? command.newShapes : command.oldShapes, i);
+                default -> throw new IllegalStateException("Unknown command");
+            }
+        }
+        store.endBatch();
+    }
+
+    /**
+     * Swaps content of the store with content kept by clear command. The same swap undoes and redoes clearing.
+     */
+    private void swapContents(Command command) {
+        bytes -= command.bytes;
+        command.contents = store.swapContents(command.contents);
+        command.bytes = COMMAND_BYTES + command.contents.estimateBytes();
+        bytes += command.bytes;
+    }
+
+    /**
+     * Makes sure added shapes will be either absorbed by the last command or recorded as a new command.
+     */
+    private void prepareAdd(int from) {
+        Command last = undoStack.peekLast();
+
+        if (sealed || last == null || !(last.kind == CLEAR || last.kind == ADD && last.toId == from)) {
+            // a new command, which is extended by following edits of added shapes until it is sealed
+            push(new Command(ADD, from, null));
+        }
+    }
+
+    private void recordAdd(int from, int to) {
+        Command last = undoStack.peekLast();
+        if (last != null && last.kind == ADD && last.toId <= to) {
+            last.toId = to;
+        }
+    }
+
+    /**
+     * Records change of geometry of the shape, whose previous geometry is in {@link #geometry}. Coalesced changes don't
+     * allocate.
+     */
+    private void recordGeometry(int id) {
+        if (isAbsorbed(id)) {
+            return;
+        }
+
+        Command last = coalescible(GEOMETRY, id);
+        if (last != null) {
+            store.getGeometry(id, last.values, ShapeStore.GEOMETRY_SIZE);
+        } else {
+            double[] values = Arrays.copyOf(geometry, 2 * ShapeStore.GEOMETRY_SIZE);
+            store.getGeometry(id, values, ShapeStore.GEOMETRY_SIZE);
+            push(new Command(GEOMETRY, id, values));
+        }
+    }
+
+    private void changeColor(byte kind, int id, int oldColor, int newColor) {
+        if (isAbsorbed(id)) {
+            return;
+        }
+
+        Command last = coalescible(kind, id);
+        if (last == null) {
+            last = new Command(kind, id, null);
+            last.oldColor = oldColor;
+            push(last);
+        }
+        last.newColor = newColor;
+    }
+
+    private void changeColors(byte kind, int[] ids, int color) {
+        Command last = coalescibleBatch(kind, ids);
+        if (last == null) {
+            last = new Command(kind, ids, null);
+            last.oldColors = new int[ids.length];
+            last.bytes += (long) ids.length * Integer.BYTES;
+
+            for (int i = 0; i < ids.length; i++) {
+                last.oldColors[i] = kind == FILL_ALL ? store.getFill(ids[i]) : store.getStroke(ids[i]);
+            }
+            push(last);
+        }
+        last.newColor = color;
+
+        store.beginBatch();
+        for (int id : ids) {
+            if (kind == FILL_ALL) {
+                store.setFill(id, color);
+            } else {
+                store.setStroke(id, color);
+            }
+        }
+        store.endBatch();
+    }
+
+    /**
+     * Checks if edit of the shape is a part of the last, not sealed command, which doesn't need to record it. It is
+     * true for shapes added by that command and for all shapes after clearing.
+     */
+    private boolean isAbsorbed(int id) {
+        Command last = undoStack.peekLast();
+
+        if (sealed || last == null) {
+            return false;
+        }
+
+        return last.kind == CLEAR || last.kind == ADD && id >= last.id && id < last.toId;
+    }
+
+    /**
+     * Checks if clearing is a part of the last, not sealed clear command.
+     */
+    private boolean isClearAbsorbed() {
+        Command last = undoStack.peekLast();
+
+        return !sealed && last != null && last.kind == CLEAR;
+    }
+
+    /**
+     * Returns the last command if edit of given kind can be coalesced into it.
+     */
+    private Command coalescible(byte kind, int id) {
+        Command last = undoStack.peekLast();
+        long now = System.nanoTime();
+        boolean recent = now - lastEditTime < COALESCE_TIMEOUT;
+        lastEditTime = now;
+
+        if (!sealed && recent && last != null && last.kind == kind && last.id == id) {
+            return last;
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the last command if bulk edit of given kind of the same shapes can be coalesced into it.
+     */
+    private Command coalescibleBatch(byte kind, int[] ids) {
+        Command last = undoStack.peekLast();
+        long now = System.nanoTime();
+        boolean recent = now - lastEditTime < COALESCE_TIMEOUT;
+        lastEditTime = now;
+
+        if (!sealed && recent && last != null && last.kind == kind && last.ids == ids) {
+            return last;
+        }
+
+        return null;
+    }
+
+    /**
+     * Records a new command. Redo is not possible anymore and the oldest commands are evicted if memory limit is
+     * exceeded.
+     */
+    private void push(Command command) {
+        for (Command undone : redoStack) {
+            bytes -= undone.bytes;
+        }
+        redoStack.clear();
+
+        undoStack.addLast(command);
+        bytes += command.bytes;
+        sealed = false;
+        lastEditTime = System.nanoTime();
+
+        while (bytes > maxBytes && undoStack.size() > 1) {
+            bytes -= undoStack.pollFirst().bytes;
+        }
+    }
+
+    /**
+     * Single recorded command.
+     */
+    private static final class Command {
+        private final byte kind;
+        /**
+         * Edited shape or the first added shape
+         */
+        private final int id;
+        /**
+         * Old and new values, their layout depends on the kind
+         */
+        private final double[] values;
+        /**
+         * Edited shapes of a bulk command, in order of its values
+         */
+        private final int[] ids;
+        /**
+         * Id after the last added shape
+         */
+        private int toId;
+        private int oldColor;
+        private int newColor;
+        /**
+         * Old colors of every shape of a bulk command
+         */
+        private int[] oldColors;
+        /**
+         * Content kept by clear command
+         */
+        private ShapeStore.Contents contents;
+        /**
+         * Copies of shapes before and after a replacement
+         */
+        private ShapeStore oldShapes;
+        private ShapeStore newShapes;
+        private long bytes;
+
+        private Command(byte kind, int id, double[] values) {
+            this.kind = kind;
+            this.id = id;
+            this.ids = null;
+            this.values = values;
+            this.toId = id;
+            this.bytes = COMMAND_BYTES + (values == null ? 0 : (long) values.length * Double.BYTES);
+        }
+
+        private Command(byte kind, int[] ids, double[] values) {
+            this.kind = kind;
+            this.id = -1;
+            this.ids = ids;
+            this.values = values;
+            this.bytes = COMMAND_BYTES + (long) ids.length * Integer.BYTES
+                    + (values == null ? 0 : (long) values.length * Double.BYTES);
+        }
+    }
+}
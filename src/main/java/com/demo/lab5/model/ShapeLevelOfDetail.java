@@ -0,0 +1,165 @@
+package com.demo.lab5.model;
+
+import java.util.Arrays;
+
+/**
+ * Level of detail rules of shapes shown at given zoom.
+ * <p>
+ * Shapes smaller than {@link #MIN_DETAIL_SIZE} pixels on the screen are tiny and renderers show them as points instead
+ * of filled and stroked outlines. Polygons with many points are simplified with
+ * {@link ShapeGeometry#simplify(double[], int, double, double[])}, so no dropped point is further than
+ * {@link #SIMPLIFY_TOLERANCE} pixels from the shown outline. Simplified points are cached per polygon and zoom bucket,
+ * which spans zooms between two powers of two, and dropped when the polygon changes.
+ */
+public class ShapeLevelOfDetail implements ShapeStoreListener {
+    /**
+     * Size in pixels below which shape is shown as a point.
+     */
+    public static final double MIN_DETAIL_SIZE = 6;
+    /**
+     * Maximal distance in pixels of dropped polygon points from the simplified outline.
+     */
+    public static final double SIMPLIFY_TOLERANCE = 0.5;
+    /**
+     * Number of points below which polygons are always shown in full.
+     */
+    private static final int MIN_SIMPLIFIED_POINTS = 32;
+    /**
+     * Range of cached zoom buckets. Zooms outside of it use the closest bucket.
+     */
+    private static final int MIN_BUCKET = -8;
+    private static final int MAX_BUCKET = 7;
+
+    private final ShapeStore store;
+    /**
+     * Simplified polygons by id. Other shapes and polygons which were never simplified have no entry.
+     */
+    private Simplified[] simplified;
+
+    /**
+     * Creates rules for shapes of the store and starts following its changes.
+     *
+     * @param store shapes
+     */
+    public ShapeLevelOfDetail(ShapeStore store) {
+        this.store = store;
+        this.simplified = new Simplified[Math.max(store.size(), 16)];
+
+        store.addListener(this);
+    }
+
+    /**
+     * Checks if the shape is too small at given zoom to be shown with its outline.
+     *
+     * @param id    shape id
+     * @param scale zoom of the drawing
+     * @return true if shape should be shown as a point
+     */
+    public boolean isTiny(int id, double scale) {
+        return getSize(id) * scale < MIN_DETAIL_SIZE;
+    }
+
+    /**
+     * Returns size of the shape compared with level of detail thresholds, which is the larger of its width and height.
+     *
+     * @param id shape id
+     * @return size in coordinates of the drawing
+     */
+    public double getSize(int id) {
+        return Math.max(store.getWidth(id), store.getHeight(id));
+    }
+
+    /**
+     * Returns simplified points of the polygon for given zoom. Points are raw, without scale and shift of the polygon,
+     * like {@link ShapeStore#getRawPointX(int, int)}.
+     *
+     * @param id    polygon id
+     * @param scale zoom of the drawing
+     * @return x and y of every kept point, or null if polygon should be shown in full
+     */
+    public double[] simplifiedPoints(int id, double scale) {
+        int count = store.getPointCount(id);
+        if (count < MIN_SIMPLIFIED_POINTS) {
+            return null;
+        }
+
+        Simplified entry = simplified[id];
+        if (entry == null || !entry.matches(store, id)) {
+            entry = new Simplified(store, id);
+            simplified[id] = entry;
+        }
+
+        int bucket = Math.max(MIN_BUCKET, Math.min(MAX_BUCKET, Math.getExponent(scale)));
+        int slot = bucket - MIN_BUCKET;
+
+        if (entry.points[slot] == null) {
+            entry.points[slot] = simplify(id, bucket);
+        }
+
+        // polygon which keeps all points is shown in full, so its node can be updated incrementally
+        return entry.points[slot].length == 2 * count ? null : entry.points[slot];
+    }
+
+    /**
+     * Simplifies raw points with tolerance of the largest zoom of the bucket.
+     */
+    private double[] simplify(int id, int bucket) {
+        int count = store.getPointCount(id);
+        double[] raw = new double[2 * count];
+        for (int i = 0; i < count; i++) {
+            raw[2 * i] = store.getRawPointX(id, i);
+            raw[2 * i + 1] = store.getRawPointY(id, i);
+        }
+
+        double tolerance = SIMPLIFY_TOLERANCE / Math.scalb(1.0, bucket + 1) / Math.abs(store.getPointScale(id));
+        int kept = ShapeGeometry.simplify(raw, count, tolerance, raw);
+
+        return Arrays.copyOf(raw, 2 * kept);
+    }
+
+    @Override
+    public void shapesAdded(int fromId, int toId) {
+        if (toId > simplified.length) {
+            simplified = Arrays.copyOf(simplified, Math.max(toId, 2 * simplified.length));
+        }
+    }
+
+    @Override
+    public void shapeChanged(int id) {
+        if (simplified[id] != null && !simplified[id].matches(store, id)) {
+            simplified[id] = null;
+        }
+    }
+
+    @Override
+    public void shapesRemoved(int fromId, int toId) {
+        Arrays.fill(simplified, fromId, toId, null);
+    }
+
+    @Override
+    public void shapesCleared() {
+        simplified = new Simplified[16];
+    }
+
+    /**
+     * Simplified points of a single polygon in every zoom bucket, valid for given raw points and scale.
+     */
+    private static class Simplified {
+        private final int revision;
+        private final int count;
+        private final double pointScale;
+        private final double[][] points;
+
+        private Simplified(ShapeStore store, int id) {
+            this.revision = store.getPointsRevision(id);
+            this.count = store.getPointCount(id);
+            this.pointScale = store.getPointScale(id);
+            this.points = new double[MAX_BUCKET - MIN_BUCKET + 1][];
+        }
+
+        private boolean matches(ShapeStore store, int id) {
+            return revision == store.getPointsRevision(id) && count == store.getPointCount(id)
+                    && pointScale == store.getPointScale(id);
+        }
+    }
+}
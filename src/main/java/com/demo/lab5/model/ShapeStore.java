@@ -0,0 +1,1143 @@
+package com.demo.lab5.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Model of all shapes of a drawing, kept in primitive arrays (structure of arrays) instead of JavaFX nodes.
+ * <p>
+ * Shapes are identified by ids, which are indexes in the arrays and also the drawing order, so shape with a higher id
+ * is drawn above shapes with lower ids. Every shape has:
+ * <ul>
+ *     <li>position - drawing area coordinates of the shape origin</li>
+ *     <li>local bounds - bounds of the geometry relative to the position, without stroke</li>
+ *     <li>rotation in degrees around the center of local bounds</li>
+ *     <li>fill and stroke colors packed as ARGB ints</li>
+ * </ul>
+ * Rectangles and circles are fully described by their local bounds. Polygon points are kept in a shared pool of
+ * coordinates. Pool holds raw coordinates, which are mapped to coordinates relative to the shape position with
+ * per-polygon scale and shift, so moving the polygon origin and resizing don't rewrite its points.
+ * <p>
+ * Shapes removed from the end of the store with {@link #truncate(int)} are retained until other shapes are added, so
+ * they can be brought back with {@link #restore(int)}. Whole content of the store can be taken out and put back in
+ * constant time with {@link #takeContents()} and {@link #swapContents(Contents)}. Both are used by
+ * {@link ShapeHistory}.
+ * <p>
+ * Changes of many shapes can be made between {@link #beginBatch()} and {@link #endBatch()}, so listeners are notified
+ * once with all changed shapes.
+ * <p>
+ * Store is not thread-safe. Store which is shown in the app must be modified only on the JavaFX Application Thread.
+ */
+public class ShapeStore {
+    /**
+     * Width of the stroke of every shape.
+     */
+    public static final double STROKE_WIDTH = 2;
+    /**
+     * Fill of newly created shapes, transparent.
+     */
+    public static final int DEFAULT_FILL = 0x00000000;
+    /**
+     * Stroke of newly created shapes, black.
+     */
+    public static final int DEFAULT_STROKE = 0xFF000000;
+    /**
+     * Number of values describing shape geometry in {@link #getGeometry(int, double[], int)}: position, local bounds,
+     * polygon point scale and polygon point shift.
+     */
+    public static final int GEOMETRY_SIZE = 9;
+
+    private static final ShapeType[] TYPES = ShapeType.values();
+    private static final int INITIAL_CAPACITY = 16;
+    /**
+     * Capacity in points given to a polygon when it grows for the first time.
+     */
+    private static final int INITIAL_POINT_CAPACITY = 4;
+    /**
+     * Polygons are not scaled below this fraction or above its inverse of their raw coordinates, so points don't lose
+     * precision and raw coordinates never have to be rewritten.
+     */
+    private static final double MIN_POINT_SCALE = 1e-3;
+
+    private final List<ShapeStoreListener> listeners;
+
+    private byte[] types;
+    private double[] x;
+    private double[] y;
+    private double[] minX;
+    private double[] minY;
+    private double[] maxX;
+    private double[] maxY;
+    private double[] rotation;
+    private int[] fill;
+    private int[] stroke;
+    /**
+     * Index of the first coordinate of the polygon in {@link #points}
+     */
+    private int[] pointOffset;
+    /**
+     * Number of polygon points
+     */
+    private int[] pointCount;
+    /**
+     * Number of points which fit in the polygon's part of the pool
+     */
+    private int[] pointCapacity;
+    /**
+     * Scale of raw polygon coordinates
+     */
+    private double[] pointScale;
+    /**
+     * Shift of scaled polygon coordinates
+     */
+    private double[] pointShiftX;
+    private double[] pointShiftY;
+    /**
+     * Number of times raw polygon coordinates were replaced, not counting appended points
+     */
+    private int[] pointsRevision;
+
+    /**
+     * Pool of polygon coordinates, x and y of every point one after another
+     */
+    private double[] points;
+    /**
+     * Number of used coordinates in the pool
+     */
+    private int pointsSize;
+    /**
+     * Number of coordinates in the pool left behind by polygons which were moved to the end of the pool
+     */
+    private int wastedPoints;
+
+    private int size;
+    /**
+     * Number of shapes whose data is kept in the arrays, including shapes removed by {@link #truncate(int)}
+     */
+    private int retainedSize;
+
+    /**
+     * Number of not ended batches
+     */
+    private int batchDepth;
+    /**
+     * Shapes changed in the current batch, each of them once
+     */
+    private int[] batchIds = new int[INITIAL_CAPACITY];
+    private int batchCount;
+    private final BitSet batched = new BitSet();
+
+    public ShapeStore() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Creates empty store.
+     *
+     * @param capacity number of shapes which fit in the store before it grows
+     */
+    public ShapeStore(int capacity) {
+        this.listeners = new ArrayList<>();
+        allocate(Math.max(capacity, 1));
+    }
+
+    /**
+     * Replaces all arrays with new, empty ones.
+     */
+    private void allocate(int capacity) {
+        types = new byte[capacity];
+        x = new double[capacity];
+        y = new double[capacity];
+        minX = new double[capacity];
+        minY = new double[capacity];
+        maxX = new double[capacity];
+        maxY = new double[capacity];
+        rotation = new double[capacity];
+        fill = new int[capacity];
+        stroke = new int[capacity];
+        pointOffset = new int[capacity];
+        pointCount = new int[capacity];
+        pointCapacity = new int[capacity];
+        pointScale = new double[capacity];
+        pointShiftX = new double[capacity];
+        pointShiftY = new double[capacity];
+        pointsRevision = new int[capacity];
+        points = new double[4 * INITIAL_CAPACITY];
+    }
+
+    public void addListener(ShapeStoreListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(ShapeStoreListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Starts a batch of changes. Listeners are not notified about changed shapes until the batch ends. Batches can be
+     * nested, only the outermost one notifies listeners. Shapes must not be added or removed during a batch.
+     */
+    public void beginBatch() {
+        batchDepth++;
+    }
+
+    /**
+     * Ends a batch of changes and notifies listeners about all shapes changed during it with
+     * {@link ShapeStoreListener#shapesChanged(int[], int)}.
+     */
+    public void endBatch() {
+        if (batchDepth == 0) {
+            throw new IllegalStateException("No batch was started");
+        }
+        if (--batchDepth > 0 || batchCount == 0) {
+            return;
+        }
+
+        int count = batchCount;
+        batchCount = 0;
+        batched.clear();
+
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).shapesChanged(batchIds, count);
+        }
+    }
+
+    /**
+     * Returns number of shapes. Ids of shapes are from 0 to size - 1.
+     *
+     * @return number of shapes
+     */
+    public int size() {
+        return size;
+    }
+
+    public ShapeType getType(int id) {
+        return TYPES[types[id]];
+    }
+
+    public double getX(int id) {
+        return x[id];
+    }
+
+    public double getY(int id) {
+        return y[id];
+    }
+
+    public double getMinX(int id) {
+        return minX[id];
+    }
+
+    public double getMinY(int id) {
+        return minY[id];
+    }
+
+    public double getMaxX(int id) {
+        return maxX[id];
+    }
+
+    public double getMaxY(int id) {
+        return maxY[id];
+    }
+
+    public double getWidth(int id) {
+        return maxX[id] - minX[id];
+    }
+
+    public double getHeight(int id) {
+        return maxY[id] - minY[id];
+    }
+
+    /**
+     * Returns radius of a circle.
+     *
+     * @param id circle id
+     * @return radius
+     */
+    public double getRadius(int id) {
+        return (maxX[id] - minX[id]) / 2;
+    }
+
+    public double getRotation(int id) {
+        return rotation[id];
+    }
+
+    public int getFill(int id) {
+        return fill[id];
+    }
+
+    public int getStroke(int id) {
+        return stroke[id];
+    }
+
+    /**
+     * Returns number of polygon points. It is 0 for other shapes.
+     *
+     * @param id shape id
+     * @return number of points
+     */
+    public int getPointCount(int id) {
+        return pointCount[id];
+    }
+
+    /**
+     * Returns x of polygon point relative to the shape position.
+     *
+     * @param id    polygon id
+     * @param point point index
+     * @return x coordinate
+     */
+    public double getPointX(int id, int point) {
+        return points[pointOffset[id] + 2 * point] * pointScale[id] + pointShiftX[id];
+    }
+
+    /**
+     * Returns y of polygon point relative to the shape position.
+     *
+     * @param id    polygon id
+     * @param point point index
+     * @return y coordinate
+     */
+    public double getPointY(int id, int point) {
+        return points[pointOffset[id] + 2 * point + 1] * pointScale[id] + pointShiftY[id];
+    }
+
+    /**
+     * Copies polygon coordinates, x and y of every point, relative to the shape position.
+     *
+     * @param id     polygon id
+     * @param target array of at least {@code 2 * getPointCount(id)} free coordinates
+     * @param offset index of the first copied coordinate in target
+     */
+    public void copyPoints(int id, double[] target, int offset) {
+        for (int i = 0; i < pointCount[id]; i++) {
+            target[offset + 2 * i] = getPointX(id, i);
+            target[offset + 2 * i + 1] = getPointY(id, i);
+        }
+    }
+
+    /**
+     * Returns raw x of polygon point. Raw coordinates are mapped to coordinates relative to the shape position with
+     * {@link #getPointScale(int)} and {@link #getPointShiftX(int)}.
+     *
+     * @param id    polygon id
+     * @param point point index
+     * @return raw x coordinate
+     */
+    public double getRawPointX(int id, int point) {
+        return points[pointOffset[id] + 2 * point];
+    }
+
+    /**
+     * Returns raw y of polygon point. Raw coordinates are mapped to coordinates relative to the shape position with
+     * {@link #getPointScale(int)} and {@link #getPointShiftY(int)}.
+     *
+     * @param id    polygon id
+     * @param point point index
+     * @return raw y coordinate
+     */
+    public double getRawPointY(int id, int point) {
+        return points[pointOffset[id] + 2 * point + 1];
+    }
+
+    public double getPointScale(int id) {
+        return pointScale[id];
+    }
+
+    public double getPointShiftX(int id) {
+        return pointShiftX[id];
+    }
+
+    public double getPointShiftY(int id) {
+        return pointShiftY[id];
+    }
+
+    /**
+     * Returns revision of raw polygon coordinates. It changes whenever raw coordinates are replaced, but not when
+     * points are appended or when scale and shift change, so views can add only the new points.
+     *
+     * @param id polygon id
+     * @return revision of raw coordinates
+     */
+    public int getPointsRevision(int id) {
+        return pointsRevision[id];
+    }
+
+    /**
+     * Adds a new shape with default colors and empty geometry. Polygon gets a single point at its position.
+     *
+     * @param type type of the shape
+     * @param x    x position
+     * @param y    y position
+     * @return id of the new shape
+     */
+    public int add(ShapeType type, double x, double y) {
+        int id = append(type, x, y, 0, DEFAULT_FILL, DEFAULT_STROKE);
+
+        if (type == ShapeType.POLYGON) {
+            appendPoint(id, 0, 0);
+        }
+
+        fireAdded(id, id + 1);
+        return id;
+    }
+
+    /**
+     * Adds a rectangle.
+     *
+     * @param x        x of the top left corner
+     * @param y        y of the top left corner
+     * @param width    width
+     * @param height   height
+     * @param rotation rotation in degrees
+     * @param fill     ARGB fill
+     * @param stroke   ARGB stroke
+     * @return id of the new shape
+     */
+    public int addRectangle(double x, double y, double width, double height, double rotation, int fill, int stroke) {
+        int id = append(ShapeType.RECTANGLE, x, y, rotation, fill, stroke);
+        setLocalBounds(id, 0, 0, width, height);
+
+        fireAdded(id, id + 1);
+        return id;
+    }
+
+    /**
+     * Adds a circle.
+     *
+     * @param x        x of the top left corner of circle bounds
+     * @param y        y of the top left corner of circle bounds
+     * @param radius   radius
+     * @param rotation rotation in degrees
+     * @param fill     ARGB fill
+     * @param stroke   ARGB stroke
+     * @return id of the new shape
+     */
+    public int addCircle(double x, double y, double radius, double rotation, int fill, int stroke) {
+        int id = append(ShapeType.CIRCLE, x, y, rotation, fill, stroke);
+        setLocalBounds(id, 0, 0, 2 * radius, 2 * radius);
+
+        fireAdded(id, id + 1);
+        return id;
+    }
+
+    /**
+     * Adds a polygon.
+     *
+     * @param x           x position
+     * @param y           y position
+     * @param coordinates x and y of every point, relative to the position
+     * @param offset      index of the first coordinate
+     * @param length      number of coordinates, twice the number of points
+     * @param rotation    rotation in degrees
+     * @param fill        ARGB fill
+     * @param stroke      ARGB stroke
+     * @return id of the new shape
+     */
+    public int addPolygon(double x, double y, double[] coordinates, int offset, int length, double rotation, int fill, int stroke) {
+        int id = append(ShapeType.POLYGON, x, y, rotation, fill, stroke);
+        setPoints(id, coordinates, offset, length);
+
+        fireAdded(id, id + 1);
+        return id;
+    }
+
+    /**
+     * Adds placeholder of a shape which is not loaded yet.
+     *
+     * @param minX min x of shape bounds in the drawing area
+     * @param minY min y of shape bounds in the drawing area
+     * @param maxX max x of shape bounds in the drawing area
+     * @param maxY max y of shape bounds in the drawing area
+     * @return id of the placeholder
+     */
+    public int addPlaceholder(double minX, double minY, double maxX, double maxY) {
+        int id = append(ShapeType.PLACEHOLDER, minX, minY, 0, DEFAULT_FILL, DEFAULT_STROKE);
+        setLocalBounds(id, 0, 0, maxX - minX, maxY - minY);
+
+        fireAdded(id, id + 1);
+        return id;
+    }
+
+    /**
+     * Adds all shapes of other store to the end of this store, keeping their order.
+     *
+     * @param other store with shapes to add
+     */
+    public void addAll(ShapeStore other) {
+        addAll(other, 0, other.size);
+    }
+
+    /**
+     * Adds shapes of other store with ids from given range to the end of this store, keeping their order.
+     *
+     * @param other  store with shapes to add
+     * @param fromId first added shape
+     * @param toId   shape after the last added shape
+     */
+    public void addAll(ShapeStore other, int fromId, int toId) {
+        if (fromId < 0 || toId > other.size || fromId > toId) {
+            throw new IndexOutOfBoundsException("Invalid range: " + fromId + " - " + toId);
+        }
+        if (fromId == toId) {
+            return;
+        }
+
+        discardRetained();
+        int from = size;
+        ensureCapacity(size + toId - fromId);
+        if (toId - fromId == other.size) {
+            ensurePointsCapacity(pointsSize + other.pointsSize);
+        }
+
+        for (int i = fromId; i < toId; i++) {
+            copyShape(other, i, size++);
+        }
+
+        retainedSize = size;
+        fireAdded(from, size);
+    }
+
+    /**
+     * Replaces shape with a copy of shape from other store. Shape keeps its id, so its drawing order doesn't change.
+     *
+     * @param id       replaced shape
+     * @param source   store with the new shape
+     * @param sourceId id of the new shape in source store
+     */
+    public void replace(int id, ShapeStore source, int sourceId) {
+        checkId(id);
+        wastedPoints += 2 * pointCapacity[id];
+        copyShape(source, sourceId, id);
+
+        fireChanged(id);
+    }
+
+    /**
+     * Creates independent copy of the store without listeners. Copy can be safely used on other thread.
+     *
+     * @return copy of the store
+     */
+    public ShapeStore copy() {
+        ShapeStore copy = new ShapeStore(size);
+        copy.ensurePointsCapacity(pointsSize);
+        copy.addAll(this);
+
+        return copy;
+    }
+
+    /**
+     * Estimates memory held by the store, like {@link Contents#estimateBytes()}.
+     *
+     * @return size of held arrays in bytes
+     */
+    long estimateBytes() {
+        return (long) types.length * (1 + 11 * Double.BYTES + 6 * Integer.BYTES) + (long) points.length * Double.BYTES;
+    }
+
+    /**
+     * Removes all shapes.
+     */
+    public void clear() {
+        // arrays are replaced, so memory used by large drawings is released
+        allocate(INITIAL_CAPACITY);
+        size = 0;
+        retainedSize = 0;
+        pointsSize = 0;
+        wastedPoints = 0;
+
+        for (ShapeStoreListener listener : listeners) {
+            listener.shapesCleared();
+        }
+    }
+
+    /**
+     * Removes shapes from the end of the store. Their data is retained until other shapes are added, so they can be
+     * brought back with {@link #restore(int)}.
+     *
+     * @param newSize number of shapes left in the store
+     */
+    public void truncate(int newSize) {
+        if (newSize < 0 || newSize > size) {
+            throw new IndexOutOfBoundsException("Invalid store size: " + newSize);
+        }
+
+        int oldSize = size;
+        size = newSize;
+
+        if (newSize < oldSize) {
+            for (ShapeStoreListener listener : listeners) {
+                listener.shapesRemoved(newSize, oldSize);
+            }
+        }
+    }
+
+    /**
+     * Brings back shapes removed by {@link #truncate(int)}.
+     *
+     * @param newSize number of shapes in the store, at most the size before truncating
+     * @throws IllegalStateException if removed shapes are not retained anymore
+     */
+    public void restore(int newSize) {
+        if (newSize < size || newSize > retainedSize) {
+            throw new IllegalStateException("Shapes can't be restored to size " + newSize);
+        }
+
+        int oldSize = size;
+        size = newSize;
+
+        if (newSize > oldSize) {
+            fireAdded(oldSize, newSize);
+        }
+    }
+
+    /**
+     * Removes all shapes without copying them. Returned content can be put back with {@link #swapContents(Contents)}.
+     *
+     * @return removed content
+     */
+    public Contents takeContents() {
+        Contents contents = new Contents(this);
+        clear();
+
+        return contents;
+    }
+
+    /**
+     * Replaces all shapes with previously taken content in constant time. Listeners are notified as if the store was
+     * cleared and content was added.
+     *
+     * @param contents content to put into the store, it must not be used afterwards
+     * @return content which was replaced
+     */
+    public Contents swapContents(Contents contents) {
+        Contents previous = new Contents(this);
+        contents.restoreTo(this);
+
+        for (ShapeStoreListener listener : listeners) {
+            listener.shapesCleared();
+        }
+        if (size > 0) {
+            fireAdded(0, size);
+        }
+
+        return previous;
+    }
+
+    /**
+     * Copies geometry of the shape: x, y, min x, min y, max x, max y, polygon point scale, point shift x and point
+     * shift y.
+     *
+     * @param id     shape id
+     * @param target array with at least {@link #GEOMETRY_SIZE} free values
+     * @param offset index of the first copied value in target
+     */
+    public void getGeometry(int id, double[] target, int offset) {
+        target[offset] = x[id];
+        target[offset + 1] = y[id];
+        target[offset + 2] = minX[id];
+        target[offset + 3] = minY[id];
+        target[offset + 4] = maxX[id];
+        target[offset + 5] = maxY[id];
+        target[offset + 6] = pointScale[id];
+        target[offset + 7] = pointShiftX[id];
+        target[offset + 8] = pointShiftY[id];
+    }
+
+    /**
+     * Sets geometry of the shape copied by {@link #getGeometry(int, double[], int)}. Polygon points are not changed.
+     *
+     * @param id     shape id
+     * @param source array with geometry
+     * @param offset index of the first value in source
+     */
+    public void setGeometry(int id, double[] source, int offset) {
+        checkId(id);
+        x[id] = source[offset];
+        y[id] = source[offset + 1];
+        setLocalBounds(id, source[offset + 2], source[offset + 3], source[offset + 4], source[offset + 5]);
+        pointScale[id] = source[offset + 6];
+        pointShiftX[id] = source[offset + 7];
+        pointShiftY[id] = source[offset + 8];
+
+        fireChanged(id);
+    }
+
+    /**
+     * Removes points from the end of the polygon. Local bounds are not updated, they are expected to be restored with
+     * {@link #setGeometry(int, double[], int)}.
+     *
+     * @param id    polygon id
+     * @param count number of points left
+     */
+    public void truncatePoints(int id, int count) {
+        checkId(id);
+        if (count < 0 || count > pointCount[id]) {
+            throw new IndexOutOfBoundsException("Invalid number of points: " + count);
+        }
+
+        pointCount[id] = count;
+        fireChanged(id);
+    }
+
+    /**
+     * Moves shape to a new position.
+     *
+     * @param id shape id
+     * @param x  new x position
+     * @param y  new y position
+     */
+    public void setPosition(int id, double x, double y) {
+        checkId(id);
+        this.x[id] = x;
+        this.y[id] = y;
+
+        fireChanged(id);
+    }
+
+    public void setRotation(int id, double rotation) {
+        checkId(id);
+        this.rotation[id] = rotation;
+
+        fireChanged(id);
+    }
+
+    public void setFill(int id, int fill) {
+        checkId(id);
+        this.fill[id] = fill;
+
+        fireChanged(id);
+    }
+
+    public void setStroke(int id, int stroke) {
+        checkId(id);
+        this.stroke[id] = stroke;
+
+        fireChanged(id);
+    }
+
+    /**
+     * Sets geometry of a rectangle or circle created by dragging from the start point to the given point. Rectangle
+     * spans between both points, circle has center in the start point and passes through the given point.
+     *
+     * @param id     rectangle or circle id
+     * @param startX x of the point where dragging started
+     * @param startY y of the point where dragging started
+     * @param x      current x
+     * @param y      current y
+     */
+    public void setDraggedSize(int id, double startX, double startY, double x, double y) {
+        checkId(id);
+
+        switch (getType(id)) {
+            case RECTANGLE -> {
+                this.x[id] = Math.min(startX, x);
+                this.y[id] = Math.min(startY, y);
+                setLocalBounds(id, 0, 0, Math.abs(x - startX), Math.abs(y - startY));
+            }
+            case CIRCLE -> {
+                double radius = Math.hypot(x - startX, y - startY);
+
+                this.x[id] = startX - radius;
+                this.y[id] = startY - radius;
+                setLocalBounds(id, 0, 0, 2 * radius, 2 * radius);
+            }
+            default -> throw new IllegalArgumentException("Shape can't be created by dragging");
+        }
+
+        fireChanged(id);
+    }
+
+    /**
+     * Scales shape geometry relative to its position. Polygons are scaled only within limits of their point scale.
+     *
+     * @param id         shape id
+     * @param multiplier scale
+     */
+    public void scale(int id, double multiplier) {
+        checkId(id);
+
+        if (getType(id) == ShapeType.POLYGON) {
+            double scale = pointScale[id] * multiplier;
+            double clamped = Math.copySign(Math.max(MIN_POINT_SCALE, Math.min(1 / MIN_POINT_SCALE, Math.abs(scale))), scale);
+
+            multiplier = clamped / pointScale[id];
+            pointScale[id] = clamped;
+            pointShiftX[id] *= multiplier;
+            pointShiftY[id] *= multiplier;
+        }
+
+        double x1 = minX[id] * multiplier;
+        double x2 = maxX[id] * multiplier;
+        double y1 = minY[id] * multiplier;
+        double y2 = maxY[id] * multiplier;
+        setLocalBounds(id, Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2), Math.max(y1, y2));
+
+        fireChanged(id);
+    }
+
+    /**
+     * Adds point to the polygon in amortized constant time. Position of the polygon is moved, so that its points are
+     * never left of or above it. Points are not rewritten when position is moved, only their shift is changed.
+     *
+     * @param id polygon id
+     * @param x  x of the point in the drawing area
+     * @param y  y of the point in the drawing area
+     */
+    public void addPoint(int id, double x, double y) {
+        checkId(id);
+        if (getType(id) != ShapeType.POLYGON) {
+            throw new IllegalArgumentException("Points can be added only to polygons");
+        }
+
+        appendPoint(id, x - this.x[id], y - this.y[id]);
+
+        double diffX = Math.max(0, this.x[id] - x);
+        double diffY = Math.max(0, this.y[id] - y);
+
+        if (diffX > 0 || diffY > 0) {
+            this.x[id] -= diffX;
+            this.y[id] -= diffY;
+            pointShiftX[id] += diffX;
+            pointShiftY[id] += diffY;
+
+            setLocalBounds(id, minX[id] + diffX, minY[id] + diffY, maxX[id] + diffX, maxY[id] + diffY);
+        }
+
+        fireChanged(id);
+    }
+
+    /**
+     * Appends shape with empty geometry without notifying listeners.
+     */
+    private int append(ShapeType type, double x, double y, double rotation, int fill, int stroke) {
+        ensureCapacity(size + 1);
+
+        discardRetained();
+        int id = size++;
+        retainedSize = size;
+        this.types[id] = (byte) type.ordinal();
+        this.x[id] = x;
+        this.y[id] = y;
+        this.rotation[id] = rotation;
+        this.fill[id] = fill;
+        this.stroke[id] = stroke;
+        this.pointOffset[id] = pointsSize;
+        this.pointCount[id] = 0;
+        this.pointCapacity[id] = 0;
+        this.pointScale[id] = 1;
+        this.pointShiftX[id] = 0;
+        this.pointShiftY[id] = 0;
+        this.pointsRevision[id]++;
+        setLocalBounds(id, 0, 0, 0, 0);
+
+        return id;
+    }
+
+    /**
+     * Copies shape from other store to given id, which must be already allocated.
+     */
+    private void copyShape(ShapeStore source, int sourceId, int id) {
+        types[id] = source.types[sourceId];
+        x[id] = source.x[sourceId];
+        y[id] = source.y[sourceId];
+        rotation[id] = source.rotation[sourceId];
+        fill[id] = source.fill[sourceId];
+        stroke[id] = source.stroke[sourceId];
+        pointOffset[id] = pointsSize;
+        pointCount[id] = 0;
+        pointCapacity[id] = 0;
+
+        if (source.getType(sourceId) == ShapeType.POLYGON) {
+            setPoints(id, source.points, source.pointOffset[sourceId], 2 * source.pointCount[sourceId]);
+        }
+        pointScale[id] = source.pointScale[sourceId];
+        pointShiftX[id] = source.pointShiftX[sourceId];
+        pointShiftY[id] = source.pointShiftY[sourceId];
+        pointsRevision[id]++;
+
+        setLocalBounds(id, source.minX[sourceId], source.minY[sourceId], source.maxX[sourceId], source.maxY[sourceId]);
+    }
+
+    /**
+     * Replaces polygon points and updates its local bounds. Points are stored without scale and shift.
+     */
+    private void setPoints(int id, double[] coordinates, int offset, int length) {
+        int count = length / 2;
+        pointScale[id] = 1;
+        pointShiftX[id] = 0;
+        pointShiftY[id] = 0;
+        pointsRevision[id]++;
+
+        if (pointCapacity[id] < count) {
+            wastedPoints += 2 * pointCapacity[id];
+            ensurePointsCapacity(pointsSize + 2 * count);
+            pointOffset[id] = pointsSize;
+            pointCapacity[id] = count;
+            pointsSize += 2 * count;
+        }
+
+        System.arraycopy(coordinates, offset, points, pointOffset[id], 2 * count);
+        pointCount[id] = count;
+
+        double x1 = Double.POSITIVE_INFINITY;
+        double y1 = Double.POSITIVE_INFINITY;
+        double x2 = Double.NEGATIVE_INFINITY;
+        double y2 = Double.NEGATIVE_INFINITY;
+        for (int i = offset; i + 1 < offset + 2 * count; i += 2) {
+            x1 = Math.min(x1, coordinates[i]);
+            y1 = Math.min(y1, coordinates[i + 1]);
+            x2 = Math.max(x2, coordinates[i]);
+            y2 = Math.max(y2, coordinates[i + 1]);
+        }
+
+        if (count == 0) {
+            setLocalBounds(id, 0, 0, 0, 0);
+        } else {
+            setLocalBounds(id, x1, y1, x2, y2);
+        }
+
+        compactPointsIfWasteful();
+    }
+
+    /**
+     * Appends point relative to the shape position to the polygon. Polygon's part of the pool grows twice when it is
+     * full, so appends are amortized constant time.
+     */
+    private void appendPoint(int id, double pointX, double pointY) {
+        int count = pointCount[id];
+
+        if (count == pointCapacity[id]) {
+            int capacity = Math.max(INITIAL_POINT_CAPACITY, 2 * count);
+            int end = pointOffset[id] + 2 * pointCapacity[id];
+
+            if (end == pointsSize) {
+                // polygon is at the end of the pool, so it can grow in place
+                ensurePointsCapacity(pointOffset[id] + 2 * capacity);
+                pointsSize = pointOffset[id] + 2 * capacity;
+            } else {
+                ensurePointsCapacity(pointsSize + 2 * capacity);
+                System.arraycopy(points, pointOffset[id], points, pointsSize, 2 * count);
+                wastedPoints += 2 * pointCapacity[id];
+                pointOffset[id] = pointsSize;
+                pointsSize += 2 * capacity;
+            }
+
+            pointCapacity[id] = capacity;
+        }
+
+        points[pointOffset[id] + 2 * count] = (pointX - pointShiftX[id]) / pointScale[id];
+        points[pointOffset[id] + 2 * count + 1] = (pointY - pointShiftY[id]) / pointScale[id];
+        pointCount[id] = count + 1;
+
+        if (count == 0) {
+            setLocalBounds(id, pointX, pointY, pointX, pointY);
+        } else {
+            setLocalBounds(id, Math.min(minX[id], pointX), Math.min(minY[id], pointY),
+                    Math.max(maxX[id], pointX), Math.max(maxY[id], pointY));
+        }
+
+        compactPointsIfWasteful();
+    }
+
+    /**
+     * Rewrites the pool without unused coordinates, when more than half of it is wasted.
+     */
+    private void compactPointsIfWasteful() {
+        if (wastedPoints <= pointsSize / 2) {
+            return;
+        }
+
+        double[] compacted = new double[Math.max(points.length / 2, pointsSize - wastedPoints)];
+        int position = 0;
+
+        // shapes being added by addAll are already counted by size, but not yet by retainedSize
+        int live = Math.max(size, retainedSize);
+        for (int id = 0; id < live; id++) {
+            System.arraycopy(points, pointOffset[id], compacted, position, 2 * pointCount[id]);
+            pointOffset[id] = position;
+            pointCapacity[id] = pointCount[id];
+            position += 2 * pointCount[id];
+        }
+
+        points = compacted;
+        pointsSize = position;
+        wastedPoints = 0;
+    }
+
+    /**
+     * Drops shapes retained after {@link #truncate(int)}, before their slots are reused.
+     */
+    private void discardRetained() {
+        for (int id = size; id < retainedSize; id++) {
+            wastedPoints += 2 * pointCapacity[id];
+        }
+        retainedSize = size;
+    }
+
+    private void setLocalBounds(int id, double minX, double minY, double maxX, double maxY) {
+        this.minX[id] = minX;
+        this.minY[id] = minY;
+        this.maxX[id] = maxX;
+        this.maxY[id] = maxY;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= types.length) {
+            return;
+        }
+
+        int newCapacity = Math.max(capacity, 2 * types.length);
+        types = Arrays.copyOf(types, newCapacity);
+        x = Arrays.copyOf(x, newCapacity);
+        y = Arrays.copyOf(y, newCapacity);
+        minX = Arrays.copyOf(minX, newCapacity);
+        minY = Arrays.copyOf(minY, newCapacity);
+        maxX = Arrays.copyOf(maxX, newCapacity);
+        maxY = Arrays.copyOf(maxY, newCapacity);
+        rotation = Arrays.copyOf(rotation, newCapacity);
+        fill = Arrays.copyOf(fill, newCapacity);
+        stroke = Arrays.copyOf(stroke, newCapacity);
+        pointOffset = Arrays.copyOf(pointOffset, newCapacity);
+        pointCount = Arrays.copyOf(pointCount, newCapacity);
+        pointCapacity = Arrays.copyOf(pointCapacity, newCapacity);
+        pointScale = Arrays.copyOf(pointScale, newCapacity);
+        pointShiftX = Arrays.copyOf(pointShiftX, newCapacity);
+        pointShiftY = Arrays.copyOf(pointShiftY, newCapacity);
+        pointsRevision = Arrays.copyOf(pointsRevision, newCapacity);
+    }
+
+    private void ensurePointsCapacity(int capacity) {
+        if (capacity > points.length) {
+            points = Arrays.copyOf(points, Math.max(capacity, 2 * points.length));
+        }
+    }
+
+    private void checkId(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("Shape id out of range: " + id);
+        }
+    }
+
+    private void fireAdded(int fromId, int toId) {
+        for (ShapeStoreListener listener : listeners) {
+            listener.shapesAdded(fromId, toId);
+        }
+    }
+
+    private void fireChanged(int id) {
+        if (batchDepth > 0) {
+            if (!batched.get(id)) {
+                batched.set(id);
+                if (batchCount == batchIds.length) {
+                    batchIds = Arrays.copyOf(batchIds, 2 * batchCount);
+                }
+                batchIds[batchCount++] = id;
+            }
+            return;
+        }
+
+        // indexed loop, so changes made while dragging don't allocate iterators
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).shapeChanged(id);
+        }
+    }
+
+    /**
+     * Whole content of a store taken out of it with {@link #takeContents()}. It holds arrays of the store, so it is
+     * created and put back without copying any shapes.
+     */
+    public static final class Contents {
+        private final byte[] types;
+        private final double[] x;
+        private final double[] y;
+        private final double[] minX;
+        private final double[] minY;
+        private final double[] maxX;
+        private final double[] maxY;
+        private final double[] rotation;
+        private final int[] fill;
+        private final int[] stroke;
+        private final int[] pointOffset;
+        private final int[] pointCount;
+        private final int[] pointCapacity;
+        private final double[] pointScale;
+        private final double[] pointShiftX;
+        private final double[] pointShiftY;
+        private final int[] pointsRevision;
+        private final double[] points;
+        private final int pointsSize;
+        private final int wastedPoints;
+        private final int size;
+        private final int retainedSize;
+
+        private Contents(ShapeStore store) {
+            this.types = store.types;
+            this.x = store.x;
+            this.y = store.y;
+            this.minX = store.minX;
+            this.minY = store.minY;
+            this.maxX = store.maxX;
+            this.maxY = store.maxY;
+            this.rotation = store.rotation;
+            this.fill = store.fill;
+            this.stroke = store.stroke;
+            this.pointOffset = store.pointOffset;
+            this.pointCount = store.pointCount;
+            this.pointCapacity = store.pointCapacity;
+            this.pointScale = store.pointScale;
+            this.pointShiftX = store.pointShiftX;
+            this.pointShiftY = store.pointShiftY;
+            this.pointsRevision = store.pointsRevision;
+            this.points = store.points;
+            this.pointsSize = store.pointsSize;
+            this.wastedPoints = store.wastedPoints;
+            this.size = store.size;
+            this.retainedSize = store.retainedSize;
+        }
+
+        private void restoreTo(ShapeStore store) {
+            store.types = types;
+            store.x = x;
+            store.y = y;
+            store.minX = minX;
+            store.minY = minY;
+            store.maxX = maxX;
+            store.maxY = maxY;
+            store.rotation = rotation;
+            store.fill = fill;
+            store.stroke = stroke;
+            store.pointOffset = pointOffset;
+            store.pointCount = pointCount;
+            store.pointCapacity = pointCapacity;
+            store.pointScale = pointScale;
+            store.pointShiftX = pointShiftX;
+            store.pointShiftY = pointShiftY;
+            store.pointsRevision = pointsRevision;
+            store.points = points;
+            store.pointsSize = pointsSize;
+            store.wastedPoints = wastedPoints;
+            store.size = size;
+            store.retainedSize = retainedSize;
+        }
+
+        /**
+         * Returns number of shapes in the content.
+         *
+         * @return number of shapes
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Estimates memory held by the content.
+         *
+         * @return size of held arrays in bytes
+         */
+        public long estimateBytes() {
+            return (long) types.length * (1 + 11 * Double.BYTES + 6 * Integer.BYTES) + (long) points.length * Double.BYTES;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.demo.lab5.model;
+
+/**
+ * Listener for changes of {@link ShapeStore}. Listeners are called synchronously, on the thread which modified the
+ * store.
+ */
+public interface ShapeStoreListener {
+    /**
+     * Called after shapes were added to the end of the store.
+     *
+     * @param fromId id of the first added shape
+     * @param toId   id after the last added shape
+     */
+    default void shapesAdded(int fromId, int toId) {
+    }
+
+    /**
+     * Called after any property of the shape was changed.
+     *
+     * @param id id of changed shape
+     */
+    default void shapeChanged(int id) {
+    }
+
+    /**
+     * Called after a batch of changes ended, see {@link ShapeStore#beginBatch()}. By default it calls
+     * {@link #shapeChanged(int)} for every shape, listeners can override it to handle all of them at once.
+     *
+     * @param ids   ids of changed shapes, each of them once; array is reused by the store after the call
+     * @param count number of changed shapes
+     */
+    default void shapesChanged(int[] ids, int count) {
+        for (int i = 0; i < count; i++) {
+            shapeChanged(ids[i]);
+        }
+    }
+
+    /**
+     * Called after shapes were removed from the end of the store.
+     *
+     * @param fromId id of the first removed shape, which is the new size of the store
+     * @param toId   id after the last removed shape
+     */
+    default void shapesRemoved(int fromId, int toId) {
+    }
+
+    /**
+     * Called after all shapes were removed from the store.
+     */
+    default void shapesCleared() {
+    }
+}
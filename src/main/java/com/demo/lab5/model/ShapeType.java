@@ -0,0 +1,14 @@
+package com.demo.lab5.model;
+
+/**
+ * ShapeType represents the kind of shape stored in {@link ShapeStore}.
+ */
+public enum ShapeType {
+    RECTANGLE,
+    CIRCLE,
+    POLYGON,
+    /**
+     * Shape of a lazily opened drawing which was not loaded yet. Only its bounds are known.
+     */
+    PLACEHOLDER
+}
@@ -1,36 +1,22 @@
 package com.demo.lab5.shapes;
 
-import com.demo.lab5.Coordinates;
+import com.demo.lab5.DrawingPaneStateManager;
+import com.demo.lab5.model.ShapeStore;
 import javafx.scene.shape.Circle;
 
-public class CircleComponentView extends DraggingCreatedShapeComponentView<Circle> {
+public class CircleComponentView extends ShapeComponentView<Circle> {
 
-    public CircleComponentView(double x, double y) {
-        super(new Circle(0, 0, 0), x, y);
+    public CircleComponentView(DrawingPaneStateManager stateManager, int shapeId) {
+        super(new Circle(0, 0, 0), stateManager, shapeId);
     }
 
     @Override
-    public void updateSize(double x, double y) {
+    protected void syncGeometry(ShapeStore store) {
         Circle circle = shape;
+        double radius = store.getRadius(shapeId);
 
-        var radius = new Coordinates(x, y).distanceTo(this.startCoords.x(), this.startCoords.y());
-
-        this.setLayoutX(startCoords.x() - radius);
-        this.setLayoutY(startCoords.y() - radius);
-
-        circle.setCenterX(radius);
-        circle.setCenterY(radius);
-
-        circle.setRadius(new Coordinates(x, y).distanceTo(this.startCoords.x(), this.startCoords.y()));
-    }
-
-    @Override
-    public void resize(double multiplier) {
-        Circle circle = shape;
-
-        circle.setRadius(multiplier * circle.getRadius());
-        circle.setCenterX(circle.getRadius());
-        circle.setCenterY(circle.getRadius());
-
+        circle.setCenterX(store.getMinX(shapeId) + radius);
+        circle.setCenterY(store.getMinY(shapeId) + radius);
+        circle.setRadius(radius);
     }
 }
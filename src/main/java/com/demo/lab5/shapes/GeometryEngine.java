@@ -0,0 +1,285 @@
+package com.demo.lab5.shapes;
+
+import com.demo.lab5.DrawingPaneStateManager;
+import com.demo.lab5.ErrorUtils;
+import com.demo.lab5.model.ShapeHistory;
+import com.demo.lab5.model.ShapeStore;
+import com.demo.lab5.model.ShapeStoreListener;
+import com.demo.lab5.model.ShapeType;
+import javafx.application.Platform;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * GeometryEngine runs {@link PolygonOperations} on selected shapes. Operands are copied on the JavaFX application
+ * thread, results are calculated in a {@link ForkJoinPool} and applied back on the application thread as a single
+ * command of {@link ShapeHistory}, so the whole operation is undone at once.
+ * <p>
+ * Convex hull and simplification replace selected polygons in place. Union, intersection and difference replace
+ * operands with the results, which take colors and drawing order of the topmost operand, or of the bottom operand of
+ * difference. The drawing may be edited while results are calculated; if operands were changed or removed meanwhile,
+ * results are dropped.
+ */
+public class GeometryEngine {
+    private final DrawingPaneStateManager stateManager;
+    private final ForkJoinPool pool;
+    private final Executor applicationThread;
+    /**
+     * Watcher of operands of the running operation, null if no operation runs
+     */
+    private OperandWatcher running;
+
+    /**
+     * Creates engine which calculates in the common pool.
+     *
+     * @param stateManager state of the drawing pane with the store, history and selection
+     */
+    public GeometryEngine(DrawingPaneStateManager stateManager) {
+        this(stateManager, ForkJoinPool.commonPool(), Platform::runLater);
+    }
+
+    /**
+     * @param stateManager      state of the drawing pane with the store, history and selection
+     * @param pool              pool calculating results
+     * @param applicationThread executor of the thread which owns the store
+     */
+    public GeometryEngine(DrawingPaneStateManager stateManager, ForkJoinPool pool, Executor applicationThread) {
+        this.stateManager = stateManager;
+        this.pool = pool;
+        this.applicationThread = applicationThread;
+    }
+
+    public boolean isRunning() {
+        return running != null;
+    }
+
+    /**
+     * Starts operation on the shapes. Only one operation runs at a time.
+     *
+     * @param operation operation to run
+     * @param ids       ids of operands in drawing order
+     * @param tolerance tolerance of {@link Operation#SIMPLIFY}, ignored by other operations
+     * @param finished  called on the application thread when the operation ended, applied or not
+     * @throws IllegalStateException if another operation is running
+     */
+    public void run(Operation operation, int[] ids, double tolerance, Runnable finished) {
+        if (running != null) {
+            throw new IllegalStateException("Geometry operation is already running");
+        }
+
+        ShapeStore store = stateManager.getStore();
+        // pending drags are applied, so operands are copied as the user sees them
+        stateManager.getPointerInput().flush();
+        stateManager.getHistory().seal();
+
+        int[] operands = operands(store, ids, operation.combines());
+        if (operands.length == 0 || operation.combines() && operands.length < 2) {
+            finished.run();
+            return;
+        }
+
+        ShapeStore snapshot = new ShapeStore(operands.length);
+        for (int id : operands) {
+            snapshot.addAll(store, id, id + 1);
+        }
+
+        OperandWatcher watcher = new OperandWatcher(operands);
+        store.addListener(watcher);
+        running = watcher;
+
+        pool.execute(() -> {
+            try {
+                if (operation.combines()) {
+                    List<double[]> outlines = combine(operation, snapshot);
+                    applicationThread.execute(() -> finish(watcher, () -> applyCombined(operation, operands, snapshot, outlines), finished));
+                } else {
+                    ShapeStore replacements = operation == Operation.CONVEX_HULL
+                            ? PolygonOperations.convexHulls(snapshot) : PolygonOperations.simplify(snapshot, tolerance);
+                    applicationThread.execute(() -> finish(watcher, () -> applyReplaced(operands, replacements), finished));
+                }
+            } catch (RuntimeException | OutOfMemoryError e) {
+                applicationThread.execute(() -> finish(watcher, () -> ErrorUtils.showError("Geometry operation",
+                        "Operation failed", String.valueOf(e.getMessage())), finished));
+            }
+        });
+    }
+
+    /**
+     * Selects shapes the operation works on. Combining operations take all shapes except placeholders, other operations
+     * only polygons.
+     */
+    private static int[] operands(ShapeStore store, int[] ids, boolean combines) {
+        int[] operands = new int[ids.length];
+        int count = 0;
+
+        for (int id : ids) {
+            ShapeType type = store.getType(id);
+            if (type == ShapeType.POLYGON || combines && type != ShapeType.PLACEHOLDER) {
+                operands[count++] = id;
+            }
+        }
+
+        return count == ids.length ? operands : Arrays.copyOf(operands, count);
+    }
+
+    private void finish(OperandWatcher watcher, Runnable action, Runnable finished) {
+        // drags made while calculating may change operands
+        stateManager.getPointerInput().flush();
+        stateManager.getStore().removeListener(watcher);
+        running = null;
+
+        try {
+            if (watcher.stale) {
+                ErrorUtils.showError("Geometry operation", "Drawing changed",
+                        "Selected shapes were changed while the operation was running. Run it again.");
+            } else {
+                action.run();
+            }
+        } finally {
+            finished.run();
+        }
+    }
+
+    private static List<double[]> combine(Operation operation, ShapeStore operands) {
+        return switch (operation) {
+            case UNION -> PolygonOperations.union(operands);
+            case INTERSECTION -> PolygonOperations.intersection(operands);
+            case DIFFERENCE -> PolygonOperations.difference(operands);
+            default -> throw new IllegalArgumentException("Operation doesn't combine shapes: " + operation);
+        };
+    }
+
+    private void applyReplaced(int[] operands, ShapeStore replacements) {
+        ShapeHistory history = stateManager.getHistory();
+        history.seal();
+        history.replaceAll(operands, replacements);
+        history.seal();
+    }
+
+    /**
+     * Replaces operands with results and selects the results.
+     */
+    private void applyCombined(Operation operation, int[] operands, ShapeStore snapshot, List<double[]> outlines) {
+        ShapeHistory history = stateManager.getHistory();
+
+        if (outlines.isEmpty()) {
+            ErrorUtils.showError("Geometry operation", "Result is empty", "Selected shapes were not changed.");
+            return;
+        }
+
+        // results take colors and place of one of the operands
+        int styled = operation == Operation.DIFFERENCE ? 0 : operands.length - 1;
+        ShapeStore results = new ShapeStore(outlines.size());
+        for (double[] outline : outlines) {
+            PolygonOperations.addOutline(results, outline, snapshot.getFill(styled), snapshot.getStroke(styled));
+        }
+
+        stateManager.clearSelection();
+        int firstResult = replaceOperands(history, operands, styled, results);
+
+        int[] resultIds = new int[results.size()];
+        for (int i = 0; i < resultIds.length; i++) {
+            resultIds[i] = firstResult + i;
+        }
+        stateManager.selectShapes(resultIds, resultIds.length, false);
+    }
+
+    /**
+     * Replaces operands with results as a single command of the history. Shapes are removed only from the end of the
+     * store, so shapes from the bottom operand to the end are replaced with copies without operands.
+     *
+     * @param history  history of the store with operands
+     * @param operands ids of operands in drawing order
+     * @param styled   index of the operand whose place in drawing order results take
+     * @param results  new shapes, owned by the history afterwards
+     * @return id of the first result
+     */
+    static int replaceOperands(ShapeHistory history, int[] operands, int styled, ShapeStore results) {
+        ShapeStore store = history.getStore();
+        int from = operands[0];
+        ShapeStore shapes = new ShapeStore(store.size() - from - operands.length + results.size());
+        int firstResult = -1;
+        int next = from;
+
+        for (int i = 0; i < operands.length; i++) {
+            shapes.addAll(store, next, operands[i]);
+            next = operands[i] + 1;
+
+            if (i == styled) {
+                firstResult = from + shapes.size();
+                shapes.addAll(results);
+            }
+        }
+        shapes.addAll(store, next, store.size());
+
+        history.seal();
+        history.replaceFrom(from, shapes);
+        history.seal();
+
+        return firstResult;
+    }
+
+    /**
+     * Operations on selected shapes.
+     */
+    public enum Operation {
+        UNION,
+        INTERSECTION,
+        /**
+         * Shapes above the bottom operand are subtracted from it
+         */
+        DIFFERENCE,
+        CONVEX_HULL,
+        SIMPLIFY;
+
+        /**
+         * Checks if the operation combines operands into new shapes, instead of replacing every operand.
+         *
+         * @return true for union, intersection and difference
+         */
+        public boolean combines() {
+            return this == UNION || this == INTERSECTION || this == DIFFERENCE;
+        }
+    }
+
+    /**
+     * Marks results of the running operation as stale when its operands are changed or removed. Shapes added to the
+     * end of the drawing don't affect them.
+     */
+    private static final class OperandWatcher implements ShapeStoreListener {
+        private final BitSet operands;
+        private final int lastOperand;
+        private boolean stale;
+
+        OperandWatcher(int[] operands) {
+            this.operands = new BitSet();
+            for (int id : operands) {
+                this.operands.set(id);
+            }
+            this.lastOperand = operands[operands.length - 1];
+        }
+
+        @Override
+        public void shapeChanged(int id) {
+            if (operands.get(id)) {
+                stale = true;
+            }
+        }
+
+        @Override
+        public void shapesRemoved(int fromId, int toId) {
+            if (fromId <= lastOperand) {
+                stale = true;
+            }
+        }
+
+        @Override
+        public void shapesCleared() {
+            stale = true;
+        }
+    }
+}
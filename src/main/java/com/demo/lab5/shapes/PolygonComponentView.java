@@ -1,59 +1,107 @@
 package com.demo.lab5.shapes;
 
+import com.demo.lab5.DrawingPaneStateManager;
+import com.demo.lab5.model.ShapeStore;
+import javafx.collections.ObservableList;
 import javafx.scene.shape.Polygon;
+import javafx.scene.transform.Affine;
 
 /**
  * PolygonComponentView is a component that provides a polygon shape.
+ * <p>
+ * Polygon node holds raw coordinates of the store and maps them with a transform, so moving the polygon origin and
+ * resizing only update the transform. Points added to the store are appended to the node in a single change. Large
+ * polygons hold points simplified for the current zoom, which are replaced when zoom crosses a bucket.
  *
  * @see ShapeComponentView
+ * @see ShapeStore#getPointScale(int)
  */
 public class PolygonComponentView extends ShapeComponentView<Polygon> {
-
-    public PolygonComponentView(double x, double y) {
-        super(new Polygon(0, 0), x, y);
-    }
-
     /**
-     * Adds node of a polygon.
-     *
-     * @param x node x coordinate
-     * @param y node y coordinate
+     * Scale and shift of raw coordinates. It is created on the first sync, which runs before fields of this class are
+     * initialized.
+     */
+    private Affine pointTransform;
+    /**
+     * Shape and revision of raw coordinates held by the node
      */
-    public void addNode(double x, double y) {
-        Polygon polygon = shape;
+    private int syncedShape;
+    private int syncedRevision;
+    /**
+     * Simplified points held by the node, null if the node holds all points of the shape
+     */
+    private double[] syncedSimplified;
 
-        polygon.getPoints().addAll(x - getLayoutX(), y - getLayoutY());
+    public PolygonComponentView(DrawingPaneStateManager stateManager, int shapeId) {
+        super(new Polygon(), stateManager, shapeId);
+    }
+
+    @Override
+    protected void syncGeometry(ShapeStore store) {
+        if (pointTransform == null) {
+            pointTransform = new Affine();
+            // applied before the rotation, which comes first in the list
+            shape.getTransforms().add(pointTransform);
+        }
 
-        // All points are relative to the base layout Pane and sometimes node coordinates are less than currently added
-        // node coordinates, so they are kinda negative after calculating relative positions. Due to this relative
-        // positions we need to update node coordinates.
+        ObservableList<Double> points = shape.getPoints();
+        double[] simplified = stateManager.getLevelOfDetail().simplifiedPoints(shapeId, stateManager.getViewport().getScale());
 
-        if (x < this.getLayoutX()) {
-            double diffX = this.getLayoutX() - x;
-            this.setLayoutX(x);
+        if (simplified != null) {
+            if (simplified != syncedSimplified) {
+                Double[] boxed = new Double[simplified.length];
+                for (int i = 0; i < simplified.length; i++) {
+                    boxed[i] = simplified[i];
+                }
 
-            for (int i = 0; i < polygon.getPoints().size(); i += 2) {
-                polygon.getPoints().set(i, polygon.getPoints().get(i) + diffX);
+                points.setAll(boxed);
+                syncedSimplified = simplified;
             }
+
+            syncTransform(store);
+            return;
         }
 
-        if (y < this.getLayoutY()) {
-            double diffY = this.getLayoutY() - y;
+        int count = store.getPointCount(shapeId);
+        int revision = store.getPointsRevision(shapeId);
+        int synced = points.size() / 2;
 
-            this.setLayoutY(y);
+        if (syncedSimplified != null || shapeId != syncedShape || revision != syncedRevision || synced > count) {
+            synced = 0;
+            syncedSimplified = null;
+            syncedShape = shapeId;
+            syncedRevision = revision;
 
-            for (int i = 1; i < polygon.getPoints().size(); i += 2) {
-                polygon.getPoints().set(i, polygon.getPoints().get(i) + diffY);
+            if (count == 0) {
+                points.clear();
             }
         }
-    }
 
-    @Override
-    public void resize(double multiplier) {
-        Polygon polygon = shape;
+        if (synced < count) {
+            Double[] added = new Double[2 * (count - synced)];
+            for (int i = synced; i < count; i++) {
+                added[2 * (i - synced)] = store.getRawPointX(shapeId, i);
+                added[2 * (i - synced) + 1] = store.getRawPointY(shapeId, i);
+            }
 
-        for (int i = 0; i < polygon.getPoints().size(); i++) {
-            polygon.getPoints().set(i, polygon.getPoints().get(i) * multiplier);
+            if (synced == 0) {
+                points.setAll(added);
+            } else {
+                points.addAll(added);
+            }
         }
+
+        syncTransform(store);
+    }
+
+    private void syncTransform(ShapeStore store) {
+        double scale = store.getPointScale(shapeId);
+        pointTransform.setMxx(scale);
+        pointTransform.setMyy(scale);
+        pointTransform.setTx(store.getPointShiftX(shapeId));
+        pointTransform.setTy(store.getPointShiftY(shapeId));
+
+        // stroke is scaled with the points, so its width is scaled back
+        shape.setStrokeWidth(ShapeStore.STROKE_WIDTH / Math.abs(scale));
     }
 }
@@ -0,0 +1,791 @@
+package com.demo.lab5.shapes;
+
+import com.demo.lab5.model.ShapeGeometry;
+import com.demo.lab5.model.ShapeStore;
+
+import java.awt.geom.Area;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Utility class with operations on outlines of shapes: union, intersection and difference, convex hull and
+ * simplification. It works on snapshots of shapes in their own {@link ShapeStore} and on primitive arrays with x and y
+ * of every point, so it can run on any thread.
+ * <p>
+ * Boolean operations convert outlines to {@link Area}, which clips them. Operands are combined pairwise as a tree, whose
+ * large subtrees are split between tasks of the current {@link java.util.concurrent.ForkJoinPool}. Polygons of the
+ * drawing have a single outline, so every hole of a result is joined to the outline around it with a bridge of zero
+ * width.
+ * <p>
+ * Convex hulls and simplification replace every polygon separately, chunks of polygons are processed in parallel.
+ */
+public final class PolygonOperations {
+    /**
+     * Maximal distance of circle outline from the circle, in drawing units
+     */
+    private static final double CIRCLE_TOLERANCE = 0.25;
+    private static final int MAX_CIRCLE_SEGMENTS = 1024;
+    /**
+     * Operands combined on the current thread, larger groups are split between tasks
+     */
+    private static final int SEQUENTIAL_OPERANDS = 8;
+    /**
+     * Polygons replaced by a single task
+     */
+    private static final int CHUNK_SHAPES = 256;
+
+    private PolygonOperations() {
+    }
+
+    /**
+     * Calculates outline of the shape in the drawing area, with its rotation applied. Circles are flattened to polygons.
+     *
+     * @param store store with the shape
+     * @param id    shape id
+     * @return x and y of every point of the outline, or null for placeholders
+     */
+    public static double[] outline(ShapeStore store, int id) {
+        double[] local;
+
+        switch (store.getType(id)) {
+            case RECTANGLE -> local = new double[]{
+                    store.getMinX(id), store.getMinY(id), store.getMaxX(id), store.getMinY(id),
+                    store.getMaxX(id), store.getMaxY(id), store.getMinX(id), store.getMaxY(id)};
+            case CIRCLE -> {
+                double radius = store.getRadius(id);
+                double centerX = (store.getMinX(id) + store.getMaxX(id)) / 2;
+                double centerY = (store.getMinY(id) + store.getMaxY(id)) / 2;
+                int segments = radius <= CIRCLE_TOLERANCE ? 8
+                        : (int) Math.min(MAX_CIRCLE_SEGMENTS, Math.max(8, Math.ceil(Math.PI / Math.acos(1 - CIRCLE_TOLERANCE / radius))));
+
+                local = new double[2 * segments];
+                for (int i = 0; i < segments; i++) {
+                    double angle = 2 * Math.PI * i / segments;
+                    local[2 * i] = centerX + radius * Math.cos(angle);
+                    local[2 * i + 1] = centerY + radius * Math.sin(angle);
+                }
+            }
+            case POLYGON -> {
+                local = new double[2 * store.getPointCount(id)];
+                store.copyPoints(id, local, 0);
+            }
+            default -> {
+                return null;
+            }
+        }
+
+        double x = store.getX(id);
+        double y = store.getY(id);
+        double centerX = (store.getMinX(id) + store.getMaxX(id)) / 2;
+        double centerY = (store.getMinY(id) + store.getMaxY(id)) / 2;
+        double angle = Math.toRadians(store.getRotation(id));
+        double cos = Math.cos(angle);
+        double sin = Math.sin(angle);
+
+        for (int i = 0; i < local.length; i += 2) {
+            double dx = local[i] - centerX;
+            double dy = local[i + 1] - centerY;
+            local[i] = x + centerX + dx * cos - dy * sin;
+            local[i + 1] = y + centerY + dx * sin + dy * cos;
+        }
+
+        return local;
+    }
+
+    /**
+     * Adds polygon with the outline. Its position is the top left corner of the outline and it is not rotated.
+     *
+     * @param target  store receiving the polygon
+     * @param outline x and y of every point in the drawing area
+     * @param fill    ARGB fill
+     * @param stroke  ARGB stroke
+     * @return id of the new polygon
+     */
+    public static int addOutline(ShapeStore target, double[] outline, int fill, int stroke) {
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < outline.length; i += 2) {
+            minX = Math.min(minX, outline[i]);
+            minY = Math.min(minY, outline[i + 1]);
+        }
+
+        double[] relative = new double[outline.length];
+        for (int i = 0; i < outline.length; i += 2) {
+            relative[i] = outline[i] - minX;
+            relative[i + 1] = outline[i + 1] - minY;
+        }
+
+        return target.addPolygon(minX, minY, relative, 0, relative.length, 0, fill, stroke);
+    }
+
+    /**
+     * Calculates union of outlines of all shapes.
+     *
+     * @param shapes operands, placeholders are ignored
+     * @return outlines of the union in the drawing area, each with its holes joined to it
+     */
+    public static List<double[]> union(ShapeStore shapes) {
+        return shapes.size() == 0 ? List.of() : outlines(new Reduction(shapes, 0, shapes.size(), false).invoke());
+    }
+
+    /**
+     * Calculates intersection of outlines of all shapes.
+     *
+     * @param shapes operands
+     * @return outlines of the intersection in the drawing area, each with its holes joined to it
+     */
+    public static List<double[]> intersection(ShapeStore shapes) {
+        return shapes.size() == 0 ? List.of() : outlines(new Reduction(shapes, 0, shapes.size(), true).invoke());
+    }
+
+    /**
+     * Subtracts outlines of all other shapes from outline of the first shape.
+     *
+     * @param shapes operands, the first of them is the one subtracted from
+     * @return outlines of the difference in the drawing area, each with its holes joined to it
+     */
+    public static List<double[]> difference(ShapeStore shapes) {
+        if (shapes.size() == 0) {
+            return List.of();
+        }
+
+        Area result = toArea(outline(shapes, 0));
+        if (shapes.size() > 1) {
+            result.subtract(new Reduction(shapes, 1, shapes.size(), false).invoke());
+        }
+
+        return outlines(result);
+    }
+
+    /**
+     * Replaces every polygon with its convex hull. Polygons keep their position, rotation and colors.
+     *
+     * @param polygons polygons to replace
+     * @return store with hulls, with the same ids as polygons
+     */
+    public static ShapeStore convexHulls(ShapeStore polygons) {
+        return replaceAll(polygons, PolygonOperations::convexHull);
+    }
+
+    /**
+     * Simplifies every polygon with {@link ShapeGeometry#simplify(double[], int, double, double[])}. Polygons keep their
+     * position, rotation and colors.
+     *
+     * @param polygons  polygons to replace
+     * @param tolerance maximal distance of dropped points from the simplified outline
+     * @return store with simplified polygons, with the same ids as polygons
+     */
+    public static ShapeStore simplify(ShapeStore polygons, double tolerance) {
+        return replaceAll(polygons, (points, count) -> {
+            int kept = ShapeGeometry.simplify(points, count, tolerance, points);
+            return Arrays.copyOf(points, 2 * kept);
+        });
+    }
+
+    /**
+     * Calculates convex hull of points with Andrew's monotone chain algorithm. Points on edges of the hull are dropped.
+     *
+     * @param points x and y of every point
+     * @param count  number of points
+     * @return x and y of every hull point in counter-clockwise order, when y axis points up
+     */
+    public static double[] convexHull(double[] points, int count) {
+        double[] sorted = Arrays.copyOf(points, 2 * count);
+        sortPoints(sorted, count);
+
+        if (count < 3) {
+            return sorted;
+        }
+
+        // lower hull followed by upper hull, the last point of each is the first point of the other
+        double[] hull = new double[2 * (count + 1)];
+        int size = 0;
+
+        for (int i = 0; i < count; i++) {
+            size = pushHullPoint(hull, size, 2, sorted[2 * i], sorted[2 * i + 1]);
+        }
+        int lowerSize = size + 1;
+        for (int i = count - 2; i >= 0; i--) {
+            size = pushHullPoint(hull, size, lowerSize, sorted[2 * i], sorted[2 * i + 1]);
+        }
+
+        // the last point is the first one again
+        return Arrays.copyOf(hull, 2 * (size - 1));
+    }
+
+    /**
+     * Appends point to the hull, after dropping points which would make a clockwise or straight turn.
+     *
+     * @param minSize number of points which are never dropped, plus one
+     */
+    private static int pushHullPoint(double[] hull, int size, int minSize, double x, double y) {
+        while (size >= minSize && cross(hull[2 * size - 4], hull[2 * size - 3], hull[2 * size - 2], hull[2 * size - 1], x, y) <= 0) {
+            size--;
+        }
+
+        hull[2 * size] = x;
+        hull[2 * size + 1] = y;
+        return size + 1;
+    }
+
+    private static double cross(double ox, double oy, double ax, double ay, double bx, double by) {
+        return (ax - ox) * (by - oy) - (ay - oy) * (bx - ox);
+    }
+
+    /**
+     * Sorts points by x and then by y with heap sort of coordinate pairs, so the array doesn't need to be boxed.
+     */
+    private static void sortPoints(double[] points, int count) {
+        for (int i = count / 2 - 1; i >= 0; i--) {
+            siftDown(points, i, count);
+        }
+        for (int end = count - 1; end > 0; end--) {
+            swapPoints(points, 0, end);
+            siftDown(points, 0, end);
+        }
+    }
+
+    private static void siftDown(double[] points, int index, int count) {
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= count) {
+                return;
+            }
+            if (child + 1 < count && comparePoints(points, child + 1, child) > 0) {
+                child++;
+            }
+            if (comparePoints(points, child, index) <= 0) {
+                return;
+            }
+
+            swapPoints(points, index, child);
+            index = child;
+        }
+    }
+
+    private static int comparePoints(double[] points, int a, int b) {
+        int byX = Double.compare(points[2 * a], points[2 * b]);
+        return byX != 0 ? byX : Double.compare(points[2 * a + 1], points[2 * b + 1]);
+    }
+
+    private static void swapPoints(double[] points, int a, int b) {
+        double x = points[2 * a];
+        double y = points[2 * a + 1];
+        points[2 * a] = points[2 * b];
+        points[2 * a + 1] = points[2 * b + 1];
+        points[2 * b] = x;
+        points[2 * b + 1] = y;
+    }
+
+    /**
+     * Replaces points of every polygon in chunks processed in parallel. Polygons whose replacement has less than three
+     * points are copied unchanged.
+     */
+    private static ShapeStore replaceAll(ShapeStore polygons, PointsOperation operation) {
+        List<ForkJoinTask<ShapeStore>> chunks = new ArrayList<>();
+        for (int from = 0; from < polygons.size(); from += CHUNK_SHAPES) {
+            int chunkFrom = from;
+            int chunkTo = Math.min(polygons.size(), from + CHUNK_SHAPES);
+
+            chunks.add(ForkJoinTask.adapt(() -> {
+                ShapeStore replaced = new ShapeStore(chunkTo - chunkFrom);
+                for (int id = chunkFrom; id < chunkTo; id++) {
+                    replacePoints(polygons, id, operation, replaced);
+                }
+                return replaced;
+            }));
+        }
+
+        // the first chunk runs on the current thread
+        for (int i = chunks.size() - 1; i > 0; i--) {
+            chunks.get(i).fork();
+        }
+
+        ShapeStore result = new ShapeStore(polygons.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            result.addAll(i == 0 ? chunks.get(i).invoke() : chunks.get(i).join());
+        }
+
+        return result;
+    }
+
+    /**
+     * Adds replacement of the polygon. Rotation is around the center of the points, so position of the replacement is
+     * moved when its center differs, to keep kept points in place.
+     */
+    private static void replacePoints(ShapeStore polygons, int id, PointsOperation operation, ShapeStore target) {
+        int count = polygons.getPointCount(id);
+        double[] points = new double[2 * count];
+        polygons.copyPoints(id, points, 0);
+
+        double[] replaced = operation.apply(points, count);
+        if (replaced.length < 6) {
+            target.addAll(polygons, id, id + 1);
+            return;
+        }
+
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < replaced.length; i += 2) {
+            minX = Math.min(minX, replaced[i]);
+            maxX = Math.max(maxX, replaced[i]);
+            minY = Math.min(minY, replaced[i + 1]);
+            maxY = Math.max(maxY, replaced[i + 1]);
+        }
+
+        // shift of the center, which is rotated back, so positions of points in the drawing area don't change
+        double shiftX = (polygons.getMinX(id) + polygons.getMaxX(id) - minX - maxX) / 2;
+        double shiftY = (polygons.getMinY(id) + polygons.getMaxY(id) - minY - maxY) / 2;
+        double angle = Math.toRadians(polygons.getRotation(id));
+        double cos = Math.cos(angle);
+        double sin = Math.sin(angle);
+
+        double x = polygons.getX(id) + shiftX - (shiftX * cos - shiftY * sin);
+        double y = polygons.getY(id) + shiftY - (shiftX * sin + shiftY * cos);
+
+        target.addPolygon(x, y, replaced, 0, replaced.length, polygons.getRotation(id), polygons.getFill(id), polygons.getStroke(id));
+    }
+
+    private static Area toArea(double[] outline) {
+        if (outline == null || outline.length < 6) {
+            return new Area();
+        }
+
+        // the same rule as hit-testing of polygons
+        Path2D.Double path = new Path2D.Double(Path2D.WIND_EVEN_ODD, outline.length / 2);
+        path.moveTo(outline[0], outline[1]);
+        for (int i = 2; i < outline.length; i += 2) {
+            path.lineTo(outline[i], outline[i + 1]);
+        }
+        path.closePath();
+
+        return new Area(path);
+    }
+
+    /**
+     * Extracts outlines of the area. Rings nested at an odd depth are holes, which are joined to the ring around them.
+     */
+    private static List<double[]> outlines(Area area) {
+        List<double[]> rings = rings(area);
+        int count = rings.size();
+
+        // larger rings first, so ring around every ring is before it
+        Integer[] order = new Integer[count];
+        double[] areas = new double[count];
+        double[] bounds = new double[4 * count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+            areas[i] = Math.abs(signedArea(rings.get(i)));
+            bounds(rings.get(i), bounds, 4 * i);
+        }
+        Arrays.sort(order, Comparator.comparingDouble(i -> -areas[i]));
+
+        int[] parent = new int[count];
+        int[] depth = new int[count];
+        for (int i = 0; i < count; i++) {
+            int ring = order[i];
+            parent[ring] = -1;
+
+            // the closest larger ring which contains this one is the one directly around it
+            for (int j = i - 1; j >= 0; j--) {
+                if (containsBounds(bounds, order[j], ring) && containsRing(rings.get(order[j]), rings.get(ring))) {
+                    parent[ring] = order[j];
+                    depth[ring] = depth[order[j]] + 1;
+                    break;
+                }
+            }
+        }
+
+        List<double[]> outlines = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int ring = order[i];
+            if (depth[ring] % 2 != 0) {
+                continue;
+            }
+
+            List<double[]> holes = new ArrayList<>();
+            for (int hole = 0; hole < count; hole++) {
+                if (parent[hole] == ring && depth[hole] % 2 != 0) {
+                    holes.add(rings.get(hole));
+                }
+            }
+
+            outlines.add(bridgeHoles(rings.get(ring), holes));
+        }
+
+        return outlines;
+    }
+
+    /**
+     * Splits flattened path of the area into closed rings without repeated points.
+     */
+    private static List<double[]> rings(Area area) {
+        List<double[]> rings = new ArrayList<>();
+        double[] segment = new double[6];
+        double[] ring = new double[64];
+        int length = 0;
+
+        for (PathIterator iterator = area.getPathIterator(null, CIRCLE_TOLERANCE); !iterator.isDone(); iterator.next()) {
+            int type = iterator.currentSegment(segment);
+
+            if (type == PathIterator.SEG_CLOSE || type == PathIterator.SEG_MOVETO) {
+                addRing(rings, ring, length);
+                length = 0;
+            }
+            if (type == PathIterator.SEG_CLOSE) {
+                continue;
+            }
+            if (length > 0 && ring[length - 2] == segment[0] && ring[length - 1] == segment[1]) {
+                continue;
+            }
+
+            if (length == ring.length) {
+                ring = Arrays.copyOf(ring, 2 * length);
+            }
+            ring[length++] = segment[0];
+            ring[length++] = segment[1];
+        }
+        addRing(rings, ring, length);
+
+        return rings;
+    }
+
+    private static void addRing(List<double[]> rings, double[] ring, int length) {
+        if (length >= 4 && ring[length - 2] == ring[0] && ring[length - 1] == ring[1]) {
+            length -= 2;
+        }
+        if (length < 6) {
+            return;
+        }
+
+        double[] copy = Arrays.copyOf(ring, length);
+        if (signedArea(copy) != 0) {
+            rings.add(copy);
+        }
+    }
+
+    private static void bounds(double[] ring, double[] out, int offset) {
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+
+        for (int i = 0; i < ring.length; i += 2) {
+            minX = Math.min(minX, ring[i]);
+            maxX = Math.max(maxX, ring[i]);
+            minY = Math.min(minY, ring[i + 1]);
+            maxY = Math.max(maxY, ring[i + 1]);
+        }
+
+        out[offset] = minX;
+        out[offset + 1] = minY;
+        out[offset + 2] = maxX;
+        out[offset + 3] = maxY;
+    }
+
+    /**
+     * Checks if bounds of the outer ring contain bounds of the inner ring, which is necessary for the outer ring to
+     * contain the inner ring.
+     */
+    private static boolean containsBounds(double[] bounds, int outer, int inner) {
+        return bounds[4 * outer] <= bounds[4 * inner] && bounds[4 * outer + 1] <= bounds[4 * inner + 1]
+                && bounds[4 * outer + 2] >= bounds[4 * inner + 2] && bounds[4 * outer + 3] >= bounds[4 * inner + 3];
+    }
+
+    /**
+     * Checks if the inner ring lies inside the outer ring. Rings of an area don't cross, but they can touch, so the
+     * majority of three points of the inner ring decides.
+     */
+    private static boolean containsRing(double[] outer, double[] inner) {
+        int points = inner.length / 2;
+        int inside = 0;
+
+        for (int i = 0; i < 3; i++) {
+            int point = i * points / 3;
+            if (containsPoint(outer, inner[2 * point], inner[2 * point + 1])) {
+                inside++;
+            }
+        }
+
+        return inside >= 2;
+    }
+
+    private static boolean containsPoint(double[] ring, double x, double y) {
+        boolean inside = false;
+        int points = ring.length / 2;
+
+        for (int i = 0, j = points - 1; i < points; j = i++) {
+            double xi = ring[2 * i];
+            double yi = ring[2 * i + 1];
+            double xj = ring[2 * j];
+            double yj = ring[2 * j + 1];
+
+            if ((yi > y) != (yj > y) && x < (xj - xi) * (y - yi) / (yj - yi) + xi) {
+                inside = !inside;
+            }
+        }
+
+        return inside;
+    }
+
+    private static double signedArea(double[] ring) {
+        double area = 0;
+        int points = ring.length / 2;
+
+        for (int i = 0, j = points - 1; i < points; j = i++) {
+            area += ring[2 * j] * ring[2 * i + 1] - ring[2 * i] * ring[2 * j + 1];
+        }
+
+        return area / 2;
+    }
+
+    /**
+     * Joins holes to the outline with bridges of zero width. Holes get the opposite orientation than the outline, so
+     * they are not filled with either fill rule. Holes are joined from the one reaching furthest right, whose rightmost
+     * point always sees a point of the outline, because other holes lie left of it. Holes without a visible point,
+     * which may happen only when rings touch, are filled.
+     */
+    private static double[] bridgeHoles(double[] outline, List<double[]> holes) {
+        if (holes.isEmpty()) {
+            return outline;
+        }
+
+        boolean positive = signedArea(outline) > 0;
+        List<double[]> remaining = new ArrayList<>(holes.size());
+        for (double[] hole : holes) {
+            remaining.add((signedArea(hole) > 0) == positive ? reversed(hole) : hole);
+        }
+        remaining.sort(Comparator.comparingDouble(hole -> -hole[2 * rightmost(hole)]));
+
+        double[] merged = outline;
+        for (int i = 0; i < remaining.size(); i++) {
+            double[] hole = remaining.get(i);
+            int holePoint = rightmost(hole);
+            int bridge = findBridge(merged, hole, holePoint, remaining, i + 1);
+
+            if (bridge >= 0) {
+                merged = splice(merged, bridge, hole, holePoint);
+            }
+        }
+
+        return merged;
+    }
+
+    private static int rightmost(double[] ring) {
+        int rightmost = 0;
+        for (int i = 1; i < ring.length / 2; i++) {
+            if (ring[2 * i] > ring[2 * rightmost]) {
+                rightmost = i;
+            }
+        }
+        return rightmost;
+    }
+
+    private static double[] reversed(double[] ring) {
+        int points = ring.length / 2;
+        double[] reversed = new double[ring.length];
+
+        for (int i = 0; i < points; i++) {
+            reversed[2 * i] = ring[2 * (points - 1 - i)];
+            reversed[2 * i + 1] = ring[2 * (points - 1 - i) + 1];
+        }
+
+        return reversed;
+    }
+
+    /**
+     * Finds point of the outline which can be joined to the point of the hole without crossing any ring. Points are
+     * tried from the closest one, which is usually visible.
+     *
+     * @return index of the point of the outline or -1 if no point is visible
+     */
+    private static int findBridge(double[] outline, double[] hole, int holePoint, List<double[]> holes, int otherHoles) {
+        int points = outline.length / 2;
+        double x = hole[2 * holePoint];
+        double y = hole[2 * holePoint + 1];
+
+        double[] distances = new double[points];
+        for (int i = 0; i < points; i++) {
+            double dx = outline[2 * i] - x;
+            double dy = outline[2 * i + 1] - y;
+            distances[i] = dx * dx + dy * dy;
+        }
+
+        for (int attempt = 0; attempt < points; attempt++) {
+            int closest = -1;
+            for (int i = 0; i < points; i++) {
+                if (distances[i] != Double.POSITIVE_INFINITY && (closest < 0 || distances[i] < distances[closest])) {
+                    closest = i;
+                }
+            }
+            if (closest < 0) {
+                break;
+            }
+            distances[closest] = Double.POSITIVE_INFINITY;
+
+            double bridgeX = outline[2 * closest];
+            double bridgeY = outline[2 * closest + 1];
+
+            if (!crossesRing(outline, -1, x, y, bridgeX, bridgeY)
+                    && !crossesRing(hole, holePoint, bridgeX, bridgeY, x, y)
+                    && !crossesHoles(holes, otherHoles, x, y, bridgeX, bridgeY)) {
+                return closest;
+            }
+        }
+
+        return -1;
+    }
+
+    private static boolean crossesHoles(List<double[]> holes, int from, double x1, double y1, double x2, double y2) {
+        for (int i = from; i < holes.size(); i++) {
+            if (crossesRing(holes.get(i), -1, x1, y1, x2, y2)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if the segment touches any edge of the ring. Edges which end at the second point of the segment, and
+     * edges of the skipped point of the ring, are not checked.
+     */
+    private static boolean crossesRing(double[] ring, int skippedPoint, double x1, double y1, double x2, double y2) {
+        int points = ring.length / 2;
+
+        for (int i = 0, j = points - 1; i < points; j = i++) {
+            if (i == skippedPoint || j == skippedPoint) {
+                continue;
+            }
+
+            double ax = ring[2 * j];
+            double ay = ring[2 * j + 1];
+            double bx = ring[2 * i];
+            double by = ring[2 * i + 1];
+            if (ax == x2 && ay == y2 || bx == x2 && by == y2) {
+                continue;
+            }
+
+            if (segmentsTouch(x1, y1, x2, y2, ax, ay, bx, by)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean segmentsTouch(double x1, double y1, double x2, double y2, double ax, double ay, double bx, double by) {
+        double d1 = cross(ax, ay, bx, by, x1, y1);
+        double d2 = cross(ax, ay, bx, by, x2, y2);
+        double d3 = cross(x1, y1, x2, y2, ax, ay);
+        double d4 = cross(x1, y1, x2, y2, bx, by);
+
+        if ((d1 > 0 && d2 < 0 || d1 < 0 && d2 > 0) && (d3 > 0 && d4 < 0 || d3 < 0 && d4 > 0)) {
+            return true;
+        }
+
+        return d1 == 0 && onSegment(ax, ay, bx, by, x1, y1)
+                || d2 == 0 && onSegment(ax, ay, bx, by, x2, y2)
+                || d3 == 0 && onSegment(x1, y1, x2, y2, ax, ay)
+                || d4 == 0 && onSegment(x1, y1, x2, y2, bx, by);
+    }
+
+    /**
+     * Checks if point, which is collinear with the segment, lies on it.
+     */
+    private static boolean onSegment(double x1, double y1, double x2, double y2, double x, double y) {
+        return x >= Math.min(x1, x2) && x <= Math.max(x1, x2) && y >= Math.min(y1, y2) && y <= Math.max(y1, y2);
+    }
+
+    /**
+     * Inserts the hole into the outline after the bridge point: the hole from its joined point around to the same
+     * point, followed by the bridge point again.
+     */
+    private static double[] splice(double[] outline, int bridge, double[] hole, int holePoint) {
+        int holePoints = hole.length / 2;
+        double[] merged = new double[outline.length + hole.length + 4];
+
+        System.arraycopy(outline, 0, merged, 0, 2 * (bridge + 1));
+        int length = 2 * (bridge + 1);
+
+        for (int i = 0; i <= holePoints; i++) {
+            int point = (holePoint + i) % holePoints;
+            merged[length++] = hole[2 * point];
+            merged[length++] = hole[2 * point + 1];
+        }
+
+        merged[length++] = outline[2 * bridge];
+        merged[length++] = outline[2 * bridge + 1];
+        System.arraycopy(outline, 2 * (bridge + 1), merged, length, outline.length - 2 * (bridge + 1));
+
+        return merged;
+    }
+
+    /**
+     * Pairwise combination of outlines of a range of shapes.
+     */
+    private static final class Reduction extends RecursiveTask<Area> {
+        private static final long serialVersionUID = 1L;
+
+        private final ShapeStore shapes;
+        private final int from;
+        private final int to;
+        private final boolean intersect;
+
+        Reduction(ShapeStore shapes, int from, int to, boolean intersect) {
+            this.shapes = shapes;
+            this.from = from;
+            this.to = to;
+            this.intersect = intersect;
+        }
+
+        @Override
+        protected Area compute() {
+            if (to - from == 1) {
+                return toArea(outline(shapes, from));
+            }
+
+            int middle = (from + to) >>> 1;
+            Reduction left = new Reduction(shapes, from, middle, intersect);
+            Reduction right = new Reduction(shapes, middle, to, intersect);
+
+            Area result;
+            Area other;
+            if (to - from > SEQUENTIAL_OPERANDS) {
+                left.fork();
+                other = right.compute();
+                result = left.join();
+            } else {
+                result = left.compute();
+                other = right.compute();
+            }
+
+            if (intersect) {
+                result.intersect(other);
+            } else {
+                result.add(other);
+            }
+
+            return result;
+        }
+    }
+
+    /**
+     * Operation calculating new points of a polygon.
+     */
+    private interface PointsOperation {
+        /**
+         * @param points x and y of every point relative to the polygon position, it can be modified
+         * @param count  number of points
+         * @return x and y of every new point relative to the polygon position
+         */
+        double[] apply(double[] points, int count);
+    }
+}
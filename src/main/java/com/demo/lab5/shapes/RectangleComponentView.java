@@ -1,5 +1,7 @@
 package com.demo.lab5.shapes;
 
+import com.demo.lab5.DrawingPaneStateManager;
+import com.demo.lab5.model.ShapeStore;
 import javafx.scene.shape.Rectangle;
 
 
@@ -8,32 +10,19 @@ import javafx.scene.shape.Rectangle;
  *
  * @see ShapeComponentView
  */
-public class RectangleComponentView extends DraggingCreatedShapeComponentView<Rectangle> {
+public class RectangleComponentView extends ShapeComponentView<Rectangle> {
 
-    public RectangleComponentView(double x, double y) {
-        super(new Rectangle(0, 0), x, y);
+    public RectangleComponentView(DrawingPaneStateManager stateManager, int shapeId) {
+        super(new Rectangle(0, 0), stateManager, shapeId);
     }
 
     @Override
-    public void updateSize(double x, double y) {
+    protected void syncGeometry(ShapeStore store) {
         Rectangle rectangle = shape;
 
-        if (this.startCoords.x() > x) {
-            this.setLayoutX(x);
-        }
-
-        if (this.startCoords.y() > y) {
-            this.setLayoutY(y);
-        }
-
-        rectangle.setWidth(Math.abs(x - startCoords.x()));
-        rectangle.setHeight(Math.abs(y - startCoords.y()));
-    }
-
-    @Override
-    public void resize(double multiplier) {
-        Rectangle rectangle = shape;
-        rectangle.setWidth(multiplier * rectangle.getWidth());
-        rectangle.setHeight(multiplier * rectangle.getHeight());
+        rectangle.setX(store.getMinX(shapeId));
+        rectangle.setY(store.getMinY(shapeId));
+        rectangle.setWidth(store.getWidth(shapeId));
+        rectangle.setHeight(store.getHeight(shapeId));
     }
 }
@@ -1,27 +1,43 @@
 package com.demo.lab5.shapes;
 
 import com.demo.lab5.DrawingMode;
+import com.demo.lab5.DrawingPaneStateManager;
+import com.demo.lab5.model.ShapeType;
 
 /**
- * Factory class to create {@link ShapeComponentView} instances based on the drawing mode.
+ * Factory class to create {@link ShapeComponentView} instances for shapes of the store.
  */
 public class ShapeComponentFactory {
     private ShapeComponentFactory() {
     }
 
     /**
-     * Creates a {@link ShapeComponentView} based on the specified drawing mode.
+     * Creates a {@link ShapeComponentView} for the shape, based on its type in the store.
+     *
+     * @param stateManager state manager holding the store
+     * @param shapeId      id of the shape
+     * @return created view
+     */
+    public static ShapeComponentView<?> create(DrawingPaneStateManager stateManager, int shapeId) {
+        return switch (stateManager.getStore().getType(shapeId)) {
+            case CIRCLE -> new CircleComponentView(stateManager, shapeId);
+            case RECTANGLE -> new RectangleComponentView(stateManager, shapeId);
+            case POLYGON -> new PolygonComponentView(stateManager, shapeId);
+            default -> throw new IllegalArgumentException("Unsupported shape type");
+        };
+    }
+
+    /**
+     * Returns type of shapes created in the specified drawing mode.
      *
      * @param mode drawing mode
-     * @param x    start x position
-     * @param y    start y position
-     * @return created shape
+     * @return shape type
      */
-    public static ShapeComponentView<?> create(DrawingMode mode, double x, double y) {
+    public static ShapeType shapeType(DrawingMode mode) {
         return switch (mode) {
-            case CIRCLE -> new CircleComponentView(x, y);
-            case RECTANGLE -> new RectangleComponentView(x, y);
-            case POLYGON -> new PolygonComponentView(x, y);
+            case CIRCLE -> ShapeType.CIRCLE;
+            case RECTANGLE -> ShapeType.RECTANGLE;
+            case POLYGON -> ShapeType.POLYGON;
             default -> throw new IllegalArgumentException("Unsupported Drawing mode");
         };
     }
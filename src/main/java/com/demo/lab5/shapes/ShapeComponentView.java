@@ -1,17 +1,25 @@
 package com.demo.lab5.shapes;
 
+import com.demo.lab5.ColorUtils;
 import com.demo.lab5.Coordinates;
-import com.demo.lab5.DrawingMode;
 import com.demo.lab5.DrawingPaneStateManager;
+import com.demo.lab5.model.ShapeStore;
+import com.demo.lab5.model.ShapeType;
 import javafx.scene.Cursor;
+import javafx.scene.input.MouseButton;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.input.ScrollEvent;
 import javafx.scene.layout.Pane;
-import javafx.scene.paint.Color;
 import javafx.scene.shape.Shape;
+import javafx.scene.transform.Rotate;
 
 /**
- * Base class for all shape components. It provides basic UI config, dragging, rotation, selection and resizing.
+ * Base class for all shape components. It shows a single shape of {@link ShapeStore} as a node and provides basic UI
+ * config, dragging, rotation, selection and resizing.
+ * <p>
+ * View doesn't hold any shape data. All changes are made in the store and the view is updated from the store with
+ * {@link #sync()}. View can be {@link #bind(int) bound} to another shape of the same type, so renderers can reuse views
+ * of shapes which left the visible part of the drawing.
  */
 public abstract class ShapeComponentView<TargetShape extends Shape> extends Pane {
     /**
@@ -19,70 +27,73 @@ public abstract class ShapeComponentView<TargetShape extends Shape> extends Pane
      */
     protected final TargetShape shape;
 
-    /**
-     * Coordinates of the shape when it was created. Used for resizing and dragging.
-     */
-    protected final Coordinates startCoords;
-
     /**
      * Reference to the {@link DrawingPaneStateManager} which is used to manage and share state between different shapes.
      *
      * @see DrawingPaneStateManager
      */
-    protected DrawingPaneStateManager stateManager;
+    protected final DrawingPaneStateManager stateManager;
 
     /**
-     * Shape toolbar. Null if shape is not selected.
-     *
-     * @see ShapeToolbarComponentView
+     * Id of the shape in the store
+     */
+    protected int shapeId;
+
+    /**
+     * Type of shapes this view can show
+     */
+    private final ShapeType viewType;
+
+    /**
+     * Rotation of the shape around the center of its geometry
      */
-    private ShapeToolbarComponentView toolbar;
+    private final Rotate rotation;
 
     /**
-     * Coordinates of the point where dragging started relative to this `Pane`. Used only for dragging. If dragging
-     * is not in progress this field is null.
+     * Coordinates of the point where dragging started relative to this `Pane`, in coordinates of the drawing. Used only
+     * for dragging. If dragging is not in progress this field is null.
      */
     private Coordinates draggingOffset;
 
     /**
-     * Constructs a new shape from the given shape and coords.
+     * Constructs a new view of the shape from the store.
      *
-     * @param shape target shape
-     * @param x     x start coordinate
-     * @param y     y start coordinate
+     * @param shape        target shape
+     * @param stateManager state manager holding the store
+     * @param shapeId      id of the shape in the store
      */
-    protected ShapeComponentView(TargetShape shape, double x, double y) {
+    protected ShapeComponentView(TargetShape shape, DrawingPaneStateManager stateManager, int shapeId) {
         this.shape = shape;
-        this.startCoords = new Coordinates(x, y);
+        this.stateManager = stateManager;
+        this.shapeId = shapeId;
+        this.viewType = stateManager.getStore().getType(shapeId);
+        this.rotation = new Rotate();
 
         draw();
+        sync();
     }
 
     /**
-     * Updates the size of the shape. This method is called when the mouse is dragged.
-     * It must be implemented differently for each shape, in order to avoid using `scaleX()` and `scaleY()` methods.
+     * Updates geometry of the JavaFX shape from the store.
      *
-     * @param multiplier multiplier for the size of the shape
+     * @param store store with the shape
      */
-    public abstract void resize(double multiplier);
+    protected abstract void syncGeometry(ShapeStore store);
 
     /**
      * Initializes and draws the shape. Adds listeners for required events.
      */
     public void draw() {
         assert shape != null;
-        assert startCoords != null;
-
-        this.setLayoutX(startCoords.x());
-        this.setLayoutY(startCoords.y());
 
         this.getChildren().add(shape);
 
-        shape.setFill(Color.TRANSPARENT);
-        shape.setStroke(Color.BLACK);
-        shape.setStrokeWidth(2);
+        shape.setStrokeWidth(ShapeStore.STROKE_WIDTH);
+        shape.getTransforms().add(rotation);
+
+        // unselected shapes are not picked by JavaFX, selection goes through ShapeSpatialIndex
+        this.setMouseTransparent(true);
 
-        this.setOnMouseClicked(this::onMouseClicked);
         this.setOnMousePressed(this::onMousePressed);
         this.setOnMouseDragged(this::onMouseDragged);
         this.setOnMouseReleased(this::onMouseReleased);
@@ -90,107 +101,153 @@ public abstract class ShapeComponentView<TargetShape extends Shape> extends Pane
     }
 
     /**
-     * Checks if shape is currently selected using {@link DrawingPaneStateManager}.
-     *
-     * @return true if shape is selected, false otherwise
+     * Updates position, rotation, colors and geometry from the store. It must be called whenever the shape changes.
      */
-    public boolean isSelected() {
-        return this.stateManager.getSelectedShape() == this;
-    }
+    public void sync() {
+        ShapeStore store = stateManager.getStore();
 
-    /**
-     * Listener for a new shape selection. If different shape is selected it removes the toolbar
-     * and sets the cursor to default.
-     *
-     * @param selected newly shape
-     */
-    private void selectedListener(ShapeComponentView<?> selected) {
-        if (selected != this && toolbar != null) {
-            this.getChildren().remove(toolbar);
-            this.setCursor(Cursor.DEFAULT);
+        this.setLayoutX(store.getX(shapeId));
+        this.setLayoutY(store.getY(shapeId));
+
+        shape.setFill(ColorUtils.fromArgb(store.getFill(shapeId)));
+        shape.setStroke(ColorUtils.fromArgb(store.getStroke(shapeId)));
+
+        syncGeometry(store);
+
+        rotation.setPivotX((store.getMinX(shapeId) + store.getMaxX(shapeId)) / 2);
+        rotation.setPivotY((store.getMinY(shapeId) + store.getMaxY(shapeId)) / 2);
+        rotation.setAngle(store.getRotation(shapeId));
+
+        if (hasToolbar()) {
+            // shape could be changed by undo or a bulk edit
+            stateManager.getToolbar().refresh();
         }
     }
 
     /**
-     * Used to set the shared state manager. It should be used <b>instantly</b> after the shape is created.
-     * State manager will be later used to handle selection, resizing etc.
+     * Shows another shape of the same type in this view. Selection state of the previous shape is dropped.
      *
-     * @param stateManager state manager to be set
+     * @param shapeId id of the shape in the store
      */
-    public void setStateManager(DrawingPaneStateManager stateManager) {
-        if (stateManager != null) {
-            stateManager.removeSelectedShapeListener(this::selectedListener);
-        }
+    public void bind(int shapeId) {
+        onDeselected();
+        this.shapeId = shapeId;
 
-        this.stateManager = stateManager;
+        sync();
+    }
 
-        if (stateManager != null) {
-            stateManager.addSelectedShapeListener(this::selectedListener);
-        }
+    public int getShapeId() {
+        return shapeId;
     }
 
-    public TargetShape getTargetShape() {
-        return this.shape;
+    public ShapeType getViewType() {
+        return viewType;
     }
 
+    public ShapeType getShapeType() {
+        return stateManager.getStore().getType(shapeId);
+    }
 
     /**
-     * This method handle `onMouseClicked` event. It selects current shape and shows the toolbar.
+     * Checks if shape is currently selected using {@link DrawingPaneStateManager}.
      *
-     * @param event mouse event
+     * @return true if shape is selected, false otherwise
      */
-    public void onMouseClicked(MouseEvent event) {
-        if (this.stateManager.getMode() != DrawingMode.SELECT_SHAPE
-                && (event.getSource() != this.shape || event.getSource() != this)) {
-            return;
+    public boolean isSelected() {
+        return this.stateManager.getSelectedShape() == shapeId;
+    }
+
+    /**
+     * Called by renderer when shape becomes selected. It moves the shared toolbar to this view and targets it at the
+     * shape.
+     */
+    public void onSelected() {
+        this.setMouseTransparent(false);
+
+        ShapeToolbarComponentView toolbar = stateManager.getToolbar();
+        toolbar.setTarget(shapeId);
+        if (!hasToolbar()) {
+            // toolbar is removed from the view of previously selected shape
+            this.getChildren().add(toolbar);
         }
 
-        stateManager.setSelectedShape(this);
+        this.setCursor(Cursor.HAND);
+    }
 
-        if (toolbar == null) {
-            this.toolbar = new ShapeToolbarComponentView(shape);
-        }
+    /**
+     * Called by renderer when shape stops being selected. It removes the toolbar and sets the cursor to default.
+     */
+    public void onDeselected() {
+        this.setMouseTransparent(true);
+        draggingOffset = null;
 
-        if (!this.getChildren().contains(toolbar)) {
-            this.getChildren().add(this.toolbar);
+        if (hasToolbar()) {
+            this.getChildren().remove(stateManager.getToolbar());
+            this.setCursor(Cursor.DEFAULT);
         }
+    }
 
-        this.setCursor(Cursor.HAND);
+    /**
+     * Checks if the shared toolbar is shown by this view.
+     */
+    private boolean hasToolbar() {
+        // views without toolbar show only their shape, so checking them doesn't create the toolbar
+        return this.getChildren().size() > 1 && stateManager.getToolbar().getParent() == this;
+    }
 
+    public TargetShape getTargetShape() {
+        return this.shape;
+    }
 
-        // avoiding propagation to other shapes
-        event.consume();
+    /**
+     * Selects current shape.
+     */
+    public void select() {
+        stateManager.setSelectedShape(shapeId);
     }
 
     /**
-     * This method handles `onScroll` event. It resizes the shape using abstract `resize()` method.
+     * This method handles `onScroll` event. It resizes the shape, or all selected shapes if more are selected, once per
+     * frame, scrolling is undone as a whole. Scrolling with shortcut key down is left to the drawing area, which zooms.
      *
      * @param event scroll event
      */
     public void onScroll(ScrollEvent event) {
-        if (!isSelected()) {
+        if (!isSelected() || event.isShortcutDown()) {
             return;
         }
 
-        this.resize(1 + event.getDeltaY() * 0.02);
+        double multiplier = 1 + event.getDeltaY() * 0.02;
+        if (stateManager.getSelection().size() > 1) {
+            stateManager.getPointerInput().scaleAll(stateManager.getSelection().toArray(), multiplier);
+        } else {
+            stateManager.getPointerInput().scale(shapeId, multiplier);
+        }
+        event.consume();
     }
 
     /**
-     * `onMousePressed` events starts dragging if shape is currently selected. Does nothing otherwise.
+     * `onMousePressed` events starts dragging if shape is currently selected. Does nothing otherwise. If more shapes are
+     * selected, they are dragged together by the drawing area.
      *
      * @param event mouse event
      */
     public void onMousePressed(MouseEvent event) {
-        if (!isSelected()) {
+        // other buttons pan the drawing
+        if (!isSelected() || event.getButton() != MouseButton.PRIMARY || stateManager.getSelection().size() > 1) {
             return;
         }
 
-        draggingOffset = new Coordinates(this.getLayoutX() - event.getSceneX(), this.getLayoutY() - event.getSceneY());
+        stateManager.getPointerInput().flush();
+        stateManager.getHistory().seal();
+        double scale = stateManager.getViewport().getScale();
+        draggingOffset = new Coordinates(this.getLayoutX() - event.getSceneX() / scale, this.getLayoutY() - event.getSceneY() / scale);
         this.setCursor(Cursor.CLOSED_HAND);
     }
 
     /**
-     * Continues and updates shape dragging if it is in progress. Otherwise does nothing.
+     * Continues and updates shape dragging if it is in progress. Position is applied once per frame. Otherwise does
+     * nothing.
      *
      * @param event mouse event
      */
@@ -199,12 +256,13 @@ public abstract class ShapeComponentView<TargetShape extends Shape> extends Pane
             return;
         }
 
-        this.setLayoutX(event.getSceneX() + draggingOffset.x());
-        this.setLayoutY(event.getSceneY() + draggingOffset.y());
+        // pointer moves in screen pixels, which are scaled by the viewport
+        double scale = stateManager.getViewport().getScale();
+        stateManager.getPointerInput().move(shapeId, event.getSceneX() / scale + draggingOffset.x(), event.getSceneY() / scale + draggingOffset.y());
     }
 
     /**
-     * Finishes dragging if is in progress. Otherwise, does nothing.
+     * Finishes dragging if is in progress, so the whole dragging is undone at once. Otherwise, does nothing.
      *
      * @param event mouse event
      */
@@ -214,6 +272,8 @@ public abstract class ShapeComponentView<TargetShape extends Shape> extends Pane
         }
 
         draggingOffset = null;
+        stateManager.getPointerInput().flush();
+        stateManager.getHistory().seal();
         this.setCursor(Cursor.HAND);
     }
 }
@@ -1,26 +1,65 @@
 package com.demo.lab5.shapes;
 
+import com.demo.lab5.ColorUtils;
+import com.demo.lab5.DrawingPaneStateManager;
+import com.demo.lab5.ErrorUtils;
+import com.demo.lab5.ShapeSelection;
+import com.demo.lab5.model.ShapeHistory;
+import com.demo.lab5.model.ShapeStore;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.control.ColorPicker;
 import javafx.scene.control.Label;
+import javafx.scene.control.MenuButton;
+import javafx.scene.control.MenuItem;
+import javafx.scene.control.SeparatorMenuItem;
 import javafx.scene.control.TextField;
+import javafx.scene.control.TextInputDialog;
+import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.HBox;
-import javafx.scene.paint.Color;
-import javafx.scene.shape.Shape;
 
 /**
  * ShapeToolbarComponentView is component that provides a toolbar for modifying the properties of a shape like
- * rotation, stroke color and fill color.
+ * rotation, stroke color and fill color. If the shape is selected with other shapes, all of them are modified with a
+ * single bulk edit.
+ * <p>
+ * Geometry menu runs operations of {@link GeometryEngine} on the selected shapes, or on the target shape alone: union,
+ * intersection and difference of several shapes, convex hull and simplification of polygons.
+ * <p>
+ * A single toolbar is shared by all views. It is moved to the view of the selected shape and
+ * {@link #setTarget(int) retargeted}, so selecting shapes doesn't create controls.
  */
 public class ShapeToolbarComponentView extends HBox {
+    private final ShapeHistory history;
+    private final TextField rotationField;
+    private final ColorPicker strokeColorPicker;
+    private final ColorPicker fillColorPicker;
+    private final MenuButton geometryMenu;
 
     /**
-     * Initializes component and draws it over the shape. Shape argument is used to modify its properties.
+     * Id of target shape or {@link DrawingPaneStateManager#NO_SHAPE}
+     */
+    private int shapeId = DrawingPaneStateManager.NO_SHAPE;
+    /**
+     * True while controls are updated from the store, so color pickers, which fire actions on every change of their
+     * value, don't edit the shape
+     */
+    private boolean refreshing;
+    /**
+     * Tolerance of the last simplification, offered for the next one
+     */
+    private double simplifyTolerance = 1;
+
+    /**
+     * Initializes component without target shape. Changes are made through the history, so they can be undone.
      *
-     * @param shape target shape
+     * @param history   history of the store with shapes
+     * @param selection selection of the drawing
+     * @param engine    engine running geometry operations
      */
-    public ShapeToolbarComponentView(Shape shape) {
+    public ShapeToolbarComponentView(ShapeHistory history, ShapeSelection selection, GeometryEngine engine) {
+        this.history = history;
+
         this.setWidth(50);
         this.setHeight(0);
         this.setLayoutX(0);
@@ -31,27 +70,72 @@ public class ShapeToolbarComponentView extends HBox {
         this.setPadding(new Insets(5));
         this.setSpacing(5);
 
-        TextField rotationField = new TextField(String.valueOf(shape.getRotate()));
+        // clicks on the toolbar must not reach the drawing area, where they would select shapes under the toolbar
+        this.addEventHandler(MouseEvent.MOUSE_CLICKED, MouseEvent::consume);
+
+        rotationField = new TextField();
 
         rotationField.setOnAction(event -> {
+            double angle;
             try {
-                double angle = Double.parseDouble(rotationField.getText());
-                shape.setRotate(angle);
+                angle = Double.parseDouble(rotationField.getText());
             } catch (NumberFormatException e) {
                 // reset on invalid value
-                shape.setRotate(0);
+                angle = 0;
                 rotationField.setText("0");
             }
+
+            if (isGrouped(selection)) {
+                history.rotateAll(selection.toArray(), angle);
+            } else {
+                history.rotate(shapeId, angle);
+            }
         });
 
-        ColorPicker strokeColorPicker = new ColorPicker((Color) shape.getStroke());
+        strokeColorPicker = new ColorPicker();
         strokeColorPicker.setOnAction(event -> {
-            shape.setStroke(strokeColorPicker.getValue());
+            if (refreshing) {
+                return;
+            }
+
+            int stroke = ColorUtils.toArgb(strokeColorPicker.getValue());
+
+            if (isGrouped(selection)) {
+                history.setStrokeAll(selection.toArray(), stroke);
+            } else {
+                history.setStroke(shapeId, stroke);
+            }
         });
 
-        ColorPicker fillColorPicker = new ColorPicker((Color) shape.getFill());
+        fillColorPicker = new ColorPicker();
         fillColorPicker.setOnAction(event -> {
-            shape.setFill(fillColorPicker.getValue());
+            if (refreshing) {
+                return;
+            }
+
+            int fill = ColorUtils.toArgb(fillColorPicker.getValue());
+
+            if (isGrouped(selection)) {
+                history.setFillAll(selection.toArray(), fill);
+            } else {
+                history.setFill(shapeId, fill);
+            }
+        });
+
+        MenuItem union = geometryItem("Union", GeometryEngine.Operation.UNION, engine, selection);
+        MenuItem intersection = geometryItem("Intersection", GeometryEngine.Operation.INTERSECTION, engine, selection);
+        MenuItem difference = geometryItem("Difference", GeometryEngine.Operation.DIFFERENCE, engine, selection);
+        MenuItem convexHull = geometryItem("Convex hull", GeometryEngine.Operation.CONVEX_HULL, engine, selection);
+        MenuItem simplify = geometryItem("Simplify...", GeometryEngine.Operation.SIMPLIFY, engine, selection);
+
+        geometryMenu = new MenuButton("Geometry");
+        geometryMenu.getItems().addAll(union, intersection, difference, new SeparatorMenuItem(), convexHull, simplify);
+        geometryMenu.setOnShowing(event -> {
+            // combining operations need at least two shapes
+            boolean single = !isGrouped(selection);
+            union.setDisable(single);
+            intersection.setDisable(single);
+            difference.setDisable(single);
         });
 
         this.getChildren().add(new Label("Rotation:"));
@@ -60,5 +144,105 @@ public class ShapeToolbarComponentView extends HBox {
         this.getChildren().add(strokeColorPicker);
         this.getChildren().add(new Label("Fill:"));
         this.getChildren().add(fillColorPicker);
+        this.getChildren().add(geometryMenu);
+    }
+
+    private MenuItem geometryItem(String text, GeometryEngine.Operation operation, GeometryEngine engine, ShapeSelection selection) {
+        MenuItem item = new MenuItem(text);
+
+        item.setOnAction(event -> {
+            double tolerance = 0;
+            if (operation == GeometryEngine.Operation.SIMPLIFY) {
+                tolerance = askTolerance();
+                if (tolerance <= 0) {
+                    return;
+                }
+            }
+
+            int[] ids = isGrouped(selection) ? selection.toArray() : new int[]{shapeId};
+            // the menu is enabled again when results are applied
+            geometryMenu.setDisable(true);
+            engine.run(operation, ids, tolerance, () -> geometryMenu.setDisable(false));
+        });
+
+        return item;
+    }
+
+    /**
+     * Asks for tolerance of simplification.
+     *
+     * @return positive tolerance or 0 if the dialog was cancelled or the value is invalid
+     */
+    private double askTolerance() {
+        TextInputDialog dialog = new TextInputDialog(String.valueOf(simplifyTolerance));
+        dialog.setTitle("Simplify");
+        dialog.setHeaderText("Points closer to the simplified outline than the tolerance are removed.");
+        dialog.setContentText("Tolerance:");
+
+        String text = dialog.showAndWait().orElse(null);
+        if (text == null) {
+            return 0;
+        }
+
+        try {
+            double tolerance = Double.parseDouble(text);
+            if (tolerance > 0 && Double.isFinite(tolerance)) {
+                simplifyTolerance = tolerance;
+                return tolerance;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+
+        ErrorUtils.showError("Simplify", "Invalid tolerance", "Tolerance must be a positive number.");
+        return 0;
+    }
+
+    /**
+     * Makes the toolbar edit another shape and shows its values.
+     *
+     * @param shapeId id of target shape
+     */
+    public void setTarget(int shapeId) {
+        this.shapeId = shapeId;
+        rotationField.setText(String.valueOf(history.getStore().getRotation(shapeId)));
+        refresh();
+    }
+
+    public int getTarget() {
+        return shapeId;
+    }
+
+    /**
+     * Shows current values of target shape. Controls are changed only if values differ, so refreshing on every change
+     * of the shape is cheap. Rotation which is being typed is kept.
+     */
+    public void refresh() {
+        if (shapeId == DrawingPaneStateManager.NO_SHAPE) {
+            return;
+        }
+
+        ShapeStore store = history.getStore();
+        String rotation = String.valueOf(store.getRotation(shapeId));
+        refreshing = true;
+
+        if (!rotationField.isFocused() && !rotation.equals(rotationField.getText())) {
+            rotationField.setText(rotation);
+        }
+        if (ColorUtils.toArgb(strokeColorPicker.getValue()) != store.getStroke(shapeId)) {
+            strokeColorPicker.setValue(ColorUtils.fromArgb(store.getStroke(shapeId)));
+        }
+        if (ColorUtils.toArgb(fillColorPicker.getValue()) != store.getFill(shapeId)) {
+            fillColorPicker.setValue(ColorUtils.fromArgb(store.getFill(shapeId)));
+        }
+
+        refreshing = false;
+    }
+
+    /**
+     * Checks if target shape is selected together with other shapes.
+     */
+    private boolean isGrouped(ShapeSelection selection) {
+        return selection.size() > 1 && selection.contains(shapeId);
     }
 }
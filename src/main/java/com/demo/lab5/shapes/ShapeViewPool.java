@@ -0,0 +1,77 @@
+package com.demo.lab5.shapes;
+
+import com.demo.lab5.DrawingPaneStateManager;
+import com.demo.lab5.model.ShapeType;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Pool of detached shape views. Views of shapes which left the visible part of the drawing are released here and bound
+ * to shapes which became visible, so panning doesn't create and collect nodes.
+ * <p>
+ * Every type of shape has its own pool of limited size, so the pool doesn't keep more views than a few screens need.
+ */
+public class ShapeViewPool {
+    private final DrawingPaneStateManager stateManager;
+    /**
+     * Maximal number of free views of a single type
+     */
+    private final int capacity;
+    /**
+     * Free views by type of shapes they can show
+     */
+    private final Map<ShapeType, ArrayDeque<ShapeComponentView<?>>> free;
+
+    /**
+     * Creates empty pool.
+     *
+     * @param stateManager state manager holding the store
+     * @param capacity     maximal number of free views of a single type
+     */
+    public ShapeViewPool(DrawingPaneStateManager stateManager, int capacity) {
+        this.stateManager = stateManager;
+        this.capacity = capacity;
+        this.free = new EnumMap<>(ShapeType.class);
+    }
+
+    /**
+     * Returns view of the shape. Free view of the same type is reused if there is one, otherwise new view is created.
+     *
+     * @param shapeId id of the shape
+     * @return view showing the shape
+     */
+    public ShapeComponentView<?> acquire(int shapeId) {
+        ArrayDeque<ShapeComponentView<?>> views = free.get(stateManager.getStore().getType(shapeId));
+        ShapeComponentView<?> view = views == null ? null : views.pollLast();
+
+        if (view == null) {
+            return ShapeComponentFactory.create(stateManager, shapeId);
+        }
+
+        view.bind(shapeId);
+        return view;
+    }
+
+    /**
+     * Returns detached view to the pool. View is dropped if the pool of its type is full.
+     *
+     * @param view view which is not attached to the drawing area anymore
+     */
+    public void release(ShapeComponentView<?> view) {
+        ArrayDeque<ShapeComponentView<?>> views = free.computeIfAbsent(view.getViewType(), type -> new ArrayDeque<>());
+
+        if (views.size() < capacity) {
+            view.onDeselected();
+            views.addLast(view);
+        }
+    }
+
+    /**
+     * Drops all free views.
+     */
+    public void clear() {
+        free.clear();
+    }
+}
@@ -2,10 +2,14 @@ module com.demo.lab5 {
     requires javafx.controls;
     requires javafx.fxml;
     requires java.xml;
+    requires java.desktop;
+    requires java.management;
+    requires jdk.jfr;
 
 
     opens com.demo.lab5 to javafx.fxml;
     exports com.demo.lab5;
+    exports com.demo.lab5.model;
     exports com.demo.lab5.shapes;
     opens com.demo.lab5.shapes to javafx.fxml;
 }
\ No newline at end of file
@@ -0,0 +1,184 @@
+package com.demo.lab5;
+
+import com.demo.lab5.model.ShapeStore;
+import com.demo.lab5.model.ShapeType;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+class CollaborationTest {
+    /**
+     * Points of every polygon, enough for rebasing of local shapes to compact the point pool
+     */
+    private static final int POINTS = 300;
+
+    private static double[] polygonPoints(SplittableRandom random) {
+        double[] points = new double[2 * POINTS];
+        for (int i = 0; i < POINTS; i++) {
+            double angle = 2 * Math.PI * i / POINTS;
+            double distance = random.nextDouble(20, 40);
+            points[2 * i] = 40 + distance * Math.cos(angle);
+            points[2 * i + 1] = 40 + distance * Math.sin(angle);
+        }
+        return points;
+    }
+
+    private static void addPolygon(ShapeStore store, SplittableRandom random) {
+        double[] points = polygonPoints(random);
+        store.addPolygon(random.nextDouble(1000), random.nextDouble(1000), points, 0, points.length, random.nextDouble(360),
+                random.nextInt(), ShapeStore.DEFAULT_STROKE);
+    }
+
+    private static void assertSameDrawing(ShapeStore expected, ShapeStore actual) {
+        assertEquals(expected.size(), actual.size());
+
+        for (int id = 0; id < expected.size(); id++) {
+            assertEquals(expected.getType(id), actual.getType(id));
+            assertEquals(expected.getX(id), actual.getX(id));
+            assertEquals(expected.getY(id), actual.getY(id));
+            assertEquals(expected.getRotation(id), actual.getRotation(id));
+            assertEquals(expected.getFill(id), actual.getFill(id));
+            assertEquals(expected.getPointCount(id), actual.getPointCount(id));
+
+            for (int point = 0; point < expected.getPointCount(id); point++) {
+                assertEquals(expected.getPointX(id, point), actual.getPointX(id, point), 1e-9);
+                assertEquals(expected.getPointY(id, point), actual.getPointY(id, point), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    void clientsEditingPolygonsConverge() throws Exception {
+        SplittableRandom random = new SplittableRandom(1);
+        ShapeStore document = new ShapeStore();
+        for (int i = 0; i < 20; i++) {
+            addPolygon(document, random);
+        }
+
+        try (CollaborationServer server = new CollaborationServer(document, 0);
+             Peer first = new Peer(1);
+             Peer second = new Peer(2)) {
+            first.connect(server.getPort());
+            second.connect(server.getPort());
+
+            // both clients add polygons in the same frames, so each of them rebases its own shapes on the other's
+            for (int round = 0; round < 30; round++) {
+                first.call(first::edit);
+                second.call(second::edit);
+                TimeUnit.MILLISECONDS.sleep(5);
+            }
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+            while (true) {
+                ShapeStore[] shared = new ShapeStore[1];
+                server.inspect(drawing -> shared[0] = drawing.copy());
+                ShapeStore firstDrawing = first.call(() -> first.client.isSynchronized() ? first.store.copy() : null);
+                ShapeStore secondDrawing = second.call(() -> second.client.isSynchronized() ? second.store.copy() : null);
+
+                if (firstDrawing != null && secondDrawing != null
+                        && firstDrawing.size() == shared[0].size() && secondDrawing.size() == shared[0].size()) {
+                    try {
+                        assertSameDrawing(shared[0], firstDrawing);
+                        assertSameDrawing(shared[0], secondDrawing);
+                        break;
+                    } catch (AssertionError e) {
+                        // updates of the last batches may still be on their way
+                        if (System.nanoTime() > deadline) {
+                            throw e;
+                        }
+                    }
+                }
+                if (System.nanoTime() > deadline) {
+                    fail("Clients didn't synchronize in time");
+                }
+                TimeUnit.MILLISECONDS.sleep(50);
+            }
+
+            assertTrue(first.disconnected == null && second.disconnected == null);
+        }
+    }
+
+    /**
+     * Client whose store is owned by its own thread, which plays the role of the JavaFX Application Thread and sends
+     * changes once per frame.
+     */
+    private static final class Peer implements CollaborationClient.Listener, AutoCloseable {
+        private final ScheduledExecutorService thread = Executors.newSingleThreadScheduledExecutor();
+        private final ShapeStore store = new ShapeStore();
+        private final CollaborationClient client = new CollaborationClient(store, thread, this);
+        private final SplittableRandom random;
+        private volatile boolean joined;
+        private volatile IOException disconnected;
+
+        Peer(int seed) {
+            this.random = new SplittableRandom(seed);
+        }
+
+        void connect(int port) throws Exception {
+            client.connect("localhost", port);
+            thread.scheduleAtFixedRate(client::flush, 0, 16, TimeUnit.MILLISECONDS);
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (!joined) {
+                if (disconnected != null || System.nanoTime() > deadline) {
+                    fail("Client didn't join", disconnected);
+                }
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+        }
+
+        <T> T call(Callable<T> action) throws Exception {
+            return thread.submit(action).get(10, TimeUnit.SECONDS);
+        }
+
+        /**
+         * Adds a polygon, adds a point to a polygon and sometimes removes the last shape.
+         */
+        Void edit() {
+            addPolygon(store, random);
+
+            int id = random.nextInt(store.size());
+            if (store.getType(id) == ShapeType.POLYGON) {
+                store.addPoint(id, store.getX(id) + random.nextDouble(80), store.getY(id) + random.nextDouble(80));
+            }
+            if (random.nextInt(4) == 0) {
+                store.truncate(store.size() - 1);
+            }
+
+            return null;
+        }
+
+        @Override
+        public void structureChanged() {
+            joined = true;
+        }
+
+        @Override
+        public void disconnected(IOException cause) {
+            disconnected = cause;
+        }
+
+        @Override
+        public void changesPending() {
+            // changes are sent in the next frame
+        }
+
+        @Override
+        public void close() throws Exception {
+            call(() -> {
+                client.close();
+                return null;
+            });
+            thread.shutdown();
+        }
+    }
+}
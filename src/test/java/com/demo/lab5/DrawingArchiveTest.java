@@ -0,0 +1,304 @@
+package com.demo.lab5;
+
+import com.demo.lab5.model.ShapeGeometry;
+import com.demo.lab5.model.ShapeStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+import static com.demo.lab5.ShapesBinaryEncoderTest.drawing;
+import static com.demo.lab5.model.TestShapes.assertSameShapes;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DrawingArchiveTest {
+    @TempDir
+    private Path directory;
+
+    /**
+     * Creates drawing of small rectangles in a square grid, so chunks cover separate parts of it.
+     */
+    private static ShapeStore grid(int side) {
+        ShapeStore store = new ShapeStore();
+        for (int i = 0; i < side * side; i++) {
+            store.addRectangle(10 * (i % side), 10 * (i / side), 5, 5, 0, i, ~i);
+        }
+        return store;
+    }
+
+    private static void addPolygons(ShapeStore store, int count, int points, Random random) {
+        double[] coordinates = new double[2 * points];
+        for (int i = 0; i < count; i++) {
+            for (int j = 0; j < coordinates.length; j++) {
+                coordinates[j] = 100 * random.nextDouble();
+            }
+            store.addPolygon(random.nextInt(1000), random.nextInt(1000), coordinates, 0, coordinates.length, 0,
+                    random.nextInt(), random.nextInt());
+        }
+    }
+
+    private Path file() {
+        return directory.resolve("drawing.jfxa");
+    }
+
+    private DrawingArchive write(ShapeStore store) throws IOException {
+        try (FileChannel channel = FileChannel.open(file(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            return DrawingArchive.write(store, channel, id -> {
+            });
+        }
+    }
+
+    private void update(DrawingArchive archive, DrawingArchive.Update update) throws IOException {
+        try (FileChannel channel = FileChannel.open(file(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            archive.update(channel, update, written -> {
+            });
+        }
+    }
+
+    /**
+     * Writes changes tracked since the last update, the same way as saving to the archive the drawing came from.
+     *
+     * @return number of written shapes
+     */
+    private int update(DrawingArchive archive, ShapeStore store, DrawingArchive.ChangeTracker tracker) throws IOException {
+        assertFalse(tracker.isCleared());
+        DrawingArchive.Update update = archive.prepareUpdate(store, tracker.getChangedIds());
+        tracker.reset();
+
+        update(archive, update);
+        assertEquals(store.size(), archive.size());
+        return update.getShapeCount();
+    }
+
+    private ShapeStore read() throws IOException {
+        ShapeStore decoded = new ShapeStore();
+        try (FileChannel channel = FileChannel.open(file(), StandardOpenOption.READ)) {
+            int[] next = new int[1];
+            DrawingArchive.read(channel, decoded, id -> assertEquals(next[0]++, id));
+        }
+        return decoded;
+    }
+
+    @Test
+    void roundTripKeepsEveryShape() throws IOException {
+        ShapeStore store = grid(60);
+        store.addAll(drawing());
+        write(store);
+
+        assertSameShapes(store, read());
+    }
+
+    @Test
+    void roundTripOfEmptyDrawing() throws IOException {
+        write(new ShapeStore());
+
+        assertEquals(0, read().size());
+    }
+
+    @Test
+    void updateWritesOnlyChunksWithChangedShapes() throws IOException {
+        ShapeStore store = grid(64);
+        DrawingArchive archive = write(store);
+        DrawingArchive.ChangeTracker tracker = new DrawingArchive.ChangeTracker();
+        store.addListener(tracker);
+
+        // edits of a single chunk
+        store.setPosition(0, -50, -50);
+        store.setFill(1, 0xFF0000FF);
+        store.setRotation(64, 45);
+        assertEquals(DrawingArchive.CHUNK_SIZE, update(archive, store, tracker));
+        assertSameShapes(store, read());
+
+        // added shapes fill the last chunk first, the rest forms new chunks
+        store.addAll(drawing());
+        addPolygons(store, 2 * DrawingArchive.CHUNK_SIZE, 3, new Random(1));
+        int written = update(archive, store, tracker);
+        assertTrue(written < store.size());
+        assertTrue(written > 2 * DrawingArchive.CHUNK_SIZE);
+        assertSameShapes(store, read());
+
+        // removed shapes are dropped from their chunks, shapes added in their place are written to the same chunks
+        store.truncate(3000);
+        update(archive, store, tracker);
+        assertSameShapes(store, read());
+
+        store.addAll(drawing());
+        store.setStroke(2999, 0xFF00FF00);
+        update(archive, store, tracker);
+        assertSameShapes(store, read());
+
+        // archive read from the file updates it the same way
+        try (FileChannel channel = FileChannel.open(file(), StandardOpenOption.READ)) {
+            archive = DrawingArchive.read(channel, new ShapeStore(), id -> {
+            });
+        }
+        store.setPosition(10, 1, 2);
+        store.addAll(drawing());
+        update(archive, store, tracker);
+        assertSameShapes(store, read());
+    }
+
+    @Test
+    void truncationLeavesEmptyChunksUntilRewrite() throws IOException {
+        ShapeStore store = grid(100);
+        DrawingArchive archive = write(store);
+        DrawingArchive.ChangeTracker tracker = new DrawingArchive.ChangeTracker();
+        store.addListener(tracker);
+        assertFalse(archive.needsRewrite());
+
+        // the first row of the grid lies in a few chunks, others hold only removed shapes and are kept empty
+        store.truncate(50);
+        update(archive, store, tracker);
+        assertSameShapes(store, read());
+        assertTrue(archive.needsRewrite());
+
+        // empty chunks don't hold shapes anywhere
+        store.truncate(0);
+        assertEquals(0, update(archive, store, tracker));
+        assertEquals(0, read().size());
+        try (FileChannel channel = FileChannel.open(file(), StandardOpenOption.READ)) {
+            assertEquals(0, DrawingArchive.read(channel, -1e9, -1e9, 1e9, 1e9, new ShapeStore()).length);
+        }
+
+        // shapes added after all were removed fill the last chunk
+        store.addAll(drawing());
+        update(archive, store, tracker);
+        assertSameShapes(store, read());
+
+        // writing the whole file again drops empty chunks
+        assertFalse(write(store).needsRewrite());
+    }
+
+    @Test
+    void replacedChunksLargerThanDrawingNeedRewrite() throws IOException {
+        // random points don't compress, so a single chunk takes more than the garbage always allowed
+        ShapeStore store = new ShapeStore();
+        addPolygons(store, DrawingArchive.CHUNK_SIZE, 100, new Random(2));
+        DrawingArchive archive = write(store);
+        DrawingArchive.ChangeTracker tracker = new DrawingArchive.ChangeTracker();
+        store.addListener(tracker);
+
+        store.setFill(0, 1);
+        update(archive, store, tracker);
+        assertFalse(archive.needsRewrite());
+
+        store.setFill(0, 2);
+        update(archive, store, tracker);
+        assertTrue(archive.needsRewrite());
+        assertSameShapes(store, read());
+    }
+
+    @Test
+    void clearingCantBeUpdated() {
+        ShapeStore store = grid(2);
+        DrawingArchive.ChangeTracker tracker = new DrawingArchive.ChangeTracker();
+        store.addListener(tracker);
+
+        store.setFill(1, 0);
+        store.clear();
+
+        assertTrue(tracker.isCleared());
+        assertTrue(tracker.getChangedIds().get(1));
+        tracker.reset();
+        assertFalse(tracker.isCleared());
+        assertTrue(tracker.getChangedIds().isEmpty());
+    }
+
+    @Test
+    void regionReadDecodesOnlyIntersectingChunks() throws IOException {
+        ShapeStore store = grid(100);
+        write(store);
+
+        ShapeStore region = new ShapeStore();
+        int[] ids;
+        try (FileChannel channel = FileChannel.open(file(), StandardOpenOption.READ)) {
+            ids = DrawingArchive.read(channel, 0, 0, 100, 100, region);
+        }
+
+        // whole chunks are read, so shapes around the region come too, but not the whole drawing
+        assertEquals(ids.length, region.size());
+        assertTrue(ids.length >= DrawingArchive.CHUNK_SIZE);
+        assertTrue(ids.length < store.size());
+
+        double[] bounds = new double[4];
+        BitSet read = new BitSet();
+        for (int i = 0; i < ids.length; i++) {
+            read.set(ids[i]);
+            assertEquals(store.getX(ids[i]), region.getX(i));
+            assertEquals(store.getY(ids[i]), region.getY(i));
+            assertEquals(store.getFill(ids[i]), region.getFill(i));
+        }
+        for (int id = 0; id < store.size(); id++) {
+            ShapeGeometry.bounds(store, id, bounds);
+            if (bounds[2] >= 0 && bounds[0] <= 100 && bounds[3] >= 0 && bounds[1] <= 100) {
+                assertTrue(read.get(id), "shape " + id + " intersects the region");
+            }
+        }
+    }
+
+    @Test
+    void interruptedUpdateLeavesPreviousDrawing() throws IOException {
+        ShapeStore store = grid(64);
+        DrawingArchive archive = write(store);
+        ShapeStore previous = store.copy();
+        DrawingArchive.ChangeTracker tracker = new DrawingArchive.ChangeTracker();
+        store.addListener(tracker);
+
+        ByteBuffer header = ByteBuffer.allocate(DrawingArchive.HEADER_SIZE);
+        try (FileChannel channel = FileChannel.open(file(), StandardOpenOption.READ)) {
+            channel.read(header, 0);
+        }
+
+        store.setPosition(5, 1000, 1000);
+        store.truncate(2000);
+        store.addAll(drawing());
+        update(archive, store, tracker);
+
+        // the same file as if the update was interrupted before the header was written
+        header.flip();
+        try (FileChannel channel = FileChannel.open(file(), StandardOpenOption.WRITE)) {
+            channel.write(header, 0);
+        }
+        assertSameShapes(previous, read());
+
+        // chunks of the interrupted update are garbage, another update appends after them
+        try (FileChannel channel = FileChannel.open(file(), StandardOpenOption.READ)) {
+            archive = DrawingArchive.read(channel, new ShapeStore(), id -> {
+            });
+        }
+        BitSet changed = new BitSet();
+        changed.set(0, store.size());
+        update(archive, archive.prepareUpdate(store, changed));
+        assertSameShapes(store, read());
+    }
+
+    @Test
+    void rejectsDamagedFiles() throws IOException {
+        write(grid(10));
+
+        // index pointing past the end of the file
+        try (FileChannel channel = FileChannel.open(file(), StandardOpenOption.WRITE)) {
+            ByteBuffer offset = ByteBuffer.allocate(Long.BYTES).putLong(0, Long.MAX_VALUE);
+            channel.write(offset, DrawingArchive.HEADER_SIZE - Long.BYTES);
+        }
+        assertThrows(IOException.class, this::read);
+
+        byte[] bytes = new byte[100];
+        Arrays.fill(bytes, (byte) 1);
+        try (FileChannel channel = FileChannel.open(file(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.wrap(bytes));
+        }
+        assertThrows(IOException.class, this::read);
+    }
+}
@@ -0,0 +1,238 @@
+package com.demo.lab5;
+
+import com.demo.lab5.model.ShapeStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+
+import static com.demo.lab5.ShapesBinaryEncoderTest.drawing;
+import static com.demo.lab5.model.TestShapes.assertSameShapes;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DrawingJournalTest {
+    @TempDir
+    private Path directory;
+
+    private Path save(ShapeStore store, DrawingFormat format) throws IOException, XMLStreamException {
+        Path drawing = directory.resolve("drawing." + format.getExtension());
+        try (FileChannel channel = FileChannel.open(drawing, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            format.write(store, channel, id -> {
+            });
+        }
+        return drawing;
+    }
+
+    /**
+     * Encodes batch the same way as autosave does.
+     */
+    private static byte[] batch(ShapeStore store, int... ids) throws IOException {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        WritableByteChannel channel = Channels.newChannel(encoded);
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+        DrawingJournal.encodeBatch(store, ids, ids.length, buffer, channel);
+        ShapesBinaryEncoder.flush(buffer, channel);
+        return encoded.toByteArray();
+    }
+
+    private static void append(DrawingJournal journal, byte[] batch) throws IOException {
+        journal.append(batch, batch.length);
+    }
+
+    private static ShapeStore replay(Path drawing, DrawingFormat format) throws IOException, XMLStreamException {
+        ShapeStore replayed = new ShapeStore();
+        DrawingJournal.replay(drawing, format, replayed, id -> {
+        });
+        return replayed;
+    }
+
+    @Test
+    void replayAppliesChangesToDrawing() throws Exception {
+        ShapeStore store = drawing();
+        Path drawing = save(store, DrawingFormat.BINARY);
+
+        try (DrawingJournal journal = new DrawingJournal(drawing)) {
+            journal.reset();
+            assertFalse(DrawingJournal.isRecoverable(drawing));
+
+            store.setPosition(1, 50, 60);
+            store.setFill(3, 0xFF0000FF);
+            append(journal, batch(store, 1, 3));
+
+            double[] points = {0, 0, 4, 0, 0, 4};
+            store.addPolygon(7, 8, points, 0, points.length, 10, 1, 2);
+            store.addPoint(2, 1, 1);
+            append(journal, batch(store, 2, 5));
+        }
+
+        assertTrue(DrawingJournal.isRecoverable(drawing));
+        assertSameShapes(store, replay(drawing, DrawingFormat.BINARY));
+    }
+
+    @Test
+    void replayRemovesShapesAboveSizeOfBatch() throws Exception {
+        ShapeStore store = drawing();
+        Path drawing = save(store, DrawingFormat.XML);
+
+        try (DrawingJournal journal = new DrawingJournal(drawing)) {
+            journal.reset();
+
+            store.truncate(2);
+            store.addCircle(1, 1, 1, 0, 3, 4);
+            // shape changed before it was removed isn't written
+            append(journal, batch(store, 1, 2, 4));
+        }
+
+        assertSameShapes(store, replay(drawing, DrawingFormat.XML));
+    }
+
+    @Test
+    void replayIgnoresBatchTornByCrash() throws Exception {
+        ShapeStore store = drawing();
+        Path drawing = save(store, DrawingFormat.BINARY);
+        Path journalPath;
+
+        try (DrawingJournal journal = new DrawingJournal(drawing)) {
+            journal.reset();
+            journalPath = journal.getPath();
+
+            store.setPosition(0, -1, -1);
+            append(journal, batch(store, 0));
+        }
+        ShapeStore expected = store.copy();
+
+        store.setPosition(4, 1000, 1000);
+        byte[] torn = batch(store, 4);
+        try (FileChannel channel = FileChannel.open(journalPath, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + torn.length / 2);
+            buffer.putInt(torn.length);
+            buffer.put(torn, 0, torn.length / 2);
+            buffer.flip();
+            channel.write(buffer);
+        }
+
+        assertSameShapes(expected, replay(drawing, DrawingFormat.BINARY));
+    }
+
+    @Test
+    void replayIgnoresBatchWithWrongChecksum() throws Exception {
+        ShapeStore store = drawing();
+        Path drawing = save(store, DrawingFormat.BINARY);
+        Path journalPath;
+        ShapeStore expected;
+
+        try (DrawingJournal journal = new DrawingJournal(drawing)) {
+            journal.reset();
+            journalPath = journal.getPath();
+
+            store.setFill(0, 1);
+            append(journal, batch(store, 0));
+            expected = store.copy();
+
+            store.setFill(1, 2);
+            append(journal, batch(store, 1));
+        }
+
+        // damage the last byte of the second batch, just before its checksum
+        try (FileChannel channel = FileChannel.open(journalPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long position = channel.size() - Integer.BYTES - 1;
+            ByteBuffer value = ByteBuffer.allocate(1);
+            channel.read(value, position);
+            value.put(0, (byte) ~value.get(0));
+            value.rewind();
+            channel.write(value, position);
+        }
+
+        assertSameShapes(expected, replay(drawing, DrawingFormat.BINARY));
+    }
+
+    @Test
+    void compactionReplacesJournalWithSnapshot() throws Exception {
+        ShapeStore store = drawing();
+        Path drawing = save(store, DrawingFormat.BINARY);
+
+        try (DrawingJournal journal = new DrawingJournal(drawing)) {
+            journal.reset();
+
+            for (int i = 0; i < 10; i++) {
+                store.setPosition(3, i, i);
+                append(journal, batch(store, 3));
+            }
+
+            journal.compact(store);
+            assertFalse(journal.needsCompaction());
+            assertSameShapes(store, replay(drawing, DrawingFormat.BINARY));
+
+            // batches are appended after the snapshot
+            store.truncate(1);
+            store.setRotation(0, 90);
+            append(journal, batch(store, 0));
+        }
+
+        assertSameShapes(store, replay(drawing, DrawingFormat.BINARY));
+    }
+
+    @Test
+    void replayOnExportedDrawingFindsShapesCreatedByClick() throws Exception {
+        ShapeStore store = new ShapeStore();
+        store.addRectangle(0, 0, 0, 0, 0, ShapeStore.DEFAULT_FILL, ShapeStore.DEFAULT_STROKE);
+        store.addRectangle(10, 10, 20, 20, 0, ShapeStore.DEFAULT_FILL, ShapeStore.DEFAULT_STROKE);
+        double[] point = {0, 0};
+        store.addPolygon(30, 30, point, 0, point.length, 0, ShapeStore.DEFAULT_FILL, ShapeStore.DEFAULT_STROKE);
+        Path drawing = save(store, DrawingFormat.SVG);
+
+        try (DrawingJournal journal = new DrawingJournal(drawing)) {
+            journal.reset();
+            store.setFill(2, 0xFF0000FF);
+            append(journal, batch(store, 2));
+        }
+
+        ShapeStore replayed = replay(drawing, DrawingFormat.SVG);
+        assertEquals(3, replayed.size());
+        assertEquals(0xFF0000FF, replayed.getFill(2));
+    }
+
+    @Test
+    void journalOfChangedDrawingIsNotReplayed() throws Exception {
+        ShapeStore store = drawing();
+        Path drawing = save(store, DrawingFormat.BINARY);
+
+        try (DrawingJournal journal = new DrawingJournal(drawing)) {
+            journal.reset();
+            store.setFill(0, 5);
+            append(journal, batch(store, 0));
+        }
+        Files.setLastModifiedTime(drawing, FileTime.fromMillis(Files.getLastModifiedTime(drawing).toMillis() - 60_000));
+
+        assertFalse(DrawingJournal.isRecoverable(drawing));
+        assertThrows(IOException.class, () -> replay(drawing, DrawingFormat.BINARY));
+    }
+
+    @Test
+    void deleteRemovesJournal() throws Exception {
+        Path drawing = save(drawing(), DrawingFormat.BINARY);
+        DrawingJournal journal = new DrawingJournal(drawing);
+        journal.reset();
+        append(journal, batch(drawing(), 0));
+        assertEquals(DrawingJournal.pathFor(drawing.toAbsolutePath()), journal.getPath());
+        assertTrue(Files.exists(journal.getPath()));
+
+        journal.delete();
+        assertFalse(Files.exists(journal.getPath()));
+        assertFalse(DrawingJournal.isRecoverable(drawing));
+    }
+}
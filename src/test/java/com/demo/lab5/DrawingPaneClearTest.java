@@ -0,0 +1,146 @@
+package com.demo.lab5;
+
+import com.demo.lab5.model.ShapeStore;
+import com.demo.lab5.model.ShapeType;
+import com.demo.lab5.shapes.ShapeComponentFactory;
+import com.demo.lab5.shapes.ShapeComponentView;
+import javafx.scene.Group;
+import javafx.scene.Node;
+import javafx.scene.layout.Pane;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.demo.lab5.HeadlessToolkit.onFxThread;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that clearing the drawing area leaves nothing which keeps cleared shapes alive. Tests run on the JavaFX
+ * Application Thread of the headless toolkit.
+ */
+class DrawingPaneClearTest {
+    private static final int SHAPES = 300;
+
+    @BeforeAll
+    static void startToolkit() throws InterruptedException {
+        HeadlessToolkit.start();
+    }
+
+    /**
+     * Adds rectangles, circles and polygons large enough to be simplified when zoomed out, all inside the viewport.
+     */
+    private static void populate(DrawingPaneStateManager stateManager) {
+        ShapeStore store = stateManager.getStore();
+        double[] points = new double[2 * 100];
+        for (int i = 0; i < 100; i++) {
+            double angle = 2 * Math.PI * i / 100;
+            points[2 * i] = 20 + 20 * Math.cos(angle);
+            points[2 * i + 1] = 20 + 20 * Math.sin(angle);
+        }
+
+        for (int i = 0; i < SHAPES; i++) {
+            double x = 10 * (i % 30);
+            double y = 10 * (i / 30);
+
+            switch (i % 3) {
+                case 0 -> store.addRectangle(x, y, 20, 20, 0, ShapeStore.DEFAULT_FILL, ShapeStore.DEFAULT_STROKE);
+                case 1 -> store.addCircle(x, y, 10, 0, ShapeStore.DEFAULT_FILL, ShapeStore.DEFAULT_STROKE);
+                default -> store.addPolygon(x, y, points, 0, points.length, 0, ShapeStore.DEFAULT_FILL, ShapeStore.DEFAULT_STROKE);
+            }
+        }
+    }
+
+    private static void assertCollected(List<? extends WeakReference<?>> references) throws InterruptedException {
+        for (int attempt = 0; attempt < 50 && references.stream().anyMatch(reference -> reference.get() != null); attempt++) {
+            System.gc();
+            TimeUnit.MILLISECONDS.sleep(20);
+        }
+
+        for (WeakReference<?> reference : references) {
+            assertNull(reference.get());
+        }
+    }
+
+    @Test
+    void clearedViewsAndCachedPointsAreCollected() throws Exception {
+        DrawingPaneStateManager stateManager = new DrawingPaneStateManager();
+        Pane drawingBox = new Pane();
+
+        List<WeakReference<Object>> references = onFxThread(() -> {
+            populate(stateManager);
+
+            List<WeakReference<Object>> cleared = new ArrayList<>();
+            for (int id = 0; id < SHAPES; id++) {
+                ShapeComponentView<?> view = ShapeComponentFactory.create(stateManager, id);
+                drawingBox.getChildren().add(view);
+                cleared.add(new WeakReference<>(view));
+
+                if (stateManager.getStore().getType(id) == ShapeType.POLYGON) {
+                    double[] simplified = stateManager.getLevelOfDetail().simplifiedPoints(id, 0.01);
+                    assertNotNull(simplified);
+                    cleared.add(new WeakReference<>(simplified));
+                }
+            }
+
+            // selected view holds the shared toolbar and the drawn shape is pinned by the state manager
+            stateManager.setSelectedShape(5);
+            ((ShapeComponentView<?>) drawingBox.getChildren().get(5)).onSelected();
+            stateManager.setDrawnShape(SHAPES - 1);
+            ((ShapeComponentView<?>) drawingBox.getChildren().get(5)).onDeselected();
+
+            // the same as clearing the drawing area
+            stateManager.clearShapes();
+            drawingBox.getChildren().clear();
+
+            assertEquals(DrawingPaneStateManager.NO_SHAPE, stateManager.getSelectedShape());
+            assertEquals(DrawingPaneStateManager.NO_SHAPE, stateManager.getDrawnShape());
+            assertEquals(0, stateManager.getSelection().size());
+            assertEquals(0, stateManager.getSelectedShapeListenerCount());
+            return cleared;
+        });
+
+        assertCollected(references);
+        // cleared shapes are kept only by the journal, so clearing can be undone
+        assertTrue(stateManager.getHistory().canUndo());
+    }
+
+    @Test
+    void rendererDropsViewsOfClearedShapes() throws Exception {
+        DrawingPaneStateManager stateManager = new DrawingPaneStateManager();
+        NodeShapeRenderer renderer = new NodeShapeRenderer(new ShapeSpatialIndex(stateManager.getStore()), stateManager);
+        Pane drawingBox = new Pane();
+
+        List<WeakReference<Node>> references = onFxThread(() -> {
+            stateManager.getViewport().setSize(640, 400);
+            renderer.attach(drawingBox);
+            populate(stateManager);
+            stateManager.setSelectedShape(5);
+
+            Group layer = (Group) ((Group) drawingBox.getChildren().get(0)).getChildren().get(1);
+            assertFalse(layer.getChildren().isEmpty());
+            List<WeakReference<Node>> views = new ArrayList<>();
+            for (Node view : layer.getChildren()) {
+                views.add(new WeakReference<>(view));
+            }
+
+            stateManager.clearShapes();
+            assertTrue(layer.getChildren().isEmpty());
+            assertEquals(1, stateManager.getSelectedShapeListenerCount());
+
+            // views are pooled for the next drawing until renderer is switched
+            renderer.detach();
+            assertEquals(0, stateManager.getSelectedShapeListenerCount());
+            return views;
+        });
+
+        assertCollected(references);
+    }
+}
@@ -0,0 +1,62 @@
+package com.demo.lab5;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * JavaFX toolkit of tests which need the JavaFX Application Thread or animation pulses. Surefire selects the headless
+ * Monocle platform, so no display is needed.
+ */
+final class HeadlessToolkit {
+    private HeadlessToolkit() {
+    }
+
+    /**
+     * Starts the toolkit if it is not running yet.
+     */
+    static void start() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        try {
+            Platform.startup(started::countDown);
+        } catch (IllegalStateException e) {
+            // toolkit was started by another test
+            started.countDown();
+        }
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Runs the action on the JavaFX Application Thread and waits for its result.
+     */
+    static <T> T onFxThread(Callable<T> action) throws Exception {
+        FutureTask<T> task = new FutureTask<>(action);
+        Platform.runLater(task);
+        return task.get(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Waits until the pulse after actions submitted so far, so animation timers they started have run.
+     */
+    static void nextPulse() throws Exception {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+
+        // timers run in order they were started, so timers started before this one run first
+        Platform.runLater(() -> new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                stop();
+                done.complete(null);
+            }
+        }.start());
+
+        done.get(10, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,209 @@
+package com.demo.lab5;
+
+import com.demo.lab5.model.ShapeHistory;
+import com.demo.lab5.model.ShapeStore;
+import com.demo.lab5.model.ShapeStoreListener;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.demo.lab5.HeadlessToolkit.onFxThread;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that pointer input is applied once per pulse. Coalescer starts an animation timer, so tests run on the JavaFX
+ * Application Thread of the headless toolkit, where no pulse runs until the test action returns.
+ */
+class PointerInputCoalescerTest {
+    private ShapeStore store;
+    private ShapeHistory history;
+    private PointerInputCoalescer input;
+    /**
+     * Ids of changed shapes, sorted, for every store event
+     */
+    private final List<int[]> changes = new ArrayList<>();
+
+    @BeforeAll
+    static void startToolkit() throws InterruptedException {
+        HeadlessToolkit.start();
+    }
+
+    /**
+     * Creates drawing of 10 by 10 rectangles in a row, 100 pixels apart.
+     */
+    private void createDrawing() {
+        store = new ShapeStore();
+        for (int i = 0; i < 8; i++) {
+            store.addRectangle(100 * i, 0, 10, 10, 0, ShapeStore.DEFAULT_FILL, ShapeStore.DEFAULT_STROKE);
+        }
+        history = new ShapeHistory(store);
+        input = new PointerInputCoalescer(history);
+
+        store.addListener(new ShapeStoreListener() {
+            @Override
+            public void shapeChanged(int id) {
+                changes.add(new int[]{id});
+            }
+
+            @Override
+            public void shapesChanged(int[] ids, int count) {
+                int[] changed = Arrays.copyOf(ids, count);
+                Arrays.sort(changed);
+                changes.add(Arrays.stream(changed).distinct().toArray());
+            }
+        });
+    }
+
+    @Test
+    void changesWaitForFlush() throws Exception {
+        onFxThread(() -> {
+            createDrawing();
+            for (int i = 1; i <= 100; i++) {
+                input.move(0, i, 2 * i);
+            }
+            assertTrue(changes.isEmpty());
+            assertEquals(0, store.getX(0));
+
+            input.flush();
+            assertEquals(1, changes.size());
+            assertEquals(100, store.getX(0));
+            assertEquals(200, store.getY(0));
+
+            // nothing is pending anymore
+            input.flush();
+            assertEquals(1, changes.size());
+
+            history.seal();
+            history.undo();
+            assertEquals(0, store.getX(0));
+            return null;
+        });
+    }
+
+    @Test
+    void flushAppliesEveryKindOfChangeInFixedOrder() throws Exception {
+        onFxThread(() -> {
+            createDrawing();
+            int[] moved = {3, 4};
+            int[] scaled = {5, 6};
+
+            // changes arrive in the opposite order, several times each
+            for (int i = 0; i < 2; i++) {
+                input.scaleAll(scaled, 1.5);
+            }
+            for (int i = 0; i < 10; i++) {
+                input.moveAll(moved, 1, 2);
+            }
+            for (int i = 0; i < 5; i++) {
+                input.scale(2, 1.1);
+            }
+            for (int i = 1; i <= 10; i++) {
+                input.setDraggedSize(1, 100, 0, 100 + i, 3 * i);
+            }
+            input.move(0, -5, -6);
+            assertTrue(changes.isEmpty());
+
+            input.flush();
+            assertEquals(5, changes.size());
+            assertArrayEquals(new int[]{0}, changes.get(0));
+            assertArrayEquals(new int[]{1}, changes.get(1));
+            assertArrayEquals(new int[]{2}, changes.get(2));
+            assertArrayEquals(moved, changes.get(3));
+            assertArrayEquals(scaled, changes.get(4));
+
+            assertEquals(-5, store.getX(0));
+            assertEquals(10, store.getWidth(1));
+            assertEquals(30, store.getHeight(1));
+            // scroll scales are multiplied and applied once
+            assertEquals(10 * Math.pow(1.1, 5), store.getWidth(2), 1e-9);
+            assertEquals(310, store.getX(3));
+            assertEquals(20, store.getY(4));
+
+            // shapes are scaled 2.25 times around the center of their bounds
+            assertEquals(22.5, store.getWidth(5), 1e-9);
+            assertEquals(555 + (500 - 555) * 2.25, store.getX(5), 1e-9);
+            assertEquals(555 + (600 - 555) * 2.25, store.getX(6), 1e-9);
+            return null;
+        });
+    }
+
+    @Test
+    void otherShapeAppliesPendingChange() throws Exception {
+        onFxThread(() -> {
+            createDrawing();
+
+            input.move(0, 5, 5);
+            input.move(1, 7, 7);
+            assertEquals(1, changes.size());
+            assertEquals(5, store.getX(0));
+
+            input.scale(2, 2);
+            input.scale(3, 3);
+            assertEquals(20, store.getWidth(2));
+            input.flush();
+            // scale of the other shape starts again from 1
+            assertEquals(30, store.getWidth(3));
+            assertEquals(7, store.getX(1));
+
+            // other array of the same shapes is another drag
+            int[] first = {4, 5};
+            int[] second = {4, 5};
+            input.scaleAll(first, 2);
+            input.scaleAll(second, 3);
+            assertEquals(20, store.getWidth(4), 1e-9);
+            input.flush();
+            assertEquals(60, store.getWidth(4), 1e-9);
+
+            int before = changes.size();
+            double x = store.getX(4);
+            input.moveAll(first, 1, 0);
+            input.moveAll(second, 2, 0);
+            input.moveAll(second, 2, 0);
+            assertEquals(before + 1, changes.size());
+            input.flush();
+            assertEquals(before + 2, changes.size());
+            assertEquals(x + 5, store.getX(4), 1e-9);
+            return null;
+        });
+    }
+
+    @Test
+    void pulseAppliesPendingChanges() throws Exception {
+        onFxThread(() -> {
+            createDrawing();
+            int[] moved = {1, 2};
+            for (int i = 1; i <= 50; i++) {
+                input.moveAll(moved, 1, 1);
+                input.move(0, i, i);
+            }
+            return null;
+        });
+        HeadlessToolkit.nextPulse();
+
+        onFxThread(() -> {
+            assertEquals(2, changes.size());
+            assertEquals(50, store.getX(0));
+            assertEquals(150, store.getX(1));
+            assertEquals(50, store.getY(2));
+            return null;
+        });
+
+        // the pulse without changes stops the timer, following changes start it again
+        HeadlessToolkit.nextPulse();
+        onFxThread(() -> {
+            input.scale(7, 2);
+            return null;
+        });
+        HeadlessToolkit.nextPulse();
+        onFxThread(() -> {
+            assertEquals(3, changes.size());
+            assertEquals(20, store.getWidth(7));
+            return null;
+        });
+    }
+}
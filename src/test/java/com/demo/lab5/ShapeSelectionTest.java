@@ -0,0 +1,106 @@
+package com.demo.lab5;
+
+import com.demo.lab5.model.ShapeHistory;
+import com.demo.lab5.model.ShapeStore;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShapeSelectionTest {
+    private static ShapeStore rectangles(int count) {
+        ShapeStore store = new ShapeStore();
+        for (int i = 0; i < count; i++) {
+            store.addRectangle(10 * i, 0, 5, 5, 0, i, i);
+        }
+        return store;
+    }
+
+    @Test
+    void keepsIdsInDrawingOrder() {
+        ShapeSelection selection = new ShapeSelection(rectangles(10));
+
+        selection.selectAll(new int[]{7, 2, 5}, 3, false);
+        assertTrue(selection.toggle(0));
+        assertFalse(selection.toggle(5));
+
+        assertEquals(3, selection.size());
+        assertArrayEquals(new int[]{0, 2, 7}, selection.toArray());
+        assertEquals(7, selection.last());
+        assertTrue(selection.contains(2));
+        assertFalse(selection.contains(DrawingPaneStateManager.NO_SHAPE));
+    }
+
+    @Test
+    void returnsSameArrayUntilSelectionChanges() {
+        ShapeSelection selection = new ShapeSelection(rectangles(10));
+        selection.selectAll(new int[]{1, 3}, 2, false);
+
+        int[] ids = selection.toArray();
+        assertSame(ids, selection.toArray());
+
+        selection.selectAll(new int[]{4}, 1, true);
+        assertArrayEquals(new int[]{1, 3, 4}, selection.toArray());
+    }
+
+    @Test
+    void notifiesListenersOncePerChange() {
+        ShapeSelection selection = new ShapeSelection(rectangles(1000));
+        int[] changes = new int[1];
+        selection.addListener(() -> changes[0]++);
+
+        int[] ids = new int[1000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i;
+        }
+        selection.selectAll(ids, ids.length, false);
+        assertEquals(1, changes[0]);
+
+        // selecting the only selected shape again changes nothing
+        selection.set(3);
+        selection.set(3);
+        assertEquals(2, changes[0]);
+    }
+
+    @Test
+    void removedShapesLeaveSelection() {
+        ShapeStore store = rectangles(10);
+        ShapeSelection selection = new ShapeSelection(store);
+        selection.selectAll(new int[]{1, 6, 9}, 3, false);
+
+        store.truncate(5);
+        assertArrayEquals(new int[]{1}, selection.toArray());
+
+        store.clear();
+        assertTrue(selection.isEmpty());
+        assertEquals(DrawingPaneStateManager.NO_SHAPE, selection.last());
+    }
+
+    @Test
+    void bulkEditsOfSelectionAreUndoneTogether() {
+        ShapeStore store = rectangles(10);
+        ShapeHistory history = new ShapeHistory(store);
+        ShapeSelection selection = new ShapeSelection(store);
+        selection.selectAll(new int[]{2, 4, 8}, 3, false);
+
+        // edits given the same array of the selection are coalesced, like dragging over many frames
+        for (int frame = 0; frame < 5; frame++) {
+            history.moveAll(selection.toArray(), 1, 2);
+        }
+        history.seal();
+
+        assertEquals(25, store.getX(2));
+        assertEquals(10, store.getY(8));
+        assertEquals(30, store.getX(3));
+
+        history.undo();
+        for (int id = 0; id < store.size(); id++) {
+            assertEquals(10 * id, store.getX(id));
+            assertEquals(0, store.getY(id));
+        }
+        assertFalse(history.canUndo());
+    }
+}
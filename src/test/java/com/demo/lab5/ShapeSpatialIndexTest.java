@@ -0,0 +1,127 @@
+package com.demo.lab5;
+
+import com.demo.lab5.model.ShapeStore;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ShapeSpatialIndexTest {
+    /**
+     * Distance from the outline within which shapes are hit.
+     */
+    private static final double MARGIN = ShapeStore.STROKE_WIDTH / 2 + ShapeSpatialIndex.HIT_TOLERANCE;
+
+    private static int rectangle(ShapeStore store, double x, double y, double width, double height) {
+        return store.addRectangle(x, y, width, height, 0, ShapeStore.DEFAULT_FILL, ShapeStore.DEFAULT_STROKE);
+    }
+
+    @Test
+    void hitWithinToleranceAcrossCellBorder() {
+        ShapeStore store = new ShapeStore();
+        // bounds with the stroke end just before the borders of cells at 64 and -64
+        int right = rectangle(store, 0, 0, 62, 62);
+        int left = rectangle(store, -126, -126, 61, 61);
+        ShapeSpatialIndex index = new ShapeSpatialIndex(store);
+
+        assertEquals(right, index.hitTest(62 + MARGIN - 0.5, 30));
+        assertEquals(right, index.hitTest(30, 62 + MARGIN - 0.5));
+        assertEquals(right, index.hitTest(62 + MARGIN - 0.5, 62 + MARGIN - 0.5));
+        assertEquals(-1, index.hitTest(62 + MARGIN + 0.5, 30));
+
+        assertEquals(left, index.hitTest(-65 + MARGIN - 0.5, -100));
+        assertEquals(left, index.hitTest(-100, -65 + MARGIN - 0.5));
+        assertEquals(-1, index.hitTest(-65 + MARGIN + 0.5, -100));
+    }
+
+    @Test
+    void topmostShapeIsHit() {
+        ShapeStore store = new ShapeStore();
+        rectangle(store, 0, 0, 100, 100);
+        int circle = store.addCircle(40, 40, 30, 0, ShapeStore.DEFAULT_FILL, ShapeStore.DEFAULT_STROKE);
+        rectangle(store, 200, 200, 10, 10);
+        ShapeSpatialIndex index = new ShapeSpatialIndex(store);
+
+        assertEquals(circle, index.hitTest(70, 70));
+        // corner of the circle bounds is outside of the circle
+        assertEquals(0, index.hitTest(42, 42));
+        assertEquals(-1, index.hitTest(150, 150));
+    }
+
+    @Test
+    void changedShapesAreIndexedAgain() {
+        ShapeStore store = new ShapeStore();
+        int moved = rectangle(store, 0, 0, 10, 10);
+        int resized = store.addCircle(100, 100, 5, 0, ShapeStore.DEFAULT_FILL, ShapeStore.DEFAULT_STROKE);
+        int rotated = rectangle(store, 300, 0, 100, 10);
+        ShapeSpatialIndex index = new ShapeSpatialIndex(store);
+
+        store.setPosition(moved, 500, 500);
+        assertEquals(-1, index.hitTest(5, 5));
+        assertEquals(moved, index.hitTest(505, 505));
+
+        store.setDraggedSize(resized, 100, 100, 300, 100);
+        assertEquals(resized, index.hitTest(100, 270));
+        assertEquals(resized, index.hitTest(-90, 100));
+
+        // rotated around its center, the rectangle reaches cells above and below
+        store.setRotation(rotated, 90);
+        assertEquals(rotated, index.hitTest(350, -40));
+        assertEquals(rotated, index.hitTest(350, 50));
+        assertEquals(-1, index.hitTest(310, 5));
+
+        store.truncate(1);
+        assertEquals(-1, index.hitTest(100, 270));
+        assertArrayEquals(new int[]{moved}, index.query(-1000, -1000, 1000, 1000));
+
+        store.clear();
+        assertEquals(-1, index.hitTest(505, 505));
+        rectangle(store, 0, 0, 10, 10);
+        assertEquals(0, index.hitTest(5, 5));
+    }
+
+    @Test
+    void largeShapesAreFoundEverywhere() {
+        ShapeStore store = new ShapeStore();
+        // the rectangle covers far more cells than the grid takes
+        int large = rectangle(store, -10_000, -10_000, 20_000, 20_000);
+        int small = rectangle(store, 0, 0, 10, 10);
+        ShapeSpatialIndex index = new ShapeSpatialIndex(store);
+
+        assertEquals(small, index.hitTest(5, 5));
+        assertEquals(large, index.hitTest(9_000, -9_000));
+        assertArrayEquals(new int[]{large}, index.query(5_000, 5_000, 5_001, 5_001));
+        assertArrayEquals(new int[]{large, small}, index.query(-1, -1, 1, 1));
+
+        // shrunk shape moves to the grid, grown one leaves it
+        store.setDraggedSize(large, 0, 0, 50, 50);
+        store.setDraggedSize(small, 0, 0, 30_000, 30_000);
+        assertEquals(small, index.hitTest(20_000, 20_000));
+        assertEquals(small, index.hitTest(25, 25));
+        assertArrayEquals(new int[]{large, small}, index.query(40, 40, 41, 41));
+        assertArrayEquals(new int[]{small}, index.query(1_000, 1_000, 1_001, 1_001));
+    }
+
+    @Test
+    void queryReturnsShapesIntersectingArea() {
+        ShapeStore store = new ShapeStore();
+        for (int i = 0; i < 100; i++) {
+            rectangle(store, 50 * (i % 10), 50 * (i / 10), 20, 20);
+        }
+        ShapeSpatialIndex index = new ShapeSpatialIndex(store);
+
+        // bounds include the stroke, so touching the stroke is enough
+        assertArrayEquals(new int[]{0}, index.query(0, 0, 1, 1));
+        assertArrayEquals(new int[]{0, 1}, index.query(-100, 0, 49, 0));
+        assertArrayEquals(new int[]{0, 1, 10, 11}, index.query(20.5, 20.5, 50, 50));
+        assertArrayEquals(new int[0], index.query(25, 25, 45, 45));
+
+        // areas larger than the filled part of the grid are searched by filled cells, with the same result
+        int[] all = index.query(-1e6, -1e6, 1e6, 1e6);
+        assertEquals(100, all.length);
+        for (int i = 0; i < all.length; i++) {
+            assertEquals(i, all[i]);
+        }
+        assertArrayEquals(new int[]{9, 19}, index.query(460, 0, 1e6, 70));
+    }
+}
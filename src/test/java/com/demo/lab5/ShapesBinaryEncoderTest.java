@@ -0,0 +1,127 @@
+package com.demo.lab5;
+
+import com.demo.lab5.model.ShapeStore;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.demo.lab5.model.TestShapes.assertSameShapes;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ShapesBinaryEncoderTest {
+    /**
+     * Creates drawing with every type of shape, rotations, colors with alpha, scaled polygon and a polygon whose record
+     * doesn't fit the buffer of encoders.
+     */
+    static ShapeStore drawing() {
+        ShapeStore store = new ShapeStore();
+        store.addRectangle(10.5, 20.25, 30, 40, 15, 0x80112233, 0xFF445566);
+        store.addCircle(-5, 7.125, 12.5, 0, 0xFFABCDEF, 0x00000000);
+
+        double[] triangle = {0, 0, 10, 0, 5, 8.5};
+        int polygon = store.addPolygon(100, 200, triangle, 0, triangle.length, 33.3, 0xFF00FF00, 0xFF000000);
+        // points of scaled polygon are stored raw with their scale
+        store.scale(polygon, 1.5);
+        store.addPoint(polygon, 120.75, 210);
+
+        double[] large = new double[2 * 5000];
+        for (int i = 0; i < 5000; i++) {
+            double angle = 2 * Math.PI * i / 5000;
+            large[2 * i] = 300 * Math.cos(angle) + i % 7 * 0.1;
+            large[2 * i + 1] = 300 * Math.sin(angle);
+        }
+        store.addPolygon(-1000, 1000, large, 0, large.length, 270, 0xFF123456, 0xFF654321);
+        store.addRectangle(0, 0, 0, 0, 0, ShapeStore.DEFAULT_FILL, ShapeStore.DEFAULT_STROKE);
+
+        return store;
+    }
+
+    private static byte[] write(ShapeStore store) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ShapesBinaryEncoder.write(store, Channels.newChannel(out), id -> {
+        });
+        return out.toByteArray();
+    }
+
+    @Test
+    void roundTripKeepsEveryShape() throws IOException {
+        ShapeStore store = drawing();
+        byte[] encoded = write(store);
+
+        ShapeStore decoded = new ShapeStore();
+        List<Integer> decodedIds = new ArrayList<>();
+        ShapesBinaryEncoder.read(Channels.newChannel(new ByteArrayInputStream(encoded)), decoded, decodedIds::add);
+
+        assertSameShapes(store, decoded);
+        assertEquals(List.of(0, 1, 2, 3, 4), decodedIds);
+    }
+
+    @Test
+    void roundTripOfEmptyDrawing() throws IOException {
+        ShapeStore decoded = new ShapeStore();
+        ShapesBinaryEncoder.read(Channels.newChannel(new ByteArrayInputStream(write(new ShapeStore()))), decoded, id -> {
+        });
+
+        assertEquals(0, decoded.size());
+    }
+
+    @Test
+    void roundTripOfLastRecordFillingBuffer() throws IOException {
+        // points of the first buffer leave less space than a point, so the rest of them fill the second buffer exactly
+        int firstBuffer = (ShapesBinaryEncoder.BUFFER_SIZE - ShapesBinaryEncoder.HEADER_SIZE
+                - ShapesBinaryEncoder.RECORD_HEADER_SIZE - Integer.BYTES) / (2 * Double.BYTES);
+        int count = firstBuffer + ShapesBinaryEncoder.BUFFER_SIZE / (2 * Double.BYTES);
+        double[] points = new double[2 * count];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = i % 2 == 0 ? i : -i;
+        }
+
+        ShapeStore store = new ShapeStore();
+        store.addPolygon(0, 0, points, 0, points.length, 0, ShapeStore.DEFAULT_FILL, ShapeStore.DEFAULT_STROKE);
+
+        ShapeStore decoded = new ShapeStore();
+        ShapesBinaryEncoder.read(Channels.newChannel(new ByteArrayInputStream(write(store))), decoded, id -> {
+        });
+
+        assertSameShapes(store, decoded);
+    }
+
+    @Test
+    void recordSizeMatchesEncodedRecord() throws IOException {
+        ShapeStore store = drawing();
+        int records = 0;
+        for (int id = 0; id < store.size(); id++) {
+            records += ShapesBinaryEncoder.recordSize(store, id);
+        }
+
+        // header, records, end tag and then the table of contents with its count and the trailer
+        int toc = Integer.BYTES + store.size() * ShapesBinaryEncoder.TOC_ENTRY_SIZE + ShapesBinaryEncoder.TRAILER_SIZE;
+        assertEquals(ShapesBinaryEncoder.HEADER_SIZE + records + 1 + toc, write(store).length);
+    }
+
+    @Test
+    void rejectsOtherFiles() {
+        byte[] encoded = "<shapes></shapes>".getBytes();
+
+        assertThrows(IOException.class, () -> ShapesBinaryEncoder.read(Channels.newChannel(new ByteArrayInputStream(encoded)),
+                new ShapeStore(), id -> {
+                }));
+    }
+
+    @Test
+    void rejectsTruncatedFiles() throws IOException {
+        byte[] encoded = write(drawing());
+        byte[] truncated = new byte[encoded.length / 2];
+        System.arraycopy(encoded, 0, truncated, 0, truncated.length);
+
+        assertThrows(IOException.class, () -> ShapesBinaryEncoder.read(Channels.newChannel(new ByteArrayInputStream(truncated)),
+                new ShapeStore(), id -> {
+                }));
+    }
+}
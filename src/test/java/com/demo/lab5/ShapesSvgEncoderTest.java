@@ -0,0 +1,248 @@
+package com.demo.lab5;
+
+import com.demo.lab5.model.ShapeStore;
+import com.demo.lab5.model.ShapeType;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import static com.demo.lab5.ShapesBinaryEncoderTest.drawing;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ShapesSvgEncoderTest {
+    private static byte[] write(ShapeStore store) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ShapesSvgEncoder.write(store, Channels.newChannel(out), id -> {
+        });
+        return out.toByteArray();
+    }
+
+    private static ShapeStore read(byte[] document) throws IOException {
+        ShapeStore decoded = new ShapeStore();
+        ShapesSvgEncoder.read(Channels.newChannel(new ByteArrayInputStream(document)), decoded, id -> {
+        });
+        return decoded;
+    }
+
+    private static ShapeStore read(String document) throws IOException {
+        return read(document.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Compares shapes as they are drawn. Imported polygons are positioned at their first point, so their points are
+     * compared in coordinates of the drawing area.
+     */
+    private static void assertSameImage(ShapeStore expected, ShapeStore actual) {
+        assertEquals(expected.size(), actual.size());
+
+        for (int id = 0; id < expected.size(); id++) {
+            ShapeType type = expected.getType(id);
+            assertEquals(type, actual.getType(id));
+            assertEquals(expected.getRotation(id), actual.getRotation(id), 1e-9);
+            assertEquals(expected.getFill(id), actual.getFill(id));
+            assertEquals(expected.getStroke(id), actual.getStroke(id));
+
+            switch (type) {
+                case RECTANGLE -> {
+                    assertEquals(expected.getX(id), actual.getX(id), 1e-9);
+                    assertEquals(expected.getY(id), actual.getY(id), 1e-9);
+                    assertEquals(expected.getWidth(id), actual.getWidth(id), 1e-9);
+                    assertEquals(expected.getHeight(id), actual.getHeight(id), 1e-9);
+                }
+                case CIRCLE -> {
+                    assertEquals(expected.getX(id), actual.getX(id), 1e-9);
+                    assertEquals(expected.getY(id), actual.getY(id), 1e-9);
+                    assertEquals(expected.getRadius(id), actual.getRadius(id), 1e-9);
+                }
+                default -> {
+                    assertEquals(expected.getPointCount(id), actual.getPointCount(id));
+                    for (int i = 0; i < expected.getPointCount(id); i++) {
+                        assertEquals(expected.getX(id) + expected.getPointX(id, i), actual.getX(id) + actual.getPointX(id, i), 1e-9);
+                        assertEquals(expected.getY(id) + expected.getPointY(id, i), actual.getY(id) + actual.getPointY(id, i), 1e-9);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void roundTripKeepsEveryShape() throws IOException {
+        ShapeStore store = drawing();
+
+        assertSameImage(store, read(write(store)));
+    }
+
+    @Test
+    void roundTripOfEmptyDrawing() throws IOException {
+        assertEquals(0, read(write(new ShapeStore())).size());
+    }
+
+    @Test
+    void roundTripKeepsShapesCreatedByClick() throws IOException {
+        // the same shapes as a click in rectangle, circle and polygon mode creates
+        ShapeStore store = new ShapeStore();
+        store.addRectangle(5, 6, 0, 0, 0, ShapeStore.DEFAULT_FILL, ShapeStore.DEFAULT_STROKE);
+        store.addRectangle(10, 20, 30, 40, 0, ShapeStore.DEFAULT_FILL, ShapeStore.DEFAULT_STROKE);
+        store.addCircle(7, 8, 0, 0, ShapeStore.DEFAULT_FILL, ShapeStore.DEFAULT_STROKE);
+        double[] point = {0, 0};
+        store.addPolygon(50, 60, point, 0, point.length, 0, ShapeStore.DEFAULT_FILL, ShapeStore.DEFAULT_STROKE);
+
+        ShapeStore decoded = read(write(store));
+
+        assertEquals(4, decoded.size());
+        assertEquals(ShapeType.RECTANGLE, decoded.getType(0));
+        assertEquals(0, decoded.getWidth(0));
+        assertEquals(5, decoded.getX(0));
+        assertEquals(30, decoded.getWidth(1));
+        assertEquals(ShapeType.CIRCLE, decoded.getType(2));
+        assertEquals(0, decoded.getRadius(2));
+        assertEquals(ShapeType.POLYGON, decoded.getType(3));
+        assertEquals(1, decoded.getPointCount(3));
+        assertEquals(50, decoded.getX(3), 1e-9);
+        assertEquals(60, decoded.getY(3), 1e-9);
+    }
+
+    @Test
+    void pathsStillSkipSubpathsWithSinglePoint() throws IOException {
+        String document = """
+                <svg xmlns="http://www.w3.org/2000/svg">
+                    <path d="M 1 1 M 0 0 L 10 0 L 10 10 Z"/>
+                    <polygon points="3,4"/>
+                </svg>
+                """;
+
+        ShapeStore decoded = read(document.getBytes());
+
+        assertEquals(2, decoded.size());
+        assertEquals(3, decoded.getPointCount(0));
+        assertEquals(1, decoded.getPointCount(1));
+    }
+
+    @Test
+    void groupsPassTransformsAndPaintToChildren() throws IOException {
+        String document = """
+                <svg xmlns="http://www.w3.org/2000/svg">
+                    <g transform="translate(10 20)" opacity="0.5" fill="#f00">
+                        <g transform="scale(2)" fill-opacity="50%">
+                            <rect x="1" y="1" width="2" height="3" stroke="blue"/>
+                            <circle r="1" style="fill: #00ff00; opacity: .5"/>
+                        </g>
+                        <g transform="rotate(90)">
+                            <rect width="10" height="20" fill="&#x23;0000ff"/>
+                        </g>
+                    </g>
+                    <rect x="1" y="2" width="3" height="4"/>
+                    <g transform="skewX(45)" display="none"><rect width="1" height="1"/></g>
+                    <defs><rect width="1" height="1"/></defs>
+                    <g transform="matrix(1 0 1 1 0 0)"><rect width="1" height="1"/></g>
+                </svg>
+                """;
+
+        ShapeStore decoded = read(document);
+        assertEquals(5, decoded.size());
+
+        // opacities of groups multiply and fill opacity of the inner group is applied to inherited fill
+        assertEquals(ShapeType.RECTANGLE, decoded.getType(0));
+        assertEquals(12, decoded.getX(0), 1e-9);
+        assertEquals(22, decoded.getY(0), 1e-9);
+        assertEquals(4, decoded.getWidth(0), 1e-9);
+        assertEquals(6, decoded.getHeight(0), 1e-9);
+        assertEquals(0x40FF0000, decoded.getFill(0));
+        assertEquals(0x800000FF, decoded.getStroke(0));
+
+        // style overrides inherited fill and multiplies opacity once more
+        assertEquals(ShapeType.CIRCLE, decoded.getType(1));
+        assertEquals(8, decoded.getX(1), 1e-9);
+        assertEquals(18, decoded.getY(1), 1e-9);
+        assertEquals(2, decoded.getRadius(1), 1e-9);
+        assertEquals(0x2000FF00, decoded.getFill(1));
+        assertEquals(0, decoded.getStroke(1));
+
+        // rotated rectangle keeps its type, its center (5, 10) is rotated to (-10, 5) and moved to (0, 25)
+        assertEquals(ShapeType.RECTANGLE, decoded.getType(2));
+        assertEquals(90, decoded.getRotation(2), 1e-9);
+        assertEquals(-5, decoded.getX(2), 1e-9);
+        assertEquals(15, decoded.getY(2), 1e-9);
+        assertEquals(0x800000FF, decoded.getFill(2));
+
+        // initial fill is opaque black, transforms and opacity of closed groups don't apply anymore
+        assertEquals(1, decoded.getX(3), 1e-9);
+        assertEquals(0xFF000000, decoded.getFill(3));
+
+        // skewed rectangle becomes a polygon
+        assertEquals(ShapeType.POLYGON, decoded.getType(4));
+        assertEquals(4, decoded.getPointCount(4));
+        assertEquals(2, decoded.getPointX(4, 2), 1e-9);
+        assertEquals(1, decoded.getPointY(4, 2), 1e-9);
+    }
+
+    @Test
+    void rotatedPolygonsKeepRotation() throws IOException {
+        ShapeStore store = new ShapeStore();
+        double[] triangle = {0, 0, 10, 0, 5, 8.5};
+        store.addPolygon(100, 200, triangle, 0, triangle.length, 30, ShapeStore.DEFAULT_FILL, ShapeStore.DEFAULT_STROKE);
+        // nested rotation and translation are combined into one rotation
+        String document = """
+                <svg xmlns="http://www.w3.org/2000/svg">
+                    <g transform="translate(100 200) rotate(10 5 4.25)">
+                        <polygon points="0,0 10,0 5,8.5" transform="rotate(20 5 4.25)" fill="#000000" stroke="#000000"/>
+                    </g>
+                </svg>
+                """;
+
+        ShapeStore decoded = read(document);
+
+        assertEquals(30, decoded.getRotation(0), 1e-9);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(store.getX(0) + store.getPointX(0, i), decoded.getX(0) + decoded.getPointX(0, i), 1e-9);
+            assertEquals(store.getY(0) + store.getPointY(0, i), decoded.getY(0) + decoded.getPointY(0, i), 1e-9);
+        }
+    }
+
+    @Test
+    void elementsSpanningBufferRefillAreRead() throws IOException {
+        // two byte characters split by the end of the byte buffer are followed by elements split by the end of the
+        // char buffer, both move by a character at a time
+        for (int padding = 32_740; padding < 32_780; padding++) {
+            String document = "<svg xmlns=\"http://www.w3.org/2000/svg\"><!-- " + "\u017E".repeat(padding) + " -->"
+                    + " ".repeat(32_680)
+                    + "<polygon points=\"1.25,2.5 3,4 5,6.75\" fill=\"#123456\"/><rect width=\"7\" height=\"8\"/></svg>";
+
+            ShapeStore decoded = read(document);
+            assertEquals(2, decoded.size(), "padding " + padding);
+            assertEquals(3, decoded.getPointCount(0));
+            assertEquals(1.25, decoded.getX(0));
+            assertEquals(4.25, decoded.getPointY(0, 2));
+            assertEquals(0xFF123456, decoded.getFill(0));
+            assertEquals(8, decoded.getHeight(1));
+        }
+    }
+
+    @Test
+    void elementsLargerThanBufferAreRead() throws IOException {
+        // the 5000 point polygon of the drawing is larger than the buffer, enough of them make the buffer grow twice
+        ShapeStore store = new ShapeStore();
+        for (int i = 0; i < 3; i++) {
+            store.addAll(drawing());
+        }
+        double[] points = new double[2 * 20_000];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = i % 2 == 0 ? i / 3.0 : -i / 7.0;
+        }
+        store.addPolygon(0, 0, points, 0, points.length, 0, ShapeStore.DEFAULT_FILL, ShapeStore.DEFAULT_STROKE);
+
+        assertSameImage(store, read(write(store)));
+    }
+
+    @Test
+    void rejectsDocumentsWithoutSvg() {
+        assertThrows(IOException.class, () -> read("<shapes><shape type=\"circle\"/></shapes>"));
+        assertThrows(IOException.class, () -> read("<svg xmlns=\"http://www.w3.org/2000/svg\"><rect width=\"1\""));
+        assertThrows(IOException.class, () -> read("<svg><rect width=1/></svg>"));
+    }
+}
@@ -0,0 +1,89 @@
+package com.demo.lab5;
+
+import com.demo.lab5.model.ShapeStore;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
+
+import static com.demo.lab5.ShapesBinaryEncoderTest.drawing;
+import static com.demo.lab5.model.TestShapes.assertSameShapes;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ShapesXmlEncoderTest {
+    private static byte[] write(ShapeStore store) throws XMLStreamException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ShapesXmlEncoder.write(store, out, id -> {
+        });
+        return out.toByteArray();
+    }
+
+    @Test
+    void roundTripKeepsEveryShape() throws XMLStreamException {
+        ShapeStore store = drawing();
+
+        ShapeStore decoded = new ShapeStore();
+        ShapesXmlEncoder.read(new ByteArrayInputStream(write(store)), decoded, id -> {
+        });
+
+        assertSameShapes(store, decoded);
+    }
+
+    @Test
+    void parallelReadKeepsDocumentOrder() throws XMLStreamException {
+        // enough shapes to be split between several decoding tasks
+        ShapeStore store = new ShapeStore();
+        for (int i = 0; i < 3000; i++) {
+            store.addCircle(i, -i, 1 + i % 10, 0, i, -i);
+            if (i == 1500) {
+                store.addAll(drawing());
+            }
+        }
+
+        ShapeStore decoded = new ShapeStore();
+        int[] notified = new int[1];
+        LoadPhases phases = new LoadPhases();
+        ShapesXmlEncoder.read(new ByteArrayInputStream(write(store)), decoded, id -> assertEquals(notified[0]++, id),
+                ForkJoinPool.commonPool(), phases);
+
+        assertSameShapes(store, decoded);
+        assertEquals(store.size(), notified[0]);
+    }
+
+    @Test
+    void readsDocumentsWrittenByHand() throws XMLStreamException {
+        String document = """
+                <?xml version="1.0" encoding="UTF-8"?>
+                <shapes>
+                    <shape type="rectangle" width="30.0" height="40.0" x="1.0" y="2.0" fill="0x112233ff" stroke="0x000000ff" rotation="45.0"/>
+                    <shape type="circle" radius="5.0" x="3.0" y="4.0" fill="0xffffffff" stroke="0x000000ff" rotation="0.0"/>
+                    <shape type="polygon" points="0.0,0.0,10.0,0.0,5.0,5.0" x="0.0" y="0.0" fill="0xffffffff" stroke="0x000000ff" rotation="0.0"/>
+                </shapes>
+                """;
+
+        ShapeStore decoded = new ShapeStore();
+        ShapesXmlEncoder.read(new ByteArrayInputStream(document.getBytes(StandardCharsets.UTF_8)), decoded, id -> {
+        });
+
+        assertEquals(3, decoded.size());
+        assertEquals(30, decoded.getWidth(0));
+        assertEquals(45, decoded.getRotation(0));
+        assertEquals(0xFF112233, decoded.getFill(0));
+        assertEquals(5, decoded.getRadius(1));
+        assertEquals(3, decoded.getPointCount(2));
+        assertEquals(5, decoded.getPointY(2, 2), 1e-9);
+    }
+
+    @Test
+    void rejectsMalformedDocuments() {
+        byte[] document = "<shapes><shape type=\"circle\"".getBytes(StandardCharsets.UTF_8);
+
+        assertThrows(XMLStreamException.class, () -> ShapesXmlEncoder.read(new ByteArrayInputStream(document), new ShapeStore(),
+                id -> {
+                }));
+    }
+}
@@ -0,0 +1,261 @@
+package com.demo.lab5;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SvgPathParserTest {
+    private static final double TOLERANCE = 0.25;
+
+    private static SvgPathParser parser(String value) {
+        SvgPathParser parser = new SvgPathParser();
+        parser.reset(value.toCharArray(), 0, value.length());
+        return parser;
+    }
+
+    private static double[] numbers(String value) {
+        SvgPathParser parser = parser(value);
+        double[] numbers = new double[0];
+        while (parser.hasNumber()) {
+            numbers = Arrays.copyOf(numbers, numbers.length + 1);
+            numbers[numbers.length - 1] = parser.nextNumber();
+        }
+        return numbers;
+    }
+
+    private static List<double[]> path(String data) {
+        List<double[]> subpaths = new ArrayList<>();
+        parser(data).parsePath(TOLERANCE, (coordinates, length) -> subpaths.add(Arrays.copyOf(coordinates, length)));
+        return subpaths;
+    }
+
+    private static List<double[]> points(String value) {
+        List<double[]> subpaths = new ArrayList<>();
+        parser(value).parsePoints((coordinates, length) -> subpaths.add(Arrays.copyOf(coordinates, length)));
+        return subpaths;
+    }
+
+    private static void assertSamePaths(String expected, String actual) {
+        List<double[]> expectedPaths = path(expected);
+        List<double[]> actualPaths = path(actual);
+
+        assertEquals(expectedPaths.size(), actualPaths.size());
+        for (int i = 0; i < expectedPaths.size(); i++) {
+            assertArrayEquals(expectedPaths.get(i), actualPaths.get(i), 1e-9);
+        }
+    }
+
+    @Test
+    void numbersEndWhereNextNumberStarts() {
+        // a second dot, a sign and a letter without digits all start a new token
+        assertArrayEquals(new double[]{100, 0.5, -0.5, -0.5, 0.5, 0.5, 3, 200, 10},
+                numbers("1e2.5 -.5-.5 .5.5 +3 2E+2, 10"));
+
+        SvgPathParser parser = parser("10e 5px");
+        assertEquals(10, parser.nextNumber());
+        assertFalse(parser.hasNumber());
+    }
+
+    @Test
+    void longNumbersAreParsedLikeDoubles() {
+        String[] values = {"0.12345678901234567890", "12345678901234567890", "9007199254740993", "999999999999999",
+                "0.000000000000000000000001234", "1e-30", "1.5e22", "1.5e23", "123456789012345e-22", "1e400", "1e-400"};
+
+        for (String value : values) {
+            assertEquals(Double.parseDouble(value), parser(value).nextNumber(), value);
+        }
+    }
+
+    @Test
+    void numbersAreRoundedOnlyOnce() {
+        Random random = new Random(42);
+
+        for (int i = 0; i < 10_000; i++) {
+            StringBuilder value = new StringBuilder();
+            if (random.nextBoolean()) {
+                value.append('-');
+            }
+            int digits = 1 + random.nextInt(20);
+            int dot = random.nextInt(digits + 1);
+            for (int digit = 0; digit < digits; digit++) {
+                if (digit == dot) {
+                    value.append('.');
+                }
+                value.append((char) ('0' + random.nextInt(10)));
+            }
+            if (random.nextBoolean()) {
+                value.append('e').append(random.nextInt(61) - 30);
+            }
+
+            String number = value.toString();
+            assertEquals(Double.parseDouble(number), parser(number).nextNumber(), number);
+        }
+    }
+
+    @Test
+    void rejectsTokensWhichAreNotNumbers() {
+        SvgPathParser parser = parser("-. 1");
+
+        assertThrows(NumberFormatException.class, parser::nextNumber);
+        // failed token is not consumed
+        assertTrue(parser.next('-'));
+    }
+
+    @Test
+    void pairsAfterMoveAreLines() {
+        assertSamePaths("M 10 10 L 15 10 L 15 15 Z", "M 10 10 15 10 15 15 z");
+        assertSamePaths("M 10 10 L 15 10 L 15 15 Z", "m 10 10 5 0 0 5 z");
+        assertSamePaths("M 10 10 L 15 10 L 15 15", "M10,10L15,10,15,15");
+    }
+
+    @Test
+    void relativeCommandsContinueFromCurrentPoint() {
+        assertSamePaths("M 0 0 L 10 0 L 10 10 L 0 10 Z", "m 0 0 h 10 v 10 h -10 z");
+        assertSamePaths("M 0 0 C 5 10 15 10 20 0 Q 25 -10 30 0", "M 0 0 c 5 10 15 10 20 0 q 5 -10 10 0");
+
+        // relative move after close starts from the start of the closed subpath
+        List<double[]> subpaths = path("M 10 10 l 10 0 l 0 10 z m 5 5 l 1 0 l 0 1");
+        assertEquals(2, subpaths.size());
+        assertArrayEquals(new double[]{15, 15, 16, 15, 16, 16}, subpaths.get(1));
+
+        // drawing after close without a move starts a new subpath at the same start
+        subpaths = path("M 10 10 l 10 0 l 0 10 z l -5 0 l 0 -5");
+        assertEquals(2, subpaths.size());
+        assertArrayEquals(new double[]{10, 10, 5, 10, 5, 5}, subpaths.get(1));
+    }
+
+    @Test
+    void smoothCurvesReflectPreviousControlPoint() {
+        assertSamePaths("M 0 0 C 0 10 10 10 10 0 C 10 -10 20 -10 20 0", "M 0 0 C 0 10 10 10 10 0 S 20 -10 20 0");
+        assertSamePaths("M 0 0 C 0 10 10 10 10 0 C 10 -10 20 -10 20 0", "M 0 0 c 0 10 10 10 10 0 s 10 -10 10 0");
+        assertSamePaths("M 0 0 Q 5 10 10 0 Q 15 -10 20 0 Q 25 10 30 0", "M 0 0 Q 5 10 10 0 T 20 0 T 30 0");
+        assertSamePaths("M 0 0 Q 5 10 10 0 Q 15 -10 20 0", "M 0 0 q 5 10 10 0 t 10 0");
+
+        // without previous curve of the same kind the first control point is the current point
+        assertSamePaths("M 0 0 C 0 0 10 10 20 0", "M 0 0 S 10 10 20 0");
+        assertSamePaths("M 0 0 L 5 0 Q 5 0 10 0", "M 0 0 L 5 0 T 10 0");
+    }
+
+    @Test
+    void curvesAreFlattenedWithinTolerance() {
+        double[] points = path("M 0 0 C 0 100 100 100 100 0").get(0);
+        assertTrue(points.length > 20);
+        assertEquals(100, points[points.length - 2]);
+        assertEquals(0, points[points.length - 1]);
+
+        // curve sampled densely enough to measure distances much smaller than the tolerance
+        double[] curve = new double[2 * 100_001];
+        for (int i = 0; i < curve.length / 2; i++) {
+            double t = i / 100_000.0;
+            double u = 1 - t;
+            curve[2 * i] = 300 * u * t * t + 100 * t * t * t;
+            curve[2 * i + 1] = 300 * u * u * t + 300 * u * t * t;
+        }
+
+        for (int i = 0; i < points.length; i += 2) {
+            assertEquals(0, distance(curve, points[i], points[i + 1]), 0.01);
+            if (i > 0) {
+                // middles of segments are the farthest from the curve
+                assertTrue(distance(curve, (points[i - 2] + points[i]) / 2, (points[i - 1] + points[i + 1]) / 2) <= TOLERANCE);
+            }
+        }
+    }
+
+    private static double distance(double[] curve, double x, double y) {
+        double distance = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < curve.length; i += 2) {
+            distance = Math.min(distance, Math.hypot(curve[i] - x, curve[i + 1] - y));
+        }
+        return distance;
+    }
+
+    @Test
+    void arcRadiiTooSmallAreScaledUp() {
+        // radii are scaled so the arc is a half circle around the middle of the end points
+        double[] points = path("M 0 0 A 1 1 0 0 1 10 0").get(0);
+        assertTrue(points.length > 8);
+        assertEquals(10, points[points.length - 2]);
+        assertEquals(0, points[points.length - 1]);
+
+        for (int i = 2; i < points.length - 2; i += 2) {
+            assertEquals(5, Math.hypot(points[i] - 5, points[i + 1]), 1e-9);
+            // positive sweep goes through negative angles of the y down coordinates
+            assertTrue(points[i + 1] < 0);
+        }
+
+        // flags don't need separators
+        assertSamePaths("M 0 0 A 5 5 0 1 0 10 0", "M0 0a5 5 0 1010 0");
+        // zero radius makes a line
+        assertSamePaths("M 0 0 L 10 0", "M 0 0 A 0 5 0 0 1 10 0");
+    }
+
+    @Test
+    void largeArcTakesLongerWay() {
+        double[] points = path("M 0 0 A 10 10 0 1 1 10 0").get(0);
+
+        double maxY = 0;
+        for (int i = 0; i < points.length; i += 2) {
+            maxY = Math.max(maxY, Math.abs(points[i + 1]));
+        }
+        // center is below or above the chord, so the longer way reaches past the center
+        assertEquals(10 + Math.sqrt(75), maxY, 0.25);
+    }
+
+    @Test
+    void closedSubpathsDropRepeatedStart() {
+        assertArrayEquals(new double[]{0, 0, 10, 0, 10, 10}, path("M0 0 L10 0 L10 10 L0 0 Z").get(0));
+        // single points are not subpaths
+        assertEquals(1, path("M 1 1 M 0 0 L 1 0 M 5 5").size());
+    }
+
+    @Test
+    void errorsKeepWhatWasParsedBefore() {
+        List<double[]> subpaths = path("M 0 0 L 10 0 L 10 10 X 5 M 20 20 L 30 30");
+        assertEquals(1, subpaths.size());
+        assertArrayEquals(new double[]{0, 0, 10, 0, 10, 10}, subpaths.get(0));
+
+        // path data has to start with a move
+        assertEquals(0, path("L 10 10 L 20 0").size());
+        assertArrayEquals(new double[]{0, 0, 10, 0}, points("0,0 10,0 10").get(0));
+        assertArrayEquals(new double[]{0, 0, 10, 0}, points("0 0,10 0 x 5 5").get(0));
+        assertArrayEquals(new double[]{3, 4}, points(" 3 , 4 ").get(0));
+        assertEquals(0, points("").size());
+    }
+
+    @Test
+    void ellipsePointsLieOnEllipse() {
+        List<double[]> subpaths = new ArrayList<>();
+        new SvgPathParser().ellipse(10, 20, 100, 50, TOLERANCE,
+                (coordinates, length) -> subpaths.add(Arrays.copyOf(coordinates, length)));
+
+        double[] points = subpaths.get(0);
+        assertTrue(points.length > 40);
+        for (int i = 0; i < points.length; i += 2) {
+            double x = (points[i] - 10) / 100;
+            double y = (points[i + 1] - 20) / 50;
+            assertEquals(1, x * x + y * y, 1e-9);
+        }
+    }
+
+    @Test
+    void namesAndCharactersAreMatched() {
+        SvgPathParser parser = parser(" translate (10, 20) scale(2)");
+
+        assertFalse(parser.nextName("scale"));
+        assertTrue(parser.nextName("translate"));
+        assertTrue(parser.next('('));
+        assertEquals(10, parser.nextNumber());
+        assertEquals(20, parser.nextNumber());
+        assertTrue(parser.next(')'));
+        assertTrue(parser.nextName("scale"));
+    }
+}
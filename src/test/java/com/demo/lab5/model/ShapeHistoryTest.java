@@ -0,0 +1,143 @@
+package com.demo.lab5.model;
+
+import org.junit.jupiter.api.Test;
+
+import static com.demo.lab5.model.TestShapes.points;
+import static com.demo.lab5.model.TestShapes.polygonPoints;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShapeHistoryTest {
+    private static ShapeStore polygons(int count, int points, int seed) {
+        ShapeStore store = new ShapeStore();
+        for (int i = 0; i < count; i++) {
+            double[] coordinates = polygonPoints(points, seed + i);
+            store.addPolygon(i, i, coordinates, 0, coordinates.length, 0, seed + i, seed + i);
+        }
+        return store;
+    }
+
+    private static void assertPolygons(ShapeStore expected, int from, ShapeStore actual, int to) {
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getFill(i), actual.getFill(to + i));
+            assertArrayEquals(points(expected, from + i), points(actual, to + i));
+        }
+    }
+
+    @Test
+    void undoAndRedoAdd() {
+        ShapeStore store = new ShapeStore();
+        ShapeHistory history = new ShapeHistory(store);
+
+        history.add(ShapeType.RECTANGLE, 1, 2);
+        history.seal();
+        history.add(ShapeType.CIRCLE, 3, 4);
+
+        assertTrue(history.undo());
+        assertEquals(1, store.size());
+        assertTrue(history.redo());
+        assertEquals(2, store.size());
+        assertEquals(ShapeType.CIRCLE, store.getType(1));
+        assertFalse(history.redo());
+    }
+
+    @Test
+    void coalescesMovesOfTheSameShape() {
+        ShapeStore store = new ShapeStore();
+        ShapeHistory history = new ShapeHistory(store);
+        history.add(ShapeType.RECTANGLE, 0, 0);
+        history.seal();
+
+        history.move(0, 10, 10);
+        history.move(0, 20, 20);
+        history.seal();
+
+        history.undo();
+        assertEquals(0, store.getX(0));
+        history.redo();
+        assertEquals(20, store.getX(0));
+    }
+
+    @Test
+    void undoAndRedoBulkEdits() {
+        ShapeStore store = new ShapeStore();
+        ShapeHistory history = new ShapeHistory(store);
+        store.addRectangle(0, 0, 1, 1, 0, 1, 1);
+        store.addRectangle(5, 5, 1, 1, 0, 2, 2);
+        int[] ids = {0, 1};
+
+        history.moveAll(ids, 10, 0);
+        history.seal();
+        history.setFillAll(ids, 9);
+        history.seal();
+
+        history.undo();
+        assertEquals(1, store.getFill(0));
+        assertEquals(2, store.getFill(1));
+        history.undo();
+        assertEquals(5, store.getX(1));
+        history.redo();
+        history.redo();
+        assertEquals(15, store.getX(1));
+        assertEquals(9, store.getFill(0));
+    }
+
+    @Test
+    void undoAndRedoClear() {
+        ShapeStore store = polygons(3, 10, 0);
+        ShapeHistory history = new ShapeHistory(store);
+        ShapeStore expected = store.copy();
+
+        history.clear();
+        assertEquals(0, store.size());
+        history.undo();
+        assertPolygons(expected, 0, store, 0);
+        history.redo();
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    void undoAndRedoReplaceAll() {
+        ShapeStore store = polygons(4, 500, 0);
+        ShapeHistory history = new ShapeHistory(store);
+        ShapeStore before = store.copy();
+        ShapeStore replacements = polygons(2, 700, 100);
+
+        history.replaceAll(new int[]{1, 3}, replacements.copy());
+        assertArrayEquals(points(replacements, 0), points(store, 1));
+        assertArrayEquals(points(replacements, 1), points(store, 3));
+
+        history.undo();
+        assertPolygons(before, 0, store, 0);
+        history.redo();
+        assertArrayEquals(points(replacements, 0), points(store, 1));
+        assertArrayEquals(points(before, 2), points(store, 2));
+        assertArrayEquals(points(replacements, 1), points(store, 3));
+    }
+
+    @Test
+    void undoAndRedoReplaceFromWithLargePolygons() {
+        ShapeStore store = polygons(10, 400, 0);
+        ShapeHistory history = new ShapeHistory(store);
+        ShapeStore before = store.copy();
+        ShapeStore shapes = polygons(3, 400, 100);
+
+        history.replaceFrom(2, shapes.copy());
+        assertEquals(5, store.size());
+        assertPolygons(shapes, 0, store, 2);
+
+        for (int round = 0; round < 3; round++) {
+            history.undo();
+            assertEquals(10, store.size());
+            assertPolygons(before, 0, store, 0);
+
+            history.redo();
+            assertEquals(5, store.size());
+            assertArrayEquals(points(before, 0), points(store, 0));
+            assertArrayEquals(points(before, 1), points(store, 1));
+            assertPolygons(shapes, 0, store, 2);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.demo.lab5.model;
+
+import org.junit.jupiter.api.Test;
+
+import static com.demo.lab5.model.TestShapes.points;
+import static com.demo.lab5.model.TestShapes.polygonPoints;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ShapeStoreTest {
+    @Test
+    void addsShapesOfEveryType() {
+        ShapeStore store = new ShapeStore();
+        double[] coordinates = polygonPoints(5, 1);
+
+        int rectangle = store.addRectangle(10, 20, 30, 40, 15, 0xFF112233, 0xFF445566);
+        int circle = store.addCircle(1, 2, 5, 0, 7, 8);
+        int polygon = store.addPolygon(3, 4, coordinates, 0, coordinates.length, 45, 9, 10);
+
+        assertEquals(3, store.size());
+        assertEquals(ShapeType.RECTANGLE, store.getType(rectangle));
+        assertEquals(30, store.getWidth(rectangle));
+        assertEquals(40, store.getHeight(rectangle));
+        assertEquals(15, store.getRotation(rectangle));
+        assertEquals(0xFF112233, store.getFill(rectangle));
+        assertEquals(0xFF445566, store.getStroke(rectangle));
+        assertEquals(ShapeType.CIRCLE, store.getType(circle));
+        assertEquals(5, store.getRadius(circle));
+        assertEquals(ShapeType.POLYGON, store.getType(polygon));
+        assertEquals(3, store.getX(polygon));
+        assertArrayEquals(coordinates, points(store, polygon));
+    }
+
+    @Test
+    void addPointKeepsEarlierPoints() {
+        ShapeStore store = new ShapeStore();
+        int polygon = store.add(ShapeType.POLYGON, 100, 100);
+        for (int i = 1; i <= 100; i++) {
+            store.addPoint(polygon, 100 + i, 100 + 2 * i);
+        }
+
+        assertEquals(101, store.getPointCount(polygon));
+        for (int i = 0; i <= 100; i++) {
+            assertEquals(100 + i, store.getX(polygon) + store.getPointX(polygon, i), 1e-9);
+            assertEquals(100 + 2 * i, store.getY(polygon) + store.getPointY(polygon, i), 1e-9);
+        }
+    }
+
+    @Test
+    void replaceCopiesShapeInPlace() {
+        ShapeStore store = new ShapeStore();
+        double[] first = polygonPoints(10, 1);
+        double[] second = polygonPoints(20, 2);
+        store.addPolygon(0, 0, first, 0, first.length, 0, 1, 1);
+        store.addRectangle(0, 0, 1, 1, 0, 2, 2);
+
+        ShapeStore source = new ShapeStore();
+        source.addPolygon(5, 6, second, 0, second.length, 30, 3, 3);
+        store.replace(0, source, 0);
+
+        assertEquals(2, store.size());
+        assertEquals(5, store.getX(0));
+        assertEquals(30, store.getRotation(0));
+        assertArrayEquals(second, points(store, 0));
+        assertEquals(ShapeType.RECTANGLE, store.getType(1));
+    }
+
+    @Test
+    void truncateRetainsShapesUntilOthersAreAdded() {
+        ShapeStore store = new ShapeStore();
+        double[] coordinates = polygonPoints(8, 1);
+        store.addRectangle(0, 0, 1, 1, 0, 1, 1);
+        store.addPolygon(0, 0, coordinates, 0, coordinates.length, 0, 2, 2);
+
+        store.truncate(1);
+        assertEquals(1, store.size());
+        store.restore(2);
+        assertEquals(2, store.size());
+        assertArrayEquals(coordinates, points(store, 1));
+
+        store.truncate(1);
+        store.addCircle(0, 0, 1, 0, 3, 3);
+        assertThrows(IllegalStateException.class, () -> store.restore(3));
+        assertEquals(ShapeType.CIRCLE, store.getType(1));
+    }
+
+    @Test
+    void addAllAfterTruncateKeepsPointsOfAddedPolygons() {
+        ShapeStore store = new ShapeStore();
+        for (int i = 0; i < 10; i++) {
+            double[] coordinates = polygonPoints(1000, i);
+            store.addPolygon(0, 0, coordinates, 0, coordinates.length, 0, i, i);
+        }
+
+        ShapeStore added = new ShapeStore();
+        for (int i = 0; i < 10; i++) {
+            double[] coordinates = polygonPoints(1000, 100 + i);
+            added.addPolygon(0, 0, coordinates, 0, coordinates.length, 0, i, i);
+        }
+
+        // points of truncated polygons are wasted, so adding compacts the pool while polygons are copied
+        store.truncate(2);
+        store.addAll(added);
+
+        assertEquals(12, store.size());
+        for (int i = 0; i < 2; i++) {
+            assertArrayEquals(polygonPoints(1000, i), points(store, i));
+        }
+        for (int i = 0; i < 10; i++) {
+            assertArrayEquals(polygonPoints(1000, 100 + i), points(store, 2 + i));
+        }
+    }
+
+    @Test
+    void addAllCopiesRange() {
+        ShapeStore source = new ShapeStore();
+        for (int i = 0; i < 5; i++) {
+            double[] coordinates = polygonPoints(3 + i, i);
+            source.addPolygon(i, i, coordinates, 0, coordinates.length, 0, i, i);
+        }
+
+        ShapeStore store = new ShapeStore();
+        store.addAll(source, 1, 4);
+
+        assertEquals(3, store.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i + 1, store.getFill(i));
+            assertArrayEquals(polygonPoints(4 + i, i + 1), points(store, i));
+        }
+        assertThrows(IndexOutOfBoundsException.class, () -> store.addAll(source, 4, 6));
+    }
+
+    @Test
+    void compactionKeepsPointsOfEveryPolygon() {
+        ShapeStore store = new ShapeStore();
+        for (int i = 0; i < 20; i++) {
+            double[] coordinates = polygonPoints(50, i);
+            store.addPolygon(0, 0, coordinates, 0, coordinates.length, 0, i, i);
+        }
+
+        // every replacement wastes the old points, until the pool is compacted
+        ShapeStore source = new ShapeStore();
+        for (int i = 0; i < 20; i++) {
+            double[] coordinates = polygonPoints(60, 100 + i);
+            source.addPolygon(0, 0, coordinates, 0, coordinates.length, 0, i, i);
+        }
+        for (int i = 0; i < 20; i += 2) {
+            store.replace(i, source, i);
+        }
+
+        for (int i = 0; i < 20; i++) {
+            assertArrayEquals(polygonPoints(i % 2 == 0 ? 60 : 50, i % 2 == 0 ? 100 + i : i), points(store, i));
+        }
+    }
+
+    @Test
+    void swapContentsRestoresTakenContent() {
+        ShapeStore store = new ShapeStore();
+        double[] coordinates = polygonPoints(10, 1);
+        store.addPolygon(0, 0, coordinates, 0, coordinates.length, 0, 1, 1);
+
+        ShapeStore.Contents taken = store.takeContents();
+        assertEquals(0, store.size());
+        store.addRectangle(0, 0, 1, 1, 0, 2, 2);
+
+        ShapeStore.Contents replaced = store.swapContents(taken);
+        assertEquals(1, store.size());
+        assertArrayEquals(coordinates, points(store, 0));
+        assertEquals(1, replaced.size());
+    }
+
+    @Test
+    void copyIsIndependent() {
+        ShapeStore store = new ShapeStore();
+        double[] coordinates = polygonPoints(10, 1);
+        store.addPolygon(0, 0, coordinates, 0, coordinates.length, 0, 1, 1);
+
+        ShapeStore copy = store.copy();
+        store.setPosition(0, 50, 50);
+        store.addPoint(0, 70, 70);
+
+        assertEquals(0, copy.getX(0));
+        assertArrayEquals(coordinates, points(copy, 0));
+    }
+}
@@ -0,0 +1,73 @@
+package com.demo.lab5.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Polygons and comparisons of drawings shared by tests of the model, shapes and encoders.
+ */
+public final class TestShapes {
+    private TestShapes() {
+    }
+
+    /**
+     * Points of a polygon which are different for every seed, so mixed up polygons are noticed.
+     */
+    public static double[] polygonPoints(int count, int seed) {
+        double[] points = new double[2 * count];
+        for (int i = 0; i < count; i++) {
+            points[2 * i] = seed * 1000 + i;
+            points[2 * i + 1] = seed * 1000 + 2 * i + 0.5;
+        }
+        return points;
+    }
+
+    /**
+     * Points of a regular polygon inscribed in a circle which touches both axes.
+     *
+     * @param phase angle of the first point in radians
+     */
+    public static double[] circlePoints(int count, double radius, double phase) {
+        double[] points = new double[2 * count];
+        for (int i = 0; i < count; i++) {
+            double angle = 2 * Math.PI * i / count + phase;
+            points[2 * i] = radius + radius * Math.cos(angle);
+            points[2 * i + 1] = radius + radius * Math.sin(angle);
+        }
+        return points;
+    }
+
+    public static double[] points(ShapeStore store, int id) {
+        double[] points = new double[2 * store.getPointCount(id)];
+        store.copyPoints(id, points, 0);
+        return points;
+    }
+
+    public static void assertSameShapes(ShapeStore expected, ShapeStore actual) {
+        assertEquals(expected.size(), actual.size());
+
+        for (int id = 0; id < expected.size(); id++) {
+            ShapeType type = expected.getType(id);
+            assertEquals(type, actual.getType(id));
+            assertEquals(expected.getX(id), actual.getX(id), 1e-9);
+            assertEquals(expected.getY(id), actual.getY(id), 1e-9);
+            assertEquals(expected.getRotation(id), actual.getRotation(id), 1e-9);
+            assertEquals(expected.getFill(id), actual.getFill(id));
+            assertEquals(expected.getStroke(id), actual.getStroke(id));
+
+            switch (type) {
+                case RECTANGLE -> {
+                    assertEquals(expected.getWidth(id), actual.getWidth(id), 1e-9);
+                    assertEquals(expected.getHeight(id), actual.getHeight(id), 1e-9);
+                }
+                case CIRCLE -> assertEquals(expected.getRadius(id), actual.getRadius(id), 1e-9);
+                default -> {
+                    assertEquals(expected.getPointCount(id), actual.getPointCount(id));
+                    for (int i = 0; i < expected.getPointCount(id); i++) {
+                        assertEquals(expected.getPointX(id, i), actual.getPointX(id, i), 1e-9);
+                        assertEquals(expected.getPointY(id, i), actual.getPointY(id, i), 1e-9);
+                    }
+                }
+            }
+        }
+    }
+}
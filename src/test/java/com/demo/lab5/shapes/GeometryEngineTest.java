@@ -0,0 +1,97 @@
+package com.demo.lab5.shapes;
+
+import com.demo.lab5.model.ShapeHistory;
+import com.demo.lab5.model.ShapeStore;
+import com.demo.lab5.model.ShapeType;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static com.demo.lab5.model.TestShapes.assertSameShapes;
+import static com.demo.lab5.model.TestShapes.circlePoints;
+import static com.demo.lab5.model.TestShapes.points;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class GeometryEngineTest {
+    /**
+     * Drawing of large polygons, so replacing them compacts the point pool.
+     */
+    private static ShapeStore largePolygons() {
+        ShapeStore store = new ShapeStore();
+        for (int i = 0; i < 8; i++) {
+            double[] points = circlePoints(2000, 100, i);
+            store.addPolygon(150 * i, 0, points, 0, points.length, 0, i, i);
+        }
+        return store;
+    }
+
+    @Test
+    void unionIsUndoneAndRedone() {
+        ShapeStore store = largePolygons();
+        ShapeHistory history = new ShapeHistory(store);
+        ShapeStore before = store.copy();
+
+        int[] operands = {1, 2, 5};
+        ShapeStore snapshot = new ShapeStore();
+        for (int id : operands) {
+            snapshot.addAll(store, id, id + 1);
+        }
+        List<double[]> outlines = PolygonOperations.union(snapshot);
+        ShapeStore results = new ShapeStore();
+        for (double[] outline : outlines) {
+            PolygonOperations.addOutline(results, outline, 42, 42);
+        }
+
+        int firstResult = GeometryEngine.replaceOperands(history, operands, operands.length - 1, results.copy());
+
+        // operands 1 and 2 overlap, 5 is apart; results take the place of the topmost operand
+        assertEquals(2, results.size());
+        assertEquals(8 - 3 + 2, store.size());
+        assertEquals(3, firstResult);
+        int[] kept = {0, 3, 4, -1, -1, 6, 7};
+        ShapeStore after = store.copy();
+        for (int id = 0; id < store.size(); id++) {
+            if (kept[id] >= 0) {
+                assertArrayEquals(points(before, kept[id]), points(store, id));
+            } else {
+                assertEquals(ShapeType.POLYGON, store.getType(id));
+                assertArrayEquals(points(results, id - firstResult), points(store, id));
+            }
+        }
+
+        for (int round = 0; round < 3; round++) {
+            history.undo();
+            assertSameShapes(before, store);
+            history.redo();
+            assertSameShapes(after, store);
+        }
+    }
+
+    @Test
+    void simplificationIsUndoneAndRedone() {
+        ShapeStore store = largePolygons();
+        ShapeHistory history = new ShapeHistory(store);
+        ShapeStore before = store.copy();
+
+        int[] operands = {0, 3, 7};
+        ShapeStore snapshot = new ShapeStore();
+        for (int id : operands) {
+            snapshot.addAll(store, id, id + 1);
+        }
+        ShapeStore simplified = PolygonOperations.simplify(snapshot, 2);
+        history.replaceAll(operands, simplified);
+        ShapeStore after = store.copy();
+
+        for (int i = 0; i < operands.length; i++) {
+            assertArrayEquals(points(simplified, i), points(store, operands[i]));
+        }
+
+        for (int round = 0; round < 3; round++) {
+            history.undo();
+            assertSameShapes(before, store);
+            history.redo();
+            assertSameShapes(after, store);
+        }
+    }
+}
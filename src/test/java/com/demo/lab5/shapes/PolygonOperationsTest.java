@@ -0,0 +1,114 @@
+package com.demo.lab5.shapes;
+
+import com.demo.lab5.model.ShapeStore;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PolygonOperationsTest {
+    private static double area(double[] outline) {
+        double area = 0;
+        int points = outline.length / 2;
+        for (int i = 0, j = points - 1; i < points; j = i++) {
+            area += outline[2 * j] * outline[2 * i + 1] - outline[2 * i] * outline[2 * j + 1];
+        }
+        return Math.abs(area / 2);
+    }
+
+    private static ShapeStore overlappingSquares() {
+        ShapeStore store = new ShapeStore();
+        store.addRectangle(0, 0, 100, 100, 0, 1, 1);
+        store.addRectangle(50, 50, 100, 100, 0, 2, 2);
+        return store;
+    }
+
+    @Test
+    void unionIntersectionAndDifferenceOfSquares() {
+        ShapeStore squares = overlappingSquares();
+
+        List<double[]> union = PolygonOperations.union(squares);
+        assertEquals(1, union.size());
+        assertEquals(17500, area(union.get(0)), 1e-9);
+
+        List<double[]> intersection = PolygonOperations.intersection(squares);
+        assertEquals(1, intersection.size());
+        assertEquals(2500, area(intersection.get(0)), 1e-9);
+
+        List<double[]> difference = PolygonOperations.difference(squares);
+        assertEquals(1, difference.size());
+        assertEquals(7500, area(difference.get(0)), 1e-9);
+    }
+
+    @Test
+    void holeIsJoinedToOutline() {
+        ShapeStore store = new ShapeStore();
+        store.addRectangle(0, 0, 100, 100, 0, 1, 1);
+        store.addRectangle(40, 40, 20, 20, 0, 2, 2);
+
+        List<double[]> difference = PolygonOperations.difference(store);
+
+        // outline and hole with a bridge of zero width, so the hole isn't filled
+        assertEquals(1, difference.size());
+        assertEquals(4 + 4 + 2, difference.get(0).length / 2);
+        assertEquals(10000 - 400, area(difference.get(0)), 1e-9);
+    }
+
+    @Test
+    void disjointShapesGiveSeparateOutlines() {
+        ShapeStore store = new ShapeStore();
+        for (int i = 0; i < 40; i++) {
+            store.addRectangle(20 * i, 0, 10, 10, 0, 1, 1);
+        }
+
+        // more operands than are combined on a single thread
+        List<double[]> union = PolygonOperations.union(store);
+        assertEquals(40, union.size());
+        for (double[] outline : union) {
+            assertEquals(100, area(outline), 1e-9);
+        }
+    }
+
+    @Test
+    void convexHullDropsInnerPoints() {
+        double[] points = {0, 0, 5, 2, 10, 0, 8, 5, 10, 10, 5, 5, 0, 10};
+        double[] hull = PolygonOperations.convexHull(points, points.length / 2);
+
+        assertEquals(4, hull.length / 2);
+        assertEquals(100, area(hull), 1e-9);
+    }
+
+    @Test
+    void rotatedPolygonKeepsPointsInPlace() {
+        double[] points = {0, 0, 10, 0.01, 20, 0, 30, 0.02, 40, 0, 40, 40, 0, 40, 0, 20};
+        ShapeStore store = new ShapeStore();
+        store.addPolygon(10, 10, points, 0, points.length, 45, 1, 1);
+
+        ShapeStore simplified = PolygonOperations.simplify(store, 0.5);
+        double[] before = PolygonOperations.outline(store, 0);
+        double[] after = PolygonOperations.outline(simplified, 0);
+
+        assertEquals(4, simplified.getPointCount(0));
+        assertEquals(45, simplified.getRotation(0));
+        // corners of the square stay where they were in the drawing area
+        for (int corner : new int[]{0, 4, 5, 6}) {
+            boolean found = false;
+            for (int i = 0; i < after.length; i += 2) {
+                found |= Math.abs(after[i] - before[2 * corner]) < 1e-9 && Math.abs(after[i + 1] - before[2 * corner + 1]) < 1e-9;
+            }
+            assertTrue(found, "corner " + corner);
+        }
+    }
+
+    @Test
+    void outlineOfRotatedRectangle() {
+        ShapeStore store = new ShapeStore();
+        store.addRectangle(0, 0, 10, 10, 90, 1, 1);
+
+        double[] outline = PolygonOperations.outline(store, 0);
+        assertArrayEquals(new double[]{10, 0, 10, 10, 0, 10, 0, 0}, outline, 1e-9);
+    }
+}